@@ -0,0 +1,242 @@
+package com.google.protobench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A pool of encoder output buffers, heap ({@code byte[]}) or direct ({@link ByteBuffer}), in
+ * power-of-two size classes.
+ *
+ * <p>Each thread keeps a small magazine of free buffers per size class, so the common case of
+ * acquiring and releasing on the same thread takes no locks. A magazine that fills up spills half
+ * of its buffers to a shared overflow stack for the size class, and an empty magazine refills
+ * from it, so buffers released on one thread can be reused on another. Buffers beyond the shared
+ * stack's capacity, or larger than the largest size class, are left to the garbage collector.
+ *
+ * <p>The pool also picks right-sized buffers for encoding a {@link TestMessage}: from the
+ * message's serialized size for {@link ForwardEncoder}, which needs it anyway, and from a running
+ * estimate of recent encoded sizes for {@link ReverseEncoder}, which does not.
+ *
+ * @param <T> the buffer type
+ */
+abstract class BufferPool<T> {
+  /** The smallest size class, 1 KiB. */
+  private static final int MIN_SHIFT = 10;
+
+  private final int maxShift;
+  private final int magazineSize;
+  private final SharedStack[] shared;
+  private final ThreadLocal<Magazine[]> magazines = new ThreadLocal<Magazine[]>() {
+    @Override
+    protected Magazine[] initialValue() {
+      Magazine[] result = new Magazine[shared.length];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = new Magazine(magazineSize);
+      }
+      return result;
+    }
+  };
+
+  /**
+   * A decaying peak of recent reverse-encoded sizes. Updates from different threads may race,
+   * which only makes the hint less precise.
+   */
+  private volatile int reverseEstimate = 1 << MIN_SHIFT;
+
+  /**
+   * @param maxBufferSize the size of the largest pooled buffers, rounded up to a power of two
+   * @param magazineSize  the number of free buffers each thread keeps per size class
+   * @param sharedSize    the number of free buffers the shared stack holds per size class
+   */
+  private BufferPool(int maxBufferSize, int magazineSize, int sharedSize) {
+    if (maxBufferSize <= 0 || magazineSize < 2 || sharedSize < 0) {
+      throw new IllegalArgumentException(String.format(
+              "maxBufferSize=%d, magazineSize=%d, sharedSize=%d",
+              maxBufferSize, magazineSize, sharedSize));
+    }
+    maxShift = Math.max(MIN_SHIFT, shiftFor(maxBufferSize));
+    this.magazineSize = magazineSize;
+    shared = new SharedStack[maxShift - MIN_SHIFT + 1];
+    for (int i = 0; i < shared.length; ++i) {
+      shared[i] = new SharedStack(sharedSize);
+    }
+  }
+
+  static BufferPool<byte[]> newHeapPool(int maxBufferSize, int magazineSize, int sharedSize) {
+    return new BufferPool<byte[]>(maxBufferSize, magazineSize, sharedSize) {
+      @Override
+      byte[] newBuffer(int capacity) {
+        return new byte[capacity];
+      }
+
+      @Override
+      int capacity(byte[] buffer) {
+        return buffer.length;
+      }
+
+      @Override
+      void recycle(byte[] buffer) {
+      }
+    };
+  }
+
+  static BufferPool<ByteBuffer> newDirectPool(int maxBufferSize, int magazineSize,
+                                              int sharedSize) {
+    return new BufferPool<ByteBuffer>(maxBufferSize, magazineSize, sharedSize) {
+      @Override
+      ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+      }
+
+      @Override
+      int capacity(ByteBuffer buffer) {
+        return buffer.capacity();
+      }
+
+      @Override
+      void recycle(ByteBuffer buffer) {
+        buffer.clear();
+      }
+    };
+  }
+
+  abstract T newBuffer(int capacity);
+
+  abstract int capacity(T buffer);
+
+  /**
+   * Resets a released buffer before it is pooled.
+   */
+  abstract void recycle(T buffer);
+
+  /**
+   * Returns a buffer of at least {@code minCapacity} bytes: the smallest size class that fits,
+   * or an unpooled buffer of exactly {@code minCapacity} bytes if no size class does.
+   */
+  final T acquire(int minCapacity) {
+    final int shift = shiftFor(minCapacity);
+    if (shift > maxShift) {
+      return newBuffer(minCapacity);
+    }
+    final int sizeClass = shift - MIN_SHIFT;
+    final Magazine magazine = magazines.get()[sizeClass];
+    if (magazine.count == 0) {
+      shared[sizeClass].popInto(magazine, magazineSize / 2);
+      if (magazine.count == 0) {
+        return newBuffer(1 << shift);
+      }
+    }
+    @SuppressWarnings("unchecked")
+    final T buffer = (T) magazine.buffers[--magazine.count];
+    magazine.buffers[magazine.count] = null;
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Buffers whose capacity is not one of the size classes, such as
+   * oversized ones from {@link #acquire}, are dropped.
+   */
+  final void release(T buffer) {
+    final int capacity = capacity(buffer);
+    final int shift = shiftFor(capacity);
+    if (capacity != 1 << shift || shift < MIN_SHIFT || shift > maxShift) {
+      return;
+    }
+    recycle(buffer);
+    final int sizeClass = shift - MIN_SHIFT;
+    final Magazine magazine = magazines.get()[sizeClass];
+    if (magazine.count == magazineSize) {
+      shared[sizeClass].pushFrom(magazine, magazineSize / 2);
+    }
+    magazine.buffers[magazine.count++] = buffer;
+  }
+
+  /**
+   * Returns a buffer that fits the length-delimited {@link ForwardEncoder} encoding of the given
+   * message, as written by {@link Encoder#encodeMessageNoTag}. This computes (and caches) the
+   * message's serialized size, which the encoder needs anyway.
+   */
+  final T acquireForward(TestMessage message) {
+    return acquire(Utils.computeMessageSizeNoTag(message));
+  }
+
+  /**
+   * Returns a buffer for {@link ReverseEncoder}, sized from recently encoded messages. If it
+   * turns out to be too small, swap it for a larger one with {@link #acquireLarger}.
+   */
+  final T acquireReverse() {
+    final int estimate = reverseEstimate;
+    return acquire(estimate + (estimate >>> 3));
+  }
+
+  /**
+   * Releases the given buffer and returns one of twice its capacity, for retrying an encoding
+   * that ran out of space.
+   */
+  final T acquireLarger(T buffer) {
+    final int capacity = capacity(buffer);
+    release(buffer);
+    return acquire(capacity << 1);
+  }
+
+  /**
+   * Releases a buffer from {@link #acquireReverse}, recording the number of bytes that were
+   * encoded into it so that later buffers are sized to match.
+   */
+  final void releaseReverse(T buffer, int bytesWritten) {
+    final int estimate = reverseEstimate;
+    // Track a peak that decays by 1/16 per message, so that a single large message does not
+    // oversize every later buffer, but a recurring one rarely needs a retry.
+    reverseEstimate = Math.max(bytesWritten, estimate - (estimate >>> 4));
+    release(buffer);
+  }
+
+  /**
+   * Returns the shift of the smallest power of two that is at least {@code size}.
+   */
+  private static int shiftFor(int size) {
+    return size <= 1 << MIN_SHIFT ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+
+  private static final class Magazine {
+    final Object[] buffers;
+    int count;
+
+    Magazine(int size) {
+      buffers = new Object[size];
+    }
+  }
+
+  private static final class SharedStack {
+    private final Object[] buffers;
+    private int count;
+
+    SharedStack(int size) {
+      buffers = new Object[size];
+    }
+
+    /**
+     * Moves up to {@code n} buffers from this stack into the (empty) magazine.
+     */
+    synchronized void popInto(Magazine magazine, int n) {
+      final int moved = Math.min(n, count);
+      count -= moved;
+      System.arraycopy(buffers, count, magazine.buffers, 0, moved);
+      Arrays.fill(buffers, count, count + moved, null);
+      magazine.count = moved;
+    }
+
+    /**
+     * Moves the top {@code n} buffers of the (full) magazine onto this stack, dropping those that
+     * do not fit.
+     */
+    synchronized void pushFrom(Magazine magazine, int n) {
+      final int from = magazine.count - n;
+      final int moved = Math.min(n, buffers.length - count);
+      System.arraycopy(magazine.buffers, from, buffers, count, moved);
+      count += moved;
+      Arrays.fill(magazine.buffers, from, magazine.count, null);
+      magazine.count = from;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.google.protobench;
+
+import com.google.protobench.EncodingAlgorithmBenchmark.Direction;
+import com.google.protobench.Encoder.OutOfSpaceException;
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a message into a new output buffer per operation, either freshly allocated at the 1 MiB
+ * that callers allocate up front today, or taken from a {@link BufferPool} and sized for the
+ * message. Run with {@code -prof gc} to compare allocation rates as well as throughput.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class BufferPoolBenchmark {
+  private static final int FRESH_BUFFER_SIZE = 1024 * 1024;
+
+  public enum BufferType {
+    HEAP,
+    DIRECT
+  }
+
+  @Param
+  public Direction direction;
+
+  @Param
+  public BufferType bufferType;
+
+  @Param({"false", "true"})
+  public boolean pooled;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"2"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  private TestMessage message;
+  private SerializedSizeManager sizeManager;
+  private BufferPool<byte[]> heapPool;
+  private BufferPool<ByteBuffer> directPool;
+
+  @Setup
+  public void setUp() throws Exception {
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    sizeManager = new SerializedSizeManager(numMessages);
+    message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+        treeHeight, branchingFactor, false, sizeManager);
+    heapPool = BufferPool.newHeapPool(FRESH_BUFFER_SIZE, 8, 64);
+    directPool = BufferPool.newDirectPool(FRESH_BUFFER_SIZE, 8, 64);
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    sizeManager.clearAll();
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    switch (bufferType) {
+      case HEAP:
+        return pooled ? encodePooledHeap() : encodeFreshHeap();
+      case DIRECT:
+        return pooled ? encodePooledDirect() : encodeFreshDirect();
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  private int encodeFreshHeap() throws IOException {
+    byte[] buffer = new byte[FRESH_BUFFER_SIZE];
+    Encoder encoder = direction == Direction.FORWARD
+        ? new ForwardEncoder(buffer, 0, buffer.length)
+        : new ReverseEncoder(buffer, 0, buffer.length);
+    encoder.encodeMessageNoTag(message);
+    return encoder.getTotalBytesWritten();
+  }
+
+  private int encodeFreshDirect() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(FRESH_BUFFER_SIZE);
+    Encoder encoder = direction == Direction.FORWARD
+        ? new DirectForwardEncoder(buffer)
+        : new DirectReverseEncoder(buffer);
+    encoder.encodeMessageNoTag(message);
+    return encoder.getTotalBytesWritten();
+  }
+
+  private int encodePooledHeap() throws IOException {
+    if (direction == Direction.FORWARD) {
+      byte[] buffer = heapPool.acquireForward(message);
+      ForwardEncoder encoder = new ForwardEncoder(buffer, 0, buffer.length);
+      encoder.encodeMessageNoTag(message);
+      heapPool.release(buffer);
+      return encoder.getTotalBytesWritten();
+    }
+    byte[] buffer = heapPool.acquireReverse();
+    while (true) {
+      ReverseEncoder encoder = new ReverseEncoder(buffer, 0, buffer.length);
+      try {
+        encoder.encodeMessageNoTag(message);
+      } catch (OutOfSpaceException e) {
+        buffer = heapPool.acquireLarger(buffer);
+        continue;
+      }
+      heapPool.releaseReverse(buffer, encoder.getTotalBytesWritten());
+      return encoder.getTotalBytesWritten();
+    }
+  }
+
+  private int encodePooledDirect() throws IOException {
+    if (direction == Direction.FORWARD) {
+      ByteBuffer buffer = directPool.acquireForward(message);
+      DirectForwardEncoder encoder = new DirectForwardEncoder(buffer);
+      encoder.encodeMessageNoTag(message);
+      directPool.release(buffer);
+      return encoder.getTotalBytesWritten();
+    }
+    ByteBuffer buffer = directPool.acquireReverse();
+    while (true) {
+      DirectReverseEncoder encoder = new DirectReverseEncoder(buffer);
+      try {
+        encoder.encodeMessageNoTag(message);
+      } catch (OutOfSpaceException e) {
+        buffer = directPool.acquireLarger(buffer);
+        continue;
+      }
+      directPool.releaseReverse(buffer, encoder.getTotalBytesWritten());
+      return encoder.getTotalBytesWritten();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures {@link ChunkedReverseEncoder} across message sizes (via {@code treeHeight}) and chunk
+ * sizes. Chunks are retained across invocations, so this measures steady-state encoding rather
+ * than chunk allocation.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class ChunkedEncodingBenchmark {
+  @Param({"256", "4096", "65536"})
+  public int chunkSize;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"1", "2", "3"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  private ChunkedReverseEncoder encoder;
+  private TestMessage message;
+  private SerializedSizeManager sizeManager;
+
+  @Setup
+  public void setUp() throws Exception {
+    // Create the message.
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    sizeManager = new SerializedSizeManager(numMessages);
+    message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+        treeHeight, branchingFactor, sizeManager);
+
+    encoder = new ChunkedReverseEncoder(chunkSize);
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    encoder.reset();
+    sizeManager.clearAll();
+  }
+
+  @Benchmark
+  public ByteBuffer[] encode() throws Exception {
+    encoder.encodeMessageNoTag(message);
+    return encoder.toByteBuffers();
+  }
+}
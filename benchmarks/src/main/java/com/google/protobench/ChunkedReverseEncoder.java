@@ -0,0 +1,683 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_ARRAY_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ReverseEncoder} that grows on demand rather than throwing {@link OutOfSpaceException}.
+ * Output is written backwards into fixed-size chunks; when the current chunk is full, a new chunk
+ * is logically prepended to the output. The encoded bytes are exposed by {@link #toByteBuffers()}
+ * in wire order, ready for a gathering write.
+ *
+ * <p>Chunks are retained across {@link #reset()} calls, so once an encoder has grown to fit a
+ * message, encoding a message of the same size again does not allocate.
+ */
+final class ChunkedReverseEncoder implements Encoder {
+  private final int chunkSize;
+
+  /**
+   * All chunks allocated so far, in allocation order. Chunks {@code [0, current]} are in use and
+   * appear in the output in reverse order.
+   */
+  private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+  /**
+   * The index of the first written byte of each in-use chunk before {@link #current}.
+   */
+  private int[] chunkStarts = new int[4];
+  private int current;
+  private int bytesInPreviousChunks;
+  private byte[] buffer;
+  private int position;
+
+  ChunkedReverseEncoder(int chunkSize) {
+    if (chunkSize < WireFormat.MAX_VARINT_SIZE) {
+      throw new IllegalArgumentException(String.format(
+              "Chunk size must be at least %d, was %d", WireFormat.MAX_VARINT_SIZE, chunkSize));
+    }
+    this.chunkSize = chunkSize;
+    buffer = new byte[chunkSize];
+    chunks.add(buffer);
+    reset();
+  }
+
+  @Override
+  public void encodeMessage(int fieldNumber, TestMessage message) throws IOException {
+    encodeMessageNoTag(message);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  @Override
+  public void encodeMessageNoTag(TestMessage message) throws IOException {
+    final int prevTotal = getTotalBytesWritten();
+
+    encodeTrailingFields(message);
+
+    if (message.children != null) {
+      for (int ix = message.children.length - 1; ix >= 0; --ix) {
+        encodeMessage(18, message.children[ix]);
+      }
+    }
+
+    encodeLeadingFields(message);
+
+    // Now write out the serialized size for this message.
+    int serializedSize = getTotalBytesWritten() - prevTotal;
+    writeUInt32NoTag(serializedSize);
+  }
+
+  /**
+   * Writes the fields of {@code message} that follow its children on the wire: the optional enum
+   * and the repeated scalar fields. Exposed so that {@link ParallelReverseEncoder} can encode a
+   * message's own fields apart from its children.
+   */
+  void encodeTrailingFields(TestMessage message) throws IOException {
+    if (message.repeatedEnum != null) {
+      if (message.packed) {
+        writePackedEnum(51, message.repeatedEnum);
+      } else {
+        for (int ix = message.repeatedEnum.length - 1; ix >= 0; --ix) {
+          writeEnum(51, message.repeatedEnum[ix]);
+        }
+      }
+    }
+    if (message.repeatedBytes != null) {
+      for (int ix = message.repeatedBytes.length - 1; ix >= 0; --ix) {
+        writeByteArray(45, message.repeatedBytes[ix]);
+      }
+    }
+    if (message.repeatedString != null) {
+      for (int ix = message.repeatedString.length - 1; ix >= 0; --ix) {
+        writeString(44, message.repeatedString[ix]);
+      }
+    }
+    if (message.repeatedBoolean != null) {
+      if (message.packed) {
+        writePackedBool(43, message.repeatedBoolean);
+      } else {
+        for (int ix = message.repeatedBoolean.length - 1; ix >= 0; --ix) {
+          writeBool(43, message.repeatedBoolean[ix]);
+        }
+      }
+    }
+    if (message.repeatedDouble != null) {
+      if (message.packed) {
+        writePackedDouble(42, message.repeatedDouble);
+      } else {
+        for (int ix = message.repeatedDouble.length - 1; ix >= 0; --ix) {
+          writeDouble(42, message.repeatedDouble[ix]);
+        }
+      }
+    }
+    if (message.repeatedFloat != null) {
+      if (message.packed) {
+        writePackedFloat(41, message.repeatedFloat);
+      } else {
+        for (int ix = message.repeatedFloat.length - 1; ix >= 0; --ix) {
+          writeFloat(41, message.repeatedFloat[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(40, message.repeatedSFixed64);
+      } else {
+        for (int ix = message.repeatedSFixed64.length - 1; ix >= 0; --ix) {
+          writeFixed64(40, message.repeatedSFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(39, message.repeatedSFixed32);
+      } else {
+        for (int ix = message.repeatedSFixed32.length - 1; ix >= 0; --ix) {
+          writeFixed32(39, message.repeatedSFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(38, message.repeatedFixed64);
+      } else {
+        for (int ix = message.repeatedFixed64.length - 1; ix >= 0; --ix) {
+          writeFixed64(38, message.repeatedFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(37, message.repeatedFixed32);
+      } else {
+        for (int ix = message.repeatedFixed32.length - 1; ix >= 0; --ix) {
+          writeFixed32(37, message.repeatedFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt64 != null) {
+      if (message.packed) {
+        writePackedSInt64(36, message.repeatedSInt64);
+      } else {
+        for (int ix = message.repeatedSInt64.length - 1; ix >= 0; --ix) {
+          writeSInt64(36, message.repeatedSInt64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt32 != null) {
+      if (message.packed) {
+        writePackedSInt32(35, message.repeatedSInt32);
+      } else {
+        for (int ix = message.repeatedSInt32.length - 1; ix >= 0; --ix) {
+          writeSInt32(35, message.repeatedSInt32[ix]);
+        }
+      }
+    }
+    if (message.repeatedLong != null) {
+      if (message.packed) {
+        writePackedUInt64(34, message.repeatedLong);
+      } else {
+        for (int ix = message.repeatedLong.length - 1; ix >= 0; --ix) {
+          writeUInt64(34, message.repeatedLong[ix]);
+        }
+      }
+    }
+    if (message.repeatedInt != null) {
+      if (message.packed) {
+        writePackedUInt32(33, message.repeatedInt);
+      } else {
+        for (int ix = message.repeatedInt.length - 1; ix >= 0; --ix) {
+          writeUInt32(33, message.repeatedInt[ix]);
+        }
+      }
+    }
+    writeEnum(21, message.optionalEnum);
+  }
+
+  /** Writes the fields of {@code message} that precede its children on the wire. */
+  void encodeLeadingFields(TestMessage message) throws IOException {
+    writeByteArray(15, message.optionalBytes);
+    writeString(14, message.optionalString);
+    writeBool(13, message.optionalBoolean);
+    writeDouble(12, message.optionalDouble);
+    writeFloat(11, message.optionalFloat);
+    writeFixed64(10, message.optionalSFixed64);
+    writeFixed32(9, message.optionalSFixed32);
+    writeFixed64(8, message.optionalFixed64);
+    writeFixed32(7, message.optionalFixed32);
+    writeSInt64(6, message.optionalSInt64);
+    writeSInt32(5, message.optionalSInt32);
+    writeUInt64(4, message.optionalLong);
+    writeUInt32(3, message.optionalInt);
+  }
+
+  @Override
+  public void reset() {
+    current = 0;
+    bytesInPreviousChunks = 0;
+    buffer = chunks.get(0);
+    position = chunkSize - 1;
+  }
+
+  /**
+   * Returns the encoded bytes as one buffer per chunk, in wire order. The buffers share content
+   * with this encoder and are only valid until the next {@link #reset()}.
+   */
+  public ByteBuffer[] toByteBuffers() {
+    ByteBuffer[] buffers = new ByteBuffer[current + 1];
+    buffers[0] = ByteBuffer.wrap(buffer, position + 1, chunkSize - position - 1);
+    for (int ix = current - 1, out = 1; ix >= 0; --ix, ++out) {
+      int start = chunkStarts[ix];
+      buffers[out] = ByteBuffer.wrap(chunks.get(ix), start, chunkSize - start);
+    }
+    return buffers;
+  }
+
+  public final void writeTag(final int fieldNumber, final int wireType) throws IOException {
+    writeUInt32NoTag(WireFormat.makeTag(fieldNumber, wireType));
+  }
+
+  public final void writeInt32(final int fieldNumber, final int value) throws IOException {
+    writeInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeUInt32(final int fieldNumber, final int value) throws IOException {
+    writeUInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeSInt32(final int fieldNumber, final int value) throws IOException {
+    writeSInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeEnum(final int fieldNumber, final int value) throws IOException {
+    writeInt32(fieldNumber, value);
+  }
+
+  public final void writeFixed32(final int fieldNumber, final int value) throws IOException {
+    writeFixed32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+  }
+
+  public final void writeUInt64(final int fieldNumber, final long value) throws IOException {
+    writeUInt64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeSInt64(final int fieldNumber, final long value) throws IOException {
+    writeSInt64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeFixed64(final int fieldNumber, final long value) throws IOException {
+    writeFixed64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+  }
+
+  public final void writeBool(final int fieldNumber, final boolean value) throws IOException {
+    write((byte) (value ? 1 : 0));
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public void writeFloat(int fieldNumber, float value) throws IOException {
+    writeFixed32(fieldNumber, Float.floatToRawIntBits(value));
+  }
+
+  public void writeDouble(int fieldNumber, double value) throws IOException {
+    writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
+  }
+
+  public final void writePackedUInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeUInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedUInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeUInt64NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedSInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeSInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedSInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeSInt64NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** Writes a packed fixed32 or sfixed32 field. */
+  public final void writePackedFixed32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** Writes a packed fixed64 or sfixed64 field. */
+  public final void writePackedFixed64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed64NoTag(values[ix]);
+    }
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedFloat(final int fieldNumber, final float[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed32NoTag(Float.floatToRawIntBits(values[ix]));
+    }
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedDouble(final int fieldNumber, final double[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed64NoTag(Double.doubleToRawLongBits(values[ix]));
+    }
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedBool(final int fieldNumber, final boolean[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      write((byte) (values[ix] ? 1 : 0));
+    }
+    writeUInt32NoTag(values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedEnum(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeString(final int fieldNumber, final String value) throws IOException {
+    writeStringNoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeByteArray(final int fieldNumber, final byte[] value) throws IOException {
+    writeByteArray(fieldNumber, value, 0, value.length);
+  }
+
+  public final void writeByteArray(
+          final int fieldNumber, final byte[] value, final int offset, final int length)
+          throws IOException {
+    writeByteArrayNoTag(value, offset, length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeByteArrayNoTag(final byte[] value, int offset, int length) {
+    write(value, offset, length);
+    writeUInt32NoTag(length);
+  }
+
+  public final void write(byte value) {
+    if (position < 0) {
+      nextChunk();
+    }
+    buffer[position--] = value;
+  }
+
+  public final void writeSInt32NoTag(int value) throws IOException {
+    writeUInt32NoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  public final void writeSInt64NoTag(long value) throws IOException {
+    writeUInt64NoTag(WireFormat.encodeZigZag64(value));
+  }
+
+  public final void writeInt32NoTag(int value) throws IOException {
+    if (value >= 0) {
+      writeUInt32NoTag(value);
+    } else {
+      // Must sign-extend.
+      writeUInt64NoTag(value);
+    }
+  }
+
+  @SuppressWarnings("fallthrough")
+  private void writeUInt32NoTagUnsafe(int value) {
+    final byte size = Utils.computeUInt32SizeNoTag(value);
+    if (position + 1 < size) {
+      nextChunk();
+    }
+
+    long pos = ARRAY_BASE_OFFSET + position;
+    position -= size;
+    int sign = 0;
+    switch (size) {
+      case 5:
+        UNSAFE.putByte(buffer, pos--, (byte) (value >>> 28));
+        sign = 0x80;
+        // fall through
+      case 4:
+        UNSAFE.putByte(buffer, pos--, (byte) (((value >>> 21) & 0x7F) | sign));
+        sign = 0x80;
+        // fall through
+      case 3:
+        UNSAFE.putByte(buffer, pos--, (byte) (((value >>> 14) & 0x7F) | sign));
+        sign = 0x80;
+        // fall through
+      case 2:
+        UNSAFE.putByte(buffer, pos--, (byte) (((value >>> 7) & 0x7F) | sign));
+        sign = 0x80;
+        // fall through
+      case 1:
+        UNSAFE.putByte(buffer, pos, (byte) ((value & 0x7F) | sign));
+    }
+  }
+
+  @SuppressWarnings("fallthrough")
+  private void writeUInt32NoTagSafe(int value) {
+    final byte size = Utils.computeUInt32SizeNoTag(value);
+    if (position + 1 < size) {
+      nextChunk();
+    }
+    int sign = 0;
+    switch (size) {
+      case 5:
+        buffer[position--] = (byte) (value >>> 28);
+        sign = 0x80;
+        // fall through
+      case 4:
+        buffer[position--] = (byte) (((value >>> 21) & 0x7F) | sign);
+        sign = 0x80;
+        // fall through
+      case 3:
+        buffer[position--] = (byte) (((value >>> 14) & 0x7F) | sign);
+        sign = 0x80;
+        // fall through
+      case 2:
+        buffer[position--] = (byte) (((value >>> 7) & 0x7F) | sign);
+        sign = 0x80;
+        // fall through
+      case 1:
+        buffer[position--] = (byte) ((value & 0x7F) | sign);
+    }
+  }
+
+  @Override
+  public final void writeUInt32NoTag(int value) {
+    if (HAS_UNSAFE_ARRAY_OPERATIONS) {
+      writeUInt32NoTagUnsafe(value);
+    } else {
+      writeUInt32NoTagSafe(value);
+    }
+  }
+
+  public final void writeFixed32NoTag(int value) {
+    if (position < 3) {
+      nextChunk();
+    }
+
+    buffer[position--] = (byte) ((value >> 24) & 0xFF);
+    buffer[position--] = (byte) ((value >> 16) & 0xFF);
+    buffer[position--] = (byte) ((value >> 8) & 0xFF);
+    buffer[position--] = (byte) (value & 0xFF);
+  }
+
+  private void writeUInt64NoTagUnsafe(long value) {
+    int size = Utils.computeUInt64SizeNoTag(value);
+    if (position + 1 < size) {
+      nextChunk();
+    }
+    position -= size;
+    long pos = ARRAY_BASE_OFFSET + position + 1;
+    while (true) {
+      if (size-- == 1) {
+        UNSAFE.putByte(buffer, pos, (byte) value);
+        return;
+      } else {
+        UNSAFE.putByte(buffer, pos++, (byte) (((int) value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+    }
+  }
+
+  private void writeUInt64NoTagSafe(long value) {
+    int size = Utils.computeUInt64SizeNoTag(value);
+    if (position + 1 < size) {
+      nextChunk();
+    }
+    position -= size;
+    int pos = position + 1;
+    while (true) {
+      if (size-- == 1) {
+        buffer[pos] = (byte) value;
+        return;
+      } else {
+        buffer[pos++] = (byte) (((int) value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+    }
+  }
+
+  @Override
+  public final void writeUInt64NoTag(long value) {
+    if (HAS_UNSAFE_ARRAY_OPERATIONS) {
+      writeUInt64NoTagUnsafe(value);
+    } else {
+      writeUInt64NoTagSafe(value);
+    }
+  }
+
+  public final void writeFixed64NoTag(long value) {
+    if (position < 7) {
+      nextChunk();
+    }
+
+    buffer[position--] = (byte) ((int) (value >> 56) & 0xFF);
+    buffer[position--] = (byte) ((int) (value >> 48) & 0xFF);
+    buffer[position--] = (byte) ((int) (value >> 40) & 0xFF);
+    buffer[position--] = (byte) ((int) (value >> 32) & 0xFF);
+    buffer[position--] = (byte) ((int) (value >> 24) & 0xFF);
+    buffer[position--] = (byte) ((int) (value >> 16) & 0xFF);
+    buffer[position--] = (byte) ((int) (value >> 8) & 0xFF);
+    buffer[position--] = (byte) ((int) (value) & 0xFF);
+  }
+
+  /**
+   * Writes the given bytes, spreading them over as many chunks as needed. The tail of the value
+   * fills the current chunk first since the output grows towards the front.
+   */
+  public final void write(byte[] value, int offset, int length) {
+    if ((offset | length | (value.length - (offset + length))) < 0) {
+      throw new IndexOutOfBoundsException(String.format(
+              "Array range is invalid. Buffer.length=%d, offset=%d, length=%d",
+              value.length, offset, length));
+    }
+    int remaining = length;
+    while (true) {
+      int n = Math.min(remaining, position + 1);
+      int startPos = position - n + 1;
+      System.arraycopy(value, offset + remaining - n, buffer, startPos, n);
+      position = startPos - 1;
+      remaining -= n;
+      if (remaining == 0) {
+        return;
+      }
+      nextChunk();
+    }
+  }
+
+  public final void writeStringNoTag(String value) {
+    final int maxLength = value.length() * Utf8.MAX_BYTES_PER_CHAR;
+    try {
+      if (maxLength > position + 1) {
+        // The string may not fit in what's left of the current chunk; find out for sure.
+        final int length = Utf8.encodedLength(value);
+        if (length > position + 1) {
+          if (length > chunkSize) {
+            // Too big for any single chunk.
+            writeByteArrayNoTag(value.getBytes(Utf8.UTF_8), 0, length);
+            return;
+          }
+          nextChunk();
+        }
+      }
+      int length = Utf8.encodeReverse(value, buffer, 0, position + 1);
+      position -= length;
+      writeUInt32NoTag(length);
+    } catch (Utf8.UnpairedSurrogateException e) {
+      // Nothing has been written yet, so just fall back to the inefficient path.
+      final byte[] bytes = value.getBytes(Utf8.UTF_8);
+      writeByteArrayNoTag(bytes, 0, bytes.length);
+    }
+  }
+
+  @Override
+  public final int getTotalBytesWritten() {
+    return bytesInPreviousChunks + (chunkSize - position - 1);
+  }
+
+  /**
+   * Retires the current chunk and moves on to the next one, allocating it if necessary. Any
+   * unused space at the front of the retired chunk is simply skipped in the output.
+   */
+  private void nextChunk() {
+    if (current == chunkStarts.length) {
+      int[] newStarts = new int[current << 1];
+      System.arraycopy(chunkStarts, 0, newStarts, 0, current);
+      chunkStarts = newStarts;
+    }
+    chunkStarts[current] = position + 1;
+    bytesInPreviousChunks += chunkSize - position - 1;
+
+    if (++current == chunks.size()) {
+      chunks.add(new byte[chunkSize]);
+    }
+    buffer = chunks.get(current);
+    position = chunkSize - 1;
+  }
+}
@@ -0,0 +1,95 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * A multi-threaded variant of {@link EncodingAlgorithmBenchmark}: every thread encodes the same
+ * shared message tree into its own buffer, sharing one {@link SerializedSizeManager}. With {@code
+ * invalidate} set, each operation starts a new size epoch first, so forward encoding also measures
+ * concurrent size computation.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class ConcurrentEncodingBenchmark {
+  @Param
+  public EncodingAlgorithmBenchmark.Direction direction;
+
+  @Param({"false", "true"})
+  public boolean invalidate;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"2"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  private TestMessage message;
+  private SerializedSizeManager sizeManager;
+
+  @Setup
+  public void setUp() throws Exception {
+    // Create the message.
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    sizeManager = new SerializedSizeManager(numMessages);
+    message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+        treeHeight, branchingFactor, sizeManager);
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private final byte[] output = new byte[1024 * 1024];
+    private Encoder encoder;
+
+    @Setup
+    public void setUp(ConcurrentEncodingBenchmark benchmark) {
+      switch (benchmark.direction) {
+        case FORWARD:
+          encoder = new ForwardEncoder(output, 0, output.length);
+          break;
+        case REVERSE:
+          encoder = new ReverseEncoder(output, 0, output.length);
+          break;
+      }
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void encode1Thread(ThreadState state) throws Exception {
+    encode(state);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void encode2Threads(ThreadState state) throws Exception {
+    encode(state);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void encode4Threads(ThreadState state) throws Exception {
+    encode(state);
+  }
+
+  private void encode(ThreadState state) throws Exception {
+    if (invalidate) {
+      sizeManager.clearAll();
+    }
+    state.encoder.encodeMessageNoTag(message);
+    state.encoder.reset();
+  }
+}
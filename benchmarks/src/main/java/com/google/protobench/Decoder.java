@@ -0,0 +1,54 @@
+package com.google.protobench;
+
+import java.io.IOException;
+
+interface Decoder {
+
+  /**
+   * Thrown when the input ends in the middle of a field or contains bytes that cannot be a
+   * well-formed protocol buffer (e.g. a malformed varint or an invalid wire type).
+   */
+  class InvalidWireFormatException extends IOException {
+    private static final long serialVersionUID = 2840392838223372954L;
+
+    InvalidWireFormatException(String message) {
+      super(message);
+    }
+
+    static InvalidWireFormatException truncatedMessage() {
+      return new InvalidWireFormatException(
+              "While parsing a protocol message, the input ended unexpectedly in the middle of a "
+                      + "field.");
+    }
+
+    static InvalidWireFormatException malformedVarint() {
+      return new InvalidWireFormatException("Encountered a malformed varint.");
+    }
+
+    static InvalidWireFormatException invalidTag() {
+      return new InvalidWireFormatException("Protocol message contained an invalid tag (zero).");
+    }
+
+    static InvalidWireFormatException invalidWireType() {
+      return new InvalidWireFormatException("Protocol message tag had invalid wire type.");
+    }
+
+    static InvalidWireFormatException negativeSize() {
+      return new InvalidWireFormatException(
+              "Encountered an embedded string or message which claimed to have negative size.");
+    }
+
+    static InvalidWireFormatException invalidUtf8() {
+      return new InvalidWireFormatException("Protocol message had invalid UTF-8.");
+    }
+  }
+
+  TestMessage decodeMessageNoTag() throws IOException;
+
+  int readTag() throws IOException;
+  int readUInt32NoTag() throws IOException;
+  long readUInt64NoTag() throws IOException;
+  int getTotalBytesRead();
+
+  void reset();
+}
@@ -0,0 +1,101 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import io.protostuff.ProtobufIOUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import benchmark.protobuf.UnittestProto;
+import benchmark.protostuff.NestedTestAllTypes;
+
+import java.util.Arrays;
+
+/**
+ * Compares {@link ForwardDecoder} against protobuf and protostuff parsing the same message tree.
+ * {@link ForwardDecoder} reads the {@link TestMessage} wire format written by the encoders, while
+ * protobuf and protostuff read the equivalent {@code NestedTestAllTypes} encoding of the tree.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class DecodingBenchmark {
+  public enum Impl {
+    FORWARD,
+    PROTOBUF,
+    PROTOSTUFF
+  }
+
+  @Param
+  public Impl impl;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"2"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  private byte[] bytes;
+  private SerializedSizeManager sizeManager;
+  private Decoder decoder;
+
+  @Setup
+  public void setUp() throws Exception {
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    SerializedSizeManager encodeSizeManager = new SerializedSizeManager(numMessages);
+    TestMessage message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+            treeHeight, branchingFactor, encodeSizeManager);
+
+    switch (impl) {
+      case FORWARD:
+        byte[] output = new byte[1024 * 1024];
+        ForwardEncoder encoder = new ForwardEncoder(output, 0, output.length);
+        encoder.encodeMessageNoTag(message);
+        bytes = Arrays.copyOf(output, encoder.getTotalBytesWritten());
+
+        sizeManager = new SerializedSizeManager(numMessages);
+        decoder = new ForwardDecoder(bytes, 0, bytes.length, sizeManager);
+        break;
+      case PROTOBUF:
+      case PROTOSTUFF:
+        bytes = message.toProtobuf().toByteArray();
+        break;
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    if (decoder != null) {
+      decoder.reset();
+      sizeManager.releaseAll();
+    }
+  }
+
+  @Benchmark
+  public Object decode() throws Exception {
+    switch (impl) {
+      case FORWARD:
+        return decoder.decodeMessageNoTag();
+      case PROTOBUF:
+        return UnittestProto.NestedTestAllTypes.parseFrom(bytes);
+      case PROTOSTUFF:
+        NestedTestAllTypes obj = new NestedTestAllTypes();
+        ProtobufIOUtil.mergeFrom(bytes, obj, obj.cachedSchema());
+        return obj;
+      default:
+        throw new AssertionError();
+    }
+  }
+}
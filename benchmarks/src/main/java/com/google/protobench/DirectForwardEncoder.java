@@ -0,0 +1,680 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNALIGNED_ACCESS;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_BYTEBUFFER_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ForwardEncoder} counterpart that writes straight into native memory, either the
+ * remaining space of a direct {@link ByteBuffer} or a raw address range. All writes go through
+ * {@code sun.misc.Unsafe}, so this encoder is only available when {@link
+ * UnsafeUtil#HAS_UNSAFE_BYTEBUFFER_OPERATIONS} is set.
+ */
+final class DirectForwardEncoder implements Encoder {
+  private static final Utf8.UnsafeProcessor UTF8_PROCESSOR = new Utf8.UnsafeProcessor();
+
+  /**
+   * Fixed-width values are stored little-endian on the wire, so they can only be written with a
+   * single {@code putInt}/{@code putLong} if the native order matches.
+   */
+  private static final boolean WIDE_STORES =
+          HAS_UNALIGNED_ACCESS && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * Keeps the memory of the wrapped buffer (if any) reachable for as long as this encoder is.
+   */
+  private final ByteBuffer buffer;
+  private final long address;
+  private final long limit;
+  private final long oneVarintLimit;
+  private long position;
+
+  DirectForwardEncoder(ByteBuffer buffer) {
+    this(checkDirect(buffer), UnsafeUtil.addressOffset(buffer) + buffer.position(),
+            buffer.remaining());
+  }
+
+  DirectForwardEncoder(long address, int length) {
+    this(null, address, length);
+  }
+
+  private DirectForwardEncoder(ByteBuffer buffer, long address, int length) {
+    if (!HAS_UNSAFE_BYTEBUFFER_OPERATIONS) {
+      throw new UnsupportedOperationException("Unsafe direct memory access is not available");
+    }
+    if (address == 0 || length < 0) {
+      throw new IllegalArgumentException(String.format(
+              "Memory range is invalid. Address=%d, length=%d", address, length));
+    }
+    this.buffer = buffer;
+    this.address = address;
+    limit = address + length;
+    oneVarintLimit = limit - WireFormat.MAX_VARINT_SIZE;
+    reset();
+  }
+
+  private static ByteBuffer checkDirect(ByteBuffer buffer) {
+    if (buffer == null) {
+      throw new NullPointerException("buffer");
+    }
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("buffer must be direct");
+    }
+    return buffer;
+  }
+
+  @Override
+  public void encodeMessage(int fieldNumber, TestMessage message) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    encodeMessageNoTag(message);
+  }
+
+  @Override
+  public void encodeMessageNoTag(TestMessage message) throws IOException {
+    writeUInt32NoTag(message.getSerializedSize());
+
+    writeUInt32(3, message.optionalInt);
+    writeUInt64(4, message.optionalLong);
+    writeSInt32(5, message.optionalSInt32);
+    writeSInt64(6, message.optionalSInt64);
+    writeFixed32(7, message.optionalFixed32);
+    writeFixed64(8, message.optionalFixed64);
+    writeFixed32(9, message.optionalSFixed32);
+    writeFixed64(10, message.optionalSFixed64);
+    writeFloat(11, message.optionalFloat);
+    writeDouble(12, message.optionalDouble);
+    writeBool(13, message.optionalBoolean);
+    writeString(14, message.optionalString);
+    writeByteArray(15, message.optionalBytes);
+
+    if (message.children != null) {
+      for (int ix = 0; ix < message.children.length; ++ix) {
+        encodeMessage(18, message.children[ix]);
+      }
+    }
+    writeEnum(21, message.optionalEnum);
+
+    if (message.repeatedInt != null) {
+      if (message.packed) {
+        writePackedUInt32(33, message.repeatedInt,
+                message.getPackedDataSize(TestMessage.PACKED_UINT32));
+      } else {
+        for (int ix = 0; ix < message.repeatedInt.length; ++ix) {
+          writeUInt32(33, message.repeatedInt[ix]);
+        }
+      }
+    }
+    if (message.repeatedLong != null) {
+      if (message.packed) {
+        writePackedUInt64(34, message.repeatedLong,
+                message.getPackedDataSize(TestMessage.PACKED_UINT64));
+      } else {
+        for (int ix = 0; ix < message.repeatedLong.length; ++ix) {
+          writeUInt64(34, message.repeatedLong[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt32 != null) {
+      if (message.packed) {
+        writePackedSInt32(35, message.repeatedSInt32,
+                message.getPackedDataSize(TestMessage.PACKED_SINT32));
+      } else {
+        for (int ix = 0; ix < message.repeatedSInt32.length; ++ix) {
+          writeSInt32(35, message.repeatedSInt32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt64 != null) {
+      if (message.packed) {
+        writePackedSInt64(36, message.repeatedSInt64,
+                message.getPackedDataSize(TestMessage.PACKED_SINT64));
+      } else {
+        for (int ix = 0; ix < message.repeatedSInt64.length; ++ix) {
+          writeSInt64(36, message.repeatedSInt64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(37, message.repeatedFixed32);
+      } else {
+        for (int ix = 0; ix < message.repeatedFixed32.length; ++ix) {
+          writeFixed32(37, message.repeatedFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(38, message.repeatedFixed64);
+      } else {
+        for (int ix = 0; ix < message.repeatedFixed64.length; ++ix) {
+          writeFixed64(38, message.repeatedFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(39, message.repeatedSFixed32);
+      } else {
+        for (int ix = 0; ix < message.repeatedSFixed32.length; ++ix) {
+          writeFixed32(39, message.repeatedSFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(40, message.repeatedSFixed64);
+      } else {
+        for (int ix = 0; ix < message.repeatedSFixed64.length; ++ix) {
+          writeFixed64(40, message.repeatedSFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFloat != null) {
+      if (message.packed) {
+        writePackedFloat(41, message.repeatedFloat);
+      } else {
+        for (int ix = 0; ix < message.repeatedFloat.length; ++ix) {
+          writeFloat(41, message.repeatedFloat[ix]);
+        }
+      }
+    }
+    if (message.repeatedDouble != null) {
+      if (message.packed) {
+        writePackedDouble(42, message.repeatedDouble);
+      } else {
+        for (int ix = 0; ix < message.repeatedDouble.length; ++ix) {
+          writeDouble(42, message.repeatedDouble[ix]);
+        }
+      }
+    }
+    if (message.repeatedBoolean != null) {
+      if (message.packed) {
+        writePackedBool(43, message.repeatedBoolean);
+      } else {
+        for (int ix = 0; ix < message.repeatedBoolean.length; ++ix) {
+          writeBool(43, message.repeatedBoolean[ix]);
+        }
+      }
+    }
+    if (message.repeatedString != null) {
+      for (int ix = 0; ix < message.repeatedString.length; ++ix) {
+        writeString(44, message.repeatedString[ix]);
+      }
+    }
+    if (message.repeatedBytes != null) {
+      for (int ix = 0; ix < message.repeatedBytes.length; ++ix) {
+        writeByteArray(45, message.repeatedBytes[ix]);
+      }
+    }
+    if (message.repeatedEnum != null) {
+      if (message.packed) {
+        writePackedEnum(51, message.repeatedEnum,
+                message.getPackedDataSize(TestMessage.PACKED_ENUM));
+      } else {
+        for (int ix = 0; ix < message.repeatedEnum.length; ++ix) {
+          writeEnum(51, message.repeatedEnum[ix]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void reset() {
+    position = address;
+  }
+
+  public final void writeTag(final int fieldNumber, final int wireType) throws IOException {
+    writeUInt32NoTag(WireFormat.makeTag(fieldNumber, wireType));
+  }
+
+  public final void writeInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeInt32NoTag(value);
+  }
+
+  public final void writeUInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeUInt32NoTag(value);
+  }
+
+  public final void writeSInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeSInt32NoTag(value);
+  }
+
+  public final void writeEnum(final int fieldNumber, final int value) throws IOException {
+    writeInt32(fieldNumber, value);
+  }
+
+  public final void writeFixed32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+    writeFixed32NoTag(value);
+  }
+
+  public final void writeUInt64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeUInt64NoTag(value);
+  }
+
+  public final void writeSInt64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeSInt64NoTag(value);
+  }
+
+  public final void writeFixed64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+    writeFixed64NoTag(value);
+  }
+
+  public final void writeBool(final int fieldNumber, final boolean value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    write((byte) (value ? 1 : 0));
+  }
+
+  public void writeFloat(int fieldNumber, float value) throws IOException {
+    writeFixed32(fieldNumber, Float.floatToRawIntBits(value));
+  }
+
+  public void writeDouble(int fieldNumber, double value) throws IOException {
+    writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
+  }
+
+  public final void writePackedUInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedUInt32(fieldNumber, values, Utils.computeUInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedUInt32(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedUInt32(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeUInt32NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedUInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    writePackedUInt64(fieldNumber, values, Utils.computeUInt64ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedUInt64(int, long[])}, with the payload size already computed.
+   */
+  public final void writePackedUInt64(final int fieldNumber, final long[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeUInt64NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedSInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedSInt32(fieldNumber, values, Utils.computeSInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedSInt32(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedSInt32(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeSInt32NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedSInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    writePackedSInt64(fieldNumber, values, Utils.computeSInt64ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedSInt64(int, long[])}, with the payload size already computed.
+   */
+  public final void writePackedSInt64(final int fieldNumber, final long[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeSInt64NoTag(values[ix]);
+    }
+  }
+
+  /** Writes a packed fixed32 or sfixed32 field. */
+  public final void writePackedFixed32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed32NoTag(values[ix]);
+    }
+  }
+
+  /** Writes a packed fixed64 or sfixed64 field. */
+  public final void writePackedFixed64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed64NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedFloat(final int fieldNumber, final float[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed32NoTag(Float.floatToRawIntBits(values[ix]));
+    }
+  }
+
+  public final void writePackedDouble(final int fieldNumber, final double[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed64NoTag(Double.doubleToRawLongBits(values[ix]));
+    }
+  }
+
+  public final void writePackedBool(final int fieldNumber, final boolean[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      write((byte) (values[ix] ? 1 : 0));
+    }
+  }
+
+  public final void writePackedEnum(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedEnum(fieldNumber, values, Utils.computeInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedEnum(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedEnum(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeInt32NoTag(values[ix]);
+    }
+  }
+
+  public final void writeString(final int fieldNumber, final String value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeStringNoTag(value);
+  }
+
+  public final void writeByteArray(final int fieldNumber, final byte[] value) throws IOException {
+    writeByteArray(fieldNumber, value, 0, value.length);
+  }
+
+  public final void writeByteArray(
+          final int fieldNumber, final byte[] value, final int offset, final int length)
+          throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeByteArrayNoTag(value, offset, length);
+  }
+
+  public final void writeByteBuffer(final int fieldNumber, final ByteBuffer value)
+          throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(value.capacity());
+    writeRawBytes(value);
+  }
+
+  public final void writeByteArrayNoTag(final byte[] value, int offset, int length)
+          throws IOException {
+    writeUInt32NoTag(length);
+    write(value, offset, length);
+  }
+
+  public final void writeRawBytes(final ByteBuffer value) throws IOException {
+    if (value.hasArray()) {
+      write(value.array(), value.arrayOffset(), value.capacity());
+    } else {
+      ByteBuffer duplicated = value.duplicate();
+      duplicated.clear();
+      write(duplicated);
+    }
+  }
+
+  public final void write(byte value) throws IOException {
+    if (position >= limit) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, 1)));
+    }
+    UNSAFE.putByte(position++, value);
+  }
+
+  public final void writeSInt32NoTag(int value) throws IOException {
+    writeUInt32NoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  public final void writeSInt64NoTag(long value) throws IOException {
+    writeUInt64NoTag(WireFormat.encodeZigZag64(value));
+  }
+
+  public final void writeInt32NoTag(int value) throws IOException {
+    if (value >= 0) {
+      writeUInt32NoTag(value);
+    } else {
+      // Must sign-extend.
+      writeUInt64NoTag(value);
+    }
+  }
+
+  @Override
+  public final void writeUInt32NoTag(int value) throws IOException {
+    if (position <= oneVarintLimit) {
+      // Optimization to avoid bounds checks on each iteration.
+      while (true) {
+        if ((value & ~0x7F) == 0) {
+          UNSAFE.putByte(position++, (byte) value);
+          return;
+        } else {
+          UNSAFE.putByte(position++, (byte) ((value & 0x7F) | 0x80));
+          value >>>= 7;
+        }
+      }
+    } else {
+      while (position < limit) {
+        if ((value & ~0x7F) == 0) {
+          UNSAFE.putByte(position++, (byte) value);
+          return;
+        } else {
+          UNSAFE.putByte(position++, (byte) ((value & 0x7F) | 0x80));
+          value >>>= 7;
+        }
+      }
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, 1)));
+    }
+  }
+
+  @Override
+  public final void writeUInt64NoTag(long value) throws IOException {
+    if (position <= oneVarintLimit) {
+      // Optimization to avoid bounds checks on each iteration.
+      while (true) {
+        if ((value & ~0x7FL) == 0) {
+          UNSAFE.putByte(position++, (byte) value);
+          return;
+        } else {
+          UNSAFE.putByte(position++, (byte) (((int) value & 0x7F) | 0x80));
+          value >>>= 7;
+        }
+      }
+    } else {
+      while (position < limit) {
+        if ((value & ~0x7FL) == 0) {
+          UNSAFE.putByte(position++, (byte) value);
+          return;
+        } else {
+          UNSAFE.putByte(position++, (byte) (((int) value & 0x7F) | 0x80));
+          value >>>= 7;
+        }
+      }
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, 1)));
+    }
+  }
+
+  public final void writeFixed32NoTag(int value) throws IOException {
+    if (limit - position < WireFormat.FIXED_32_SIZE) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, 4)));
+    }
+    if (WIDE_STORES) {
+      UNSAFE.putInt(position, value);
+      position += WireFormat.FIXED_32_SIZE;
+    } else {
+      UNSAFE.putByte(position++, (byte) (value & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((value >> 8) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((value >> 16) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((value >> 24) & 0xFF));
+    }
+  }
+
+  public final void writeFixed64NoTag(long value) throws IOException {
+    if (limit - position < WireFormat.FIXED_64_SIZE) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, 8)));
+    }
+    if (WIDE_STORES) {
+      UNSAFE.putLong(position, value);
+      position += WireFormat.FIXED_64_SIZE;
+    } else {
+      UNSAFE.putByte(position++, (byte) ((int) (value) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 8) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 16) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 24) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 32) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 40) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 48) & 0xFF));
+      UNSAFE.putByte(position++, (byte) ((int) (value >> 56) & 0xFF));
+    }
+  }
+
+  public final void write(byte[] value, int offset, int length) throws IOException {
+    if ((offset | length | (value.length - (offset + length))) < 0 || limit - length < position) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, length)));
+    }
+    UNSAFE.copyMemory(value, ARRAY_BASE_OFFSET + offset, null, position, length);
+    position += length;
+  }
+
+  public final void writeLazy(byte[] value, int offset, int length) throws IOException {
+    write(value, offset, length);
+  }
+
+  public final void write(ByteBuffer value) throws IOException {
+    final int length = value.remaining();
+    if (limit - length < position) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, limit: %d, len: %d", position, limit, length)));
+    }
+    if (value.hasArray()) {
+      write(value.array(), value.arrayOffset() + value.position(), length);
+    } else if (value.isDirect()) {
+      UNSAFE.copyMemory(UnsafeUtil.addressOffset(value) + value.position(), position, length);
+      position += length;
+    } else {
+      for (int ix = value.position(); ix < value.limit(); ++ix) {
+        UNSAFE.putByte(position++, value.get(ix));
+      }
+    }
+    value.position(value.limit());
+  }
+
+  public final void writeStringNoTag(String value) throws IOException {
+    final long oldPosition = position;
+    try {
+      // UTF-8 byte length of the string is at least its UTF-16 code unit length (value.length()),
+      // and at most 3 times of it. We take advantage of this in both branches below.
+      final int maxLength = value.length() * Utf8.MAX_BYTES_PER_CHAR;
+      final int maxLengthVarIntSize = Utils.computeUInt32SizeNoTag(maxLength);
+      final int minLengthVarIntSize = Utils.computeUInt32SizeNoTag(value.length());
+      if (minLengthVarIntSize == maxLengthVarIntSize) {
+        final long stringStart = oldPosition + minLengthVarIntSize;
+        final long newPosition = UTF8_PROCESSOR.encodeUtf8Direct(value, stringStart, limit);
+        // Fill in the length prefix in front of the string, then move to the end of the string.
+        writeUInt32NoTag((int) (newPosition - stringStart));
+        position = newPosition;
+      } else {
+        int length = Utf8.encodedLength(value);
+        writeUInt32NoTag(length);
+        position = UTF8_PROCESSOR.encodeUtf8Direct(value, position, limit);
+      }
+    } catch (Utf8.UnpairedSurrogateException e) {
+      // Roll back the change - we fall back to inefficient path.
+      position = oldPosition;
+      inefficientWriteStringNoTag(value);
+    } catch (IndexOutOfBoundsException e) {
+      throw new OutOfSpaceException(e);
+    }
+  }
+
+  public final int spaceLeft() {
+    return (int) (limit - position);
+  }
+
+  @Override
+  public final int getTotalBytesWritten() {
+    return (int) (position - address);
+  }
+
+  private void inefficientWriteStringNoTag(String value) throws IOException {
+    final byte[] bytes = value.getBytes(Utf8.UTF_8);
+    writeUInt32NoTag(bytes.length);
+    writeLazy(bytes, 0, bytes.length);
+  }
+}
@@ -0,0 +1,626 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNALIGNED_ACCESS;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_BYTEBUFFER_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ReverseEncoder} counterpart that writes backwards from the end of a direct {@link
+ * ByteBuffer} or a raw address range. The encoded bytes occupy the last {@link
+ * #getTotalBytesWritten()} bytes of the range.
+ */
+final class DirectReverseEncoder implements Encoder {
+  private static final Utf8.UnsafeProcessor UTF8_PROCESSOR = new Utf8.UnsafeProcessor();
+
+  private static final boolean WIDE_STORES =
+          HAS_UNALIGNED_ACCESS && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * Keeps the memory of the wrapped buffer (if any) reachable for as long as this encoder is.
+   */
+  private final ByteBuffer buffer;
+  private final long address;
+  private final long addressMinusOne;
+  private final long limit;
+  private long position;
+
+  DirectReverseEncoder(ByteBuffer buffer) {
+    this(checkDirect(buffer), UnsafeUtil.addressOffset(buffer) + buffer.position(),
+            buffer.remaining());
+  }
+
+  DirectReverseEncoder(long address, int length) {
+    this(null, address, length);
+  }
+
+  private DirectReverseEncoder(ByteBuffer buffer, long address, int length) {
+    if (!HAS_UNSAFE_BYTEBUFFER_OPERATIONS) {
+      throw new UnsupportedOperationException("Unsafe direct memory access is not available");
+    }
+    if (address == 0 || length < 0) {
+      throw new IllegalArgumentException(String.format(
+              "Memory range is invalid. Address=%d, length=%d", address, length));
+    }
+    this.buffer = buffer;
+    this.address = address;
+    addressMinusOne = address - 1;
+    limit = address + length;
+    reset();
+  }
+
+  private static ByteBuffer checkDirect(ByteBuffer buffer) {
+    if (buffer == null) {
+      throw new NullPointerException("buffer");
+    }
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("buffer must be direct");
+    }
+    return buffer;
+  }
+
+  @Override
+  public void encodeMessage(int fieldNumber, TestMessage message) throws IOException {
+    encodeMessageNoTag(message);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  @Override
+  public void encodeMessageNoTag(TestMessage message) throws IOException {
+    final long prevPos = position;
+
+    if (message.repeatedEnum != null) {
+      if (message.packed) {
+        writePackedEnum(51, message.repeatedEnum);
+      } else {
+        for (int ix = message.repeatedEnum.length - 1; ix >= 0; --ix) {
+          writeEnum(51, message.repeatedEnum[ix]);
+        }
+      }
+    }
+    if (message.repeatedBytes != null) {
+      for (int ix = message.repeatedBytes.length - 1; ix >= 0; --ix) {
+        writeByteArray(45, message.repeatedBytes[ix]);
+      }
+    }
+    if (message.repeatedString != null) {
+      for (int ix = message.repeatedString.length - 1; ix >= 0; --ix) {
+        writeString(44, message.repeatedString[ix]);
+      }
+    }
+    if (message.repeatedBoolean != null) {
+      if (message.packed) {
+        writePackedBool(43, message.repeatedBoolean);
+      } else {
+        for (int ix = message.repeatedBoolean.length - 1; ix >= 0; --ix) {
+          writeBool(43, message.repeatedBoolean[ix]);
+        }
+      }
+    }
+    if (message.repeatedDouble != null) {
+      if (message.packed) {
+        writePackedDouble(42, message.repeatedDouble);
+      } else {
+        for (int ix = message.repeatedDouble.length - 1; ix >= 0; --ix) {
+          writeDouble(42, message.repeatedDouble[ix]);
+        }
+      }
+    }
+    if (message.repeatedFloat != null) {
+      if (message.packed) {
+        writePackedFloat(41, message.repeatedFloat);
+      } else {
+        for (int ix = message.repeatedFloat.length - 1; ix >= 0; --ix) {
+          writeFloat(41, message.repeatedFloat[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(40, message.repeatedSFixed64);
+      } else {
+        for (int ix = message.repeatedSFixed64.length - 1; ix >= 0; --ix) {
+          writeFixed64(40, message.repeatedSFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(39, message.repeatedSFixed32);
+      } else {
+        for (int ix = message.repeatedSFixed32.length - 1; ix >= 0; --ix) {
+          writeFixed32(39, message.repeatedSFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(38, message.repeatedFixed64);
+      } else {
+        for (int ix = message.repeatedFixed64.length - 1; ix >= 0; --ix) {
+          writeFixed64(38, message.repeatedFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(37, message.repeatedFixed32);
+      } else {
+        for (int ix = message.repeatedFixed32.length - 1; ix >= 0; --ix) {
+          writeFixed32(37, message.repeatedFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt64 != null) {
+      if (message.packed) {
+        writePackedSInt64(36, message.repeatedSInt64);
+      } else {
+        for (int ix = message.repeatedSInt64.length - 1; ix >= 0; --ix) {
+          writeSInt64(36, message.repeatedSInt64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt32 != null) {
+      if (message.packed) {
+        writePackedSInt32(35, message.repeatedSInt32);
+      } else {
+        for (int ix = message.repeatedSInt32.length - 1; ix >= 0; --ix) {
+          writeSInt32(35, message.repeatedSInt32[ix]);
+        }
+      }
+    }
+    if (message.repeatedLong != null) {
+      if (message.packed) {
+        writePackedUInt64(34, message.repeatedLong);
+      } else {
+        for (int ix = message.repeatedLong.length - 1; ix >= 0; --ix) {
+          writeUInt64(34, message.repeatedLong[ix]);
+        }
+      }
+    }
+    if (message.repeatedInt != null) {
+      if (message.packed) {
+        writePackedUInt32(33, message.repeatedInt);
+      } else {
+        for (int ix = message.repeatedInt.length - 1; ix >= 0; --ix) {
+          writeUInt32(33, message.repeatedInt[ix]);
+        }
+      }
+    }
+
+    writeEnum(21, message.optionalEnum);
+
+    if (message.children != null) {
+      for (int ix = message.children.length - 1; ix >= 0; --ix) {
+        encodeMessage(18, message.children[ix]);
+      }
+    }
+
+    writeByteArray(15, message.optionalBytes);
+    writeString(14, message.optionalString);
+    writeBool(13, message.optionalBoolean);
+    writeDouble(12, message.optionalDouble);
+    writeFloat(11, message.optionalFloat);
+    writeFixed64(10, message.optionalSFixed64);
+    writeFixed32(9, message.optionalSFixed32);
+    writeFixed64(8, message.optionalFixed64);
+    writeFixed32(7, message.optionalFixed32);
+    writeSInt64(6, message.optionalSInt64);
+    writeSInt32(5, message.optionalSInt32);
+    writeUInt64(4, message.optionalLong);
+    writeUInt32(3, message.optionalInt);
+
+    // Now write out the serialized size for this message.
+    int serializedSize = (int) (prevPos - position);
+    writeUInt32NoTag(serializedSize);
+  }
+
+  @Override
+  public void reset() {
+    position = limit - 1;
+  }
+
+  public final void writeTag(final int fieldNumber, final int wireType) throws IOException {
+    writeUInt32NoTag(WireFormat.makeTag(fieldNumber, wireType));
+  }
+
+  public final void writeInt32(final int fieldNumber, final int value) throws IOException {
+    writeInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeUInt32(final int fieldNumber, final int value) throws IOException {
+    writeUInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeSInt32(final int fieldNumber, final int value) throws IOException {
+    writeSInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeEnum(final int fieldNumber, final int value) throws IOException {
+    writeInt32(fieldNumber, value);
+  }
+
+  public final void writeFixed32(final int fieldNumber, final int value) throws IOException {
+    writeFixed32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+  }
+
+  public final void writeUInt64(final int fieldNumber, final long value) throws IOException {
+    writeUInt64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeSInt64(final int fieldNumber, final long value) throws IOException {
+    writeSInt64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeFixed64(final int fieldNumber, final long value) throws IOException {
+    writeFixed64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+  }
+
+  public final void writeBool(final int fieldNumber, final boolean value) throws IOException {
+    write((byte) (value ? 1 : 0));
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public void writeFloat(int fieldNumber, float value) throws IOException {
+    writeFixed32(fieldNumber, Float.floatToRawIntBits(value));
+  }
+
+  public void writeDouble(int fieldNumber, double value) throws IOException {
+    writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
+  }
+
+  public final void writePackedUInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeUInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedUInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeUInt64NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedSInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeSInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedSInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeSInt64NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** Writes a packed fixed32 or sfixed32 field. */
+  public final void writePackedFixed32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** Writes a packed fixed64 or sfixed64 field. */
+  public final void writePackedFixed64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed64NoTag(values[ix]);
+    }
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedFloat(final int fieldNumber, final float[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed32NoTag(Float.floatToRawIntBits(values[ix]));
+    }
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedDouble(final int fieldNumber, final double[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed64NoTag(Double.doubleToRawLongBits(values[ix]));
+    }
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedBool(final int fieldNumber, final boolean[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      write((byte) (values[ix] ? 1 : 0));
+    }
+    writeUInt32NoTag(values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedEnum(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeString(final int fieldNumber, final String value) throws IOException {
+    writeStringNoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeByteArray(final int fieldNumber, final byte[] value) throws IOException {
+    writeByteArray(fieldNumber, value, 0, value.length);
+  }
+
+  public final void writeByteArray(
+          final int fieldNumber, final byte[] value, final int offset, final int length)
+          throws IOException {
+    writeByteArrayNoTag(value, offset, length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeByteBuffer(final int fieldNumber, final ByteBuffer value)
+          throws IOException {
+    writeRawBytes(value);
+    writeUInt32NoTag(value.capacity());
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writeByteArrayNoTag(final byte[] value, int offset, int length)
+          throws IOException {
+    write(value, offset, length);
+    writeUInt32NoTag(length);
+  }
+
+  public final void writeRawBytes(final ByteBuffer value) throws IOException {
+    if (value.hasArray()) {
+      write(value.array(), value.arrayOffset(), value.capacity());
+    } else {
+      ByteBuffer duplicated = value.duplicate();
+      duplicated.clear();
+      write(duplicated);
+    }
+  }
+
+  public final void write(byte value) throws IOException {
+    if (position < address) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, address: %d, len: %d", position, address, 1)));
+    }
+    UNSAFE.putByte(position--, value);
+  }
+
+  public final void writeSInt32NoTag(int value) throws IOException {
+    writeUInt32NoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  public final void writeSInt64NoTag(long value) throws IOException {
+    writeUInt64NoTag(WireFormat.encodeZigZag64(value));
+  }
+
+  public final void writeInt32NoTag(int value) throws IOException {
+    if (value >= 0) {
+      writeUInt32NoTag(value);
+    } else {
+      // Must sign-extend.
+      writeUInt64NoTag(value);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("fallthrough")
+  public final void writeUInt32NoTag(int value) throws IOException {
+    final byte size = Utils.computeUInt32SizeNoTag(value);
+    if (position - size < addressMinusOne) {
+      throw new OutOfSpaceException();
+    }
+
+    long pos = position;
+    position -= size;
+    int sign = 0;
+    switch (size) {
+      case 5:
+        UNSAFE.putByte(pos--, (byte) (value >>> 28));
+        sign = 0x80;
+        // fall through
+      case 4:
+        UNSAFE.putByte(pos--, (byte) (((value >>> 21) & 0x7F) | sign));
+        sign = 0x80;
+        // fall through
+      case 3:
+        UNSAFE.putByte(pos--, (byte) (((value >>> 14) & 0x7F) | sign));
+        sign = 0x80;
+        // fall through
+      case 2:
+        UNSAFE.putByte(pos--, (byte) (((value >>> 7) & 0x7F) | sign));
+        sign = 0x80;
+        // fall through
+      case 1:
+        UNSAFE.putByte(pos, (byte) ((value & 0x7F) | sign));
+    }
+  }
+
+  @Override
+  public final void writeUInt64NoTag(long value) throws IOException {
+    int size = Utils.computeUInt64SizeNoTag(value);
+    if (position - size < addressMinusOne) {
+      throw new OutOfSpaceException();
+    }
+    position -= size;
+    long pos = position + 1;
+    while (true) {
+      if (size-- == 1) {
+        UNSAFE.putByte(pos, (byte) value);
+        return;
+      } else {
+        UNSAFE.putByte(pos++, (byte) (((int) value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+    }
+  }
+
+  public final void writeFixed32NoTag(int value) throws IOException {
+    if (position - 3 < address) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, address: %d, len: %d", position, address, 4)));
+    }
+    if (WIDE_STORES) {
+      position -= WireFormat.FIXED_32_SIZE;
+      UNSAFE.putInt(position + 1, value);
+    } else {
+      UNSAFE.putByte(position--, (byte) ((value >> 24) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((value >> 16) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((value >> 8) & 0xFF));
+      UNSAFE.putByte(position--, (byte) (value & 0xFF));
+    }
+  }
+
+  public final void writeFixed64NoTag(long value) throws IOException {
+    if (position - 7 < address) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, address: %d, len: %d", position, address, 8)));
+    }
+    if (WIDE_STORES) {
+      position -= WireFormat.FIXED_64_SIZE;
+      UNSAFE.putLong(position + 1, value);
+    } else {
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 56) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 48) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 40) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 32) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 24) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 16) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value >> 8) & 0xFF));
+      UNSAFE.putByte(position--, (byte) ((int) (value) & 0xFF));
+    }
+  }
+
+  public final void write(byte[] value, int offset, int length) throws IOException {
+    final long startPos = (position - length) + 1;
+    if ((offset | length | (value.length - (offset + length))) < 0 || startPos < address) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, address: %d, len: %d", position, address, length)));
+    }
+    UNSAFE.copyMemory(value, ARRAY_BASE_OFFSET + offset, null, startPos, length);
+    position = startPos - 1;
+  }
+
+  public final void writeLazy(byte[] value, int offset, int length) throws IOException {
+    write(value, offset, length);
+  }
+
+  public final void write(ByteBuffer value) throws IOException {
+    final int length = value.remaining();
+    final long startPos = (position - length) + 1;
+    if (startPos < address) {
+      throw new OutOfSpaceException(new IndexOutOfBoundsException(
+              String.format("Pos: %d, address: %d, len: %d", position, address, length)));
+    }
+    if (value.hasArray()) {
+      UNSAFE.copyMemory(value.array(), ARRAY_BASE_OFFSET + value.arrayOffset() + value.position(),
+              null, startPos, length);
+    } else if (value.isDirect()) {
+      UNSAFE.copyMemory(UnsafeUtil.addressOffset(value) + value.position(), startPos, length);
+    } else {
+      for (int ix = value.position(), pos = 0; ix < value.limit(); ++ix, ++pos) {
+        UNSAFE.putByte(startPos + pos, value.get(ix));
+      }
+    }
+    value.position(value.limit());
+    position = startPos - 1;
+  }
+
+  public final void writeStringNoTag(String value) throws IOException {
+    final long oldPosition = position;
+    try {
+      final long stringStart = UTF8_PROCESSOR.encodeUtf8ReverseDirect(value, address, position + 1);
+      position = stringStart - 1;
+      writeUInt32NoTag((int) (oldPosition - position));
+    } catch (Utf8.UnpairedSurrogateException e) {
+      // Roll back the change - we fall back to inefficient path.
+      position = oldPosition;
+      inefficientWriteStringNoTag(value);
+    } catch (IndexOutOfBoundsException e) {
+      throw new OutOfSpaceException(e);
+    }
+  }
+
+  public final int spaceLeft() {
+    return (int) (position - addressMinusOne);
+  }
+
+  @Override
+  public final int getTotalBytesWritten() {
+    return (int) ((limit - position) - 1);
+  }
+
+  private void inefficientWriteStringNoTag(String value) throws IOException {
+    final byte[] bytes = value.getBytes(Utf8.UTF_8);
+    writeLazy(bytes, 0, bytes.length);
+    writeUInt32NoTag(bytes.length);
+  }
+}
@@ -11,6 +11,8 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 
+import java.nio.ByteBuffer;
+
 @State(Scope.Benchmark)
 @Fork(1)
 public class EncodingAlgorithmBenchmark {
@@ -19,9 +21,18 @@ public class EncodingAlgorithmBenchmark {
     REVERSE
   }
 
+  public enum BufferType {
+    ARRAY,
+    NIO_HEAP,
+    NIO_DIRECT
+  }
+
   @Param
   public Direction direction;
 
+  @Param
+  public BufferType bufferType;
+
   @Param({"50"})
   public int stringLength;
 
@@ -34,27 +45,61 @@ public class EncodingAlgorithmBenchmark {
   @Param({"4"})
   public int branchingFactor;
 
+  @Param({"false", "true"})
+  public boolean packed;
+
+  /**
+   * {@value VarintProfile#DEFAULT_NAME}, or the path of a histogram file to draw varint field
+   * values from.
+   *
+   * @see VarintProfile
+   */
+  @Param({VarintProfile.DEFAULT_NAME})
+  public String varintProfile;
+
   private Encoder encoder;
-  private byte[] output = new byte[1024 * 1024];
+  private ByteBuffer output;
   private TestMessage message;
   private SerializedSizeManager sizeManager;
 
-
   @Setup
   public void setUp() throws Exception {
     // Create the message.
     int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
     sizeManager = new SerializedSizeManager(numMessages);
     message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
-        treeHeight, branchingFactor, sizeManager);
+        treeHeight, branchingFactor, packed, false, VarintProfile.load(varintProfile),
+        sizeManager);
 
+    switch (bufferType) {
+      case ARRAY:
+        output = ByteBuffer.wrap(new byte[1024 * 1024]);
+        encoder = newArrayEncoder(output.array(), 0, output.capacity());
+        break;
+      case NIO_HEAP:
+        // Encode into a slice so that the encoder has to honor the array offset.
+        ByteBuffer whole = ByteBuffer.allocate(1024 * 1024 + 1);
+        whole.position(1);
+        output = whole.slice();
+        encoder = newArrayEncoder(output.array(), output.arrayOffset(), output.capacity());
+        break;
+      case NIO_DIRECT:
+        output = ByteBuffer.allocateDirect(1024 * 1024);
+        encoder = direction == Direction.FORWARD
+                ? new DirectForwardEncoder(output)
+                : new DirectReverseEncoder(output);
+        break;
+    }
+  }
+
+  private Encoder newArrayEncoder(byte[] array, int offset, int length) {
     switch (direction) {
       case FORWARD:
-        encoder = new ForwardEncoder(output, 0, output.length);
-        break;
+        return new ForwardEncoder(array, offset, length);
       case REVERSE:
-        encoder = new ReverseEncoder(output, 0, output.length);
-        break;
+        return new ReverseEncoder(array, offset, length);
+      default:
+        throw new AssertionError();
     }
   }
 
@@ -0,0 +1,194 @@
+package com.google.protobench;
+
+import com.google.protobench.EncodingAlgorithmBenchmark.BufferType;
+import com.google.protobench.EncodingAlgorithmBenchmark.Direction;
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Runs {@link EncodingAlgorithmBenchmark}-style encodes on 1 to {@link Threads#MAX} threads, to
+ * check that the encoders scale linearly. Each benchmark method differs only in its thread count;
+ * divide a method's score by its thread count to compare per-thread throughput.
+ *
+ * <p>Nothing mutable is shared between threads: each thread builds its own message, size manager,
+ * input generators, encoder and output buffer in its {@link ThreadState}. JMH pads state objects,
+ * and the output buffers are padded here, so that neighbouring threads' hot data does not share
+ * cache lines.
+ */
+@Fork(1)
+public class EncodingScalingBenchmark {
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * Bytes left unused on either side of each output buffer. Two cache lines, to also cover
+   * adjacent-line prefetching.
+   */
+  private static final int PADDING = 128;
+
+  public enum Workload {
+    /** Encodes a whole message tree. */
+    MESSAGE,
+    /** Writes one 64-bit varint of each serialized size, from per-thread generators. */
+    VARINTS
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    @Param
+    public Workload workload;
+
+    @Param
+    public Direction direction;
+
+    @Param({"ARRAY", "NIO_DIRECT"})
+    public BufferType bufferType;
+
+    @Param({"50"})
+    public int stringLength;
+
+    @Param({"20"})
+    public int numRepeatedFields;
+
+    @Param({"2"})
+    public int treeHeight;
+
+    @Param({"4"})
+    public int branchingFactor;
+
+    /**
+     * {@value VarintProfile#DEFAULT_NAME}, or the path of a histogram file to draw varint field
+     * values from.
+     *
+     * @see VarintProfile
+     */
+    @Param({VarintProfile.DEFAULT_NAME})
+    public String varintProfile;
+
+    private Encoder encoder;
+    private TestMessage message;
+    private SerializedSizeManager sizeManager;
+    private VarintInput.Generator[] generators;
+
+    @Setup
+    public void setUp() throws IOException {
+      VarintProfile profile = VarintProfile.load(varintProfile);
+      int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+      sizeManager = new SerializedSizeManager(numMessages);
+      // The random generators behind the inputs are shared and not thread-safe, and each thread
+      // sets up its own state concurrently.
+      synchronized (Utils.RANDOM) {
+        message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+            treeHeight, branchingFactor, false, false, profile, sizeManager);
+      }
+
+      VarintInput[] inputs = VarintInput.get64BitValues();
+      generators = new VarintInput.Generator[inputs.length];
+      for (int i = 0; i < inputs.length; ++i) {
+        generators[i] = new VarintInput.Generator(inputs[i]);
+      }
+
+      switch (bufferType) {
+        case ARRAY:
+          byte[] array = new byte[PADDING + BUFFER_SIZE + PADDING];
+          encoder = direction == Direction.FORWARD
+              ? new ForwardEncoder(array, PADDING, BUFFER_SIZE)
+              : new ReverseEncoder(array, PADDING, BUFFER_SIZE);
+          break;
+        case NIO_DIRECT:
+          ByteBuffer whole = ByteBuffer.allocateDirect(PADDING + BUFFER_SIZE + PADDING);
+          whole.position(PADDING);
+          whole.limit(PADDING + BUFFER_SIZE);
+          ByteBuffer output = whole.slice();
+          encoder = direction == Direction.FORWARD
+              ? new DirectForwardEncoder(output)
+              : new DirectReverseEncoder(output);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported buffer type: " + bufferType);
+      }
+    }
+
+    /**
+     * Resets inline rather than in a {@code Level.Invocation} teardown, whose per-call
+     * bookkeeping would dominate the VARINTS workload.
+     */
+    int encode() throws IOException {
+      encoder.reset();
+      switch (workload) {
+        case MESSAGE:
+          sizeManager.clearAll();
+          encoder.encodeMessageNoTag(message);
+          break;
+        case VARINTS:
+          for (VarintInput.Generator generator : generators) {
+            encoder.writeUInt64NoTag(generator.nextLongValue());
+          }
+          break;
+        default:
+          throw new AssertionError();
+      }
+      return encoder.getTotalBytesWritten();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int threads01(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  @Benchmark
+  @Threads(2)
+  public int threads02(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int threads04(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int threads08(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public int threads16(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public int threads32(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public int threads64(ThreadState state) throws IOException {
+    return state.encode();
+  }
+
+  /**
+   * One thread per available processor.
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public int threadsMax(ThreadState state) throws IOException {
+    return state.encode();
+  }
+}
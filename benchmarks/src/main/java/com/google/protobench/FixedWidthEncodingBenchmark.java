@@ -0,0 +1,60 @@
+package com.google.protobench;
+
+import static com.google.protobench.Utils.RANDOM;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encodes a message whose payload is dominated by {@code repeatedFloat} and {@code
+ * repeatedDouble}, so that the cost of fixed-width writes is not hidden behind varint and string
+ * encoding. The other repeated fields are left empty. Sizes stay cached between operations.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class FixedWidthEncodingBenchmark {
+  @Param
+  public EncodingAlgorithmBenchmark.Direction direction;
+
+  @Param({"false", "true"})
+  public boolean packed;
+
+  @Param({"16", "256", "4096"})
+  public int numValues;
+
+  private TestMessage message;
+  private Encoder encoder;
+
+  @Setup
+  public void setUp() throws Exception {
+    message = TestMessage.newRandomInstance(0, 0, 0, 0, 1, packed, new SerializedSizeManager(1));
+    message.repeatedFloat = new float[numValues];
+    message.repeatedDouble = new double[numValues];
+    for (int ix = 0; ix < numValues; ++ix) {
+      message.repeatedFloat[ix] = RANDOM.nextFloat();
+      message.repeatedDouble[ix] = RANDOM.nextDouble();
+    }
+
+    byte[] output = new byte[message.getSerializedSize() + WireFormat.MAX_VARINT_SIZE];
+    switch (direction) {
+      case FORWARD:
+        encoder = new ForwardEncoder(output, 0, output.length);
+        break;
+      case REVERSE:
+        encoder = new ReverseEncoder(output, 0, output.length);
+        break;
+    }
+  }
+
+  @Benchmark
+  public void encode() throws Exception {
+    encoder.encodeMessageNoTag(message);
+    encoder.reset();
+  }
+}
@@ -0,0 +1,819 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_ARRAY_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Parses {@link TestMessage} instances from the bytes produced by {@link ForwardEncoder} and
+ * {@link ReverseEncoder}. Repeated scalar fields are accepted in both packed and unpacked form;
+ * a message is marked {@link TestMessage#packed} if any packed field was seen. Unknown fields are
+ * skipped.
+ */
+final class ForwardDecoder implements Decoder {
+  private static final int OPTIONAL_INT_TAG =
+          (3 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int OPTIONAL_LONG_TAG =
+          (4 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int OPTIONAL_SINT32_TAG =
+          (5 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int OPTIONAL_SINT64_TAG =
+          (6 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int OPTIONAL_FIXED32_TAG =
+          (7 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED32;
+  private static final int OPTIONAL_FIXED64_TAG =
+          (8 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED64;
+  private static final int OPTIONAL_SFIXED32_TAG =
+          (9 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED32;
+  private static final int OPTIONAL_SFIXED64_TAG =
+          (10 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED64;
+  private static final int OPTIONAL_FLOAT_TAG =
+          (11 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED32;
+  private static final int OPTIONAL_DOUBLE_TAG =
+          (12 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED64;
+  private static final int OPTIONAL_BOOLEAN_TAG =
+          (13 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int OPTIONAL_STRING_TAG =
+          (14 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int OPTIONAL_BYTES_TAG =
+          (15 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int CHILD_TAG =
+          (18 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int OPTIONAL_ENUM_TAG =
+          (21 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int REPEATED_INT_TAG =
+          (33 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int REPEATED_LONG_TAG =
+          (34 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int REPEATED_SINT32_TAG =
+          (35 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int REPEATED_SINT64_TAG =
+          (36 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int REPEATED_FIXED32_TAG =
+          (37 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED32;
+  private static final int REPEATED_FIXED64_TAG =
+          (38 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED64;
+  private static final int REPEATED_SFIXED32_TAG =
+          (39 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED32;
+  private static final int REPEATED_SFIXED64_TAG =
+          (40 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED64;
+  private static final int REPEATED_FLOAT_TAG =
+          (41 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED32;
+  private static final int REPEATED_DOUBLE_TAG =
+          (42 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_FIXED64;
+  private static final int REPEATED_BOOLEAN_TAG =
+          (43 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int PACKED_INT_TAG =
+          (33 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_LONG_TAG =
+          (34 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_SINT32_TAG =
+          (35 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_SINT64_TAG =
+          (36 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_FIXED32_TAG =
+          (37 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_FIXED64_TAG =
+          (38 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_SFIXED32_TAG =
+          (39 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_SFIXED64_TAG =
+          (40 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_FLOAT_TAG =
+          (41 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_DOUBLE_TAG =
+          (42 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_BOOLEAN_TAG =
+          (43 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int REPEATED_STRING_TAG =
+          (44 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int REPEATED_BYTES_TAG =
+          (45 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int REPEATED_ENUM_TAG =
+          (51 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_VARINT;
+  private static final int PACKED_ENUM_TAG =
+          (51 << WireFormat.TAG_TYPE_BITS) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+  private static final int DEFAULT_REPEATED_CAPACITY = 8;
+
+  private static final byte[] EMPTY_BYTES = new byte[0];
+  private static final int[] EMPTY_INTS = new int[0];
+  private static final long[] EMPTY_LONGS = new long[0];
+  private static final float[] EMPTY_FLOATS = new float[0];
+  private static final double[] EMPTY_DOUBLES = new double[0];
+  private static final boolean[] EMPTY_BOOLEANS = new boolean[0];
+  private static final String[] EMPTY_STRINGS = new String[0];
+  private static final byte[][] EMPTY_BYTE_ARRAYS = new byte[0][];
+  private static final TestMessage[] EMPTY_MESSAGES = new TestMessage[0];
+
+  private final byte[] buffer;
+  private final int offset;
+  private final int limit;
+  private final SerializedSizeManager sizeManager;
+  private int position;
+
+  ForwardDecoder(byte[] buffer, int offset, int length, SerializedSizeManager sizeManager) {
+    if (buffer == null) {
+      throw new NullPointerException("buffer");
+    }
+    if (sizeManager == null) {
+      throw new NullPointerException("sizeManager");
+    }
+    if ((offset | length | (buffer.length - (offset + length))) < 0) {
+      throw new IllegalArgumentException(String.format(
+              "Array range is invalid. Buffer.length=%d, offset=%d, length=%d",
+              buffer.length, offset, length));
+    }
+    this.buffer = buffer;
+    this.offset = offset;
+    this.sizeManager = sizeManager;
+    limit = offset + length;
+    reset();
+  }
+
+  @Override
+  public TestMessage decodeMessageNoTag() throws IOException {
+    final int length = readUInt32NoTag();
+    if (length < 0) {
+      throw InvalidWireFormatException.negativeSize();
+    }
+    if (length > limit - position) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    final int end = position + length;
+
+    final TestMessage message = TestMessage.newEmptyInstance(sizeManager);
+    message.optionalString = "";
+    message.optionalBytes = EMPTY_BYTES;
+
+    int[] repeatedInt = EMPTY_INTS;
+    long[] repeatedLong = EMPTY_LONGS;
+    int[] repeatedSInt32 = EMPTY_INTS;
+    long[] repeatedSInt64 = EMPTY_LONGS;
+    int[] repeatedFixed32 = EMPTY_INTS;
+    long[] repeatedFixed64 = EMPTY_LONGS;
+    int[] repeatedSFixed32 = EMPTY_INTS;
+    long[] repeatedSFixed64 = EMPTY_LONGS;
+    float[] repeatedFloat = EMPTY_FLOATS;
+    double[] repeatedDouble = EMPTY_DOUBLES;
+    boolean[] repeatedBoolean = EMPTY_BOOLEANS;
+    String[] repeatedString = EMPTY_STRINGS;
+    byte[][] repeatedBytes = EMPTY_BYTE_ARRAYS;
+    int[] repeatedEnum = EMPTY_INTS;
+    TestMessage[] children = EMPTY_MESSAGES;
+    int numInt = 0;
+    int numLong = 0;
+    int numSInt32 = 0;
+    int numSInt64 = 0;
+    int numFixed32 = 0;
+    int numFixed64 = 0;
+    int numSFixed32 = 0;
+    int numSFixed64 = 0;
+    int numFloat = 0;
+    int numDouble = 0;
+    int numBoolean = 0;
+    int numString = 0;
+    int numBytes = 0;
+    int numEnum = 0;
+    int numChildren = 0;
+
+    while (position < end) {
+      final int tag = readTag();
+      switch (tag) {
+        case OPTIONAL_INT_TAG:
+          message.optionalInt = readUInt32NoTag();
+          break;
+        case OPTIONAL_LONG_TAG:
+          message.optionalLong = readUInt64NoTag();
+          break;
+        case OPTIONAL_SINT32_TAG:
+          message.optionalSInt32 = WireFormat.decodeZigZag32(readUInt32NoTag());
+          break;
+        case OPTIONAL_SINT64_TAG:
+          message.optionalSInt64 = WireFormat.decodeZigZag64(readUInt64NoTag());
+          break;
+        case OPTIONAL_FIXED32_TAG:
+          message.optionalFixed32 = readFixed32NoTag();
+          break;
+        case OPTIONAL_FIXED64_TAG:
+          message.optionalFixed64 = readFixed64NoTag();
+          break;
+        case OPTIONAL_SFIXED32_TAG:
+          message.optionalSFixed32 = readFixed32NoTag();
+          break;
+        case OPTIONAL_SFIXED64_TAG:
+          message.optionalSFixed64 = readFixed64NoTag();
+          break;
+        case OPTIONAL_FLOAT_TAG:
+          message.optionalFloat = Float.intBitsToFloat(readFixed32NoTag());
+          break;
+        case OPTIONAL_DOUBLE_TAG:
+          message.optionalDouble = Double.longBitsToDouble(readFixed64NoTag());
+          break;
+        case OPTIONAL_BOOLEAN_TAG:
+          message.optionalBoolean = readUInt64NoTag() != 0;
+          break;
+        case OPTIONAL_STRING_TAG:
+          message.optionalString = readStringNoTag();
+          break;
+        case OPTIONAL_BYTES_TAG:
+          message.optionalBytes = readByteArrayNoTag();
+          break;
+        case CHILD_TAG:
+          if (numChildren == children.length) {
+            children = Arrays.copyOf(children, newCapacity(numChildren));
+          }
+          final TestMessage child = decodeMessageNoTag();
+          message.subtreeSize += child.subtreeSize;
+          children[numChildren++] = child;
+          break;
+        case OPTIONAL_ENUM_TAG:
+          message.optionalEnum = readUInt32NoTag();
+          break;
+        case REPEATED_INT_TAG:
+          if (numInt == repeatedInt.length) {
+            repeatedInt = Arrays.copyOf(repeatedInt, newCapacity(numInt));
+          }
+          repeatedInt[numInt++] = readUInt32NoTag();
+          break;
+        case REPEATED_LONG_TAG:
+          if (numLong == repeatedLong.length) {
+            repeatedLong = Arrays.copyOf(repeatedLong, newCapacity(numLong));
+          }
+          repeatedLong[numLong++] = readUInt64NoTag();
+          break;
+        case REPEATED_SINT32_TAG:
+          if (numSInt32 == repeatedSInt32.length) {
+            repeatedSInt32 = Arrays.copyOf(repeatedSInt32, newCapacity(numSInt32));
+          }
+          repeatedSInt32[numSInt32++] = WireFormat.decodeZigZag32(readUInt32NoTag());
+          break;
+        case REPEATED_SINT64_TAG:
+          if (numSInt64 == repeatedSInt64.length) {
+            repeatedSInt64 = Arrays.copyOf(repeatedSInt64, newCapacity(numSInt64));
+          }
+          repeatedSInt64[numSInt64++] = WireFormat.decodeZigZag64(readUInt64NoTag());
+          break;
+        case REPEATED_FIXED32_TAG:
+          if (numFixed32 == repeatedFixed32.length) {
+            repeatedFixed32 = Arrays.copyOf(repeatedFixed32, newCapacity(numFixed32));
+          }
+          repeatedFixed32[numFixed32++] = readFixed32NoTag();
+          break;
+        case REPEATED_FIXED64_TAG:
+          if (numFixed64 == repeatedFixed64.length) {
+            repeatedFixed64 = Arrays.copyOf(repeatedFixed64, newCapacity(numFixed64));
+          }
+          repeatedFixed64[numFixed64++] = readFixed64NoTag();
+          break;
+        case REPEATED_SFIXED32_TAG:
+          if (numSFixed32 == repeatedSFixed32.length) {
+            repeatedSFixed32 = Arrays.copyOf(repeatedSFixed32, newCapacity(numSFixed32));
+          }
+          repeatedSFixed32[numSFixed32++] = readFixed32NoTag();
+          break;
+        case REPEATED_SFIXED64_TAG:
+          if (numSFixed64 == repeatedSFixed64.length) {
+            repeatedSFixed64 = Arrays.copyOf(repeatedSFixed64, newCapacity(numSFixed64));
+          }
+          repeatedSFixed64[numSFixed64++] = readFixed64NoTag();
+          break;
+        case REPEATED_FLOAT_TAG:
+          if (numFloat == repeatedFloat.length) {
+            repeatedFloat = Arrays.copyOf(repeatedFloat, newCapacity(numFloat));
+          }
+          repeatedFloat[numFloat++] = Float.intBitsToFloat(readFixed32NoTag());
+          break;
+        case REPEATED_DOUBLE_TAG:
+          if (numDouble == repeatedDouble.length) {
+            repeatedDouble = Arrays.copyOf(repeatedDouble, newCapacity(numDouble));
+          }
+          repeatedDouble[numDouble++] = Double.longBitsToDouble(readFixed64NoTag());
+          break;
+        case REPEATED_BOOLEAN_TAG:
+          if (numBoolean == repeatedBoolean.length) {
+            repeatedBoolean = Arrays.copyOf(repeatedBoolean, newCapacity(numBoolean));
+          }
+          repeatedBoolean[numBoolean++] = readUInt64NoTag() != 0;
+          break;
+        case PACKED_INT_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numInt == repeatedInt.length) {
+              repeatedInt = Arrays.copyOf(repeatedInt, newCapacity(numInt));
+            }
+            repeatedInt[numInt++] = readUInt32NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_LONG_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numLong == repeatedLong.length) {
+              repeatedLong = Arrays.copyOf(repeatedLong, newCapacity(numLong));
+            }
+            repeatedLong[numLong++] = readUInt64NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_SINT32_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numSInt32 == repeatedSInt32.length) {
+              repeatedSInt32 = Arrays.copyOf(repeatedSInt32, newCapacity(numSInt32));
+            }
+            repeatedSInt32[numSInt32++] = WireFormat.decodeZigZag32(readUInt32NoTag());
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_SINT64_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numSInt64 == repeatedSInt64.length) {
+              repeatedSInt64 = Arrays.copyOf(repeatedSInt64, newCapacity(numSInt64));
+            }
+            repeatedSInt64[numSInt64++] = WireFormat.decodeZigZag64(readUInt64NoTag());
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_FIXED32_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numFixed32 == repeatedFixed32.length) {
+              repeatedFixed32 = Arrays.copyOf(repeatedFixed32, newCapacity(numFixed32));
+            }
+            repeatedFixed32[numFixed32++] = readFixed32NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_FIXED64_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numFixed64 == repeatedFixed64.length) {
+              repeatedFixed64 = Arrays.copyOf(repeatedFixed64, newCapacity(numFixed64));
+            }
+            repeatedFixed64[numFixed64++] = readFixed64NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_SFIXED32_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numSFixed32 == repeatedSFixed32.length) {
+              repeatedSFixed32 = Arrays.copyOf(repeatedSFixed32, newCapacity(numSFixed32));
+            }
+            repeatedSFixed32[numSFixed32++] = readFixed32NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_SFIXED64_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numSFixed64 == repeatedSFixed64.length) {
+              repeatedSFixed64 = Arrays.copyOf(repeatedSFixed64, newCapacity(numSFixed64));
+            }
+            repeatedSFixed64[numSFixed64++] = readFixed64NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_FLOAT_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numFloat == repeatedFloat.length) {
+              repeatedFloat = Arrays.copyOf(repeatedFloat, newCapacity(numFloat));
+            }
+            repeatedFloat[numFloat++] = Float.intBitsToFloat(readFixed32NoTag());
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_DOUBLE_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numDouble == repeatedDouble.length) {
+              repeatedDouble = Arrays.copyOf(repeatedDouble, newCapacity(numDouble));
+            }
+            repeatedDouble[numDouble++] = Double.longBitsToDouble(readFixed64NoTag());
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case PACKED_BOOLEAN_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numBoolean == repeatedBoolean.length) {
+              repeatedBoolean = Arrays.copyOf(repeatedBoolean, newCapacity(numBoolean));
+            }
+            repeatedBoolean[numBoolean++] = readUInt64NoTag() != 0;
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        case REPEATED_STRING_TAG:
+          if (numString == repeatedString.length) {
+            repeatedString = Arrays.copyOf(repeatedString, newCapacity(numString));
+          }
+          repeatedString[numString++] = readStringNoTag();
+          break;
+        case REPEATED_BYTES_TAG:
+          if (numBytes == repeatedBytes.length) {
+            repeatedBytes = Arrays.copyOf(repeatedBytes, newCapacity(numBytes));
+          }
+          repeatedBytes[numBytes++] = readByteArrayNoTag();
+          break;
+        case REPEATED_ENUM_TAG:
+          if (numEnum == repeatedEnum.length) {
+            repeatedEnum = Arrays.copyOf(repeatedEnum, newCapacity(numEnum));
+          }
+          repeatedEnum[numEnum++] = readUInt32NoTag();
+          break;
+        case PACKED_ENUM_TAG: {
+          final int packedEnd = readPackedEnd();
+          while (position < packedEnd) {
+            if (numEnum == repeatedEnum.length) {
+              repeatedEnum = Arrays.copyOf(repeatedEnum, newCapacity(numEnum));
+            }
+            repeatedEnum[numEnum++] = readUInt32NoTag();
+          }
+          checkPackedEnd(packedEnd);
+          message.packed = true;
+          break;
+        }
+        default:
+          skipField(tag);
+          break;
+      }
+    }
+    if (position != end) {
+      // The last field ran past the end of the message.
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+
+    message.repeatedInt = numInt == repeatedInt.length
+            ? repeatedInt : Arrays.copyOf(repeatedInt, numInt);
+    message.repeatedLong = numLong == repeatedLong.length
+            ? repeatedLong : Arrays.copyOf(repeatedLong, numLong);
+    message.repeatedSInt32 = numSInt32 == repeatedSInt32.length
+            ? repeatedSInt32 : Arrays.copyOf(repeatedSInt32, numSInt32);
+    message.repeatedSInt64 = numSInt64 == repeatedSInt64.length
+            ? repeatedSInt64 : Arrays.copyOf(repeatedSInt64, numSInt64);
+    message.repeatedFixed32 = numFixed32 == repeatedFixed32.length
+            ? repeatedFixed32 : Arrays.copyOf(repeatedFixed32, numFixed32);
+    message.repeatedFixed64 = numFixed64 == repeatedFixed64.length
+            ? repeatedFixed64 : Arrays.copyOf(repeatedFixed64, numFixed64);
+    message.repeatedSFixed32 = numSFixed32 == repeatedSFixed32.length
+            ? repeatedSFixed32 : Arrays.copyOf(repeatedSFixed32, numSFixed32);
+    message.repeatedSFixed64 = numSFixed64 == repeatedSFixed64.length
+            ? repeatedSFixed64 : Arrays.copyOf(repeatedSFixed64, numSFixed64);
+    message.repeatedFloat = numFloat == repeatedFloat.length
+            ? repeatedFloat : Arrays.copyOf(repeatedFloat, numFloat);
+    message.repeatedDouble = numDouble == repeatedDouble.length
+            ? repeatedDouble : Arrays.copyOf(repeatedDouble, numDouble);
+    message.repeatedBoolean = numBoolean == repeatedBoolean.length
+            ? repeatedBoolean : Arrays.copyOf(repeatedBoolean, numBoolean);
+    message.repeatedString = numString == repeatedString.length
+            ? repeatedString : Arrays.copyOf(repeatedString, numString);
+    message.repeatedBytes = numBytes == repeatedBytes.length
+            ? repeatedBytes : Arrays.copyOf(repeatedBytes, numBytes);
+    message.repeatedEnum = numEnum == repeatedEnum.length
+            ? repeatedEnum : Arrays.copyOf(repeatedEnum, numEnum);
+    if (numChildren > 0) {
+      message.children = numChildren == children.length
+              ? children : Arrays.copyOf(children, numChildren);
+    }
+    return message;
+  }
+
+  @Override
+  public void reset() {
+    position = offset;
+  }
+
+  @Override
+  public int readTag() throws IOException {
+    if (position == limit) {
+      return 0;
+    }
+    final int tag = readUInt32NoTag();
+    if (WireFormat.getTagFieldNumber(tag) == 0) {
+      throw InvalidWireFormatException.invalidTag();
+    }
+    return tag;
+  }
+
+  public void skipField(final int tag) throws IOException {
+    switch (WireFormat.getTagWireType(tag)) {
+      case WireFormat.WIRETYPE_VARINT:
+        readUInt64NoTag();
+        return;
+      case WireFormat.WIRETYPE_FIXED64:
+        skipRawBytes(WireFormat.FIXED_64_SIZE);
+        return;
+      case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+        skipRawBytes(readUInt32NoTag());
+        return;
+      case WireFormat.WIRETYPE_START_GROUP:
+        final int endTag =
+                WireFormat.makeTag(WireFormat.getTagFieldNumber(tag), WireFormat.WIRETYPE_END_GROUP);
+        while (true) {
+          final int nestedTag = readTag();
+          if (nestedTag == 0) {
+            throw InvalidWireFormatException.truncatedMessage();
+          }
+          if (nestedTag == endTag) {
+            return;
+          }
+          skipField(nestedTag);
+        }
+      case WireFormat.WIRETYPE_FIXED32:
+        skipRawBytes(WireFormat.FIXED_32_SIZE);
+        return;
+      default:
+        throw InvalidWireFormatException.invalidWireType();
+    }
+  }
+
+  /**
+   * Reads the length prefix of a packed field and returns the position at which it ends.
+   */
+  private int readPackedEnd() throws IOException {
+    final int size = readUInt32NoTag();
+    if (size < 0) {
+      throw InvalidWireFormatException.negativeSize();
+    }
+    if (size > limit - position) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    return position + size;
+  }
+
+  private void checkPackedEnd(final int packedEnd) throws IOException {
+    if (position != packedEnd) {
+      // The last element ran past the end of the packed field.
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+  }
+
+  public final String readStringNoTag() throws IOException {
+    final int size = readUInt32NoTag();
+    if (size < 0) {
+      throw InvalidWireFormatException.negativeSize();
+    }
+    if (size > limit - position) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    String value = new String(buffer, position, size, Utf8.UTF_8);
+    position += size;
+    return value;
+  }
+
+  public final byte[] readByteArrayNoTag() throws IOException {
+    final int size = readUInt32NoTag();
+    if (size < 0) {
+      throw InvalidWireFormatException.negativeSize();
+    }
+    if (size > limit - position) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    final int oldPosition = position;
+    position += size;
+    return Arrays.copyOfRange(buffer, oldPosition, position);
+  }
+
+  public final void skipRawBytes(final int size) throws IOException {
+    if (size < 0) {
+      throw InvalidWireFormatException.negativeSize();
+    }
+    if (size > limit - position) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    position += size;
+  }
+
+  public final byte readRawByte() throws IOException {
+    if (position == limit) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    return buffer[position++];
+  }
+
+  @Override
+  public final int readUInt32NoTag() throws IOException {
+    // The fast paths read without bounds checks, so they require room for the largest varint.
+    if (limit - position >= WireFormat.MAX_VARINT_SIZE) {
+      if (HAS_UNSAFE_ARRAY_OPERATIONS) {
+        return readUInt32NoTagUnsafe();
+      }
+      return readUInt32NoTagSafe();
+    }
+    return (int) readUInt64NoTagSlowPath();
+  }
+
+  private int readUInt32NoTagUnsafe() throws IOException {
+    long pos = ARRAY_BASE_OFFSET + position;
+    int x;
+    if ((x = UNSAFE.getByte(buffer, pos++)) >= 0) {
+      position++;
+      return x;
+    } else if ((x ^= (UNSAFE.getByte(buffer, pos++) << 7)) < 0) {
+      x ^= (~0 << 7);
+    } else if ((x ^= (UNSAFE.getByte(buffer, pos++) << 14)) >= 0) {
+      x ^= (~0 << 7) ^ (~0 << 14);
+    } else if ((x ^= (UNSAFE.getByte(buffer, pos++) << 21)) < 0) {
+      x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21);
+    } else {
+      int y = UNSAFE.getByte(buffer, pos++);
+      x ^= y << 28;
+      x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21) ^ (~0 << 28);
+      // Discard the upper bytes of a sign-extended (10 byte) int32.
+      if (y < 0
+              && UNSAFE.getByte(buffer, pos++) < 0
+              && UNSAFE.getByte(buffer, pos++) < 0
+              && UNSAFE.getByte(buffer, pos++) < 0
+              && UNSAFE.getByte(buffer, pos++) < 0
+              && UNSAFE.getByte(buffer, pos++) < 0) {
+        throw InvalidWireFormatException.malformedVarint();
+      }
+    }
+    position = (int) (pos - ARRAY_BASE_OFFSET);
+    return x;
+  }
+
+  private int readUInt32NoTagSafe() throws IOException {
+    int pos = position;
+    int x;
+    if ((x = buffer[pos++]) >= 0) {
+      position = pos;
+      return x;
+    } else if ((x ^= (buffer[pos++] << 7)) < 0) {
+      x ^= (~0 << 7);
+    } else if ((x ^= (buffer[pos++] << 14)) >= 0) {
+      x ^= (~0 << 7) ^ (~0 << 14);
+    } else if ((x ^= (buffer[pos++] << 21)) < 0) {
+      x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21);
+    } else {
+      int y = buffer[pos++];
+      x ^= y << 28;
+      x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21) ^ (~0 << 28);
+      // Discard the upper bytes of a sign-extended (10 byte) int32.
+      if (y < 0
+              && buffer[pos++] < 0
+              && buffer[pos++] < 0
+              && buffer[pos++] < 0
+              && buffer[pos++] < 0
+              && buffer[pos++] < 0) {
+        throw InvalidWireFormatException.malformedVarint();
+      }
+    }
+    position = pos;
+    return x;
+  }
+
+  @Override
+  public final long readUInt64NoTag() throws IOException {
+    if (limit - position >= WireFormat.MAX_VARINT_SIZE) {
+      if (HAS_UNSAFE_ARRAY_OPERATIONS) {
+        return readUInt64NoTagUnsafe();
+      }
+      return readUInt64NoTagSafe();
+    }
+    return readUInt64NoTagSlowPath();
+  }
+
+  private long readUInt64NoTagUnsafe() throws IOException {
+    long pos = ARRAY_BASE_OFFSET + position;
+    long x;
+    int y;
+    if ((y = UNSAFE.getByte(buffer, pos++)) >= 0) {
+      position++;
+      return y;
+    } else if ((y ^= (UNSAFE.getByte(buffer, pos++) << 7)) < 0) {
+      x = y ^ (~0 << 7);
+    } else if ((y ^= (UNSAFE.getByte(buffer, pos++) << 14)) >= 0) {
+      x = y ^ ((~0 << 7) ^ (~0 << 14));
+    } else if ((y ^= (UNSAFE.getByte(buffer, pos++) << 21)) < 0) {
+      x = y ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+    } else if ((x = y ^ ((long) UNSAFE.getByte(buffer, pos++) << 28)) >= 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28);
+    } else if ((x ^= ((long) UNSAFE.getByte(buffer, pos++) << 35)) < 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35);
+    } else if ((x ^= ((long) UNSAFE.getByte(buffer, pos++) << 42)) >= 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42);
+    } else if ((x ^= ((long) UNSAFE.getByte(buffer, pos++) << 49)) < 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+              ^ (~0L << 49);
+    } else {
+      x ^= ((long) UNSAFE.getByte(buffer, pos++) << 56);
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+              ^ (~0L << 49) ^ (~0L << 56);
+      if (x < 0L && UNSAFE.getByte(buffer, pos++) < 0L) {
+        throw InvalidWireFormatException.malformedVarint();
+      }
+    }
+    position = (int) (pos - ARRAY_BASE_OFFSET);
+    return x;
+  }
+
+  private long readUInt64NoTagSafe() throws IOException {
+    int pos = position;
+    long x;
+    int y;
+    if ((y = buffer[pos++]) >= 0) {
+      position = pos;
+      return y;
+    } else if ((y ^= (buffer[pos++] << 7)) < 0) {
+      x = y ^ (~0 << 7);
+    } else if ((y ^= (buffer[pos++] << 14)) >= 0) {
+      x = y ^ ((~0 << 7) ^ (~0 << 14));
+    } else if ((y ^= (buffer[pos++] << 21)) < 0) {
+      x = y ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+    } else if ((x = y ^ ((long) buffer[pos++] << 28)) >= 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28);
+    } else if ((x ^= ((long) buffer[pos++] << 35)) < 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35);
+    } else if ((x ^= ((long) buffer[pos++] << 42)) >= 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42);
+    } else if ((x ^= ((long) buffer[pos++] << 49)) < 0L) {
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+              ^ (~0L << 49);
+    } else {
+      x ^= ((long) buffer[pos++] << 56);
+      x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+              ^ (~0L << 49) ^ (~0L << 56);
+      if (x < 0L && buffer[pos++] < 0L) {
+        throw InvalidWireFormatException.malformedVarint();
+      }
+    }
+    position = pos;
+    return x;
+  }
+
+  private long readUInt64NoTagSlowPath() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = readRawByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw InvalidWireFormatException.malformedVarint();
+  }
+
+  public final int readFixed32NoTag() throws IOException {
+    if (limit - position < WireFormat.FIXED_32_SIZE) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    return (buffer[position++] & 0xFF)
+            | ((buffer[position++] & 0xFF) << 8)
+            | ((buffer[position++] & 0xFF) << 16)
+            | ((buffer[position++] & 0xFF) << 24);
+  }
+
+  public final long readFixed64NoTag() throws IOException {
+    if (limit - position < WireFormat.FIXED_64_SIZE) {
+      throw InvalidWireFormatException.truncatedMessage();
+    }
+    return (buffer[position++] & 0xFFL)
+            | ((buffer[position++] & 0xFFL) << 8)
+            | ((buffer[position++] & 0xFFL) << 16)
+            | ((buffer[position++] & 0xFFL) << 24)
+            | ((buffer[position++] & 0xFFL) << 32)
+            | ((buffer[position++] & 0xFFL) << 40)
+            | ((buffer[position++] & 0xFFL) << 48)
+            | ((buffer[position++] & 0xFFL) << 56);
+  }
+
+  @Override
+  public final int getTotalBytesRead() {
+    return position - offset;
+  }
+
+  private static int newCapacity(int size) {
+    return Math.max(DEFAULT_REPEATED_CAPACITY, size << 1);
+  }
+}
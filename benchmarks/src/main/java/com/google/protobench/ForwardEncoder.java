@@ -1,17 +1,63 @@
 package com.google.protobench;
 
+import static com.google.protobench.TestMessageTags.CHILD;
+import static com.google.protobench.TestMessageTags.OPTIONAL_BOOLEAN;
+import static com.google.protobench.TestMessageTags.OPTIONAL_BYTES;
+import static com.google.protobench.TestMessageTags.OPTIONAL_DOUBLE;
+import static com.google.protobench.TestMessageTags.OPTIONAL_ENUM;
+import static com.google.protobench.TestMessageTags.OPTIONAL_FIXED32;
+import static com.google.protobench.TestMessageTags.OPTIONAL_FIXED64;
+import static com.google.protobench.TestMessageTags.OPTIONAL_FLOAT;
+import static com.google.protobench.TestMessageTags.OPTIONAL_INT;
+import static com.google.protobench.TestMessageTags.OPTIONAL_LONG;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SFIXED32;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SFIXED64;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SINT32;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SINT64;
+import static com.google.protobench.TestMessageTags.OPTIONAL_STRING;
+import static com.google.protobench.TestMessageTags.REPEATED_BOOLEAN;
+import static com.google.protobench.TestMessageTags.REPEATED_BYTES;
+import static com.google.protobench.TestMessageTags.REPEATED_DOUBLE;
+import static com.google.protobench.TestMessageTags.REPEATED_ENUM;
+import static com.google.protobench.TestMessageTags.REPEATED_FIXED32;
+import static com.google.protobench.TestMessageTags.REPEATED_FIXED64;
+import static com.google.protobench.TestMessageTags.REPEATED_FLOAT;
+import static com.google.protobench.TestMessageTags.REPEATED_INT;
+import static com.google.protobench.TestMessageTags.REPEATED_LONG;
+import static com.google.protobench.TestMessageTags.REPEATED_SFIXED32;
+import static com.google.protobench.TestMessageTags.REPEATED_SFIXED64;
+import static com.google.protobench.TestMessageTags.REPEATED_SINT32;
+import static com.google.protobench.TestMessageTags.REPEATED_SINT64;
+import static com.google.protobench.TestMessageTags.REPEATED_STRING;
 import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNALIGNED_ACCESS;
 import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_ARRAY_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.INT_ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.LONG_ARRAY_BASE_OFFSET;
 import static com.google.protobench.UnsafeUtil.UNSAFE;
 
+import com.google.protobuf.ByteString;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 final class ForwardEncoder implements Encoder {
+  /**
+   * Whether multi-byte values, such as the varints written by the {@code Word} and {@code Array}
+   * variants of the varint writers, can be written with single unaligned little-endian stores.
+   */
+  private static final boolean WORD_STORES = HAS_UNSAFE_ARRAY_OPERATIONS && HAS_UNALIGNED_ACCESS
+          && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /** The extra bytes a word store may touch beyond a 32-bit varint of the maximum size. */
+  private static final int VARINT32_WORD_SLACK = 8 - WireFormat.MAX_VARINT32_SIZE;
+
   private final byte[] buffer;
   private final int offset;
   private final int limit;
   private int position;
+  private Utf8Cache utf8Cache;
 
   ForwardEncoder(byte[] buffer, int offset, int length) {
     if (buffer == null) {
@@ -38,53 +84,179 @@ final class ForwardEncoder implements Encoder {
   public void encodeMessageNoTag(TestMessage message) throws IOException {
     writeUInt32NoTag(message.getSerializedSize());
 
-    writeUInt32(3, message.optionalInt);
-    writeUInt64(4, message.optionalLong);
-    writeFloat(11, message.optionalFloat);
-    writeDouble(12, message.optionalDouble);
-    writeBool(13, message.optionalBoolean);
-    writeString(14, message.optionalString);
-    writeByteArray(15, message.optionalBytes);
+    writeEncodedTag(OPTIONAL_INT);
+    writeUInt32NoTag(message.optionalInt);
+    writeEncodedTag(OPTIONAL_LONG);
+    writeUInt64NoTag(message.optionalLong);
+    writeEncodedTag(OPTIONAL_SINT32);
+    writeSInt32NoTag(message.optionalSInt32);
+    writeEncodedTag(OPTIONAL_SINT64);
+    writeSInt64NoTag(message.optionalSInt64);
+    writeTaggedFixed32(OPTIONAL_FIXED32, message.optionalFixed32);
+    writeEncodedTag(OPTIONAL_FIXED64);
+    writeFixed64NoTag(message.optionalFixed64);
+    writeTaggedFixed32(OPTIONAL_SFIXED32, message.optionalSFixed32);
+    writeEncodedTag(OPTIONAL_SFIXED64);
+    writeFixed64NoTag(message.optionalSFixed64);
+    writeTaggedFixed32(OPTIONAL_FLOAT, Float.floatToRawIntBits(message.optionalFloat));
+    writeEncodedTag(OPTIONAL_DOUBLE);
+    writeFixed64NoTag(Double.doubleToRawLongBits(message.optionalDouble));
+    writeTaggedBool(OPTIONAL_BOOLEAN, message.optionalBoolean);
+    writeEncodedTag(OPTIONAL_STRING);
+    if (message.optionalUtf8String != null) {
+      writeUtf8StringNoTag(message.optionalUtf8String);
+    } else {
+      writeStringNoTag(message.optionalString);
+    }
+    writeEncodedTag(OPTIONAL_BYTES);
+    writeByteArrayNoTag(message.optionalBytes, 0, message.optionalBytes.length);
 
     if (message.children != null) {
       for (int ix = 0; ix < message.children.length; ++ix) {
-        encodeMessage(18, message.children[ix]);
+        writeEncodedTag(CHILD);
+        encodeMessageNoTag(message.children[ix]);
       }
     }
+    writeEncodedTag(OPTIONAL_ENUM);
+    writeInt32NoTag(message.optionalEnum);
 
     if (message.repeatedInt != null) {
-      for (int ix = 0; ix < message.repeatedInt.length; ++ix) {
-        writeUInt32(33, message.repeatedInt[ix]);
+      if (message.packed) {
+        writePackedUInt32(33, message.repeatedInt,
+                message.getPackedDataSize(TestMessage.PACKED_UINT32));
+      } else {
+        for (int ix = 0; ix < message.repeatedInt.length; ++ix) {
+          writeEncodedTag(REPEATED_INT);
+          writeUInt32NoTag(message.repeatedInt[ix]);
+        }
       }
     }
     if (message.repeatedLong != null) {
-      for (int ix = 0; ix < message.repeatedLong.length; ++ix) {
-        writeUInt64(34, message.repeatedLong[ix]);
+      if (message.packed) {
+        writePackedUInt64(34, message.repeatedLong,
+                message.getPackedDataSize(TestMessage.PACKED_UINT64));
+      } else {
+        for (int ix = 0; ix < message.repeatedLong.length; ++ix) {
+          writeEncodedTag(REPEATED_LONG);
+          writeUInt64NoTag(message.repeatedLong[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt32 != null) {
+      if (message.packed) {
+        writePackedSInt32(35, message.repeatedSInt32,
+                message.getPackedDataSize(TestMessage.PACKED_SINT32));
+      } else {
+        for (int ix = 0; ix < message.repeatedSInt32.length; ++ix) {
+          writeEncodedTag(REPEATED_SINT32);
+          writeSInt32NoTag(message.repeatedSInt32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt64 != null) {
+      if (message.packed) {
+        writePackedSInt64(36, message.repeatedSInt64,
+                message.getPackedDataSize(TestMessage.PACKED_SINT64));
+      } else {
+        for (int ix = 0; ix < message.repeatedSInt64.length; ++ix) {
+          writeEncodedTag(REPEATED_SINT64);
+          writeSInt64NoTag(message.repeatedSInt64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(37, message.repeatedFixed32);
+      } else {
+        for (int ix = 0; ix < message.repeatedFixed32.length; ++ix) {
+          writeTaggedFixed32(REPEATED_FIXED32, message.repeatedFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(38, message.repeatedFixed64);
+      } else {
+        for (int ix = 0; ix < message.repeatedFixed64.length; ++ix) {
+          writeEncodedTag(REPEATED_FIXED64);
+          writeFixed64NoTag(message.repeatedFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(39, message.repeatedSFixed32);
+      } else {
+        for (int ix = 0; ix < message.repeatedSFixed32.length; ++ix) {
+          writeTaggedFixed32(REPEATED_SFIXED32, message.repeatedSFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(40, message.repeatedSFixed64);
+      } else {
+        for (int ix = 0; ix < message.repeatedSFixed64.length; ++ix) {
+          writeEncodedTag(REPEATED_SFIXED64);
+          writeFixed64NoTag(message.repeatedSFixed64[ix]);
+        }
       }
     }
     if (message.repeatedFloat != null) {
-      for (int ix = 0; ix < message.repeatedFloat.length; ++ix) {
-        writeFloat(41, message.repeatedFloat[ix]);
+      if (message.packed) {
+        writePackedFloat(41, message.repeatedFloat);
+      } else {
+        for (int ix = 0; ix < message.repeatedFloat.length; ++ix) {
+          writeTaggedFixed32(REPEATED_FLOAT, Float.floatToRawIntBits(message.repeatedFloat[ix]));
+        }
       }
     }
     if (message.repeatedDouble != null) {
-      for (int ix = 0; ix < message.repeatedDouble.length; ++ix) {
-        writeDouble(42, message.repeatedDouble[ix]);
+      if (message.packed) {
+        writePackedDouble(42, message.repeatedDouble);
+      } else {
+        for (int ix = 0; ix < message.repeatedDouble.length; ++ix) {
+          writeEncodedTag(REPEATED_DOUBLE);
+          writeFixed64NoTag(Double.doubleToRawLongBits(message.repeatedDouble[ix]));
+        }
       }
     }
     if (message.repeatedBoolean != null) {
-      for (int ix = 0; ix < message.repeatedBoolean.length; ++ix) {
-        writeBool(43, message.repeatedBoolean[ix]);
+      if (message.packed) {
+        writePackedBool(43, message.repeatedBoolean);
+      } else {
+        for (int ix = 0; ix < message.repeatedBoolean.length; ++ix) {
+          writeTaggedBool(REPEATED_BOOLEAN, message.repeatedBoolean[ix]);
+        }
       }
     }
-    if (message.repeatedString != null) {
+    if (message.repeatedUtf8String != null) {
+      for (int ix = 0; ix < message.repeatedUtf8String.length; ++ix) {
+        writeEncodedTag(REPEATED_STRING);
+        writeUtf8StringNoTag(message.repeatedUtf8String[ix]);
+      }
+    } else if (message.repeatedString != null) {
       for (int ix = 0; ix < message.repeatedString.length; ++ix) {
-        writeString(44, message.repeatedString[ix]);
+        writeEncodedTag(REPEATED_STRING);
+        writeStringNoTag(message.repeatedString[ix]);
       }
     }
     if (message.repeatedBytes != null) {
       for (int ix = 0; ix < message.repeatedBytes.length; ++ix) {
-        writeByteArray(45, message.repeatedBytes[ix]);
+        writeEncodedTag(REPEATED_BYTES);
+        final byte[] value = message.repeatedBytes[ix];
+        writeByteArrayNoTag(value, 0, value.length);
+      }
+    }
+    if (message.repeatedEnum != null) {
+      if (message.packed) {
+        writePackedEnum(51, message.repeatedEnum,
+                message.getPackedDataSize(TestMessage.PACKED_ENUM));
+      } else {
+        for (int ix = 0; ix < message.repeatedEnum.length; ++ix) {
+          writeEncodedTag(REPEATED_ENUM);
+          writeInt32NoTag(message.repeatedEnum[ix]);
+        }
       }
     }
   }
@@ -98,6 +270,54 @@ final class ForwardEncoder implements Encoder {
     writeUInt32NoTag(WireFormat.makeTag(fieldNumber, wireType));
   }
 
+  /**
+   * Writes a tag pre-encoded by {@link WireFormat#encodeTag}, with a single store when there is
+   * room for four bytes.
+   */
+  public final void writeEncodedTag(final int encodedTag) throws IOException {
+    final int size = WireFormat.encodedTagSize(encodedTag);
+    if (WORD_STORES && spaceLeft() >= 4) {
+      UNSAFE.putInt(buffer, ARRAY_BASE_OFFSET + position, encodedTag);
+      position += size;
+    } else {
+      writeTaggedWordSlowPath(encodedTag, size);
+    }
+  }
+
+  /** Writes a pre-encoded tag and a fixed32 value, with a single store when space allows. */
+  public final void writeTaggedFixed32(final int encodedTag, final int value) throws IOException {
+    final int tagSize = WireFormat.encodedTagSize(encodedTag);
+    writeTaggedWord((encodedTag & 0xFFFFFFFFL) | ((value & 0xFFFFFFFFL) << (8 * tagSize)),
+            tagSize + WireFormat.FIXED_32_SIZE);
+  }
+
+  /** Writes a pre-encoded tag and a bool value, with a single store when space allows. */
+  public final void writeTaggedBool(final int encodedTag, final boolean value) throws IOException {
+    final int tagSize = WireFormat.encodedTagSize(encodedTag);
+    writeTaggedWord((encodedTag & 0xFFFFFFFFL) | ((value ? 1L : 0L) << (8 * tagSize)),
+            tagSize + 1);
+  }
+
+  /**
+   * Writes the low {@code size} bytes of {@code word}, with a single store when there is room for
+   * eight bytes.
+   */
+  private void writeTaggedWord(final long word, final int size) throws IOException {
+    if (WORD_STORES && spaceLeft() >= 8) {
+      UNSAFE.putLong(buffer, ARRAY_BASE_OFFSET + position, word);
+      position += size;
+    } else {
+      writeTaggedWordSlowPath(word, size);
+    }
+  }
+
+  private void writeTaggedWordSlowPath(long word, final int size) throws IOException {
+    for (int ix = 0; ix < size; ++ix) {
+      write((byte) word);
+      word >>>= 8;
+    }
+  }
+
   public final void writeInt32(final int fieldNumber, final int value) throws IOException {
     writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
     writeInt32NoTag(value);
@@ -108,6 +328,15 @@ final class ForwardEncoder implements Encoder {
     writeUInt32NoTag(value);
   }
 
+  public final void writeSInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeSInt32NoTag(value);
+  }
+
+  public final void writeEnum(final int fieldNumber, final int value) throws IOException {
+    writeInt32(fieldNumber, value);
+  }
+
   public final void writeFixed32(final int fieldNumber, final int value) throws IOException {
     writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
     writeFixed32NoTag(value);
@@ -118,6 +347,11 @@ final class ForwardEncoder implements Encoder {
     writeUInt64NoTag(value);
   }
 
+  public final void writeSInt64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeSInt64NoTag(value);
+  }
+
   public final void writeFixed64(final int fieldNumber, final long value) throws IOException {
     writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
     writeFixed64NoTag(value);
@@ -136,6 +370,156 @@ final class ForwardEncoder implements Encoder {
     writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
   }
 
+  public final void writePackedUInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedUInt32(fieldNumber, values, Utils.computeUInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedUInt32(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedUInt32(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    writeUInt32Array(values, 0, values.length);
+  }
+
+  public final void writePackedUInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    writePackedUInt64(fieldNumber, values, Utils.computeUInt64ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedUInt64(int, long[])}, with the payload size already computed.
+   */
+  public final void writePackedUInt64(final int fieldNumber, final long[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    writeUInt64Array(values, 0, values.length);
+  }
+
+  public final void writePackedSInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedSInt32(fieldNumber, values, Utils.computeSInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedSInt32(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedSInt32(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    writeSInt32Array(values, 0, values.length);
+  }
+
+  public final void writePackedSInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    writePackedSInt64(fieldNumber, values, Utils.computeSInt64ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedSInt64(int, long[])}, with the payload size already computed.
+   */
+  public final void writePackedSInt64(final int fieldNumber, final long[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    writeSInt64Array(values, 0, values.length);
+  }
+
+  /** Writes a packed fixed32 or sfixed32 field. */
+  public final void writePackedFixed32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeFixed32Array(values, 0, values.length);
+  }
+
+  /** Writes a packed fixed64 or sfixed64 field. */
+  public final void writePackedFixed64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeFixed64Array(values, 0, values.length);
+  }
+
+  public final void writePackedFloat(final int fieldNumber, final float[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed32NoTag(Float.floatToRawIntBits(values[ix]));
+    }
+  }
+
+  public final void writePackedDouble(final int fieldNumber, final double[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed64NoTag(Double.doubleToRawLongBits(values[ix]));
+    }
+  }
+
+  public final void writePackedBool(final int fieldNumber, final boolean[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      write((byte) (values[ix] ? 1 : 0));
+    }
+  }
+
+  public final void writePackedEnum(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedEnum(fieldNumber, values, Utils.computeInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedEnum(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedEnum(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeInt32NoTag(values[ix]);
+    }
+  }
+
   public final void writeString(final int fieldNumber, final String value) throws IOException {
     writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
     writeStringNoTag(value);
@@ -165,6 +549,23 @@ final class ForwardEncoder implements Encoder {
     write(value, offset, length);
   }
 
+  public final void writeUtf8StringNoTag(final Utf8String value) throws IOException {
+    writeUInt32NoTag(value.size());
+    write(value.bytes(), 0, value.size());
+  }
+
+  public final void writeByteStringNoTag(final ByteString value) throws IOException {
+    final int length = value.size();
+    writeUInt32NoTag(length);
+    if (length > spaceLeft()) {
+      throw new OutOfSpaceException(
+              new IndexOutOfBoundsException(
+                      String.format("Pos: %d, limit: %d, len: %d", position, limit, length)));
+    }
+    value.copyTo(buffer, 0, position, length);
+    position += length;
+  }
+
   public final void writeRawBytes(final ByteBuffer value) throws IOException {
     if (value.hasArray()) {
       write(value.array(), value.arrayOffset(), value.capacity());
@@ -193,6 +594,14 @@ final class ForwardEncoder implements Encoder {
     }
   }
 
+  public final void writeSInt32NoTag(int value) throws IOException {
+    writeUInt32NoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  public final void writeSInt64NoTag(long value) throws IOException {
+    writeUInt64NoTag(WireFormat.encodeZigZag64(value));
+  }
+
   private void writeUInt32NoTagUnsafe(int value) throws IOException {
     long pos = ARRAY_BASE_OFFSET + position;
     int spaceLeft = spaceLeft();
@@ -234,6 +643,11 @@ final class ForwardEncoder implements Encoder {
   }
 
   public final void writeFixed32NoTag(int value) throws IOException {
+    if (WORD_STORES && spaceLeft() >= WireFormat.FIXED_32_SIZE) {
+      UNSAFE.putInt(buffer, ARRAY_BASE_OFFSET + position, value);
+      position += WireFormat.FIXED_32_SIZE;
+      return;
+    }
     try {
       buffer[position++] = (byte) (value & 0xFF);
       buffer[position++] = (byte) ((value >> 8) & 0xFF);
@@ -285,7 +699,179 @@ final class ForwardEncoder implements Encoder {
     }
   }
 
+  /**
+   * An alternative to {@link #writeUInt32NoTag} that builds the varint in a register and writes it
+   * with a single word store. Falls back to byte stores near the end of the buffer.
+   */
+  public final void writeUInt32NoTagWord(int value) throws IOException {
+    if (WORD_STORES && spaceLeft() >= 8) {
+      position = (int) (putUInt32Word(ARRAY_BASE_OFFSET + position, value) - ARRAY_BASE_OFFSET);
+    } else {
+      writeUInt32NoTag(value);
+    }
+  }
+
+  /**
+   * An alternative to {@link #writeUInt64NoTag} that builds the varint in a register and writes it
+   * with a single word store. Falls back to byte stores near the end of the buffer.
+   */
+  public final void writeUInt64NoTagWord(long value) throws IOException {
+    if (WORD_STORES && spaceLeft() >= WireFormat.MAX_VARINT_SIZE) {
+      position = (int) (putUInt64Word(ARRAY_BASE_OFFSET + position, value) - ARRAY_BASE_OFFSET);
+    } else {
+      writeUInt64NoTag(value);
+    }
+  }
+
+  /**
+   * Writes {@code value} at {@code pos} with one 8-byte store and returns the position after it.
+   * The caller must ensure that 8 bytes are available.
+   */
+  private long putUInt32Word(long pos, int value) {
+    final int size = Utils.computeUInt32SizeNoTag(value);
+    UNSAFE.putLong(buffer, pos, Utils.varint32Word(value, size));
+    return pos + size;
+  }
+
+  /**
+   * Writes {@code value} at {@code pos} with one 8-byte store, plus up to two byte stores for
+   * values that need more than eight bytes, and returns the position after it. The caller must
+   * ensure that {@link WireFormat#MAX_VARINT_SIZE} bytes are available.
+   */
+  private long putUInt64Word(long pos, long value) {
+    final int size = Utils.computeUInt64SizeNoTag(value);
+    UNSAFE.putLong(buffer, pos, Utils.varint64Word(value, size));
+    if (size > 8) {
+      // The ninth byte carries its own continuation bit when the sign bit is set.
+      UNSAFE.putByte(buffer, pos + 8, (byte) (value >>> 56));
+      if (size == WireFormat.MAX_VARINT_SIZE) {
+        UNSAFE.putByte(buffer, pos + 9, (byte) 1);
+      }
+    }
+    return pos + size;
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive varints. Space for the worst case
+   * is checked once up front, after which each value is written with a single word store.
+   */
+  public final void writeUInt32Array(final int[] values, final int offset, final int length)
+          throws IOException {
+    final int end = offset + length;
+    if (WORD_STORES
+            && (long) length * WireFormat.MAX_VARINT32_SIZE + VARINT32_WORD_SLACK <= spaceLeft()) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset; ix < end; ++ix) {
+        pos = putUInt32Word(pos, values[ix]);
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset; ix < end; ++ix) {
+        writeUInt32NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive varints. Space for the worst case
+   * is checked once up front, after which each value is written as by {@link #putUInt64Word}.
+   */
+  public final void writeUInt64Array(final long[] values, final int offset, final int length)
+          throws IOException {
+    final int end = offset + length;
+    if (WORD_STORES && (long) length * WireFormat.MAX_VARINT_SIZE <= spaceLeft()) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset; ix < end; ++ix) {
+        pos = putUInt64Word(pos, values[ix]);
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset; ix < end; ++ix) {
+        writeUInt64NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive ZigZag-encoded varints, with the
+   * same single up-front space check as {@link #writeUInt32Array}.
+   */
+  public final void writeSInt32Array(final int[] values, final int offset, final int length)
+          throws IOException {
+    final int end = offset + length;
+    if (WORD_STORES
+            && (long) length * WireFormat.MAX_VARINT32_SIZE + VARINT32_WORD_SLACK <= spaceLeft()) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset; ix < end; ++ix) {
+        pos = putUInt32Word(pos, WireFormat.encodeZigZag32(values[ix]));
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset; ix < end; ++ix) {
+        writeSInt32NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive ZigZag-encoded varints, with the
+   * same single up-front space check as {@link #writeUInt64Array}.
+   */
+  public final void writeSInt64Array(final long[] values, final int offset, final int length)
+          throws IOException {
+    final int end = offset + length;
+    if (WORD_STORES && (long) length * WireFormat.MAX_VARINT_SIZE <= spaceLeft()) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset; ix < end; ++ix) {
+        pos = putUInt64Word(pos, WireFormat.encodeZigZag64(values[ix]));
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset; ix < end; ++ix) {
+        writeSInt64NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive fixed32 values. On little-endian
+   * platforms an {@code int[]} is already laid out in wire order, so the range is copied in bulk.
+   */
+  public final void writeFixed32Array(final int[] values, final int offset, final int length)
+          throws IOException {
+    final int numBytes = length * WireFormat.FIXED_32_SIZE;
+    if (WORD_STORES && numBytes <= spaceLeft()) {
+      UNSAFE.copyMemory(values, INT_ARRAY_BASE_OFFSET + (long) offset * WireFormat.FIXED_32_SIZE,
+              buffer, ARRAY_BASE_OFFSET + position, numBytes);
+      position += numBytes;
+    } else {
+      for (int ix = offset; ix < offset + length; ++ix) {
+        writeFixed32NoTag(values[ix]);
+      }
+    }
+  }
+
+  /** As {@link #writeFixed32Array}, for fixed64 values. */
+  public final void writeFixed64Array(final long[] values, final int offset, final int length)
+          throws IOException {
+    final int numBytes = length * WireFormat.FIXED_64_SIZE;
+    if (WORD_STORES && numBytes <= spaceLeft()) {
+      UNSAFE.copyMemory(values, LONG_ARRAY_BASE_OFFSET + (long) offset * WireFormat.FIXED_64_SIZE,
+              buffer, ARRAY_BASE_OFFSET + position, numBytes);
+      position += numBytes;
+    } else {
+      for (int ix = offset; ix < offset + length; ++ix) {
+        writeFixed64NoTag(values[ix]);
+      }
+    }
+  }
+
   public final void writeFixed64NoTag(long value) throws IOException {
+    if (WORD_STORES && spaceLeft() >= WireFormat.FIXED_64_SIZE) {
+      UNSAFE.putLong(buffer, ARRAY_BASE_OFFSET + position, value);
+      position += WireFormat.FIXED_64_SIZE;
+      return;
+    }
     try {
       buffer[position++] = (byte) ((int) (value) & 0xFF);
       buffer[position++] = (byte) ((int) (value >> 8) & 0xFF);
@@ -329,8 +915,25 @@ final class ForwardEncoder implements Encoder {
     }
   }
 
+  /**
+   * Sets a cache of UTF-8 encodings that {@link #writeStringNoTag} consults before transcoding,
+   * and fills with the strings it does transcode. May be {@code null} to disable caching.
+   */
+  void setUtf8Cache(Utf8Cache utf8Cache) {
+    this.utf8Cache = utf8Cache;
+  }
+
   public final void writeStringNoTag(String value) throws IOException {
+    if (utf8Cache != null) {
+      final byte[] encoded = utf8Cache.get(value);
+      if (encoded != null) {
+        writeUInt32NoTag(encoded.length);
+        write(encoded, 0, encoded.length);
+        return;
+      }
+    }
     final int oldPosition = position;
+    final int start;
     try {
       // UTF-8 byte length of the string is at least its UTF-16 code unit length (value.length()),
       // and at most 3 times of it. We take advantage of this in both branches below.
@@ -338,7 +941,7 @@ final class ForwardEncoder implements Encoder {
       final int maxLengthVarIntSize = Utils.computeUInt32SizeNoTag(maxLength);
       final int minLengthVarIntSize = Utils.computeUInt32SizeNoTag(value.length());
       if (minLengthVarIntSize == maxLengthVarIntSize) {
-        position = oldPosition + minLengthVarIntSize;
+        position = start = oldPosition + minLengthVarIntSize;
         int newPosition = Utf8.encode(value, buffer, position, spaceLeft());
         // Since this class is stateful and tracks the position, we rewind and store the state,
         // prepend the length, then reset it back to the end of the string.
@@ -349,6 +952,7 @@ final class ForwardEncoder implements Encoder {
       } else {
         int length = Utf8.encodedLength(value);
         writeUInt32NoTag(length);
+        start = position;
         position = Utf8.encode(value, buffer, position, spaceLeft());
       }
     } catch (Utf8.UnpairedSurrogateException e) {
@@ -357,6 +961,72 @@ final class ForwardEncoder implements Encoder {
 
       // TODO(nathanmittler): We should throw an IOException here instead.
       inefficientWriteStringNoTag(value);
+      return;
+    } catch (IndexOutOfBoundsException e) {
+      throw new OutOfSpaceException(e);
+    }
+    if (utf8Cache != null) {
+      utf8Cache.put(value, buffer, start, position);
+    }
+  }
+
+  /**
+   * Writes a length-prefixed string in a single UTF-8 pass, without {@link Utf8#encodedLength}.
+   * The string is encoded after room for the largest possible length prefix; if the actual length
+   * needs a shorter varint, the encoded bytes are shifted back over the unused prefix bytes. The
+   * output is identical to {@link #writeStringNoTag}.
+   */
+  public final void writeStringNoTagShifted(String value) throws IOException {
+    final int oldPosition = position;
+    try {
+      final int maxLengthVarIntSize =
+              Utils.computeUInt32SizeNoTag(value.length() * Utf8.MAX_BYTES_PER_CHAR);
+      final int start = oldPosition + maxLengthVarIntSize;
+      if (start > limit) {
+        throw new OutOfSpaceException();
+      }
+      final int length = Utf8.encode(value, buffer, start, limit - start) - start;
+      position = oldPosition;
+      writeUInt32NoTag(length);
+      if (position != start) {
+        System.arraycopy(buffer, start, buffer, position, length);
+      }
+      position += length;
+    } catch (Utf8.UnpairedSurrogateException e) {
+      position = oldPosition;
+      inefficientWriteStringNoTag(value);
+    } catch (IndexOutOfBoundsException e) {
+      throw new OutOfSpaceException(e);
+    }
+  }
+
+  /**
+   * Writes a length-prefixed string in a single UTF-8 pass, without {@link Utf8#encodedLength} or
+   * moving the encoded bytes. The length is written as a padded (redundant) varint that fills the
+   * prefix reserved for the largest possible length. Decoders accept the padded varint, but the
+   * output is not canonical and may be longer than {@link Utils#computeStringSizeNoTag} predicts,
+   * so this is only safe where no enclosing length was computed from the size pass.
+   */
+  public final void writeStringNoTagPadded(String value) throws IOException {
+    final int oldPosition = position;
+    try {
+      final int maxLengthVarIntSize =
+              Utils.computeUInt32SizeNoTag(value.length() * Utf8.MAX_BYTES_PER_CHAR);
+      final int start = oldPosition + maxLengthVarIntSize;
+      if (start > limit) {
+        throw new OutOfSpaceException();
+      }
+      final int end = Utf8.encode(value, buffer, start, limit - start);
+      int length = end - start;
+      for (int i = oldPosition; i < start - 1; ++i) {
+        buffer[i] = (byte) ((length & 0x7F) | 0x80);
+        length >>>= 7;
+      }
+      buffer[start - 1] = (byte) length;
+      position = end;
+    } catch (Utf8.UnpairedSurrogateException e) {
+      position = oldPosition;
+      inefficientWriteStringNoTag(value);
     } catch (IndexOutOfBoundsException e) {
       throw new OutOfSpaceException(e);
     }
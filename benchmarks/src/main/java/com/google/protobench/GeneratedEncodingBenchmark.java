@@ -0,0 +1,232 @@
+package com.google.protobench;
+
+import static com.google.protobench.Utils.RANDOM;
+
+import benchmark.protobuf.UnittestProto;
+import com.google.protobench.TestMessage.SerializedSizeManager;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the encoders generated from {@code unittest.proto} by the {@code encoder-generator}
+ * module against protobuf-java's own generated code, for the same message objects. All
+ * implementations write the message with a length prefix.
+ *
+ * <p>protobuf-java memoizes serialized sizes in the messages, so after the first operation
+ * neither it nor the generated forward encoder, which reads the same memoized sizes, repeats the
+ * size pass. The generated reverse encoder needs none.
+ *
+ * <p>Each implementation reuses one encoder across operations. {@link CodedOutputStream} cannot be
+ * reset, so the protobuf-java one keeps appending to {@code output} and is only replaced when the
+ * next message might not fit.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class GeneratedEncodingBenchmark {
+  public enum Impl {
+    PROTOBUF,
+    GENERATED_FORWARD,
+    GENERATED_REVERSE
+  }
+
+  public enum MessageType {
+    /** A {@code TestAllTypes} with every non-default field set. */
+    ALL_TYPES,
+    /** A {@code TestPackedTypes} with every packed field set. */
+    PACKED_TYPES,
+    /** The {@code NestedTestAllTypes} tree built by {@link TestMessage#toProtobuf()}. */
+    NESTED
+  }
+
+  @Param
+  public Impl impl;
+
+  @Param
+  public MessageType messageType;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"2"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  private byte[] output;
+  private int maxEncodedSize;
+  private CodedOutputStream protobuf;
+  private ForwardEncoder forward;
+  private ReverseEncoder reverse;
+  private UnittestProto.TestAllTypes allTypes;
+  private UnittestProto.TestPackedTypes packedTypes;
+  private UnittestProto.NestedTestAllTypes nested;
+
+  @Setup
+  public void setUp() throws Exception {
+    switch (messageType) {
+      case ALL_TYPES:
+        allTypes = newRandomAllTypes(stringLength, numRepeatedFields);
+        break;
+      case PACKED_TYPES:
+        packedTypes = newRandomPackedTypes(numRepeatedFields);
+        break;
+      case NESTED:
+        int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+        nested = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields, treeHeight,
+                branchingFactor, new SerializedSizeManager(numMessages)).toProtobuf();
+        break;
+    }
+
+    output = new byte[1024 * 1024];
+    maxEncodedSize = CodedOutputStream.computeMessageSizeNoTag(
+            allTypes != null ? allTypes : packedTypes != null ? packedTypes : nested);
+    protobuf = CodedOutputStream.newInstance(output);
+    forward = new ForwardEncoder(output, 0, output.length);
+    reverse = new ReverseEncoder(output, 0, output.length);
+  }
+
+  @Benchmark
+  public void encode() throws Exception {
+    switch (impl) {
+      case PROTOBUF:
+        if (protobuf.spaceLeft() < maxEncodedSize) {
+          protobuf = CodedOutputStream.newInstance(output);
+        }
+        CodedOutputStream encoder = protobuf;
+        switch (messageType) {
+          case ALL_TYPES:
+            encoder.writeMessageNoTag(allTypes);
+            break;
+          case PACKED_TYPES:
+            encoder.writeMessageNoTag(packedTypes);
+            break;
+          case NESTED:
+            encoder.writeMessageNoTag(nested);
+            break;
+        }
+        break;
+      case GENERATED_FORWARD:
+        switch (messageType) {
+          case ALL_TYPES:
+            UnittestProtoEncoders.encodeMessageNoTag(forward, allTypes);
+            break;
+          case PACKED_TYPES:
+            UnittestProtoEncoders.encodeMessageNoTag(forward, packedTypes);
+            break;
+          case NESTED:
+            UnittestProtoEncoders.encodeMessageNoTag(forward, nested);
+            break;
+        }
+        forward.reset();
+        break;
+      case GENERATED_REVERSE:
+        switch (messageType) {
+          case ALL_TYPES:
+            UnittestProtoEncoders.encodeMessageNoTag(reverse, allTypes);
+            break;
+          case PACKED_TYPES:
+            UnittestProtoEncoders.encodeMessageNoTag(reverse, packedTypes);
+            break;
+          case NESTED:
+            UnittestProtoEncoders.encodeMessageNoTag(reverse, nested);
+            break;
+        }
+        reverse.reset();
+        break;
+    }
+  }
+
+  static UnittestProto.TestAllTypes newRandomAllTypes(int stringLength, int numRepeatedFields) {
+    UnittestProto.TestAllTypes.NestedEnum[] nestedEnums =
+            UnittestProto.TestAllTypes.NestedEnum.values();
+    UnittestProto.ForeignEnum[] foreignEnums = UnittestProto.ForeignEnum.values();
+    UnittestProto.ImportEnum[] importEnums = UnittestProto.ImportEnum.values();
+
+    UnittestProto.TestAllTypes.Builder builder = UnittestProto.TestAllTypes.newBuilder()
+            .setOptionalInt32(RANDOM.nextInt())
+            .setOptionalInt64(RANDOM.nextLong())
+            .setOptionalUint32(VarintInput.nextRandomIntValue())
+            .setOptionalUint64(VarintInput.nextRandomLongValue())
+            .setOptionalSint32(RANDOM.nextInt())
+            .setOptionalSint64(RANDOM.nextLong())
+            .setOptionalFixed32(RANDOM.nextInt())
+            .setOptionalFixed64(RANDOM.nextLong())
+            .setOptionalSfixed32(RANDOM.nextInt())
+            .setOptionalSfixed64(RANDOM.nextLong())
+            .setOptionalFloat(RANDOM.nextFloat())
+            .setOptionalDouble(RANDOM.nextDouble())
+            .setOptionalBool(RANDOM.nextBoolean())
+            .setOptionalString(Utils.randomString(stringLength))
+            .setOptionalBytes(ByteString.copyFromUtf8(Utils.randomString(stringLength)))
+            .setOptionalNestedMessage(UnittestProto.TestAllTypes.NestedMessage.newBuilder()
+                    .setBb(RANDOM.nextInt()))
+            .setOptionalForeignMessage(UnittestProto.ForeignMessage.newBuilder()
+                    .setC(RANDOM.nextInt()))
+            .setOptionalImportMessage(UnittestProto.ImportMessage.newBuilder()
+                    .setD(RANDOM.nextInt()))
+            .setOptionalNestedEnum(nestedEnums[RANDOM.nextInt(nestedEnums.length)])
+            .setOptionalForeignEnum(foreignEnums[RANDOM.nextInt(foreignEnums.length)])
+            .setOptionalImportEnum(importEnums[RANDOM.nextInt(importEnums.length)])
+            .setOptionalStringPiece(Utils.randomString(stringLength))
+            .setOptionalCord(Utils.randomString(stringLength))
+            .setOptionalPublicImportMessage(UnittestProto.PublicImportMessage.newBuilder()
+                    .setE(RANDOM.nextInt()));
+
+    for (int i = 0; i < numRepeatedFields; ++i) {
+      builder.addRepeatedInt32(RANDOM.nextInt())
+              .addRepeatedInt64(RANDOM.nextLong())
+              .addRepeatedUint32(VarintInput.nextRandomIntValue())
+              .addRepeatedUint64(VarintInput.nextRandomLongValue())
+              .addRepeatedSint32(RANDOM.nextInt())
+              .addRepeatedSint64(RANDOM.nextLong())
+              .addRepeatedFixed32(RANDOM.nextInt())
+              .addRepeatedFixed64(RANDOM.nextLong())
+              .addRepeatedSfixed32(RANDOM.nextInt())
+              .addRepeatedSfixed64(RANDOM.nextLong())
+              .addRepeatedFloat(RANDOM.nextFloat())
+              .addRepeatedDouble(RANDOM.nextDouble())
+              .addRepeatedBool(RANDOM.nextBoolean())
+              .addRepeatedString(Utils.randomString(stringLength))
+              .addRepeatedBytes(ByteString.copyFromUtf8(Utils.randomString(stringLength)))
+              .addRepeatedNestedMessage(UnittestProto.TestAllTypes.NestedMessage.newBuilder()
+                      .setBb(RANDOM.nextInt()))
+              .addRepeatedNestedEnum(nestedEnums[RANDOM.nextInt(nestedEnums.length)])
+              .addRepeatedForeignEnum(foreignEnums[RANDOM.nextInt(foreignEnums.length)]);
+    }
+    return builder.build();
+  }
+
+  static UnittestProto.TestPackedTypes newRandomPackedTypes(int numRepeatedFields) {
+    UnittestProto.ForeignEnum[] foreignEnums = UnittestProto.ForeignEnum.values();
+
+    UnittestProto.TestPackedTypes.Builder builder = UnittestProto.TestPackedTypes.newBuilder();
+    for (int i = 0; i < numRepeatedFields; ++i) {
+      builder.addPackedInt32(RANDOM.nextInt())
+              .addPackedInt64(RANDOM.nextLong())
+              .addPackedUint32(VarintInput.nextRandomIntValue())
+              .addPackedUint64(VarintInput.nextRandomLongValue())
+              .addPackedSint32(RANDOM.nextInt())
+              .addPackedSint64(RANDOM.nextLong())
+              .addPackedFixed32(RANDOM.nextInt())
+              .addPackedFixed64(RANDOM.nextLong())
+              .addPackedSfixed32(RANDOM.nextInt())
+              .addPackedSfixed64(RANDOM.nextLong())
+              .addPackedFloat(RANDOM.nextFloat())
+              .addPackedDouble(RANDOM.nextDouble())
+              .addPackedBool(RANDOM.nextBoolean())
+              .addPackedEnum(foreignEnums[RANDOM.nextInt(foreignEnums.length)]);
+    }
+    return builder.build();
+  }
+}
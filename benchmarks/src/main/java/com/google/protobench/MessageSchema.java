@@ -0,0 +1,210 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A compact, table-driven description of how to encode one message class, consumed by {@link
+ * TableDrivenEncoder}. Each field is one row of a set of parallel arrays holding its field number,
+ * {@link Kind}, pre-encoded tag and the {@code Unsafe} offset of the Java field that holds its
+ * value. Reflection is only used while building the schema; encoding reads fields by offset, so
+ * primitive values are never boxed.
+ *
+ * <p>Rows are kept in field number order. Scalar fields are always written; fields held in
+ * objects (strings, byte arrays, repeated fields and messages) are skipped when {@code null}.
+ */
+final class MessageSchema {
+  /**
+   * How a field is stored in its Java class and written on the wire. The fixed kinds also serve
+   * sfixed fields, which share their encoding.
+   */
+  enum Kind {
+    UINT32(WireFormat.WIRETYPE_VARINT, int.class),
+    UINT64(WireFormat.WIRETYPE_VARINT, long.class),
+    SINT32(WireFormat.WIRETYPE_VARINT, int.class),
+    SINT64(WireFormat.WIRETYPE_VARINT, long.class),
+    FIXED32(WireFormat.WIRETYPE_FIXED32, int.class),
+    FIXED64(WireFormat.WIRETYPE_FIXED64, long.class),
+    ENUM(WireFormat.WIRETYPE_VARINT, int.class),
+    FLOAT(WireFormat.WIRETYPE_FIXED32, float.class),
+    DOUBLE(WireFormat.WIRETYPE_FIXED64, double.class),
+    BOOL(WireFormat.WIRETYPE_VARINT, boolean.class),
+    STRING(WireFormat.WIRETYPE_LENGTH_DELIMITED, String.class),
+    BYTES(WireFormat.WIRETYPE_LENGTH_DELIMITED, byte[].class),
+    MESSAGE(WireFormat.WIRETYPE_LENGTH_DELIMITED, Object.class),
+    REPEATED_UINT32(WireFormat.WIRETYPE_VARINT, int[].class),
+    REPEATED_UINT64(WireFormat.WIRETYPE_VARINT, long[].class),
+    REPEATED_SINT32(WireFormat.WIRETYPE_VARINT, int[].class),
+    REPEATED_SINT64(WireFormat.WIRETYPE_VARINT, long[].class),
+    REPEATED_FIXED32(WireFormat.WIRETYPE_FIXED32, int[].class),
+    REPEATED_FIXED64(WireFormat.WIRETYPE_FIXED64, long[].class),
+    REPEATED_ENUM(WireFormat.WIRETYPE_VARINT, int[].class),
+    REPEATED_FLOAT(WireFormat.WIRETYPE_FIXED32, float[].class),
+    REPEATED_DOUBLE(WireFormat.WIRETYPE_FIXED64, double[].class),
+    REPEATED_BOOL(WireFormat.WIRETYPE_VARINT, boolean[].class),
+    REPEATED_STRING(WireFormat.WIRETYPE_LENGTH_DELIMITED, String[].class),
+    REPEATED_BYTES(WireFormat.WIRETYPE_LENGTH_DELIMITED, byte[][].class),
+    REPEATED_MESSAGE(WireFormat.WIRETYPE_LENGTH_DELIMITED, Object[].class),
+    PACKED_UINT32(WireFormat.WIRETYPE_LENGTH_DELIMITED, int[].class),
+    PACKED_UINT64(WireFormat.WIRETYPE_LENGTH_DELIMITED, long[].class),
+    PACKED_SINT32(WireFormat.WIRETYPE_LENGTH_DELIMITED, int[].class),
+    PACKED_SINT64(WireFormat.WIRETYPE_LENGTH_DELIMITED, long[].class),
+    PACKED_FIXED32(WireFormat.WIRETYPE_LENGTH_DELIMITED, int[].class),
+    PACKED_FIXED64(WireFormat.WIRETYPE_LENGTH_DELIMITED, long[].class),
+    PACKED_ENUM(WireFormat.WIRETYPE_LENGTH_DELIMITED, int[].class),
+    PACKED_FLOAT(WireFormat.WIRETYPE_LENGTH_DELIMITED, float[].class),
+    PACKED_DOUBLE(WireFormat.WIRETYPE_LENGTH_DELIMITED, double[].class),
+    PACKED_BOOL(WireFormat.WIRETYPE_LENGTH_DELIMITED, boolean[].class);
+
+    final int wireType;
+    final Class<?> javaType;
+
+    Kind(int wireType, Class<?> javaType) {
+      this.wireType = wireType;
+      this.javaType = javaType;
+    }
+  }
+
+  /** The class whose fields {@link #offsets} refer to. */
+  final Class<?> messageClass;
+  final int[] fieldNumbers;
+  final Kind[] kinds;
+  /** Tags pre-encoded by {@link WireFormat#encodeTag}. */
+  final int[] tags;
+  final long[] offsets;
+  /** The schema of each {@link Kind#MESSAGE} or {@link Kind#REPEATED_MESSAGE} field. */
+  final MessageSchema[] messageSchemas;
+
+  private MessageSchema(Class<?> messageClass, List<Row> rows) {
+    this.messageClass = messageClass;
+    final int size = rows.size();
+    fieldNumbers = new int[size];
+    kinds = new Kind[size];
+    tags = new int[size];
+    offsets = new long[size];
+    messageSchemas = new MessageSchema[size];
+    for (int ix = 0; ix < size; ++ix) {
+      Row row = rows.get(ix);
+      fieldNumbers[ix] = row.fieldNumber;
+      kinds[ix] = row.kind;
+      tags[ix] = WireFormat.encodeTag(row.fieldNumber, row.kind.wireType);
+      offsets[ix] = row.offset;
+      // A message field without an explicit schema refers to this one, as for trees.
+      if (row.kind == Kind.MESSAGE || row.kind == Kind.REPEATED_MESSAGE) {
+        messageSchemas[ix] = row.messageSchema != null ? row.messageSchema : this;
+      }
+    }
+  }
+
+  int getFieldCount() {
+    return kinds.length;
+  }
+
+  static Builder newBuilder(Class<?> messageClass) {
+    return new Builder(messageClass);
+  }
+
+  static final class Builder {
+    private final Class<?> messageClass;
+    private final List<Row> rows = new ArrayList<Row>();
+
+    private Builder(Class<?> messageClass) {
+      if (UNSAFE == null) {
+        throw new UnsupportedOperationException("Unsafe field access is not available");
+      }
+      this.messageClass = messageClass;
+    }
+
+    /** Adds a non-message field, stored in the Java field {@code fieldName}. */
+    Builder add(int fieldNumber, Kind kind, String fieldName) {
+      if (kind == Kind.MESSAGE || kind == Kind.REPEATED_MESSAGE) {
+        throw new IllegalArgumentException("Use addMessage for message fields");
+      }
+      return addRow(fieldNumber, kind, fieldName, null);
+    }
+
+    /**
+     * Adds a message field, or a repeated one if {@code repeated} is set. A {@code null} schema
+     * refers to the schema being built.
+     *
+     * @throws IllegalArgumentException if the field can hold messages of a class other than the
+     *     schema's (or a subclass)
+     */
+    Builder addMessage(int fieldNumber, boolean repeated, String fieldName, MessageSchema schema) {
+      return addRow(fieldNumber, repeated ? Kind.REPEATED_MESSAGE : Kind.MESSAGE, fieldName,
+              schema);
+    }
+
+    MessageSchema build() {
+      // Sort by field number, so that the fields are written in order.
+      Collections.sort(rows, Row.BY_NUMBER);
+      return new MessageSchema(messageClass, rows);
+    }
+
+    private Builder addRow(int fieldNumber, Kind kind, String fieldName, MessageSchema schema) {
+      if (fieldNumber < 1) {
+        throw new IllegalArgumentException("Field number must be positive, was " + fieldNumber);
+      }
+      for (Row row : rows) {
+        if (row.fieldNumber == fieldNumber) {
+          throw new IllegalArgumentException("Duplicate field number " + fieldNumber);
+        }
+      }
+      Field field;
+      try {
+        field = messageClass.getDeclaredField(fieldName);
+      } catch (NoSuchFieldException e) {
+        throw new IllegalArgumentException(
+                "No field " + fieldName + " in " + messageClass.getName(), e);
+      }
+      if (Modifier.isStatic(field.getModifiers())) {
+        throw new IllegalArgumentException("Field " + fieldName + " is static");
+      }
+      if (!kind.javaType.isAssignableFrom(field.getType())) {
+        throw new IllegalArgumentException(String.format("Field %s has type %s, but %s needs %s",
+                fieldName, field.getType().getName(), kind, kind.javaType.getName()));
+      }
+      if (kind == Kind.MESSAGE || kind == Kind.REPEATED_MESSAGE) {
+        // The encoder reads the nested messages' fields by offset, so every value the field can
+        // hold must be an instance of the class the schema describes.
+        final Class<?> schemaClass = schema != null ? schema.messageClass : messageClass;
+        final Class<?> valueClass = kind == Kind.REPEATED_MESSAGE
+                ? field.getType().getComponentType() : field.getType();
+        if (!schemaClass.isAssignableFrom(valueClass)) {
+          throw new IllegalArgumentException(String.format(
+                  "Field %s holds %s, but its schema is for %s",
+                  fieldName, valueClass.getName(), schemaClass.getName()));
+        }
+      }
+      rows.add(new Row(fieldNumber, kind, UNSAFE.objectFieldOffset(field), schema));
+      return this;
+    }
+  }
+
+  private static final class Row {
+    static final Comparator<Row> BY_NUMBER = new Comparator<Row>() {
+      @Override
+      public int compare(Row a, Row b) {
+        return a.fieldNumber < b.fieldNumber ? -1 : (a.fieldNumber == b.fieldNumber ? 0 : 1);
+      }
+    };
+
+    final int fieldNumber;
+    final Kind kind;
+    final long offset;
+    final MessageSchema messageSchema;
+
+    Row(int fieldNumber, Kind kind, long offset, MessageSchema messageSchema) {
+      this.fieldNumber = fieldNumber;
+      this.kind = kind;
+      this.offset = offset;
+      this.messageSchema = messageSchema;
+    }
+  }
+}
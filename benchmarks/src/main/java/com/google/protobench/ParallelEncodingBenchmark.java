@@ -0,0 +1,93 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares single-threaded {@link ReverseEncoder} against {@link ParallelReverseEncoder} for
+ * multi-megabyte trees, reporting both throughput and the latency distribution of a single
+ * encode. The parallel encoder is measured producing a segment list and a contiguous array.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class ParallelEncodingBenchmark {
+  public enum Output {
+    SEQUENTIAL,
+    PARALLEL_SEGMENTS,
+    PARALLEL_ARRAY
+  }
+
+  @Param
+  public Output output;
+
+  @Param({"64"})
+  public int threshold;
+
+  @Param({"65536"})
+  public int chunkSize;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"3"})
+  public int treeHeight;
+
+  @Param({"8", "16"})
+  public int branchingFactor;
+
+  private TestMessage message;
+  private byte[] buffer;
+  private ReverseEncoder encoder;
+  private ForkJoinPool pool;
+  private ParallelReverseEncoder parallelEncoder;
+
+  @Setup
+  public void setUp() throws Exception {
+    // Create the message.
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    SerializedSizeManager sizeManager = new SerializedSizeManager(numMessages);
+    message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+        treeHeight, branchingFactor, sizeManager);
+
+    buffer = new byte[message.getSerializedSize() + WireFormat.MAX_VARINT_SIZE];
+    encoder = new ReverseEncoder(buffer, 0, buffer.length);
+    pool = new ForkJoinPool();
+    parallelEncoder = new ParallelReverseEncoder(pool, threshold, chunkSize);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public Object encode() throws Exception {
+    switch (output) {
+      case SEQUENTIAL:
+        encoder.reset();
+        encoder.encodeMessageNoTag(message);
+        return buffer;
+      case PARALLEL_SEGMENTS:
+        return parallelEncoder.encodeMessageNoTag(message);
+      case PARALLEL_ARRAY:
+        return parallelEncoder.encodeMessageNoTagToArray(message);
+      default:
+        throw new AssertionError();
+    }
+  }
+}
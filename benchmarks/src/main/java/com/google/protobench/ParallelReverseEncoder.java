@@ -0,0 +1,214 @@
+package com.google.protobench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reverse-encodes a message tree using a {@link ForkJoinPool}. Subtrees holding more than {@code
+ * threshold} messages are encoded by their own task; runs of smaller sibling subtrees are batched
+ * into a single task. Each task writes into a private {@link ChunkedReverseEncoder}, so no size
+ * pass is needed, and the resulting segments are stitched together in wire order once the
+ * enclosing message's length prefix is known.
+ *
+ * <p>The output is available either as a list of segments, ready for a gathering write, or
+ * copied into one contiguous array.
+ */
+final class ParallelReverseEncoder {
+  private static final int CHILD_TAG =
+          WireFormat.makeTag(18, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+  /**
+   * Chunk size for the encoders holding a single message's own fields, which are usually much
+   * smaller than a batch of subtrees.
+   */
+  private static final int FIELDS_CHUNK_SIZE = 1024;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+  private final int chunkSize;
+
+  ParallelReverseEncoder(ForkJoinPool pool, int threshold, int chunkSize) {
+    if (pool == null) {
+      throw new NullPointerException("pool");
+    }
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold must be positive, was " + threshold);
+    }
+    this.pool = pool;
+    this.threshold = threshold;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Encodes {@code message} as {@link Encoder#encodeMessageNoTag} would, returning the output as
+   * segments in wire order.
+   */
+  List<ByteBuffer> encodeMessageNoTag(TestMessage message) throws IOException {
+    if (message.subtreeSize <= threshold) {
+      ChunkedReverseEncoder encoder = new ChunkedReverseEncoder(chunkSize);
+      encoder.encodeMessageNoTag(message);
+      return Segments.of(encoder).buffers;
+    }
+    return pool.invoke(new MessageTask(message, false)).buffers;
+  }
+
+  /**
+   * Encodes {@code message} as {@link Encoder#encodeMessageNoTag} would, returning the output as
+   * a single array.
+   */
+  byte[] encodeMessageNoTagToArray(TestMessage message) throws IOException {
+    List<ByteBuffer> segments = encodeMessageNoTag(message);
+    int length = 0;
+    for (ByteBuffer segment : segments) {
+      length += segment.remaining();
+    }
+    byte[] output = new byte[length];
+    int position = 0;
+    for (ByteBuffer segment : segments) {
+      int remaining = segment.remaining();
+      segment.duplicate().get(output, position, remaining);
+      position += remaining;
+    }
+    return output;
+  }
+
+  /** The encoded bytes of part of a message tree, in wire order. */
+  private static final class Segments {
+    final List<ByteBuffer> buffers;
+    final int length;
+
+    private Segments(List<ByteBuffer> buffers, int length) {
+      this.buffers = buffers;
+      this.length = length;
+    }
+
+    static Segments of(ChunkedReverseEncoder encoder) {
+      ByteBuffer[] buffers = encoder.toByteBuffers();
+      List<ByteBuffer> list = new ArrayList<ByteBuffer>(buffers.length);
+      Collections.addAll(list, buffers);
+      return new Segments(list, encoder.getTotalBytesWritten());
+    }
+  }
+
+  /**
+   * Encodes one oversized message. Its children are split across subtasks while this task encodes
+   * the message's trailing fields; the leading fields and length prefix (plus the tag, for a
+   * child) are written last, in front of everything else.
+   */
+  private final class MessageTask extends RecursiveTask<Segments> {
+    private static final long serialVersionUID = 1L;
+
+    private final TestMessage message;
+    private final boolean withTag;
+
+    MessageTask(TestMessage message, boolean withTag) {
+      this.message = message;
+      this.withTag = withTag;
+    }
+
+    @Override
+    protected Segments compute() {
+      try {
+        List<RecursiveTask<Segments>> tasks = forkChildren(message.children);
+
+        ChunkedReverseEncoder trailer = new ChunkedReverseEncoder(FIELDS_CHUNK_SIZE);
+        trailer.encodeTrailingFields(message);
+
+        List<ByteBuffer> body = new ArrayList<ByteBuffer>();
+        int bodyLength = trailer.getTotalBytesWritten();
+        for (RecursiveTask<Segments> task : tasks) {
+          Segments child = task.join();
+          body.addAll(child.buffers);
+          bodyLength += child.length;
+        }
+        Collections.addAll(body, trailer.toByteBuffers());
+
+        ChunkedReverseEncoder header = new ChunkedReverseEncoder(FIELDS_CHUNK_SIZE);
+        header.encodeLeadingFields(message);
+        header.writeUInt32NoTag(bodyLength + header.getTotalBytesWritten());
+        if (withTag) {
+          header.writeUInt32NoTag(CHILD_TAG);
+        }
+
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        Collections.addAll(buffers, header.toByteBuffers());
+        buffers.addAll(body);
+        return new Segments(buffers, bodyLength + header.getTotalBytesWritten());
+      } catch (IOException e) {
+        // ChunkedReverseEncoder grows instead of running out of space.
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  /**
+   * Forks one task per oversized child and one per run of smaller siblings, returning them in
+   * wire order.
+   */
+  private List<RecursiveTask<Segments>> forkChildren(TestMessage[] children) {
+    List<RecursiveTask<Segments>> tasks = new ArrayList<RecursiveTask<Segments>>();
+    if (children == null) {
+      return tasks;
+    }
+    int runStart = 0;
+    int runWeight = 0;
+    for (int ix = 0; ix < children.length; ++ix) {
+      TestMessage child = children[ix];
+      if (child.subtreeSize > threshold) {
+        if (runStart < ix) {
+          tasks.add(new SiblingsTask(children, runStart, ix));
+        }
+        tasks.add(new MessageTask(child, true));
+        runStart = ix + 1;
+        runWeight = 0;
+      } else if (runWeight + child.subtreeSize > threshold) {
+        tasks.add(new SiblingsTask(children, runStart, ix));
+        runStart = ix;
+        runWeight = child.subtreeSize;
+      } else {
+        runWeight += child.subtreeSize;
+      }
+    }
+    if (runStart < children.length) {
+      tasks.add(new SiblingsTask(children, runStart, children.length));
+    }
+    for (RecursiveTask<Segments> task : tasks) {
+      task.fork();
+    }
+    return tasks;
+  }
+
+  /** Sequentially encodes {@code children[from, to)} as child fields of their parent. */
+  private final class SiblingsTask extends RecursiveTask<Segments> {
+    private static final long serialVersionUID = 1L;
+
+    private final TestMessage[] children;
+    private final int from;
+    private final int to;
+
+    SiblingsTask(TestMessage[] children, int from, int to) {
+      this.children = children;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Segments compute() {
+      try {
+        ChunkedReverseEncoder encoder = new ChunkedReverseEncoder(chunkSize);
+        for (int ix = to - 1; ix >= from; --ix) {
+          encoder.encodeMessage(18, children[ix]);
+        }
+        return Segments.of(encoder);
+      } catch (IOException e) {
+        // ChunkedReverseEncoder grows instead of running out of space.
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
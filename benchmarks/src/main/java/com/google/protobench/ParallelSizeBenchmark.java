@@ -0,0 +1,138 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares sequential {@link TestMessage#getSerializedSize()} against {@link
+ * ParallelSizeCalculator} for trees larger than those in {@link EncodingAlgorithmBenchmark}. The
+ * size cache is invalidated at the start of every operation.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class ParallelSizeBenchmark {
+  public enum Mode {
+    SEQUENTIAL,
+    PARALLEL
+  }
+
+  @Param
+  public Mode mode;
+
+  @Param({"256"})
+  public int threshold;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  private ForkJoinPool pool;
+  private ParallelSizeCalculator calculator;
+
+  /**
+   * A message tree, rebuilt for each combination of its shape params.
+   */
+  public abstract static class Tree {
+    private TestMessage message;
+    private SerializedSizeManager sizeManager;
+
+    abstract int treeHeight();
+
+    abstract int branchingFactor();
+
+    @Setup
+    public void setUp(ParallelSizeBenchmark benchmark) {
+      int numMessages = Utils.calcNodesInTree(branchingFactor(), treeHeight());
+      sizeManager = new SerializedSizeManager(numMessages);
+      message = TestMessage.newRandomInstance(0, benchmark.stringLength,
+          benchmark.numRepeatedFields, treeHeight(), branchingFactor(), sizeManager);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class NarrowTree extends Tree {
+    @Param({"2", "3"})
+    public int treeHeight;
+
+    @Param({"4", "16", "32"})
+    public int branchingFactor;
+
+    @Override
+    int treeHeight() {
+      return treeHeight;
+    }
+
+    @Override
+    int branchingFactor() {
+      return branchingFactor;
+    }
+  }
+
+  /**
+   * Branching factors in the hundreds. These are only paired with a height of 2, which already
+   * makes tens of thousands of messages.
+   */
+  @State(Scope.Benchmark)
+  public static class WideTree extends Tree {
+    @Param({"2"})
+    public int treeHeight;
+
+    @Param({"128", "256"})
+    public int branchingFactor;
+
+    @Override
+    int treeHeight() {
+      return treeHeight;
+    }
+
+    @Override
+    int branchingFactor() {
+      return branchingFactor;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    pool = new ForkJoinPool();
+    calculator = new ParallelSizeCalculator(pool, threshold);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public int computeSize(NarrowTree tree) {
+    return size(tree);
+  }
+
+  @Benchmark
+  public int computeSizeWide(WideTree tree) {
+    return size(tree);
+  }
+
+  private int size(Tree tree) {
+    // Invalidation is O(1), so it can be done inline.
+    tree.sizeManager.clearAll();
+    switch (mode) {
+      case SEQUENTIAL:
+        return tree.message.getSerializedSize();
+      case PARALLEL:
+        return calculator.getSerializedSize(tree.message);
+      default:
+        throw new AssertionError();
+    }
+  }
+}
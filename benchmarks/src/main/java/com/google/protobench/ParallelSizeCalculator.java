@@ -0,0 +1,84 @@
+package com.google.protobench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes {@link TestMessage#getSerializedSize()} for a whole tree using a {@link ForkJoinPool}.
+ * The tree is split into tasks until each one covers at most {@code threshold} messages, which
+ * are then sized sequentially. All results land in the tree's size cache, so a {@link
+ * ForwardEncoder} run afterwards does no sizing work of its own.
+ */
+final class ParallelSizeCalculator {
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  ParallelSizeCalculator(ForkJoinPool pool, int threshold) {
+    if (pool == null) {
+      throw new NullPointerException("pool");
+    }
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold must be positive, was " + threshold);
+    }
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+  int getSerializedSize(TestMessage message) {
+    if (message.subtreeSize > threshold) {
+      pool.invoke(new SizeTask(new TestMessage[] {message}, 0, 1, message.subtreeSize));
+    }
+    return message.getSerializedSize();
+  }
+
+  private static int weigh(TestMessage[] messages, int from, int to) {
+    int weight = 0;
+    for (int ix = from; ix < to; ++ix) {
+      weight += messages[ix].subtreeSize;
+    }
+    return weight;
+  }
+
+  /**
+   * Sizes the subtrees rooted at {@code messages[from, to)}, which together hold {@code weight}
+   * messages. Ranges above the threshold are split in half; a single oversized subtree is split
+   * across its children.
+   */
+  private final class SizeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final TestMessage[] messages;
+    private final int from;
+    private final int to;
+    private final int weight;
+
+    SizeTask(TestMessage[] messages, int from, int to, int weight) {
+      this.messages = messages;
+      this.from = from;
+      this.to = to;
+      this.weight = weight;
+    }
+
+    @Override
+    protected void compute() {
+      if (weight <= threshold) {
+        for (int ix = from; ix < to; ++ix) {
+          messages[ix].getSerializedSize();
+        }
+      } else if (to - from == 1) {
+        final TestMessage message = messages[from];
+        final TestMessage[] children = message.children;
+        if (children != null) {
+          new SizeTask(children, 0, children.length, message.subtreeSize - 1).compute();
+        }
+        // The children are all cached now, so this only sizes the message's own fields.
+        message.getSerializedSize();
+      } else {
+        final int mid = (from + to) >>> 1;
+        final int leftWeight = weigh(messages, from, mid);
+        invokeAll(new SizeTask(messages, from, mid, leftWeight),
+                new SizeTask(messages, mid, to, weight - leftWeight));
+      }
+    }
+  }
+}
@@ -1,18 +1,64 @@
 package com.google.protobench;
 
+import static com.google.protobench.TestMessageTags.CHILD;
+import static com.google.protobench.TestMessageTags.OPTIONAL_BOOLEAN;
+import static com.google.protobench.TestMessageTags.OPTIONAL_BYTES;
+import static com.google.protobench.TestMessageTags.OPTIONAL_DOUBLE;
+import static com.google.protobench.TestMessageTags.OPTIONAL_ENUM;
+import static com.google.protobench.TestMessageTags.OPTIONAL_FIXED32;
+import static com.google.protobench.TestMessageTags.OPTIONAL_FIXED64;
+import static com.google.protobench.TestMessageTags.OPTIONAL_FLOAT;
+import static com.google.protobench.TestMessageTags.OPTIONAL_INT;
+import static com.google.protobench.TestMessageTags.OPTIONAL_LONG;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SFIXED32;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SFIXED64;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SINT32;
+import static com.google.protobench.TestMessageTags.OPTIONAL_SINT64;
+import static com.google.protobench.TestMessageTags.OPTIONAL_STRING;
+import static com.google.protobench.TestMessageTags.REPEATED_BOOLEAN;
+import static com.google.protobench.TestMessageTags.REPEATED_BYTES;
+import static com.google.protobench.TestMessageTags.REPEATED_DOUBLE;
+import static com.google.protobench.TestMessageTags.REPEATED_ENUM;
+import static com.google.protobench.TestMessageTags.REPEATED_FIXED32;
+import static com.google.protobench.TestMessageTags.REPEATED_FIXED64;
+import static com.google.protobench.TestMessageTags.REPEATED_FLOAT;
+import static com.google.protobench.TestMessageTags.REPEATED_INT;
+import static com.google.protobench.TestMessageTags.REPEATED_LONG;
+import static com.google.protobench.TestMessageTags.REPEATED_SFIXED32;
+import static com.google.protobench.TestMessageTags.REPEATED_SFIXED64;
+import static com.google.protobench.TestMessageTags.REPEATED_SINT32;
+import static com.google.protobench.TestMessageTags.REPEATED_SINT64;
+import static com.google.protobench.TestMessageTags.REPEATED_STRING;
 import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNALIGNED_ACCESS;
 import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_ARRAY_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.INT_ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.LONG_ARRAY_BASE_OFFSET;
 import static com.google.protobench.UnsafeUtil.UNSAFE;
 
+import com.google.protobuf.ByteString;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 final class ReverseEncoder implements Encoder {
+  /**
+   * Whether multi-byte values, such as the varints written by the {@code Word} and {@code Array}
+   * variants of the varint writers, can be written with single unaligned little-endian stores.
+   */
+  private static final boolean WORD_STORES = HAS_UNSAFE_ARRAY_OPERATIONS && HAS_UNALIGNED_ACCESS
+          && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /** The extra bytes a word store may touch beyond a 32-bit varint of the maximum size. */
+  private static final int VARINT32_WORD_SLACK = 8 - WireFormat.MAX_VARINT32_SIZE;
+
   private final byte[] buffer;
   private final int offset;
   private final int limit;
   private final int offsetMinusOne;
   private int position;
+  private Utf8Cache utf8Cache;
 
   ReverseEncoder(byte[] buffer, int offset, int length) {
     if (buffer == null) {
@@ -40,55 +86,177 @@ final class ReverseEncoder implements Encoder {
   public void encodeMessageNoTag(TestMessage message) throws IOException {
     final int prevPos = position;
 
+    if (message.repeatedEnum != null) {
+      if (message.packed) {
+        writePackedEnum(51, message.repeatedEnum);
+      } else {
+        for (int ix = message.repeatedEnum.length - 1; ix >= 0; --ix) {
+          writeInt32NoTag(message.repeatedEnum[ix]);
+          writeEncodedTag(REPEATED_ENUM);
+        }
+      }
+    }
     if (message.repeatedBytes != null) {
       for (int ix = message.repeatedBytes.length - 1; ix >= 0; --ix) {
-        writeByteArray(45, message.repeatedBytes[ix]);
+        final byte[] value = message.repeatedBytes[ix];
+        writeByteArrayNoTag(value, 0, value.length);
+        writeEncodedTag(REPEATED_BYTES);
       }
     }
-    if (message.repeatedString != null) {
+    if (message.repeatedUtf8String != null) {
+      for (int ix = message.repeatedUtf8String.length - 1; ix >= 0; --ix) {
+        writeUtf8StringNoTag(message.repeatedUtf8String[ix]);
+        writeEncodedTag(REPEATED_STRING);
+      }
+    } else if (message.repeatedString != null) {
       for (int ix = message.repeatedString.length - 1; ix >= 0; --ix) {
-        writeString(44, message.repeatedString[ix]);
+        writeStringNoTag(message.repeatedString[ix]);
+        writeEncodedTag(REPEATED_STRING);
       }
     }
     if (message.repeatedBoolean != null) {
-      for (int ix = message.repeatedBoolean.length - 1; ix >= 0; --ix) {
-        writeBool(43, message.repeatedBoolean[ix]);
+      if (message.packed) {
+        writePackedBool(43, message.repeatedBoolean);
+      } else {
+        for (int ix = message.repeatedBoolean.length - 1; ix >= 0; --ix) {
+          writeTaggedBool(REPEATED_BOOLEAN, message.repeatedBoolean[ix]);
+        }
       }
     }
     if (message.repeatedDouble != null) {
-      for (int ix = message.repeatedDouble.length - 1; ix >= 0; --ix) {
-        writeDouble(42, message.repeatedDouble[ix]);
+      if (message.packed) {
+        writePackedDouble(42, message.repeatedDouble);
+      } else {
+        for (int ix = message.repeatedDouble.length - 1; ix >= 0; --ix) {
+          writeFixed64NoTag(Double.doubleToRawLongBits(message.repeatedDouble[ix]));
+          writeEncodedTag(REPEATED_DOUBLE);
+        }
       }
     }
     if (message.repeatedFloat != null) {
-      for (int ix = message.repeatedFloat.length - 1; ix >= 0; --ix) {
-        writeFloat(41, message.repeatedFloat[ix]);
+      if (message.packed) {
+        writePackedFloat(41, message.repeatedFloat);
+      } else {
+        for (int ix = message.repeatedFloat.length - 1; ix >= 0; --ix) {
+          writeTaggedFixed32(REPEATED_FLOAT, Float.floatToRawIntBits(message.repeatedFloat[ix]));
+        }
+      }
+    }
+    if (message.repeatedSFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(40, message.repeatedSFixed64);
+      } else {
+        for (int ix = message.repeatedSFixed64.length - 1; ix >= 0; --ix) {
+          writeFixed64NoTag(message.repeatedSFixed64[ix]);
+          writeEncodedTag(REPEATED_SFIXED64);
+        }
+      }
+    }
+    if (message.repeatedSFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(39, message.repeatedSFixed32);
+      } else {
+        for (int ix = message.repeatedSFixed32.length - 1; ix >= 0; --ix) {
+          writeTaggedFixed32(REPEATED_SFIXED32, message.repeatedSFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(38, message.repeatedFixed64);
+      } else {
+        for (int ix = message.repeatedFixed64.length - 1; ix >= 0; --ix) {
+          writeFixed64NoTag(message.repeatedFixed64[ix]);
+          writeEncodedTag(REPEATED_FIXED64);
+        }
+      }
+    }
+    if (message.repeatedFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(37, message.repeatedFixed32);
+      } else {
+        for (int ix = message.repeatedFixed32.length - 1; ix >= 0; --ix) {
+          writeTaggedFixed32(REPEATED_FIXED32, message.repeatedFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt64 != null) {
+      if (message.packed) {
+        writePackedSInt64(36, message.repeatedSInt64);
+      } else {
+        for (int ix = message.repeatedSInt64.length - 1; ix >= 0; --ix) {
+          writeSInt64NoTag(message.repeatedSInt64[ix]);
+          writeEncodedTag(REPEATED_SINT64);
+        }
+      }
+    }
+    if (message.repeatedSInt32 != null) {
+      if (message.packed) {
+        writePackedSInt32(35, message.repeatedSInt32);
+      } else {
+        for (int ix = message.repeatedSInt32.length - 1; ix >= 0; --ix) {
+          writeSInt32NoTag(message.repeatedSInt32[ix]);
+          writeEncodedTag(REPEATED_SINT32);
+        }
       }
     }
     if (message.repeatedLong != null) {
-      for (int ix = message.repeatedLong.length - 1; ix >= 0; --ix) {
-        writeUInt64(34, message.repeatedLong[ix]);
+      if (message.packed) {
+        writePackedUInt64(34, message.repeatedLong);
+      } else {
+        for (int ix = message.repeatedLong.length - 1; ix >= 0; --ix) {
+          writeUInt64NoTag(message.repeatedLong[ix]);
+          writeEncodedTag(REPEATED_LONG);
+        }
       }
     }
     if (message.repeatedInt != null) {
-      for (int ix = message.repeatedInt.length - 1; ix >= 0; --ix) {
-        writeUInt32(33, message.repeatedInt[ix]);
+      if (message.packed) {
+        writePackedUInt32(33, message.repeatedInt);
+      } else {
+        for (int ix = message.repeatedInt.length - 1; ix >= 0; --ix) {
+          writeUInt32NoTag(message.repeatedInt[ix]);
+          writeEncodedTag(REPEATED_INT);
+        }
       }
     }
 
+    writeInt32NoTag(message.optionalEnum);
+    writeEncodedTag(OPTIONAL_ENUM);
+
     if (message.children != null) {
       for (int ix = message.children.length - 1; ix >= 0; --ix) {
-        encodeMessage(18, message.children[ix]);
+        encodeMessageNoTag(message.children[ix]);
+        writeEncodedTag(CHILD);
       }
     }
 
-    writeByteArray(15, message.optionalBytes);
-    writeString(14, message.optionalString);
-    writeBool(13, message.optionalBoolean);
-    writeDouble(12, message.optionalDouble);
-    writeFloat(11, message.optionalFloat);
-    writeUInt64(4, message.optionalLong);
-    writeUInt32(3, message.optionalInt);
+    writeByteArrayNoTag(message.optionalBytes, 0, message.optionalBytes.length);
+    writeEncodedTag(OPTIONAL_BYTES);
+    if (message.optionalUtf8String != null) {
+      writeUtf8StringNoTag(message.optionalUtf8String);
+    } else {
+      writeStringNoTag(message.optionalString);
+    }
+    writeEncodedTag(OPTIONAL_STRING);
+    writeTaggedBool(OPTIONAL_BOOLEAN, message.optionalBoolean);
+    writeFixed64NoTag(Double.doubleToRawLongBits(message.optionalDouble));
+    writeEncodedTag(OPTIONAL_DOUBLE);
+    writeTaggedFixed32(OPTIONAL_FLOAT, Float.floatToRawIntBits(message.optionalFloat));
+    writeFixed64NoTag(message.optionalSFixed64);
+    writeEncodedTag(OPTIONAL_SFIXED64);
+    writeTaggedFixed32(OPTIONAL_SFIXED32, message.optionalSFixed32);
+    writeFixed64NoTag(message.optionalFixed64);
+    writeEncodedTag(OPTIONAL_FIXED64);
+    writeTaggedFixed32(OPTIONAL_FIXED32, message.optionalFixed32);
+    writeSInt64NoTag(message.optionalSInt64);
+    writeEncodedTag(OPTIONAL_SINT64);
+    writeSInt32NoTag(message.optionalSInt32);
+    writeEncodedTag(OPTIONAL_SINT32);
+    writeUInt64NoTag(message.optionalLong);
+    writeEncodedTag(OPTIONAL_LONG);
+    writeUInt32NoTag(message.optionalInt);
+    writeEncodedTag(OPTIONAL_INT);
 
     // Now write out the serialized size for this message.
     int serializedSize = prevPos - position;
@@ -104,6 +272,53 @@ final class ReverseEncoder implements Encoder {
     writeUInt32NoTag(WireFormat.makeTag(fieldNumber, wireType));
   }
 
+  /**
+   * Writes a tag pre-encoded by {@link WireFormat#encodeTag}, with a single store when there is
+   * room for four bytes.
+   */
+  public final void writeEncodedTag(final int encodedTag) throws IOException {
+    final int size = WireFormat.encodedTagSize(encodedTag);
+    if (WORD_STORES && position - offsetMinusOne >= 4) {
+      UNSAFE.putInt(buffer, ARRAY_BASE_OFFSET + position - 3, encodedTag << (8 * (4 - size)));
+      position -= size;
+    } else {
+      writeTaggedWordSlowPath(encodedTag, size);
+    }
+  }
+
+  /** Writes a pre-encoded tag and a fixed32 value, with a single store when space allows. */
+  public final void writeTaggedFixed32(final int encodedTag, final int value) throws IOException {
+    final int tagSize = WireFormat.encodedTagSize(encodedTag);
+    writeTaggedWord((encodedTag & 0xFFFFFFFFL) | ((value & 0xFFFFFFFFL) << (8 * tagSize)),
+            tagSize + WireFormat.FIXED_32_SIZE);
+  }
+
+  /** Writes a pre-encoded tag and a bool value, with a single store when space allows. */
+  public final void writeTaggedBool(final int encodedTag, final boolean value) throws IOException {
+    final int tagSize = WireFormat.encodedTagSize(encodedTag);
+    writeTaggedWord((encodedTag & 0xFFFFFFFFL) | ((value ? 1L : 0L) << (8 * tagSize)),
+            tagSize + 1);
+  }
+
+  /**
+   * Writes the low {@code size} bytes of {@code word} so that they end at the current position,
+   * with a single store when there is room for eight bytes.
+   */
+  private void writeTaggedWord(final long word, final int size) throws IOException {
+    if (WORD_STORES && position - offsetMinusOne >= 8) {
+      UNSAFE.putLong(buffer, ARRAY_BASE_OFFSET + position - 7, word << (8 * (8 - size)));
+      position -= size;
+    } else {
+      writeTaggedWordSlowPath(word, size);
+    }
+  }
+
+  private void writeTaggedWordSlowPath(final long word, final int size) throws IOException {
+    for (int ix = size - 1; ix >= 0; --ix) {
+      write((byte) (word >>> (8 * ix)));
+    }
+  }
+
   public final void writeInt32(final int fieldNumber, final int value) throws IOException {
     writeInt32NoTag(value);
     writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
@@ -114,6 +329,15 @@ final class ReverseEncoder implements Encoder {
     writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
   }
 
+  public final void writeSInt32(final int fieldNumber, final int value) throws IOException {
+    writeSInt32NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
+  public final void writeEnum(final int fieldNumber, final int value) throws IOException {
+    writeInt32(fieldNumber, value);
+  }
+
   public final void writeFixed32(final int fieldNumber, final int value) throws IOException {
     writeFixed32NoTag(value);
     writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
@@ -124,6 +348,11 @@ final class ReverseEncoder implements Encoder {
     writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
   }
 
+  public final void writeSInt64(final int fieldNumber, final long value) throws IOException {
+    writeSInt64NoTag(value);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+  }
+
   public final void writeFixed64(final int fieldNumber, final long value) throws IOException {
     writeFixed64NoTag(value);
     writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
@@ -142,6 +371,121 @@ final class ReverseEncoder implements Encoder {
     writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
   }
 
+  public final void writePackedUInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    writeUInt32Array(values, 0, values.length);
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedUInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    writeUInt64Array(values, 0, values.length);
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedSInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    writeSInt32Array(values, 0, values.length);
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedSInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    writeSInt64Array(values, 0, values.length);
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** Writes a packed fixed32 or sfixed32 field. */
+  public final void writePackedFixed32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeFixed32Array(values, 0, values.length);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** Writes a packed fixed64 or sfixed64 field. */
+  public final void writePackedFixed64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeFixed64Array(values, 0, values.length);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedFloat(final int fieldNumber, final float[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed32NoTag(Float.floatToRawIntBits(values[ix]));
+    }
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedDouble(final int fieldNumber, final double[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeFixed64NoTag(Double.doubleToRawLongBits(values[ix]));
+    }
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedBool(final int fieldNumber, final boolean[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      write((byte) (values[ix] ? 1 : 0));
+    }
+    writeUInt32NoTag(values.length);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  public final void writePackedEnum(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    final int prevTotal = getTotalBytesWritten();
+    for (int ix = values.length - 1; ix >= 0; --ix) {
+      writeInt32NoTag(values[ix]);
+    }
+    writeUInt32NoTag(getTotalBytesWritten() - prevTotal);
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
   public final void writeString(final int fieldNumber, final String value) throws IOException {
     writeStringNoTag(value);
     writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
@@ -171,6 +515,24 @@ final class ReverseEncoder implements Encoder {
     writeUInt32NoTag(length);
   }
 
+  public final void writeUtf8StringNoTag(final Utf8String value) throws IOException {
+    write(value.bytes(), 0, value.size());
+    writeUInt32NoTag(value.size());
+  }
+
+  public final void writeByteStringNoTag(final ByteString value) throws IOException {
+    final int length = value.size();
+    final int startPos = (position - length) + 1;
+    if (startPos < offset) {
+      throw new OutOfSpaceException(
+              new IndexOutOfBoundsException(
+                      String.format("Pos: %d, offset: %d, len: %d", position, offset, length)));
+    }
+    value.copyTo(buffer, 0, startPos, length);
+    position = startPos - 1;
+    writeUInt32NoTag(length);
+  }
+
   public final void writeRawBytes(final ByteBuffer value) throws IOException {
     if (value.hasArray()) {
       write(value.array(), value.arrayOffset(), value.capacity());
@@ -198,6 +560,14 @@ final class ReverseEncoder implements Encoder {
     }
   }
 
+  public final void writeSInt32NoTag(int value) throws IOException {
+    writeUInt32NoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  public final void writeSInt64NoTag(long value) throws IOException {
+    writeUInt64NoTag(WireFormat.encodeZigZag64(value));
+  }
+
   private void writeUInt32NoTagUnsafe(int value) throws IOException {
     final byte size = Utils.computeUInt32SizeNoTag(value);
     if (position - size < offsetMinusOne) {
@@ -265,6 +635,11 @@ final class ReverseEncoder implements Encoder {
                       String.format("Pos: %d, offset: %d, len: %d", position, offset, 4)));
     }
 
+    if (WORD_STORES) {
+      position -= WireFormat.FIXED_32_SIZE;
+      UNSAFE.putInt(buffer, ARRAY_BASE_OFFSET + position + 1, value);
+      return;
+    }
     buffer[position--] = (byte) ((value >> 24) & 0xFF);
     buffer[position--] = (byte) ((value >> 16) & 0xFF);
     buffer[position--] = (byte) ((value >> 8) & 0xFF);
@@ -316,6 +691,178 @@ final class ReverseEncoder implements Encoder {
     }
   }
 
+  /**
+   * An alternative to {@link #writeUInt32NoTag} that builds the varint in a register and writes it
+   * with a single word store. Falls back to byte stores near the start of the buffer.
+   */
+  public final void writeUInt32NoTagWord(int value) throws IOException {
+    if (WORD_STORES && position - offsetMinusOne >= 8) {
+      position = (int) (putUInt32Word(ARRAY_BASE_OFFSET + position, value) - ARRAY_BASE_OFFSET);
+    } else {
+      writeUInt32NoTag(value);
+    }
+  }
+
+  /**
+   * An alternative to {@link #writeUInt64NoTag} that builds the varint in a register and writes it
+   * with a single word store. Falls back to byte stores near the start of the buffer.
+   */
+  public final void writeUInt64NoTagWord(long value) throws IOException {
+    if (WORD_STORES && position - offsetMinusOne >= WireFormat.MAX_VARINT_SIZE) {
+      position = (int) (putUInt64Word(ARRAY_BASE_OFFSET + position, value) - ARRAY_BASE_OFFSET);
+    } else {
+      writeUInt64NoTag(value);
+    }
+  }
+
+  /**
+   * Writes {@code value} so that it ends at {@code pos} with one 8-byte store, and returns the
+   * position before it. The store also clobbers the bytes below the varint, which have not been
+   * written yet. The caller must ensure that 8 bytes are available.
+   */
+  private long putUInt32Word(long pos, int value) {
+    final int size = Utils.computeUInt32SizeNoTag(value);
+    UNSAFE.putLong(buffer, pos - 7, Utils.varint32Word(value, size) << (8 * (8 - size)));
+    return pos - size;
+  }
+
+  /**
+   * Writes {@code value} so that it ends at {@code pos} with one 8-byte store, plus up to two byte
+   * stores for values that need more than eight bytes, and returns the position before it. The
+   * caller must ensure that {@link WireFormat#MAX_VARINT_SIZE} bytes are available.
+   */
+  private long putUInt64Word(long pos, long value) {
+    final int size = Utils.computeUInt64SizeNoTag(value);
+    if (size > 8) {
+      if (size == WireFormat.MAX_VARINT_SIZE) {
+        UNSAFE.putByte(buffer, pos--, (byte) 1);
+      }
+      // The ninth byte carries its own continuation bit when the sign bit is set.
+      UNSAFE.putByte(buffer, pos--, (byte) (value >>> 56));
+      UNSAFE.putLong(buffer, pos - 7, Utils.varint64Word(value, size));
+      return pos - 8;
+    }
+    UNSAFE.putLong(buffer, pos - 7, Utils.varint64Word(value, size) << (8 * (8 - size)));
+    return pos - size;
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive varints, last value first. Space
+   * for the worst case is checked once up front, after which each value is written as by {@link
+   * #putUInt32Word}.
+   */
+  public final void writeUInt32Array(final int[] values, final int offset, final int length)
+          throws IOException {
+    if (WORD_STORES && (long) length * WireFormat.MAX_VARINT32_SIZE + VARINT32_WORD_SLACK
+            <= position - offsetMinusOne) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        pos = putUInt32Word(pos, values[ix]);
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        writeUInt32NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive varints, last value first. Space
+   * for the worst case is checked once up front, after which each value is written as by {@link
+   * #putUInt64Word}.
+   */
+  public final void writeUInt64Array(final long[] values, final int offset, final int length)
+          throws IOException {
+    if (WORD_STORES
+            && (long) length * WireFormat.MAX_VARINT_SIZE <= position - offsetMinusOne) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        pos = putUInt64Word(pos, values[ix]);
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        writeUInt64NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive ZigZag-encoded varints, last
+   * value first, with the same single up-front space check as {@link #writeUInt32Array}.
+   */
+  public final void writeSInt32Array(final int[] values, final int offset, final int length)
+          throws IOException {
+    if (WORD_STORES && (long) length * WireFormat.MAX_VARINT32_SIZE + VARINT32_WORD_SLACK
+            <= position - offsetMinusOne) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        pos = putUInt32Word(pos, WireFormat.encodeZigZag32(values[ix]));
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        writeSInt32NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive ZigZag-encoded varints, last
+   * value first, with the same single up-front space check as {@link #writeUInt64Array}.
+   */
+  public final void writeSInt64Array(final long[] values, final int offset, final int length)
+          throws IOException {
+    if (WORD_STORES
+            && (long) length * WireFormat.MAX_VARINT_SIZE <= position - offsetMinusOne) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        pos = putUInt64Word(pos, WireFormat.encodeZigZag64(values[ix]));
+      }
+      position = (int) (pos - ARRAY_BASE_OFFSET);
+    } else {
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        writeSInt64NoTag(values[ix]);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code values[offset, offset + length)} as consecutive fixed32 values. On little-endian
+   * platforms an {@code int[]} is already laid out in wire order, so the range is copied in bulk.
+   */
+  public final void writeFixed32Array(final int[] values, final int offset, final int length)
+          throws IOException {
+    final int numBytes = length * WireFormat.FIXED_32_SIZE;
+    if (WORD_STORES && numBytes <= position - offsetMinusOne) {
+      final int startPos = position - numBytes + 1;
+      UNSAFE.copyMemory(values, INT_ARRAY_BASE_OFFSET + (long) offset * WireFormat.FIXED_32_SIZE,
+              buffer, ARRAY_BASE_OFFSET + startPos, numBytes);
+      position = startPos - 1;
+    } else {
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        writeFixed32NoTag(values[ix]);
+      }
+    }
+  }
+
+  /** As {@link #writeFixed32Array}, for fixed64 values. */
+  public final void writeFixed64Array(final long[] values, final int offset, final int length)
+          throws IOException {
+    final int numBytes = length * WireFormat.FIXED_64_SIZE;
+    if (WORD_STORES && numBytes <= position - offsetMinusOne) {
+      final int startPos = position - numBytes + 1;
+      UNSAFE.copyMemory(values, LONG_ARRAY_BASE_OFFSET + (long) offset * WireFormat.FIXED_64_SIZE,
+              buffer, ARRAY_BASE_OFFSET + startPos, numBytes);
+      position = startPos - 1;
+    } else {
+      for (int ix = offset + length - 1; ix >= offset; --ix) {
+        writeFixed64NoTag(values[ix]);
+      }
+    }
+  }
+
   public final void writeFixed64NoTag(long value) throws IOException {
     if (position - 7 < offset) {
       throw new OutOfSpaceException(
@@ -323,6 +870,11 @@ final class ReverseEncoder implements Encoder {
                       String.format("Pos: %d, offset: %d, len: %d", position, offset, 8)));
     }
 
+    if (WORD_STORES) {
+      position -= WireFormat.FIXED_64_SIZE;
+      UNSAFE.putLong(buffer, ARRAY_BASE_OFFSET + position + 1, value);
+      return;
+    }
     buffer[position--] = (byte) ((int) (value >> 56) & 0xFF);
     buffer[position--] = (byte) ((int) (value >> 48) & 0xFF);
     buffer[position--] = (byte) ((int) (value >> 40) & 0xFF);
@@ -361,11 +913,30 @@ final class ReverseEncoder implements Encoder {
     }
   }
 
+  /**
+   * Sets a cache of UTF-8 encodings that {@link #writeStringNoTag} consults before transcoding,
+   * and fills with the strings it does transcode. May be {@code null} to disable caching.
+   */
+  void setUtf8Cache(Utf8Cache utf8Cache) {
+    this.utf8Cache = utf8Cache;
+  }
+
   public final void writeStringNoTag(String value) throws IOException {
+    if (utf8Cache != null) {
+      final byte[] encoded = utf8Cache.get(value);
+      if (encoded != null) {
+        write(encoded, 0, encoded.length);
+        writeUInt32NoTag(encoded.length);
+        return;
+      }
+    }
     final int oldPosition = position;
     try {
       int length = Utf8.encodeReverse(value, buffer, offset, spaceLeft());
       position -= length;
+      if (utf8Cache != null) {
+        utf8Cache.put(value, buffer, position + 1, position + 1 + length);
+      }
       writeUInt32NoTag(length);
     } catch (Utf8.UnpairedSurrogateException e) {
       // Roll back the change - we fall back to inefficient path.
@@ -0,0 +1,109 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Measures {@link StreamingForwardEncoder} flushing through buffers of various sizes into an
+ * in-memory stream and a local file channel.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class StreamingEncodingBenchmark {
+  public enum SinkType {
+    BYTE_ARRAY_OUTPUT_STREAM,
+    FILE_CHANNEL
+  }
+
+  @Param
+  public SinkType sinkType;
+
+  @Param({"512", "4096", "65536"})
+  public int bufferSize;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  /**
+   * Height 2 encodes to tens of kilobytes; height 5, with the default branching factor, to a few
+   * megabytes, so that most of the encode is spent between flushes.
+   */
+  @Param({"2", "5"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  private StreamingForwardEncoder encoder;
+  private TestMessage message;
+  private SerializedSizeManager sizeManager;
+  private ByteArrayOutputStream stream;
+  private File file;
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+
+  @Setup
+  public void setUp() throws Exception {
+    // Create the message.
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    sizeManager = new SerializedSizeManager(numMessages);
+    message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+        treeHeight, branchingFactor, sizeManager);
+
+    switch (sinkType) {
+      case BYTE_ARRAY_OUTPUT_STREAM:
+        stream = new ByteArrayOutputStream(message.getSerializedSize() + 5);
+        encoder = new StreamingForwardEncoder(stream, bufferSize);
+        break;
+      case FILE_CHANNEL:
+        file = File.createTempFile("protobench", ".bin");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        encoder = new StreamingForwardEncoder(channel, bufferSize);
+        break;
+    }
+    sizeManager.clearAll();
+  }
+
+  @TearDown
+  public void closeFile() throws Exception {
+    if (randomAccessFile != null) {
+      randomAccessFile.close();
+      file.delete();
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws Exception {
+    encoder.reset();
+    sizeManager.clearAll();
+    if (stream != null) {
+      stream.reset();
+    }
+    if (channel != null) {
+      channel.position(0);
+    }
+  }
+
+  @Benchmark
+  public void encode() throws Exception {
+    encoder.encodeMessageNoTag(message);
+    encoder.flush();
+  }
+}
@@ -0,0 +1,701 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_ARRAY_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link ForwardEncoder} that streams its output through a fixed-size buffer to an {@link
+ * OutputStream} or {@link WritableByteChannel}, flushing whenever the buffer cannot fit the next
+ * value. Scalar writes check for space once per value, so the varint loops stay unchecked.
+ *
+ * <p>Callers must {@link #flush()} after encoding to push out any buffered bytes.
+ */
+final class StreamingForwardEncoder implements Encoder {
+  private final Sink sink;
+  private final byte[] buffer;
+  private final int limit;
+  private int position;
+  private int totalBytesFlushed;
+
+  StreamingForwardEncoder(OutputStream out, int bufferSize) {
+    this(new OutputStreamSink(out), bufferSize);
+  }
+
+  StreamingForwardEncoder(WritableByteChannel channel, int bufferSize) {
+    this(new ChannelSink(channel), bufferSize);
+  }
+
+  private StreamingForwardEncoder(Sink sink, int bufferSize) {
+    if (bufferSize < WireFormat.MAX_VARINT_SIZE) {
+      throw new IllegalArgumentException(String.format(
+              "Buffer size must be at least %d, was %d", WireFormat.MAX_VARINT_SIZE, bufferSize));
+    }
+    this.sink = sink;
+    buffer = new byte[bufferSize];
+    limit = bufferSize;
+    reset();
+  }
+
+  @Override
+  public void encodeMessage(int fieldNumber, TestMessage message) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    encodeMessageNoTag(message);
+  }
+
+  @Override
+  public void encodeMessageNoTag(TestMessage message) throws IOException {
+    writeUInt32NoTag(message.getSerializedSize());
+
+    writeUInt32(3, message.optionalInt);
+    writeUInt64(4, message.optionalLong);
+    writeSInt32(5, message.optionalSInt32);
+    writeSInt64(6, message.optionalSInt64);
+    writeFixed32(7, message.optionalFixed32);
+    writeFixed64(8, message.optionalFixed64);
+    writeFixed32(9, message.optionalSFixed32);
+    writeFixed64(10, message.optionalSFixed64);
+    writeFloat(11, message.optionalFloat);
+    writeDouble(12, message.optionalDouble);
+    writeBool(13, message.optionalBoolean);
+    writeString(14, message.optionalString);
+    writeByteArray(15, message.optionalBytes);
+
+    if (message.children != null) {
+      for (int ix = 0; ix < message.children.length; ++ix) {
+        encodeMessage(18, message.children[ix]);
+      }
+    }
+    writeEnum(21, message.optionalEnum);
+
+    if (message.repeatedInt != null) {
+      if (message.packed) {
+        writePackedUInt32(33, message.repeatedInt,
+                message.getPackedDataSize(TestMessage.PACKED_UINT32));
+      } else {
+        for (int ix = 0; ix < message.repeatedInt.length; ++ix) {
+          writeUInt32(33, message.repeatedInt[ix]);
+        }
+      }
+    }
+    if (message.repeatedLong != null) {
+      if (message.packed) {
+        writePackedUInt64(34, message.repeatedLong,
+                message.getPackedDataSize(TestMessage.PACKED_UINT64));
+      } else {
+        for (int ix = 0; ix < message.repeatedLong.length; ++ix) {
+          writeUInt64(34, message.repeatedLong[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt32 != null) {
+      if (message.packed) {
+        writePackedSInt32(35, message.repeatedSInt32,
+                message.getPackedDataSize(TestMessage.PACKED_SINT32));
+      } else {
+        for (int ix = 0; ix < message.repeatedSInt32.length; ++ix) {
+          writeSInt32(35, message.repeatedSInt32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSInt64 != null) {
+      if (message.packed) {
+        writePackedSInt64(36, message.repeatedSInt64,
+                message.getPackedDataSize(TestMessage.PACKED_SINT64));
+      } else {
+        for (int ix = 0; ix < message.repeatedSInt64.length; ++ix) {
+          writeSInt64(36, message.repeatedSInt64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(37, message.repeatedFixed32);
+      } else {
+        for (int ix = 0; ix < message.repeatedFixed32.length; ++ix) {
+          writeFixed32(37, message.repeatedFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(38, message.repeatedFixed64);
+      } else {
+        for (int ix = 0; ix < message.repeatedFixed64.length; ++ix) {
+          writeFixed64(38, message.repeatedFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed32 != null) {
+      if (message.packed) {
+        writePackedFixed32(39, message.repeatedSFixed32);
+      } else {
+        for (int ix = 0; ix < message.repeatedSFixed32.length; ++ix) {
+          writeFixed32(39, message.repeatedSFixed32[ix]);
+        }
+      }
+    }
+    if (message.repeatedSFixed64 != null) {
+      if (message.packed) {
+        writePackedFixed64(40, message.repeatedSFixed64);
+      } else {
+        for (int ix = 0; ix < message.repeatedSFixed64.length; ++ix) {
+          writeFixed64(40, message.repeatedSFixed64[ix]);
+        }
+      }
+    }
+    if (message.repeatedFloat != null) {
+      if (message.packed) {
+        writePackedFloat(41, message.repeatedFloat);
+      } else {
+        for (int ix = 0; ix < message.repeatedFloat.length; ++ix) {
+          writeFloat(41, message.repeatedFloat[ix]);
+        }
+      }
+    }
+    if (message.repeatedDouble != null) {
+      if (message.packed) {
+        writePackedDouble(42, message.repeatedDouble);
+      } else {
+        for (int ix = 0; ix < message.repeatedDouble.length; ++ix) {
+          writeDouble(42, message.repeatedDouble[ix]);
+        }
+      }
+    }
+    if (message.repeatedBoolean != null) {
+      if (message.packed) {
+        writePackedBool(43, message.repeatedBoolean);
+      } else {
+        for (int ix = 0; ix < message.repeatedBoolean.length; ++ix) {
+          writeBool(43, message.repeatedBoolean[ix]);
+        }
+      }
+    }
+    if (message.repeatedString != null) {
+      for (int ix = 0; ix < message.repeatedString.length; ++ix) {
+        writeString(44, message.repeatedString[ix]);
+      }
+    }
+    if (message.repeatedBytes != null) {
+      for (int ix = 0; ix < message.repeatedBytes.length; ++ix) {
+        writeByteArray(45, message.repeatedBytes[ix]);
+      }
+    }
+    if (message.repeatedEnum != null) {
+      if (message.packed) {
+        writePackedEnum(51, message.repeatedEnum,
+                message.getPackedDataSize(TestMessage.PACKED_ENUM));
+      } else {
+        for (int ix = 0; ix < message.repeatedEnum.length; ++ix) {
+          writeEnum(51, message.repeatedEnum[ix]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Discards any buffered bytes that have not been flushed and resets the byte count.
+   */
+  @Override
+  public void reset() {
+    position = 0;
+    totalBytesFlushed = 0;
+  }
+
+  /**
+   * Writes all buffered bytes to the underlying stream or channel.
+   */
+  public void flush() throws IOException {
+    if (position > 0) {
+      sink.write(buffer, 0, position);
+      totalBytesFlushed += position;
+      position = 0;
+    }
+  }
+
+  public final void writeTag(final int fieldNumber, final int wireType) throws IOException {
+    writeUInt32NoTag(WireFormat.makeTag(fieldNumber, wireType));
+  }
+
+  public final void writeInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeInt32NoTag(value);
+  }
+
+  public final void writeUInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeUInt32NoTag(value);
+  }
+
+  public final void writeSInt32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeSInt32NoTag(value);
+  }
+
+  public final void writeEnum(final int fieldNumber, final int value) throws IOException {
+    writeInt32(fieldNumber, value);
+  }
+
+  public final void writeFixed32(final int fieldNumber, final int value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+    writeFixed32NoTag(value);
+  }
+
+  public final void writeUInt64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeUInt64NoTag(value);
+  }
+
+  public final void writeSInt64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    writeSInt64NoTag(value);
+  }
+
+  public final void writeFixed64(final int fieldNumber, final long value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+    writeFixed64NoTag(value);
+  }
+
+  public final void writeBool(final int fieldNumber, final boolean value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    write((byte) (value ? 1 : 0));
+  }
+
+  public void writeFloat(int fieldNumber, float value) throws IOException {
+    writeFixed32(fieldNumber, Float.floatToRawIntBits(value));
+  }
+
+  public void writeDouble(int fieldNumber, double value) throws IOException {
+    writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
+  }
+
+  public final void writePackedUInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedUInt32(fieldNumber, values, Utils.computeUInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedUInt32(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedUInt32(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeUInt32NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedUInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    writePackedUInt64(fieldNumber, values, Utils.computeUInt64ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedUInt64(int, long[])}, with the payload size already computed.
+   */
+  public final void writePackedUInt64(final int fieldNumber, final long[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeUInt64NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedSInt32(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedSInt32(fieldNumber, values, Utils.computeSInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedSInt32(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedSInt32(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeSInt32NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedSInt64(final int fieldNumber, final long[] values)
+          throws IOException {
+    writePackedSInt64(fieldNumber, values, Utils.computeSInt64ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedSInt64(int, long[])}, with the payload size already computed.
+   */
+  public final void writePackedSInt64(final int fieldNumber, final long[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeSInt64NoTag(values[ix]);
+    }
+  }
+
+  /** Writes a packed fixed32 or sfixed32 field. */
+  public final void writePackedFixed32(final int fieldNumber, final int[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed32NoTag(values[ix]);
+    }
+  }
+
+  /** Writes a packed fixed64 or sfixed64 field. */
+  public final void writePackedFixed64(final int fieldNumber, final long[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed64NoTag(values[ix]);
+    }
+  }
+
+  public final void writePackedFloat(final int fieldNumber, final float[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_32_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed32NoTag(Float.floatToRawIntBits(values[ix]));
+    }
+  }
+
+  public final void writePackedDouble(final int fieldNumber, final double[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(WireFormat.FIXED_64_SIZE * values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeFixed64NoTag(Double.doubleToRawLongBits(values[ix]));
+    }
+  }
+
+  public final void writePackedBool(final int fieldNumber, final boolean[] values)
+          throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(values.length);
+    for (int ix = 0; ix < values.length; ++ix) {
+      write((byte) (values[ix] ? 1 : 0));
+    }
+  }
+
+  public final void writePackedEnum(final int fieldNumber, final int[] values)
+          throws IOException {
+    writePackedEnum(fieldNumber, values, Utils.computeInt32ArraySizeNoTag(values));
+  }
+
+  /**
+   * As {@link #writePackedEnum(int, int[])}, with the payload size already computed.
+   */
+  public final void writePackedEnum(final int fieldNumber, final int[] values,
+          final int dataSize) throws IOException {
+    if (values.length == 0) {
+      return;
+    }
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeUInt32NoTag(dataSize);
+    for (int ix = 0; ix < values.length; ++ix) {
+      writeInt32NoTag(values[ix]);
+    }
+  }
+
+  public final void writeString(final int fieldNumber, final String value) throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeStringNoTag(value);
+  }
+
+  public final void writeByteArray(final int fieldNumber, final byte[] value) throws IOException {
+    writeByteArray(fieldNumber, value, 0, value.length);
+  }
+
+  public final void writeByteArray(
+          final int fieldNumber, final byte[] value, final int offset, final int length)
+          throws IOException {
+    writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    writeByteArrayNoTag(value, offset, length);
+  }
+
+  public final void writeByteArrayNoTag(final byte[] value, int offset, int length)
+          throws IOException {
+    writeUInt32NoTag(length);
+    write(value, offset, length);
+  }
+
+  public final void write(byte value) throws IOException {
+    if (position == limit) {
+      flush();
+    }
+    buffer[position++] = value;
+  }
+
+  public final void writeSInt32NoTag(int value) throws IOException {
+    writeUInt32NoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  public final void writeSInt64NoTag(long value) throws IOException {
+    writeUInt64NoTag(WireFormat.encodeZigZag64(value));
+  }
+
+  public final void writeInt32NoTag(int value) throws IOException {
+    if (value >= 0) {
+      writeUInt32NoTag(value);
+    } else {
+      // Must sign-extend.
+      writeUInt64NoTag(value);
+    }
+  }
+
+  private void writeUInt32NoTagUnsafe(int value) {
+    long pos = ARRAY_BASE_OFFSET + position;
+    while (true) {
+      if ((value & ~0x7F) == 0) {
+        UNSAFE.putByte(buffer, pos, (byte) value);
+        position++;
+        return;
+      } else {
+        UNSAFE.putByte(buffer, pos++, (byte) ((value & 0x7F) | 0x80));
+        position++;
+        value >>>= 7;
+      }
+    }
+  }
+
+  private void writeUInt32NoTagSafe(int value) {
+    while (true) {
+      if ((value & ~0x7F) == 0) {
+        buffer[position++] = (byte) value;
+        return;
+      } else {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+    }
+  }
+
+  @Override
+  public final void writeUInt32NoTag(int value) throws IOException {
+    if (limit - position < WireFormat.MAX_VARINT_SIZE) {
+      flush();
+    }
+    writeUInt32NoTagUnchecked(value);
+  }
+
+  /**
+   * Writes the varint without checking for space, for callers that have already reserved it.
+   */
+  private void writeUInt32NoTagUnchecked(int value) {
+    if (HAS_UNSAFE_ARRAY_OPERATIONS) {
+      writeUInt32NoTagUnsafe(value);
+    } else {
+      writeUInt32NoTagSafe(value);
+    }
+  }
+
+  public final void writeFixed32NoTag(int value) throws IOException {
+    if (limit - position < WireFormat.FIXED_32_SIZE) {
+      flush();
+    }
+    buffer[position++] = (byte) (value & 0xFF);
+    buffer[position++] = (byte) ((value >> 8) & 0xFF);
+    buffer[position++] = (byte) ((value >> 16) & 0xFF);
+    buffer[position++] = (byte) ((value >> 24) & 0xFF);
+  }
+
+  @Override
+  public final void writeUInt64NoTag(long value) throws IOException {
+    if (limit - position < WireFormat.MAX_VARINT_SIZE) {
+      flush();
+    }
+    if (HAS_UNSAFE_ARRAY_OPERATIONS) {
+      long pos = ARRAY_BASE_OFFSET + position;
+      while (true) {
+        if ((value & ~0x7FL) == 0) {
+          UNSAFE.putByte(buffer, pos, (byte) value);
+          position++;
+          return;
+        } else {
+          UNSAFE.putByte(buffer, pos++, (byte) (((int) value & 0x7F) | 0x80));
+          position++;
+          value >>>= 7;
+        }
+      }
+    } else {
+      while (true) {
+        if ((value & ~0x7FL) == 0) {
+          buffer[position++] = (byte) value;
+          return;
+        } else {
+          buffer[position++] = (byte) (((int) value & 0x7F) | 0x80);
+          value >>>= 7;
+        }
+      }
+    }
+  }
+
+  public final void writeFixed64NoTag(long value) throws IOException {
+    if (limit - position < WireFormat.FIXED_64_SIZE) {
+      flush();
+    }
+    buffer[position++] = (byte) ((int) (value) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 8) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 16) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 24) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 32) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 40) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 48) & 0xFF);
+    buffer[position++] = (byte) ((int) (value >> 56) & 0xFF);
+  }
+
+  /**
+   * Copies the given bytes into the buffer, or hands them straight to the sink if they would not
+   * fit even in an empty buffer.
+   */
+  public final void write(byte[] value, int offset, int length) throws IOException {
+    if (limit - position < length) {
+      flush();
+      if (limit < length) {
+        sink.write(value, offset, length);
+        totalBytesFlushed += length;
+        return;
+      }
+    }
+    System.arraycopy(value, offset, buffer, position, length);
+    position += length;
+  }
+
+  public final void writeStringNoTag(String value) throws IOException {
+    // UTF-8 byte length of the string is at least its UTF-16 code unit length (value.length()),
+    // and at most 3 times of it.
+    final int maxLength = value.length() * Utf8.MAX_BYTES_PER_CHAR;
+    final int maxLengthVarIntSize = Utils.computeUInt32SizeNoTag(maxLength);
+    if (maxLengthVarIntSize + maxLength > limit - position) {
+      if (maxLengthVarIntSize + maxLength > limit) {
+        // The string may not fit in the buffer at all.
+        inefficientWriteStringNoTag(value);
+        return;
+      }
+      flush();
+    }
+
+    final int oldPosition = position;
+    try {
+      final int minLengthVarIntSize = Utils.computeUInt32SizeNoTag(value.length());
+      if (minLengthVarIntSize == maxLengthVarIntSize) {
+        position = oldPosition + minLengthVarIntSize;
+        int newPosition = Utf8.encode(value, buffer, position, limit - position);
+        // Rewind to prepend the length, then move back to the end of the string. The space for
+        // both was reserved above, so these writes must not flush.
+        position = oldPosition;
+        int length = newPosition - oldPosition - minLengthVarIntSize;
+        writeUInt32NoTagUnchecked(length);
+        position = newPosition;
+      } else {
+        int length = Utf8.encodedLength(value);
+        writeUInt32NoTagUnchecked(length);
+        position = Utf8.encode(value, buffer, position, limit - position);
+      }
+    } catch (Utf8.UnpairedSurrogateException e) {
+      // Roll back the change - we fall back to inefficient path.
+      position = oldPosition;
+      inefficientWriteStringNoTag(value);
+    }
+  }
+
+  @Override
+  public final int getTotalBytesWritten() {
+    return totalBytesFlushed + position;
+  }
+
+  private void inefficientWriteStringNoTag(String value) throws IOException {
+    final byte[] bytes = value.getBytes(Utf8.UTF_8);
+    writeUInt32NoTag(bytes.length);
+    write(bytes, 0, bytes.length);
+  }
+
+  private interface Sink {
+    void write(byte[] bytes, int offset, int length) throws IOException;
+  }
+
+  private static final class OutputStreamSink implements Sink {
+    private final OutputStream out;
+
+    OutputStreamSink(OutputStream out) {
+      if (out == null) {
+        throw new NullPointerException("out");
+      }
+      this.out = out;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+  }
+
+  private static final class ChannelSink implements Sink {
+    private final WritableByteChannel channel;
+
+    ChannelSink(WritableByteChannel channel) {
+      if (channel == null) {
+        throw new NullPointerException("channel");
+      }
+      this.channel = channel;
+    }
+
+    /**
+     * The last array written, wrapped. That is almost always the encoder's own buffer, so this
+     * wraps it once rather than on every flush.
+     */
+    private ByteBuffer wrapped = ByteBuffer.allocate(0);
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      ByteBuffer buffer = wrapped;
+      if (buffer.array() != bytes) {
+        buffer = wrapped = ByteBuffer.wrap(bytes);
+      }
+      buffer.limit(offset + length);
+      buffer.position(offset);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+}
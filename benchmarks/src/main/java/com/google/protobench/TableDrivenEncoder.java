@@ -0,0 +1,302 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import java.io.IOException;
+
+/**
+ * Encodes arbitrary messages described by a {@link MessageSchema} into a {@link ReverseEncoder}.
+ * Writing in reverse means that no size pass is needed, so the message classes need no size
+ * cache of their own.
+ */
+final class TableDrivenEncoder {
+  private final ReverseEncoder out;
+
+  TableDrivenEncoder(ReverseEncoder out) {
+    if (out == null) {
+      throw new NullPointerException("out");
+    }
+    this.out = out;
+  }
+
+  void encodeMessage(int fieldNumber, Object message, MessageSchema schema) throws IOException {
+    encodeMessageNoTag(message, schema);
+    out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  void encodeMessageNoTag(Object message, MessageSchema schema) throws IOException {
+    final int prevTotal = out.getTotalBytesWritten();
+    final MessageSchema.Kind[] kinds = schema.kinds;
+    final int[] tags = schema.tags;
+    final long[] offsets = schema.offsets;
+
+    for (int ix = kinds.length - 1; ix >= 0; --ix) {
+      final int tag = tags[ix];
+      final long offset = offsets[ix];
+      switch (kinds[ix]) {
+        case UINT32:
+          out.writeUInt32NoTag(UNSAFE.getInt(message, offset));
+          out.writeEncodedTag(tag);
+          break;
+        case UINT64:
+          out.writeUInt64NoTag(UNSAFE.getLong(message, offset));
+          out.writeEncodedTag(tag);
+          break;
+        case SINT32:
+          out.writeSInt32NoTag(UNSAFE.getInt(message, offset));
+          out.writeEncodedTag(tag);
+          break;
+        case SINT64:
+          out.writeSInt64NoTag(UNSAFE.getLong(message, offset));
+          out.writeEncodedTag(tag);
+          break;
+        case FIXED32:
+          out.writeTaggedFixed32(tag, UNSAFE.getInt(message, offset));
+          break;
+        case FIXED64:
+          out.writeFixed64NoTag(UNSAFE.getLong(message, offset));
+          out.writeEncodedTag(tag);
+          break;
+        case ENUM:
+          out.writeInt32NoTag(UNSAFE.getInt(message, offset));
+          out.writeEncodedTag(tag);
+          break;
+        case FLOAT:
+          out.writeTaggedFixed32(tag, Float.floatToRawIntBits(UNSAFE.getFloat(message, offset)));
+          break;
+        case DOUBLE:
+          out.writeFixed64NoTag(Double.doubleToRawLongBits(UNSAFE.getDouble(message, offset)));
+          out.writeEncodedTag(tag);
+          break;
+        case BOOL:
+          out.writeTaggedBool(tag, UNSAFE.getBoolean(message, offset));
+          break;
+        case STRING: {
+          final String value = (String) UNSAFE.getObject(message, offset);
+          if (value != null) {
+            out.writeStringNoTag(value);
+            out.writeEncodedTag(tag);
+          }
+          break;
+        }
+        case BYTES: {
+          final byte[] value = (byte[]) UNSAFE.getObject(message, offset);
+          if (value != null) {
+            out.writeByteArrayNoTag(value, 0, value.length);
+            out.writeEncodedTag(tag);
+          }
+          break;
+        }
+        case MESSAGE: {
+          final Object value = UNSAFE.getObject(message, offset);
+          if (value != null) {
+            encodeMessageNoTag(value, schema.messageSchemas[ix]);
+            out.writeEncodedTag(tag);
+          }
+          break;
+        }
+        case REPEATED_UINT32: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeUInt32NoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_UINT64: {
+          final long[] values = (long[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeUInt64NoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_SINT32: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeSInt32NoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_SINT64: {
+          final long[] values = (long[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeSInt64NoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_FIXED32: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeTaggedFixed32(tag, values[vx]);
+            }
+          }
+          break;
+        }
+        case REPEATED_FIXED64: {
+          final long[] values = (long[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeFixed64NoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_ENUM: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeInt32NoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_FLOAT: {
+          final float[] values = (float[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeTaggedFixed32(tag, Float.floatToRawIntBits(values[vx]));
+            }
+          }
+          break;
+        }
+        case REPEATED_DOUBLE: {
+          final double[] values = (double[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeFixed64NoTag(Double.doubleToRawLongBits(values[vx]));
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_BOOL: {
+          final boolean[] values = (boolean[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeTaggedBool(tag, values[vx]);
+            }
+          }
+          break;
+        }
+        case REPEATED_STRING: {
+          final String[] values = (String[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeStringNoTag(values[vx]);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_BYTES: {
+          final byte[][] values = (byte[][]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              out.writeByteArrayNoTag(values[vx], 0, values[vx].length);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case REPEATED_MESSAGE: {
+          final Object[] values = (Object[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            final MessageSchema valueSchema = schema.messageSchemas[ix];
+            for (int vx = values.length - 1; vx >= 0; --vx) {
+              encodeMessageNoTag(values[vx], valueSchema);
+              out.writeEncodedTag(tag);
+            }
+          }
+          break;
+        }
+        case PACKED_UINT32: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedUInt32(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_UINT64: {
+          final long[] values = (long[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedUInt64(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_SINT32: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedSInt32(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_SINT64: {
+          final long[] values = (long[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedSInt64(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_FIXED32: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedFixed32(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_FIXED64: {
+          final long[] values = (long[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedFixed64(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_ENUM: {
+          final int[] values = (int[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedEnum(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_FLOAT: {
+          final float[] values = (float[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedFloat(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_DOUBLE: {
+          final double[] values = (double[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedDouble(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+        case PACKED_BOOL: {
+          final boolean[] values = (boolean[]) UNSAFE.getObject(message, offset);
+          if (values != null) {
+            out.writePackedBool(schema.fieldNumbers[ix], values);
+          }
+          break;
+        }
+      }
+    }
+
+    // Now write out the serialized size for this message.
+    out.writeUInt32NoTag(out.getTotalBytesWritten() - prevTotal);
+  }
+}
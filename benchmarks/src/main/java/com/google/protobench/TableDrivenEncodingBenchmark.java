@@ -0,0 +1,72 @@
+package com.google.protobench;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how close {@link TableDrivenEncoder}, walking {@link TestMessage#getSchema}, gets to the
+ * hand-written {@link ReverseEncoder#encodeMessageNoTag}. Both write the same bytes into the same
+ * array.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class TableDrivenEncodingBenchmark {
+  public enum Encoding {
+    HAND_WRITTEN,
+    TABLE_DRIVEN
+  }
+
+  @Param
+  public Encoding encoding;
+
+  @Param({"50"})
+  public int stringLength;
+
+  @Param({"20"})
+  public int numRepeatedFields;
+
+  @Param({"2"})
+  public int treeHeight;
+
+  @Param({"4"})
+  public int branchingFactor;
+
+  @Param({"false", "true"})
+  public boolean packed;
+
+  private TestMessage message;
+  private MessageSchema schema;
+  private ReverseEncoder encoder;
+  private TableDrivenEncoder tableDrivenEncoder;
+
+  @Setup
+  public void setUp() throws Exception {
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    message = TestMessage.newRandomInstance(0, stringLength, numRepeatedFields,
+            treeHeight, branchingFactor, packed, new SerializedSizeManager(numMessages));
+    schema = TestMessage.getSchema(packed);
+
+    byte[] output = new byte[1024 * 1024];
+    encoder = new ReverseEncoder(output, 0, output.length);
+    tableDrivenEncoder = new TableDrivenEncoder(encoder);
+  }
+
+  @Benchmark
+  public void encode() throws Exception {
+    switch (encoding) {
+      case HAND_WRITTEN:
+        encoder.encodeMessageNoTag(message);
+        break;
+      case TABLE_DRIVEN:
+        tableDrivenEncoder.encodeMessageNoTag(message, schema);
+        break;
+    }
+    encoder.reset();
+  }
+}
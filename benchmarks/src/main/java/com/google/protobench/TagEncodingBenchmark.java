@@ -0,0 +1,82 @@
+package com.google.protobench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Isolates the cost of writing a single tag, comparing {@code writeTag}, which builds and
+ * varint-encodes the tag on every call, against {@code writeEncodedTag}, which stores a tag
+ * pre-encoded by {@link WireFormat#encodeTag}. Field numbers are grouped by encoded tag size.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class TagEncodingBenchmark {
+  public enum FieldRange {
+    ONE_BYTE(1, 5, 11, 15),
+    TWO_BYTE(16, 33, 45, 2047),
+    THREE_BYTE(2048, 10000, 100000, 262143);
+
+    final int[] fieldNumbers;
+
+    FieldRange(int... fieldNumbers) {
+      this.fieldNumbers = fieldNumbers;
+    }
+  }
+
+  public enum Method {
+    WRITE_TAG,
+    ENCODED_TAG
+  }
+
+  @Param
+  public EncodingAlgorithmBenchmark.Direction direction;
+
+  @Param
+  public Method method;
+
+  @Param
+  public FieldRange fieldRange;
+
+  private final byte[] buffer = new byte[100];
+  private final int[] encodedTags = new int[4];
+  private ForwardEncoder forward;
+  private ReverseEncoder reverse;
+  private int nextIndex;
+
+  @Setup
+  public void setUp() {
+    for (int ix = 0; ix < encodedTags.length; ++ix) {
+      encodedTags[ix] =
+              WireFormat.encodeTag(fieldRange.fieldNumbers[ix], WireFormat.WIRETYPE_VARINT);
+    }
+    forward = new ForwardEncoder(buffer, 0, buffer.length);
+    reverse = new ReverseEncoder(buffer, 0, buffer.length);
+  }
+
+  @Benchmark
+  public void writeTag() throws Exception {
+    final int ix = nextIndex = (nextIndex + 1) & 3;
+    switch (direction) {
+      case FORWARD:
+        if (method == Method.WRITE_TAG) {
+          forward.writeTag(fieldRange.fieldNumbers[ix], WireFormat.WIRETYPE_VARINT);
+        } else {
+          forward.writeEncodedTag(encodedTags[ix]);
+        }
+        forward.reset();
+        break;
+      case REVERSE:
+        if (method == Method.WRITE_TAG) {
+          reverse.writeTag(fieldRange.fieldNumbers[ix], WireFormat.WIRETYPE_VARINT);
+        } else {
+          reverse.writeEncodedTag(encodedTags[ix]);
+        }
+        reverse.reset();
+        break;
+    }
+  }
+}
@@ -6,28 +6,77 @@ import benchmark.protobuf.UnittestProto;
 import benchmark.protostuff.NestedTestAllTypes;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 final class TestMessage {
+  /**
+   * Indexes of the packed varint fields whose payload sizes {@link #getSerializedSize()} records,
+   * for {@link #getPackedDataSize}.
+   */
+  static final int PACKED_UINT32 = 0;
+  static final int PACKED_UINT64 = 1;
+  static final int PACKED_SINT32 = 2;
+  static final int PACKED_SINT64 = 3;
+  static final int PACKED_ENUM = 4;
+  private static final int NUM_PACKED_VARINT_FIELDS = 5;
+
+  /** The numbers of {@code TestAllTypes.NestedEnum}, including its intentionally negative one. */
+  private static final int[] NESTED_ENUM_VALUES = {1, 2, 3, -1};
+
   int optionalInt;
   long optionalLong;
+  int optionalSInt32;
+  long optionalSInt64;
+  int optionalFixed32;
+  long optionalFixed64;
+  int optionalSFixed32;
+  long optionalSFixed64;
   float optionalFloat;
   double optionalDouble;
   boolean optionalBoolean;
   String optionalString;
   byte[] optionalBytes;
+  int optionalEnum;
 
   int[] repeatedInt;
   long[] repeatedLong;
+  int[] repeatedSInt32;
+  long[] repeatedSInt64;
+  int[] repeatedFixed32;
+  long[] repeatedFixed64;
+  int[] repeatedSFixed32;
+  long[] repeatedSFixed64;
   float[] repeatedFloat;
   double[] repeatedDouble;
   boolean[] repeatedBoolean;
   String[] repeatedString;
   byte[][] repeatedBytes;
+  int[] repeatedEnum;
+
+  /**
+   * Pre-encoded forms of {@link #optionalString} and {@link #repeatedString}, or {@code null}.
+   * When set, {@link ForwardEncoder} and {@link ReverseEncoder} copy these bytes instead of
+   * transcoding the strings, and sizes come from their stored lengths. They must hold the same
+   * values as the string fields, which all other encoders keep using.
+   */
+  Utf8String optionalUtf8String;
+  Utf8String[] repeatedUtf8String;
 
   TestMessage[] children;
 
+  /**
+   * Whether the repeated scalar fields are written with packed encoding, i.e. as a single
+   * length-delimited field each rather than one tagged field per element.
+   */
+  boolean packed;
+
+  /**
+   * The number of messages in the tree rooted at this message, including itself.
+   */
+  int subtreeSize = 1;
+
   private final SerializedSizeManager sizeManager;
   private final int sizeIndex;
 
@@ -40,19 +89,37 @@ final class TestMessage {
     TestMessage copy = new TestMessage(sizeManager);
     copy.optionalInt = optionalInt;
     copy.optionalLong = optionalLong;
+    copy.optionalSInt32 = optionalSInt32;
+    copy.optionalSInt64 = optionalSInt64;
+    copy.optionalFixed32 = optionalFixed32;
+    copy.optionalFixed64 = optionalFixed64;
+    copy.optionalSFixed32 = optionalSFixed32;
+    copy.optionalSFixed64 = optionalSFixed64;
     copy.optionalFloat = optionalFloat;
     copy.optionalDouble = optionalDouble;
     copy.optionalBoolean = optionalBoolean;
     copy.optionalString = optionalString;
     copy.optionalBytes = optionalBytes;
+    copy.optionalEnum = optionalEnum;
 
     copy.repeatedInt = repeatedInt;
     copy.repeatedLong = repeatedLong;
+    copy.repeatedSInt32 = repeatedSInt32;
+    copy.repeatedSInt64 = repeatedSInt64;
+    copy.repeatedFixed32 = repeatedFixed32;
+    copy.repeatedFixed64 = repeatedFixed64;
+    copy.repeatedSFixed32 = repeatedSFixed32;
+    copy.repeatedSFixed64 = repeatedSFixed64;
     copy.repeatedFloat = repeatedFloat;
     copy.repeatedDouble = repeatedDouble;
     copy.repeatedBoolean = repeatedBoolean;
     copy.repeatedString = repeatedString;
     copy.repeatedBytes = repeatedBytes;
+    copy.repeatedEnum = repeatedEnum;
+    copy.optionalUtf8String = optionalUtf8String;
+    copy.repeatedUtf8String = repeatedUtf8String;
+    copy.packed = packed;
+    copy.subtreeSize = subtreeSize;
 
     if (children != null) {
       copy.children = new TestMessage[children.length];
@@ -66,13 +133,26 @@ final class TestMessage {
   public int getSerializedSize() {
     int size = sizeManager.getSerializedSize(sizeIndex);
     if (size == -1) {
+      // Read before the fields, so that a size computed from fields that are mutated and cleared
+      // concurrently is stored into an epoch that is already over.
+      final int epoch = sizeManager.currentEpoch();
       size = 0;
       size += Utils.computeUInt32Size(3, optionalInt);
       size += Utils.computeUInt64Size(4, optionalLong);
+      size += Utils.computeSInt32Size(5, optionalSInt32);
+      size += Utils.computeSInt64Size(6, optionalSInt64);
+      size += Utils.computeFixed32Size(7);
+      size += Utils.computeFixed64Size(8);
+      size += Utils.computeFixed32Size(9);
+      size += Utils.computeFixed64Size(10);
       size += Utils.computeFloatSize(11, optionalFloat);
       size += Utils.computeDoubleSize(12, optionalDouble);
       size += Utils.computeBoolSize(13, optionalBoolean);
-      size += Utils.computeStringSize(14, optionalString);
+      if (optionalUtf8String != null) {
+        size += Utils.computeUtf8StringSize(14, optionalUtf8String);
+      } else {
+        size += Utils.computeStringSize(14, optionalString, sizeManager.getUtf8Cache());
+      }
       size += Utils.computeByteArraySize(15, optionalBytes);
 
       if (children != null) {
@@ -80,58 +160,148 @@ final class TestMessage {
           size += Utils.computeMessageSize(18, children[ix]);
         }
       }
+      size += Utils.computeEnumSize(21, optionalEnum);
 
       if (repeatedInt != null) {
         {
-          int dataSize = 0;
-          for (int i = 0; i < repeatedInt.length; i++) {
-            dataSize += Utils.computeUInt32SizeNoTag(repeatedInt[i]);
+          int dataSize = Utils.computeUInt32ArraySizeNoTag(repeatedInt);
+          if (packed) {
+            size += Utils.computePackedFieldSize(33, dataSize);
+            sizeManager.setPackedDataSize(sizeIndex, PACKED_UINT32, epoch, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedInt.length;
           }
-          size += dataSize;
-          size += 2 * repeatedInt.length;
         }
       }
       if (repeatedLong != null) {
         {
-          int dataSize = 0;
-          for (int i = 0; i < repeatedLong.length; i++) {
-            dataSize += Utils.computeUInt64SizeNoTag(repeatedLong[i]);
+          int dataSize = Utils.computeUInt64ArraySizeNoTag(repeatedLong);
+          if (packed) {
+            size += Utils.computePackedFieldSize(34, dataSize);
+            sizeManager.setPackedDataSize(sizeIndex, PACKED_UINT64, epoch, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedLong.length;
+          }
+        }
+      }
+      if (repeatedSInt32 != null) {
+        {
+          int dataSize = Utils.computeSInt32ArraySizeNoTag(repeatedSInt32);
+          if (packed) {
+            size += Utils.computePackedFieldSize(35, dataSize);
+            sizeManager.setPackedDataSize(sizeIndex, PACKED_SINT32, epoch, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedSInt32.length;
+          }
+        }
+      }
+      if (repeatedSInt64 != null) {
+        {
+          int dataSize = Utils.computeSInt64ArraySizeNoTag(repeatedSInt64);
+          if (packed) {
+            size += Utils.computePackedFieldSize(36, dataSize);
+            sizeManager.setPackedDataSize(sizeIndex, PACKED_SINT64, epoch, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedSInt64.length;
+          }
+        }
+      }
+      if (repeatedFixed32 != null) {
+        {
+          int dataSize = WireFormat.FIXED_32_SIZE * repeatedFixed32.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(37, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedFixed32.length;
+          }
+        }
+      }
+      if (repeatedFixed64 != null) {
+        {
+          int dataSize = WireFormat.FIXED_64_SIZE * repeatedFixed64.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(38, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedFixed64.length;
+          }
+        }
+      }
+      if (repeatedSFixed32 != null) {
+        {
+          int dataSize = WireFormat.FIXED_32_SIZE * repeatedSFixed32.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(39, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedSFixed32.length;
+          }
+        }
+      }
+      if (repeatedSFixed64 != null) {
+        {
+          int dataSize = WireFormat.FIXED_64_SIZE * repeatedSFixed64.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(40, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedSFixed64.length;
           }
-          size += dataSize;
-          size += 2 * repeatedLong.length;
         }
       }
       if (repeatedFloat != null) {
         {
-          int dataSize = 0;
-          for (int i = 0; i < repeatedFloat.length; i++) {
-            dataSize += Utils.computeFloatSizeNoTag(repeatedFloat[i]);
+          int dataSize = WireFormat.FIXED_32_SIZE * repeatedFloat.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(41, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedFloat.length;
           }
-          size += dataSize;
-          size += 2 * repeatedFloat.length;
         }
       }
       if (repeatedDouble != null) {
         {
-          int dataSize = 0;
-          for (int i = 0; i < repeatedDouble.length; i++) {
-            dataSize += Utils.computeDoubleSizeNoTag(repeatedDouble[i]);
+          int dataSize = WireFormat.FIXED_64_SIZE * repeatedDouble.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(42, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedDouble.length;
           }
-          size += dataSize;
-          size += 2 * repeatedDouble.length;
         }
       }
       if (repeatedBoolean != null) {
         {
-          size += repeatedBoolean.length;
-          size += 2 * repeatedBoolean.length;
+          int dataSize = repeatedBoolean.length;
+          if (packed) {
+            size += Utils.computePackedFieldSize(43, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedBoolean.length;
+          }
         }
       }
-      if (repeatedString != null) {
+      if (repeatedUtf8String != null) {
         {
           int dataSize = 0;
+          for (int i = 0; i < repeatedUtf8String.length; i++) {
+            dataSize += Utils.computeUtf8StringSizeNoTag(repeatedUtf8String[i]);
+          }
+          size += dataSize;
+          size += 2 * repeatedUtf8String.length;
+        }
+      } else if (repeatedString != null) {
+        {
+          int dataSize = 0;
+          final Utf8Cache utf8Cache = sizeManager.getUtf8Cache();
           for (int i = 0; i < repeatedString.length; i++) {
-            dataSize += Utils.computeStringSizeNoTag(repeatedString[i]);
+            dataSize += Utils.computeStringSizeNoTag(repeatedString[i], utf8Cache);
           }
           size += dataSize;
           size += 2 * repeatedString.length;
@@ -147,38 +317,103 @@ final class TestMessage {
           size += 2 * repeatedBytes.length;
         }
       }
-      sizeManager.setSerializedSize(sizeIndex, size);
+      if (repeatedEnum != null) {
+        {
+          int dataSize = Utils.computeInt32ArraySizeNoTag(repeatedEnum);
+          if (packed) {
+            size += Utils.computePackedFieldSize(51, dataSize);
+            sizeManager.setPackedDataSize(sizeIndex, PACKED_ENUM, epoch, dataSize);
+          } else {
+            size += dataSize;
+            size += 2 * repeatedEnum.length;
+          }
+        }
+      }
+      sizeManager.setSerializedSize(sizeIndex, epoch, size);
     }
 
     return size;
   }
 
+  /**
+   * Returns the payload size of a packed varint field, which is also its length prefix. {@link
+   * #getSerializedSize()} records it while sizing the message, so that forward encoders need not
+   * walk the values again; it is only recomputed if the sizes have been cleared since.
+   *
+   * @param field one of the {@code PACKED_*} field indexes
+   */
+  int getPackedDataSize(int field) {
+    final int size = sizeManager.getPackedDataSize(sizeIndex, field);
+    return size != -1 ? size : computePackedDataSize(field);
+  }
+
+  private int computePackedDataSize(int field) {
+    switch (field) {
+      case PACKED_UINT32:
+        return Utils.computeUInt32ArraySizeNoTag(repeatedInt);
+      case PACKED_UINT64:
+        return Utils.computeUInt64ArraySizeNoTag(repeatedLong);
+      case PACKED_SINT32:
+        return Utils.computeSInt32ArraySizeNoTag(repeatedSInt32);
+      case PACKED_SINT64:
+        return Utils.computeSInt64ArraySizeNoTag(repeatedSInt64);
+      case PACKED_ENUM:
+        return Utils.computeInt32ArraySizeNoTag(repeatedEnum);
+      default:
+        throw new IllegalArgumentException("Not a packed varint field: " + field);
+    }
+  }
+
   public NestedTestAllTypes toProtostuff() {
     benchmark.protostuff.TestAllTypes proto = new benchmark.protostuff.TestAllTypes();
     proto.setOptionalUint32(optionalInt);
     proto.setOptionalUint64(optionalLong);
+    proto.setOptionalSint32(optionalSInt32);
+    proto.setOptionalSint64(optionalSInt64);
+    proto.setOptionalFixed32(optionalFixed32);
+    proto.setOptionalFixed64(optionalFixed64);
+    proto.setOptionalSfixed32(optionalSFixed32);
+    proto.setOptionalSfixed64(optionalSFixed64);
     proto.setOptionalFloat(optionalFloat);
     proto.setOptionalDouble(optionalDouble);
     proto.setOptionalBool(optionalBoolean);
     proto.setOptionalString(optionalString);
     proto.setOptionalBytes(io.protostuff.ByteString.copyFrom(optionalBytes));
+    proto.setOptionalNestedEnum(
+            benchmark.protostuff.TestAllTypes.NestedEnum.valueOf(optionalEnum));
 
     proto.setRepeatedUint32List(new ArrayList<Integer>(repeatedInt.length));
     proto.setRepeatedUint64List(new ArrayList<Long>(repeatedInt.length));
+    proto.setRepeatedSint32List(new ArrayList<Integer>(repeatedInt.length));
+    proto.setRepeatedSint64List(new ArrayList<Long>(repeatedInt.length));
+    proto.setRepeatedFixed32List(new ArrayList<Integer>(repeatedInt.length));
+    proto.setRepeatedFixed64List(new ArrayList<Long>(repeatedInt.length));
+    proto.setRepeatedSfixed32List(new ArrayList<Integer>(repeatedInt.length));
+    proto.setRepeatedSfixed64List(new ArrayList<Long>(repeatedInt.length));
     proto.setRepeatedFloatList(new ArrayList<Float>(repeatedInt.length));
     proto.setRepeatedDoubleList(new ArrayList<Double>(repeatedInt.length));
     proto.setRepeatedBoolList(new ArrayList<Boolean>(repeatedInt.length));
     proto.setRepeatedStringList(new ArrayList<String>(repeatedInt.length));
     proto.setRepeatedBytesList(new ArrayList<io.protostuff.ByteString>(repeatedInt.length));
+    proto.setRepeatedNestedEnumList(
+            new ArrayList<benchmark.protostuff.TestAllTypes.NestedEnum>(repeatedInt.length));
 
     for (int i = 0; i < repeatedInt.length; ++i) {
       proto.getRepeatedUint32List().add(repeatedInt[i]);
       proto.getRepeatedUint64List().add(repeatedLong[i]);
+      proto.getRepeatedSint32List().add(repeatedSInt32[i]);
+      proto.getRepeatedSint64List().add(repeatedSInt64[i]);
+      proto.getRepeatedFixed32List().add(repeatedFixed32[i]);
+      proto.getRepeatedFixed64List().add(repeatedFixed64[i]);
+      proto.getRepeatedSfixed32List().add(repeatedSFixed32[i]);
+      proto.getRepeatedSfixed64List().add(repeatedSFixed64[i]);
       proto.getRepeatedFloatList().add(repeatedFloat[i]);
       proto.getRepeatedDoubleList().add(repeatedDouble[i]);
       proto.getRepeatedBoolList().add(repeatedBoolean[i]);
       proto.getRepeatedStringList().add(repeatedString[i]);
       proto.getRepeatedBytesList().add(io.protostuff.ByteString.copyFrom(repeatedBytes[i]));
+      proto.getRepeatedNestedEnumList().add(
+              benchmark.protostuff.TestAllTypes.NestedEnum.valueOf(repeatedEnum[i]));
     }
 
     NestedTestAllTypes nested = new NestedTestAllTypes();
@@ -197,19 +432,33 @@ final class TestMessage {
     UnittestProto.TestAllTypes.Builder proto = UnittestProto.TestAllTypes.newBuilder();
     proto.setOptionalUint32(optionalInt);
     proto.setOptionalUint64(optionalLong);
+    proto.setOptionalSint32(optionalSInt32);
+    proto.setOptionalSint64(optionalSInt64);
+    proto.setOptionalFixed32(optionalFixed32);
+    proto.setOptionalFixed64(optionalFixed64);
+    proto.setOptionalSfixed32(optionalSFixed32);
+    proto.setOptionalSfixed64(optionalSFixed64);
     proto.setOptionalFloat(optionalFloat);
     proto.setOptionalDouble(optionalDouble);
     proto.setOptionalString(optionalString);
     proto.setOptionalBytes(com.google.protobuf.ByteString.copyFrom(optionalBytes));
+    proto.setOptionalNestedEnum(UnittestProto.TestAllTypes.NestedEnum.valueOf(optionalEnum));
 
     for (int i = 0; i < repeatedInt.length; ++i) {
       proto.addRepeatedUint32(repeatedInt[i]);
       proto.addRepeatedUint64(repeatedLong[i]);
+      proto.addRepeatedSint32(repeatedSInt32[i]);
+      proto.addRepeatedSint64(repeatedSInt64[i]);
+      proto.addRepeatedFixed32(repeatedFixed32[i]);
+      proto.addRepeatedFixed64(repeatedFixed64[i]);
+      proto.addRepeatedSfixed32(repeatedSFixed32[i]);
+      proto.addRepeatedSfixed64(repeatedSFixed64[i]);
       proto.addRepeatedFloat(repeatedFloat[i]);
       proto.addRepeatedDouble(repeatedDouble[i]);
       proto.addRepeatedBool(repeatedBoolean[i]);
       proto.addRepeatedString(repeatedString[i]);
       proto.addRepeatedBytes(com.google.protobuf.ByteString.copyFrom(repeatedBytes[i]));
+      proto.addRepeatedNestedEnum(UnittestProto.TestAllTypes.NestedEnum.valueOf(repeatedEnum[i]));
     }
 
     UnittestProto.NestedTestAllTypes.Builder nested = UnittestProto.NestedTestAllTypes.newBuilder();
@@ -222,75 +471,335 @@ final class TestMessage {
     return nested.build();
   }
 
+  static TestMessage newEmptyInstance(SerializedSizeManager sizeManager) {
+    return new TestMessage(sizeManager);
+  }
+
   public static TestMessage newRandomInstance(int depth,
                                               int stringLength,
                                               int numRepeatedFields,
                                               int treeHeight,
                                               int branchingFactor,
                                               SerializedSizeManager sizeManager) {
+    return newRandomInstance(depth, stringLength, numRepeatedFields, treeHeight, branchingFactor,
+            false, sizeManager);
+  }
+
+  public static TestMessage newRandomInstance(int depth,
+                                              int stringLength,
+                                              int numRepeatedFields,
+                                              int treeHeight,
+                                              int branchingFactor,
+                                              boolean packed,
+                                              SerializedSizeManager sizeManager) {
+    return newRandomInstance(depth, stringLength, numRepeatedFields, treeHeight, branchingFactor,
+            packed, false, sizeManager);
+  }
+
+  /**
+   * @param preEncodedStrings whether to also set {@link #optionalUtf8String} and
+   *                          {@link #repeatedUtf8String}, so that the array encoders copy the
+   *                          strings rather than transcoding them
+   */
+  public static TestMessage newRandomInstance(int depth,
+                                              int stringLength,
+                                              int numRepeatedFields,
+                                              int treeHeight,
+                                              int branchingFactor,
+                                              boolean packed,
+                                              boolean preEncodedStrings,
+                                              SerializedSizeManager sizeManager) {
+    return newRandomInstance(depth, stringLength, numRepeatedFields, treeHeight, branchingFactor,
+            packed, preEncodedStrings, VarintProfile.DEFAULT, sizeManager);
+  }
+
+  /**
+   * @param varintProfile the distribution of serialized sizes for the varint fields
+   */
+  public static TestMessage newRandomInstance(int depth,
+                                              int stringLength,
+                                              int numRepeatedFields,
+                                              int treeHeight,
+                                              int branchingFactor,
+                                              boolean packed,
+                                              boolean preEncodedStrings,
+                                              VarintProfile varintProfile,
+                                              SerializedSizeManager sizeManager) {
     TestMessage info = new TestMessage(sizeManager);
-    info.optionalInt = VarintInput.nextRandomIntValue();
-    info.optionalLong = VarintInput.nextRandomLongValue();
+    info.packed = packed;
+    info.optionalInt = varintProfile.nextRandomIntValue();
+    info.optionalLong = varintProfile.nextRandomLongValue();
+    info.optionalSInt32 = nextRandomSInt32(varintProfile);
+    info.optionalSInt64 = nextRandomSInt64(varintProfile);
+    info.optionalFixed32 = RANDOM.nextInt();
+    info.optionalFixed64 = RANDOM.nextLong();
+    info.optionalSFixed32 = RANDOM.nextInt();
+    info.optionalSFixed64 = RANDOM.nextLong();
     info.optionalFloat = RANDOM.nextFloat();
     info.optionalDouble = RANDOM.nextDouble();
     info.optionalBoolean = RANDOM.nextBoolean();
     info.optionalString = Utils.randomString(stringLength);
     info.optionalBytes = Utils.randomString(stringLength).getBytes();
+    info.optionalEnum = nextRandomEnum();
 
     info.repeatedInt = new int[numRepeatedFields];
     info.repeatedLong = new long[numRepeatedFields];
+    info.repeatedSInt32 = new int[numRepeatedFields];
+    info.repeatedSInt64 = new long[numRepeatedFields];
+    info.repeatedFixed32 = new int[numRepeatedFields];
+    info.repeatedFixed64 = new long[numRepeatedFields];
+    info.repeatedSFixed32 = new int[numRepeatedFields];
+    info.repeatedSFixed64 = new long[numRepeatedFields];
     info.repeatedFloat = new float[numRepeatedFields];
     info.repeatedDouble = new double[numRepeatedFields];
     info.repeatedBoolean = new boolean[numRepeatedFields];
     info.repeatedString = new String[numRepeatedFields];
     info.repeatedBytes = new byte[numRepeatedFields][];
+    info.repeatedEnum = new int[numRepeatedFields];
 
     for (int i = 0; i < numRepeatedFields; ++i) {
-      info.repeatedInt[i] = VarintInput.nextRandomIntValue();
-      info.repeatedLong[i] = VarintInput.nextRandomLongValue();
+      info.repeatedInt[i] = varintProfile.nextRandomIntValue();
+      info.repeatedLong[i] = varintProfile.nextRandomLongValue();
+      info.repeatedSInt32[i] = nextRandomSInt32(varintProfile);
+      info.repeatedSInt64[i] = nextRandomSInt64(varintProfile);
+      info.repeatedFixed32[i] = RANDOM.nextInt();
+      info.repeatedFixed64[i] = RANDOM.nextLong();
+      info.repeatedSFixed32[i] = RANDOM.nextInt();
+      info.repeatedSFixed64[i] = RANDOM.nextLong();
       info.repeatedFloat[i] = RANDOM.nextFloat();
       info.repeatedDouble[i] = RANDOM.nextDouble();
       info.repeatedBoolean[i] = RANDOM.nextBoolean();
       info.repeatedString[i] = Utils.randomString(stringLength);
       info.repeatedBytes[i] = Utils.randomString(stringLength).getBytes();
+      info.repeatedEnum[i] = nextRandomEnum();
+    }
+
+    if (preEncodedStrings) {
+      info.optionalUtf8String = Utf8String.copyFrom(info.optionalString);
+      info.repeatedUtf8String = new Utf8String[numRepeatedFields];
+      for (int i = 0; i < numRepeatedFields; ++i) {
+        info.repeatedUtf8String[i] = Utf8String.copyFrom(info.repeatedString[i]);
+      }
     }
 
     if (depth < treeHeight) {
       info.children = new TestMessage[branchingFactor];
       for (int branch = 0; branch < branchingFactor; ++branch) {
         info.children[branch] = newRandomInstance(depth + 1, stringLength, numRepeatedFields,
-                treeHeight, branchingFactor, sizeManager);
+                treeHeight, branchingFactor, packed, preEncodedStrings, varintProfile, sizeManager);
+        info.subtreeSize += info.children[branch].subtreeSize;
       }
     }
     return info;
   }
 
+  /**
+   * Returns a value whose ZigZag encoding has the varint size distribution of {@link
+   * VarintInput#nextRandomIntValue()}, with a random sign.
+   */
+  static int nextRandomSInt32() {
+    return nextRandomSInt32(VarintProfile.DEFAULT);
+  }
+
+  /** As {@link #nextRandomSInt32()}, for 64-bit values. */
+  static long nextRandomSInt64() {
+    return nextRandomSInt64(VarintProfile.DEFAULT);
+  }
+
+  /** As {@link #nextRandomSInt32()}, with sizes drawn from the given profile. */
+  static int nextRandomSInt32(VarintProfile varintProfile) {
+    final int magnitude = varintProfile.nextRandomIntValue() >>> 1;
+    return RANDOM.nextBoolean() ? magnitude : ~magnitude;
+  }
+
+  /** As {@link #nextRandomSInt64()}, with sizes drawn from the given profile. */
+  static long nextRandomSInt64(VarintProfile varintProfile) {
+    final long magnitude = varintProfile.nextRandomLongValue() >>> 1;
+    return RANDOM.nextBoolean() ? magnitude : ~magnitude;
+  }
+
+  /** Returns a random {@code TestAllTypes.NestedEnum} number. */
+  static int nextRandomEnum() {
+    return NESTED_ENUM_VALUES[RANDOM.nextInt(NESTED_ENUM_VALUES.length)];
+  }
+
+  /**
+   * Returns the description of this class for {@link TableDrivenEncoder}, with the repeated scalar
+   * fields packed or not.
+   */
+  static MessageSchema getSchema(boolean packed) {
+    return packed ? SchemaHolder.PACKED_SCHEMA : SchemaHolder.SCHEMA;
+  }
+
+  /**
+   * Builds the schemas on first use. Schemas need Unsafe, so they are kept out of this class's
+   * own initializer, which every encoder depends on.
+   */
+  private static final class SchemaHolder {
+    static final MessageSchema SCHEMA = newSchema(false);
+    static final MessageSchema PACKED_SCHEMA = newSchema(true);
+  }
+
+  private static MessageSchema newSchema(boolean packed) {
+    return MessageSchema.newBuilder(TestMessage.class)
+            .add(3, MessageSchema.Kind.UINT32, "optionalInt")
+            .add(4, MessageSchema.Kind.UINT64, "optionalLong")
+            .add(5, MessageSchema.Kind.SINT32, "optionalSInt32")
+            .add(6, MessageSchema.Kind.SINT64, "optionalSInt64")
+            .add(7, MessageSchema.Kind.FIXED32, "optionalFixed32")
+            .add(8, MessageSchema.Kind.FIXED64, "optionalFixed64")
+            .add(9, MessageSchema.Kind.FIXED32, "optionalSFixed32")
+            .add(10, MessageSchema.Kind.FIXED64, "optionalSFixed64")
+            .add(11, MessageSchema.Kind.FLOAT, "optionalFloat")
+            .add(12, MessageSchema.Kind.DOUBLE, "optionalDouble")
+            .add(13, MessageSchema.Kind.BOOL, "optionalBoolean")
+            .add(14, MessageSchema.Kind.STRING, "optionalString")
+            .add(15, MessageSchema.Kind.BYTES, "optionalBytes")
+            .addMessage(18, true, "children", null)
+            .add(21, MessageSchema.Kind.ENUM, "optionalEnum")
+            .add(33, packed ? MessageSchema.Kind.PACKED_UINT32 : MessageSchema.Kind.REPEATED_UINT32,
+                    "repeatedInt")
+            .add(34, packed ? MessageSchema.Kind.PACKED_UINT64 : MessageSchema.Kind.REPEATED_UINT64,
+                    "repeatedLong")
+            .add(35, packed ? MessageSchema.Kind.PACKED_SINT32 : MessageSchema.Kind.REPEATED_SINT32,
+                    "repeatedSInt32")
+            .add(36, packed ? MessageSchema.Kind.PACKED_SINT64 : MessageSchema.Kind.REPEATED_SINT64,
+                    "repeatedSInt64")
+            .add(37, packed ? MessageSchema.Kind.PACKED_FIXED32 : MessageSchema.Kind.REPEATED_FIXED32,
+                    "repeatedFixed32")
+            .add(38, packed ? MessageSchema.Kind.PACKED_FIXED64 : MessageSchema.Kind.REPEATED_FIXED64,
+                    "repeatedFixed64")
+            .add(39, packed ? MessageSchema.Kind.PACKED_FIXED32 : MessageSchema.Kind.REPEATED_FIXED32,
+                    "repeatedSFixed32")
+            .add(40, packed ? MessageSchema.Kind.PACKED_FIXED64 : MessageSchema.Kind.REPEATED_FIXED64,
+                    "repeatedSFixed64")
+            .add(41, packed ? MessageSchema.Kind.PACKED_FLOAT : MessageSchema.Kind.REPEATED_FLOAT,
+                    "repeatedFloat")
+            .add(42, packed ? MessageSchema.Kind.PACKED_DOUBLE : MessageSchema.Kind.REPEATED_DOUBLE,
+                    "repeatedDouble")
+            .add(43, packed ? MessageSchema.Kind.PACKED_BOOL : MessageSchema.Kind.REPEATED_BOOL,
+                    "repeatedBoolean")
+            .add(44, MessageSchema.Kind.REPEATED_STRING, "repeatedString")
+            .add(45, MessageSchema.Kind.REPEATED_BYTES, "repeatedBytes")
+            .add(51, packed ? MessageSchema.Kind.PACKED_ENUM : MessageSchema.Kind.REPEATED_ENUM,
+                    "repeatedEnum")
+            .build();
+  }
+
+  /**
+   * Memoizes the serialized sizes of the messages in a tree. Each message owns one slot, which
+   * holds the size together with the epoch in which it was computed. {@link #clearAll()} just
+   * starts a new epoch, so invalidation is O(1) regardless of the tree size.
+   *
+   * <p>Slots for the payload sizes of the packed varint fields are kept alongside, in the same
+   * format.
+   *
+   * <p>Multiple threads may encode the same tree concurrently. Sizes are idempotent, so two
+   * threads racing to fill the same slot simply store the same value. Slots are read and written
+   * as single longs so that a size can never be paired with the wrong epoch.
+   */
   final static class SerializedSizeManager {
-    private final int[] sizes;
-    private int nextIndex;
+    private static final long SIZE_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLongArray sizes;
+    private final AtomicLongArray packedDataSizes;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger epoch = new AtomicInteger();
+    private Utf8Cache utf8Cache;
 
     SerializedSizeManager(int size) {
-      sizes = new int[size];
+      sizes = new AtomicLongArray(size);
+      packedDataSizes = new AtomicLongArray(size * NUM_PACKED_VARINT_FIELDS);
       clearAll();
     }
 
     int getSerializedSize(int index) {
-      return sizes[index];
+      return get(sizes, index);
     }
 
-    void setSerializedSize(int index, int value) {
-      sizes[index] = value;
+    /**
+     * Returns the current epoch, to be read before computing a size and passed to {@link
+     * #setSerializedSize}.
+     */
+    int currentEpoch() {
+      return epoch.get();
+    }
+
+    /**
+     * Stores a size computed in the given epoch. If {@link #clearAll()} has been called since,
+     * the size may predate changes to the tree and is stored as already stale.
+     */
+    void setSerializedSize(int index, int epoch, int value) {
+      set(sizes, index, epoch, value);
+    }
+
+    int getPackedDataSize(int index, int field) {
+      return get(packedDataSizes, index * NUM_PACKED_VARINT_FIELDS + field);
+    }
+
+    /**
+     * As {@link #setSerializedSize}, for the payload size of a packed varint field.
+     */
+    void setPackedDataSize(int index, int field, int epoch, int value) {
+      set(packedDataSizes, index * NUM_PACKED_VARINT_FIELDS + field, epoch, value);
+    }
+
+    private int get(AtomicLongArray slots, int slot) {
+      final long entry = slots.get(slot);
+      return (int) (entry >>> 32) == epoch.get() ? (int) entry : -1;
+    }
+
+    private static void set(AtomicLongArray slots, int slot, int epoch, int value) {
+      slots.lazySet(slot, ((long) epoch << 32) | (value & SIZE_MASK));
+    }
+
+    /**
+     * Returns the cache of UTF-8 encodings that string sizes are looked up in, or {@code null}.
+     */
+    Utf8Cache getUtf8Cache() {
+      return utf8Cache;
+    }
+
+    /**
+     * Sets a cache of UTF-8 encodings that string sizes are looked up in, typically the one the
+     * encoder fills. The cache is not thread-safe, so only set one when the tree is sized and
+     * encoded by a single thread.
+     */
+    void setUtf8Cache(Utf8Cache utf8Cache) {
+      this.utf8Cache = utf8Cache;
     }
 
     int nextIndex() {
-      if (nextIndex >= sizes.length) {
-        throw new IndexOutOfBoundsException("sizes.length=" + sizes.length + ", nextIndex=" + nextIndex);
+      final int index = nextIndex.getAndIncrement();
+      if (index >= sizes.length()) {
+        throw new IndexOutOfBoundsException("sizes.length=" + sizes.length() + ", nextIndex=" + index);
       }
-      return nextIndex++;
+      return index;
     }
 
     void clearAll() {
-      Arrays.fill(sizes, -1);
+      if (epoch.incrementAndGet() == 0) {
+        // The epoch wrapped around, so stale entries could look current again. Wipe them out and
+        // skip epoch 0, which is the stamp of a never-written slot.
+        synchronized (this) {
+          for (int i = 0; i < sizes.length(); ++i) {
+            sizes.set(i, 0);
+          }
+          for (int i = 0; i < packedDataSizes.length(); ++i) {
+            packedDataSizes.set(i, 0);
+          }
+          epoch.compareAndSet(0, 1);
+        }
+      }
+    }
+
+    /**
+     * Clears all sizes and makes every index available again. Only safe once all messages that
+     * were created with this manager are no longer in use.
+     */
+    void releaseAll() {
+      nextIndex.set(0);
+      clearAll();
     }
   }
 }
@@ -0,0 +1,46 @@
+package com.google.protobench;
+
+import static com.google.protobench.WireFormat.WIRETYPE_FIXED32;
+import static com.google.protobench.WireFormat.WIRETYPE_FIXED64;
+import static com.google.protobench.WireFormat.WIRETYPE_LENGTH_DELIMITED;
+import static com.google.protobench.WireFormat.WIRETYPE_VARINT;
+import static com.google.protobench.WireFormat.encodeTag;
+
+/**
+ * The tags of the non-packed {@link TestMessage} fields, pre-encoded by {@link
+ * WireFormat#encodeTag} so that the encoders can write them without a varint loop.
+ */
+final class TestMessageTags {
+  // Do not allow instantiation.
+  private TestMessageTags() {}
+
+  static final int OPTIONAL_INT = encodeTag(3, WIRETYPE_VARINT);
+  static final int OPTIONAL_LONG = encodeTag(4, WIRETYPE_VARINT);
+  static final int OPTIONAL_SINT32 = encodeTag(5, WIRETYPE_VARINT);
+  static final int OPTIONAL_SINT64 = encodeTag(6, WIRETYPE_VARINT);
+  static final int OPTIONAL_FIXED32 = encodeTag(7, WIRETYPE_FIXED32);
+  static final int OPTIONAL_FIXED64 = encodeTag(8, WIRETYPE_FIXED64);
+  static final int OPTIONAL_SFIXED32 = encodeTag(9, WIRETYPE_FIXED32);
+  static final int OPTIONAL_SFIXED64 = encodeTag(10, WIRETYPE_FIXED64);
+  static final int OPTIONAL_FLOAT = encodeTag(11, WIRETYPE_FIXED32);
+  static final int OPTIONAL_DOUBLE = encodeTag(12, WIRETYPE_FIXED64);
+  static final int OPTIONAL_BOOLEAN = encodeTag(13, WIRETYPE_VARINT);
+  static final int OPTIONAL_STRING = encodeTag(14, WIRETYPE_LENGTH_DELIMITED);
+  static final int OPTIONAL_BYTES = encodeTag(15, WIRETYPE_LENGTH_DELIMITED);
+  static final int CHILD = encodeTag(18, WIRETYPE_LENGTH_DELIMITED);
+  static final int OPTIONAL_ENUM = encodeTag(21, WIRETYPE_VARINT);
+  static final int REPEATED_INT = encodeTag(33, WIRETYPE_VARINT);
+  static final int REPEATED_LONG = encodeTag(34, WIRETYPE_VARINT);
+  static final int REPEATED_SINT32 = encodeTag(35, WIRETYPE_VARINT);
+  static final int REPEATED_SINT64 = encodeTag(36, WIRETYPE_VARINT);
+  static final int REPEATED_FIXED32 = encodeTag(37, WIRETYPE_FIXED32);
+  static final int REPEATED_FIXED64 = encodeTag(38, WIRETYPE_FIXED64);
+  static final int REPEATED_SFIXED32 = encodeTag(39, WIRETYPE_FIXED32);
+  static final int REPEATED_SFIXED64 = encodeTag(40, WIRETYPE_FIXED64);
+  static final int REPEATED_FLOAT = encodeTag(41, WIRETYPE_FIXED32);
+  static final int REPEATED_DOUBLE = encodeTag(42, WIRETYPE_FIXED64);
+  static final int REPEATED_BOOLEAN = encodeTag(43, WIRETYPE_VARINT);
+  static final int REPEATED_STRING = encodeTag(44, WIRETYPE_LENGTH_DELIMITED);
+  static final int REPEATED_BYTES = encodeTag(45, WIRETYPE_LENGTH_DELIMITED);
+  static final int REPEATED_ENUM = encodeTag(51, WIRETYPE_VARINT);
+}
@@ -4,6 +4,8 @@ import sun.misc.Unsafe;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedExceptionAction;
 
@@ -12,6 +14,10 @@ public class UnsafeUtil {
   static final boolean HAS_UNSAFE_ARRAY_OPERATIONS = supportsUnsafeArrayOperations();
   static final boolean HAS_UNALIGNED_ACCESS = supportsUnalignedAccess();
   static final long ARRAY_BASE_OFFSET = byteArrayBaseOffset();
+  static final long INT_ARRAY_BASE_OFFSET = arrayBaseOffset(int[].class);
+  static final long LONG_ARRAY_BASE_OFFSET = arrayBaseOffset(long[].class);
+  static final long BUFFER_ADDRESS_OFFSET = bufferAddressOffset();
+  static final boolean HAS_UNSAFE_BYTEBUFFER_OPERATIONS = supportsUnsafeByteBufferOperations();
 
 
   /**
@@ -62,6 +68,27 @@ public class UnsafeUtil {
     return supported;
   }
 
+  /**
+   * Indicates whether or not unsafe operations on the native memory of direct {@link ByteBuffer}s
+   * are supported on this platform.
+   */
+  private static boolean supportsUnsafeByteBufferOperations() {
+    boolean supported = false;
+    if (UNSAFE != null && BUFFER_ADDRESS_OFFSET != -1) {
+      try {
+        UNSAFE.getClass().getMethod("getLong", Object.class, long.class);
+        UNSAFE.getClass().getMethod("putByte", long.class, byte.class);
+        UNSAFE.getClass().getMethod("putLong", long.class, long.class);
+        UNSAFE.getClass().getMethod(
+                "copyMemory", Object.class, long.class, Object.class, long.class, long.class);
+        supported = true;
+      } catch (Throwable e) {
+        // Do nothing.
+      }
+    }
+    return supported;
+  }
+
   private static boolean supportsUnalignedAccess() {
     boolean supported = false;
     if (UNSAFE != null) {
@@ -87,4 +114,35 @@ public class UnsafeUtil {
   private static <T> int byteArrayBaseOffset() {
     return HAS_UNSAFE_ARRAY_OPERATIONS ? UNSAFE.arrayBaseOffset(byte[].class) : -1;
   }
+
+  /**
+   * Get the base offset for arrays of the given class, or {@code -1} if {@code sun.misc.Unsafe} is
+   * not available.
+   */
+  private static int arrayBaseOffset(Class<?> arrayClass) {
+    return HAS_UNSAFE_ARRAY_OPERATIONS ? UNSAFE.arrayBaseOffset(arrayClass) : -1;
+  }
+
+  /**
+   * Gets the offset of the {@code address} field of {@link Buffer}, or {@code -1} if it is not
+   * accessible.
+   */
+  private static long bufferAddressOffset() {
+    if (UNSAFE == null) {
+      return -1;
+    }
+    try {
+      Field field = Buffer.class.getDeclaredField("address");
+      return UNSAFE.objectFieldOffset(field);
+    } catch (Throwable e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Gets the native memory address of the first element of the given direct {@link ByteBuffer}.
+   */
+  static long addressOffset(ByteBuffer buffer) {
+    return UNSAFE.getLong(buffer, BUFFER_ADDRESS_OFFSET);
+  }
 }
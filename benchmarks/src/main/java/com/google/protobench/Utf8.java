@@ -1,10 +1,15 @@
 package com.google.protobench;
 
 import static java.lang.Character.MAX_SURROGATE;
+import static java.lang.Character.MIN_HIGH_SURROGATE;
+import static java.lang.Character.MIN_LOW_SURROGATE;
+import static java.lang.Character.MIN_SUPPLEMENTARY_CODE_POINT;
 import static java.lang.Character.MIN_SURROGATE;
 import static java.lang.Character.isSurrogatePair;
 import static java.lang.Character.toCodePoint;
 
+import com.google.protobench.Decoder.InvalidWireFormatException;
+
 import java.lang.reflect.Field;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
@@ -53,7 +58,7 @@ final class Utf8 {
    * depending on what is available on the platform. The processor is the platform-optimized
    * delegate for which all methods are delegated directly to.
    */
-  private static final Processor processor =
+  static final Processor processor =
           UnsafeProcessor.isAvailable() ? new UnsafeProcessor() : new SafeProcessor();
 
   /**
@@ -272,6 +277,31 @@ final class Utf8 {
   static int encodeReverse(CharSequence in, byte[] out, int offset, int length) {
     return processor.encodeUtf8Reverse(in, out, offset, length);
   }
+
+  /**
+   * Decodes {@code size} bytes of UTF-8 starting at {@code index} of the given array into a
+   * {@link String}.
+   *
+   * @throws InvalidWireFormatException if the input is not well-formed UTF-8
+   */
+  static String decodeUtf8(byte[] bytes, int index, int size) throws InvalidWireFormatException {
+    return processor.decodeUtf8(bytes, index, size);
+  }
+
+  /**
+   * Decodes {@code size} bytes of UTF-8 starting at {@code index} of the given buffer into a
+   * {@link String}.
+   *
+   * <p>Selects an optimal algorithm based on the type of {@link ByteBuffer} (i.e. heap or direct)
+   * and the capabilities of the platform.
+   *
+   * @throws InvalidWireFormatException if the input is not well-formed UTF-8
+   * @see Utf8#decodeUtf8(byte[], int, int)
+   */
+  static String decodeUtf8(ByteBuffer buffer, int index, int size)
+          throws InvalidWireFormatException {
+    return processor.decodeUtf8(buffer, index, size);
+  }
   // End Guava UTF-8 methods.
 
   /**
@@ -337,7 +367,7 @@ final class Utf8 {
   }
 
   /**
-   * A processor of UTF-8 strings, providing methods for checking validity and encoding.
+   * A processor of UTF-8 strings, providing methods for checking validity, encoding and decoding.
    */
   // TODO(nathanmittler): Add support for Memory/MemoryBlock on Android.
   abstract static class Processor {
@@ -802,6 +832,97 @@ final class Utf8 {
                 "Failed writing " + in.charAt(inIx) + " at index " + badWriteIndex);
       }
     }
+
+    /**
+     * Decodes the given UTF-8 byte array slice into a {@link String}, validating it in the same
+     * pass. The slice extends from {@code index}, inclusive, for {@code size} bytes.
+     *
+     * @throws InvalidWireFormatException if the input is not well-formed UTF-8
+     */
+    abstract String decodeUtf8(byte[] bytes, int index, int size)
+            throws InvalidWireFormatException;
+
+    /**
+     * Decodes the given portion of the {@link ByteBuffer} into a {@link String}, validating it in
+     * the same pass.
+     *
+     * @see #decodeUtf8(byte[], int, int)
+     */
+    final String decodeUtf8(ByteBuffer buffer, int index, int size)
+            throws InvalidWireFormatException {
+      if (buffer.hasArray()) {
+        final int offset = buffer.arrayOffset();
+        return decodeUtf8(buffer.array(), offset + index, size);
+      } else if (buffer.isDirect()) {
+        return decodeUtf8Direct(buffer, index, size);
+      }
+      return decodeUtf8Default(buffer, index, size);
+    }
+
+    /**
+     * Decodes UTF-8 from direct {@link ByteBuffer} instances.
+     */
+    abstract String decodeUtf8Direct(ByteBuffer buffer, int index, int size)
+            throws InvalidWireFormatException;
+
+    /**
+     * Decodes UTF-8 from a {@link ByteBuffer} instance using the {@link ByteBuffer} API, rather
+     * than potentially faster approaches.
+     */
+    final String decodeUtf8Default(ByteBuffer buffer, int index, int size)
+            throws InvalidWireFormatException {
+      if ((index | size | buffer.limit() - index - size) < 0) {
+        throw new ArrayIndexOutOfBoundsException(String.format(
+                "buffer limit=%d, index=%d, size=%d", buffer.limit(), index, size));
+      }
+      int offset = index;
+      final int limit = offset + size;
+
+      // The decoded string has at most one char per input byte (when it is all ASCII). In other
+      // cases this over-allocates, and the result is truncated at the end.
+      final char[] resultArr = new char[size];
+      int resultPos = 0;
+
+      // Copy the leading ASCII run found by the word scan without checking each byte.
+      final int asciiLimit = offset + estimateConsecutiveAscii(buffer, offset, limit);
+      while (offset < asciiLimit) {
+        resultArr[resultPos++] = (char) buffer.get(offset++);
+      }
+
+      while (offset < limit) {
+        final byte byte1 = buffer.get(offset++);
+        if (DecodeUtil.isOneByte(byte1)) {
+          resultArr[resultPos++] = (char) byte1;
+          // ASCII characters tend to come in runs, so consume the rest of this one here.
+          byte b;
+          while (offset < limit && DecodeUtil.isOneByte(b = buffer.get(offset))) {
+            offset++;
+            resultArr[resultPos++] = (char) b;
+          }
+        } else if (DecodeUtil.isTwoBytes(byte1)) {
+          if (offset >= limit) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleTwoBytes(byte1, buffer.get(offset++), resultArr, resultPos++);
+        } else if (DecodeUtil.isThreeBytes(byte1)) {
+          if (offset >= limit - 1) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleThreeBytes(
+                  byte1, buffer.get(offset++), buffer.get(offset++), resultArr, resultPos++);
+        } else {
+          if (offset >= limit - 2) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleFourBytes(byte1, buffer.get(offset++), buffer.get(offset++),
+                  buffer.get(offset++), resultArr, resultPos);
+          // Four-byte characters decode to a surrogate pair.
+          resultPos += 2;
+        }
+      }
+
+      return new String(resultArr, 0, resultPos);
+    }
   }
 
   /**
@@ -1020,6 +1141,65 @@ final class Utf8 {
       encodeUtf8ReverseDefault(in, out);
     }
 
+    @Override
+    String decodeUtf8(byte[] bytes, int index, int size) throws InvalidWireFormatException {
+      if ((index | size | bytes.length - index - size) < 0) {
+        throw new ArrayIndexOutOfBoundsException(String.format(
+                "Array length=%d, index=%d, size=%d", bytes.length, index, size));
+      }
+      int offset = index;
+      final int limit = offset + size;
+
+      // The decoded string has at most one char per input byte (when it is all ASCII). In other
+      // cases this over-allocates, and the result is truncated at the end.
+      final char[] resultArr = new char[size];
+      int resultPos = 0;
+
+      // Optimize for 100% ASCII (Hotspot loves small simple top-level loops like this).
+      while (offset < limit && DecodeUtil.isOneByte(bytes[offset])) {
+        resultArr[resultPos++] = (char) bytes[offset++];
+      }
+
+      while (offset < limit) {
+        final byte byte1 = bytes[offset++];
+        if (DecodeUtil.isOneByte(byte1)) {
+          resultArr[resultPos++] = (char) byte1;
+          // ASCII characters tend to come in runs, so consume the rest of this one here.
+          while (offset < limit && DecodeUtil.isOneByte(bytes[offset])) {
+            resultArr[resultPos++] = (char) bytes[offset++];
+          }
+        } else if (DecodeUtil.isTwoBytes(byte1)) {
+          if (offset >= limit) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleTwoBytes(byte1, bytes[offset++], resultArr, resultPos++);
+        } else if (DecodeUtil.isThreeBytes(byte1)) {
+          if (offset >= limit - 1) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleThreeBytes(
+                  byte1, bytes[offset++], bytes[offset++], resultArr, resultPos++);
+        } else {
+          if (offset >= limit - 2) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleFourBytes(
+                  byte1, bytes[offset++], bytes[offset++], bytes[offset++], resultArr, resultPos);
+          // Four-byte characters decode to a surrogate pair.
+          resultPos += 2;
+        }
+      }
+
+      return new String(resultArr, 0, resultPos);
+    }
+
+    @Override
+    String decodeUtf8Direct(ByteBuffer buffer, int index, int size)
+            throws InvalidWireFormatException {
+      // For safe processing, we have to use the ByteBuffer API.
+      return decodeUtf8Default(buffer, index, size);
+    }
+
     private static int partialIsValidUtf8(byte[] bytes, int index, int limit) {
       // Optimize for 100% ASCII (Hotspot loves small simple top-level loops like this).
       // This simple loop stops when we encounter a byte >= 0x80 (i.e. non-ASCII).
@@ -1432,14 +1612,28 @@ final class Utf8 {
 
     @Override
     void encodeUtf8Direct(CharSequence in, ByteBuffer out) {
+      final int inLimit = in.length();
+      if (inLimit > out.remaining()) {
+        // Not even enough room for an ASCII-encoded string.
+        throw new ArrayIndexOutOfBoundsException(
+                "Failed writing " + in.charAt(inLimit - 1) + " at index " + out.limit());
+      }
       final long address = addressOffset(out);
-      long outIx = address + out.position();
-      final long outLimit = address + out.limit();
+      final long outIx = encodeUtf8Direct(in, address + out.position(), address + out.limit());
+      out.position((int) (outIx - address));
+    }
+
+    /**
+     * Encodes the input character sequence to the native memory range {@code [outIx, outLimit)}.
+     *
+     * @return the address following the last encoded byte
+     */
+    long encodeUtf8Direct(CharSequence in, long outIx, final long outLimit) {
       final int inLimit = in.length();
       if (inLimit > outLimit - outIx) {
         // Not even enough room for an ASCII-encoded string.
         throw new ArrayIndexOutOfBoundsException(
-                "Failed writing " + in.charAt(inLimit - 1) + " at index " + out.limit());
+                "Failed writing " + in.charAt(inLimit - 1) + " at address " + outLimit);
       }
 
       // Designed to take advantage of
@@ -1450,8 +1644,7 @@ final class Utf8 {
       }
       if (inIx == inLimit) {
         // We're done, it was ASCII encoded.
-        out.position((int) (outIx - address));
-        return;
+        return outIx;
       }
 
       for (char c; inIx < inLimit; ++inIx) {
@@ -1490,16 +1683,26 @@ final class Utf8 {
       }
 
       // All bytes have been encoded.
-      out.position((int) (outIx - address));
+      return outIx;
     }
 
     @Override
     void encodeUtf8ReverseDirect(CharSequence in, ByteBuffer out) {
       final long address = addressOffset(out);
-      final long outStart = address + out.position();
-      long outIx = address + out.limit() - 1;
-      //final int inLimit = in.length();
-      if (in.length() > out.remaining()) {
+      final long outIx =
+              encodeUtf8ReverseDirect(in, address + out.position(), address + out.limit());
+      out.position((int) (outIx - address));
+    }
+
+    /**
+     * Encodes the input character sequence to the end of the native memory range {@code
+     * [outStart, outLimit)}.
+     *
+     * @return the address of the first encoded byte
+     */
+    long encodeUtf8ReverseDirect(CharSequence in, final long outStart, final long outLimit) {
+      long outIx = outLimit - 1;
+      if (in.length() > outLimit - outStart) {
         // Not even enough room for an ASCII-encoded string.
         throw new ArrayIndexOutOfBoundsException(
                 "Failed writing " + in.charAt(0) + " at index " + outStart);
@@ -1513,8 +1716,7 @@ final class Utf8 {
       }
       if (inIx == -1) {
         // We're done, it was ASCII encoded.
-        out.position((int) ((outIx + 1) - address));
-        return;
+        return outIx + 1;
       }
 
       for (char c; inIx >= 0; --inIx) {
@@ -1554,7 +1756,120 @@ final class Utf8 {
       }
 
       // All bytes have been encoded.
-      out.position((int) ((outIx + 1) - address));
+      return outIx + 1;
+    }
+
+    @Override
+    String decodeUtf8(byte[] bytes, int index, int size) throws InvalidWireFormatException {
+      if ((index | size | bytes.length - index - size) < 0) {
+        throw new ArrayIndexOutOfBoundsException(String.format(
+                "Array length=%d, index=%d, size=%d", bytes.length, index, size));
+      }
+      long offset = ARRAY_BASE_OFFSET + index;
+      final long offsetLimit = offset + size;
+
+      // The decoded string has at most one char per input byte (when it is all ASCII). In other
+      // cases this over-allocates, and the result is truncated at the end.
+      final char[] resultArr = new char[size];
+      int resultPos = 0;
+
+      for (; ; ) {
+        // Find the extent of the ASCII run with word reads, then copy it without checking each
+        // byte. The scan stops at or before the first non-ASCII byte, so finish the run bytewise.
+        final int ascii =
+                unsafeEstimateConsecutiveAscii(bytes, offset, (int) (offsetLimit - offset));
+        for (final long asciiLimit = offset + ascii; offset < asciiLimit; ) {
+          resultArr[resultPos++] = (char) UNSAFE.getByte(bytes, offset++);
+        }
+        byte byte1;
+        do {
+          if (offset >= offsetLimit) {
+            return new String(resultArr, 0, resultPos);
+          }
+          byte1 = UNSAFE.getByte(bytes, offset++);
+          resultArr[resultPos++] = (char) byte1;
+        } while (DecodeUtil.isOneByte(byte1));
+        // The last char written is not ASCII: back up and decode it properly.
+        resultPos--;
+
+        if (DecodeUtil.isTwoBytes(byte1)) {
+          if (offset >= offsetLimit) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleTwoBytes(byte1, UNSAFE.getByte(bytes, offset++), resultArr, resultPos++);
+        } else if (DecodeUtil.isThreeBytes(byte1)) {
+          if (offset >= offsetLimit - 1) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleThreeBytes(byte1, UNSAFE.getByte(bytes, offset++),
+                  UNSAFE.getByte(bytes, offset++), resultArr, resultPos++);
+        } else {
+          if (offset >= offsetLimit - 2) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleFourBytes(byte1, UNSAFE.getByte(bytes, offset++),
+                  UNSAFE.getByte(bytes, offset++), UNSAFE.getByte(bytes, offset++), resultArr,
+                  resultPos);
+          // Four-byte characters decode to a surrogate pair.
+          resultPos += 2;
+        }
+      }
+    }
+
+    @Override
+    String decodeUtf8Direct(ByteBuffer buffer, int index, int size)
+            throws InvalidWireFormatException {
+      if ((index | size | buffer.limit() - index - size) < 0) {
+        throw new ArrayIndexOutOfBoundsException(String.format(
+                "buffer limit=%d, index=%d, size=%d", buffer.limit(), index, size));
+      }
+      long address = addressOffset(buffer) + index;
+      final long addressLimit = address + size;
+
+      // The decoded string has at most one char per input byte (when it is all ASCII). In other
+      // cases this over-allocates, and the result is truncated at the end.
+      final char[] resultArr = new char[size];
+      int resultPos = 0;
+
+      for (; ; ) {
+        // Find the extent of the ASCII run with word reads, then copy it without checking each
+        // byte. The scan stops at or before the first non-ASCII byte, so finish the run bytewise.
+        final int ascii = unsafeEstimateConsecutiveAscii(address, (int) (addressLimit - address));
+        for (final long asciiLimit = address + ascii; address < asciiLimit; ) {
+          resultArr[resultPos++] = (char) UNSAFE.getByte(address++);
+        }
+        byte byte1;
+        do {
+          if (address >= addressLimit) {
+            return new String(resultArr, 0, resultPos);
+          }
+          byte1 = UNSAFE.getByte(address++);
+          resultArr[resultPos++] = (char) byte1;
+        } while (DecodeUtil.isOneByte(byte1));
+        // The last char written is not ASCII: back up and decode it properly.
+        resultPos--;
+
+        if (DecodeUtil.isTwoBytes(byte1)) {
+          if (address >= addressLimit) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleTwoBytes(byte1, UNSAFE.getByte(address++), resultArr, resultPos++);
+        } else if (DecodeUtil.isThreeBytes(byte1)) {
+          if (address >= addressLimit - 1) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleThreeBytes(byte1, UNSAFE.getByte(address++),
+                  UNSAFE.getByte(address++), resultArr, resultPos++);
+        } else {
+          if (address >= addressLimit - 2) {
+            throw InvalidWireFormatException.invalidUtf8();
+          }
+          DecodeUtil.handleFourBytes(byte1, UNSAFE.getByte(address++), UNSAFE.getByte(address++),
+                  UNSAFE.getByte(address++), resultArr, resultPos);
+          // Four-byte characters decode to a surrogate pair.
+          resultPos += 2;
+        }
+      }
     }
 
     /**
@@ -1915,6 +2230,102 @@ final class Utf8 {
     }
   }
 
+  /**
+   * Helpers for decoding UTF-8 into chars. Callers read the bytes (possibly with {@code Unsafe})
+   * and check that enough of them remain; all other validity checks and the code point
+   * conversion happen here.
+   */
+  private static final class DecodeUtil {
+    /**
+     * Returns whether this is a single-byte code point (i.e. ASCII) of the form '0XXXXXXX'.
+     */
+    private static boolean isOneByte(byte b) {
+      return b >= 0;
+    }
+
+    /**
+     * Returns whether this is the leading byte of a two-byte code point, '110XXXXX'. Trailing
+     * bytes in leading position also pass, and are rejected by {@link #handleTwoBytes}.
+     */
+    private static boolean isTwoBytes(byte b) {
+      return b < (byte) 0xE0;
+    }
+
+    /**
+     * Returns whether this is the leading byte of a three-byte code point, '1110XXXX'.
+     */
+    private static boolean isThreeBytes(byte b) {
+      return b < (byte) 0xF0;
+    }
+
+    private static void handleTwoBytes(byte byte1, byte byte2, char[] resultArr, int resultPos)
+            throws InvalidWireFormatException {
+      // Simultaneously checks for illegal trailing-byte in leading position (<= '11000000') and
+      // overlong 2-byte, '11000001'.
+      if (byte1 < (byte) 0xC2 || isNotTrailingByte(byte2)) {
+        throw InvalidWireFormatException.invalidUtf8();
+      }
+      resultArr[resultPos] = (char) (((byte1 & 0x1F) << 6) | trailingByteValue(byte2));
+    }
+
+    private static void handleThreeBytes(
+            byte byte1, byte byte2, byte byte3, char[] resultArr, int resultPos)
+            throws InvalidWireFormatException {
+      if (isNotTrailingByte(byte2)
+              // overlong? 5 most significant bits must not all be zero
+              || (byte1 == (byte) 0xE0 && byte2 < (byte) 0xA0)
+              // check for illegal surrogate codepoints
+              || (byte1 == (byte) 0xED && byte2 >= (byte) 0xA0)
+              || isNotTrailingByte(byte3)) {
+        throw InvalidWireFormatException.invalidUtf8();
+      }
+      resultArr[resultPos] = (char) (((byte1 & 0x0F) << 12)
+              | (trailingByteValue(byte2) << 6) | trailingByteValue(byte3));
+    }
+
+    private static void handleFourBytes(
+            byte byte1, byte byte2, byte byte3, byte byte4, char[] resultArr, int resultPos)
+            throws InvalidWireFormatException {
+      if (isNotTrailingByte(byte2)
+              // Check that 1 <= plane <= 16.  Tricky optimized form of:
+              // if (byte1 > (byte) 0xF4 ||
+              //     byte1 == (byte) 0xF0 && byte2 < (byte) 0x90 ||
+              //     byte1 == (byte) 0xF4 && byte2 > (byte) 0x8F)
+              || (((byte1 << 28) + (byte2 - (byte) 0x90)) >> 30) != 0
+              || isNotTrailingByte(byte3)
+              || isNotTrailingByte(byte4)) {
+        throw InvalidWireFormatException.invalidUtf8();
+      }
+      final int codePoint = ((byte1 & 0x07) << 18) | (trailingByteValue(byte2) << 12)
+              | (trailingByteValue(byte3) << 6) | trailingByteValue(byte4);
+      resultArr[resultPos] = highSurrogate(codePoint);
+      resultArr[resultPos + 1] = lowSurrogate(codePoint);
+    }
+
+    /**
+     * Returns whether the byte is not a valid continuation of the form '10XXXXXX'.
+     */
+    private static boolean isNotTrailingByte(byte b) {
+      return b > (byte) 0xBF;
+    }
+
+    /**
+     * Returns the actual value of the trailing byte (removes the prefix '10') for composition.
+     */
+    private static int trailingByteValue(byte b) {
+      return b & 0x3F;
+    }
+
+    private static char highSurrogate(int codePoint) {
+      return (char) ((MIN_HIGH_SURROGATE - (MIN_SUPPLEMENTARY_CODE_POINT >>> 10))
+              + (codePoint >>> 10));
+    }
+
+    private static char lowSurrogate(int codePoint) {
+      return (char) (MIN_LOW_SURROGATE + (codePoint & 0x3ff));
+    }
+  }
+
   private Utf8() {
   }
 }
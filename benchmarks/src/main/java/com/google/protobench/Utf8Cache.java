@@ -0,0 +1,125 @@
+package com.google.protobench;
+
+/**
+ * A bounded cache from {@link String} instances to their UTF-8 encoding, for payloads that write
+ * the same string objects over and over (e.g. enum-like labels or hostnames). Lookups are by
+ * identity, so a hit costs a hash probe rather than a scan of the string.
+ *
+ * <p>Entries live in a fixed ring of slots that is indexed by an open-addressing identity hash
+ * table. When the ring is full, a slot is reclaimed with the CLOCK algorithm: every hit sets the
+ * slot's reference bit, and the clock hand clears set bits until it finds a slot whose bit is
+ * already clear.
+ *
+ * <p>Instances are not thread-safe. Use one cache per encoding thread.
+ */
+final class Utf8Cache {
+  private final String[] keys;
+  private final byte[][] values;
+  private final boolean[] referenced;
+
+  /** Maps hash buckets to {@code slot + 1}, with zero marking an empty bucket. */
+  private final int[] table;
+  private final int tableMask;
+
+  private int size;
+  private int hand;
+
+  Utf8Cache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    keys = new String[capacity];
+    values = new byte[capacity][];
+    referenced = new boolean[capacity];
+    // Keep the table at most half full so that probe sequences stay short.
+    table = new int[Integer.highestOneBit(capacity) << 2];
+    tableMask = table.length - 1;
+  }
+
+  /**
+   * Returns the cached UTF-8 encoding of the given string instance, or {@code null} if it is not
+   * cached. The returned array must not be modified.
+   */
+  byte[] get(String value) {
+    for (int i = bucket(value); ; i = (i + 1) & tableMask) {
+      final int entry = table[i];
+      if (entry == 0) {
+        return null;
+      }
+      if (keys[entry - 1] == value) {
+        referenced[entry - 1] = true;
+        return values[entry - 1];
+      }
+    }
+  }
+
+  /**
+   * Caches a copy of {@code bytes[from, to)} as the UTF-8 encoding of the given string instance,
+   * which must not already be cached. Evicts an entry if the cache is full.
+   */
+  void put(String value, byte[] bytes, int from, int to) {
+    final byte[] encoded = new byte[to - from];
+    System.arraycopy(bytes, from, encoded, 0, encoded.length);
+
+    final int slot;
+    if (size < keys.length) {
+      slot = size++;
+    } else {
+      slot = nextVictim();
+      remove(keys[slot]);
+    }
+    keys[slot] = value;
+    values[slot] = encoded;
+    referenced[slot] = false;
+
+    int i = bucket(value);
+    while (table[i] != 0) {
+      i = (i + 1) & tableMask;
+    }
+    table[i] = slot + 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Advances the clock hand to the first slot that has not been referenced since the hand last
+   * passed it, clearing reference bits along the way.
+   */
+  private int nextVictim() {
+    while (referenced[hand]) {
+      referenced[hand] = false;
+      hand = hand + 1 == keys.length ? 0 : hand + 1;
+    }
+    final int victim = hand;
+    hand = hand + 1 == keys.length ? 0 : hand + 1;
+    return victim;
+  }
+
+  /**
+   * Removes the given key from the hash table, shifting later entries of its probe sequence back
+   * so that no tombstones are needed.
+   */
+  private void remove(String key) {
+    int i = bucket(key);
+    while (keys[table[i] - 1] != key) {
+      i = (i + 1) & tableMask;
+    }
+    for (int j = (i + 1) & tableMask; table[j] != 0; j = (j + 1) & tableMask) {
+      // The entry at j can fill the hole at i only if i lies between its home bucket and j.
+      final int home = bucket(keys[table[j] - 1]);
+      if (((j - home) & tableMask) >= ((j - i) & tableMask)) {
+        table[i] = table[j];
+        i = j;
+      }
+    }
+    table[i] = 0;
+  }
+
+  private int bucket(String value) {
+    // identityHashCode has weak low bits on some VMs, so spread the high bits down.
+    final int h = System.identityHashCode(value) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & tableMask;
+  }
+}
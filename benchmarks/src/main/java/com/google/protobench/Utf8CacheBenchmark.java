@@ -0,0 +1,114 @@
+package com.google.protobench;
+
+import com.google.protobench.EncodingAlgorithmBenchmark.Direction;
+import com.google.protobench.Utf8Utils.MaxCodePoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures the cost of writing string fields with and without a {@link Utf8Cache}, as a function
+ * of how often the same string instances are written again. Varying {@link #reuseRatio} finds the
+ * break-even point, below which the cache's lookups and insertions cost more than they save.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class Utf8CacheBenchmark {
+  private static final int STRING_FIELD_NUMBER = 14;
+
+  /**
+   * The number of field writes in the precomputed access sequence. Strings that are not reused
+   * recur only once per pass over it, long after the cache has evicted them.
+   */
+  private static final int SEQUENCE_LENGTH = 1 << 16;
+
+  @Param
+  private Direction direction;
+
+  @Param({"false", "true"})
+  private boolean cached;
+
+  /**
+   * The fraction of writes that reuse one of the {@link #hotStrings} instances. The rest write a
+   * string that is not reused.
+   */
+  @Param({"0", "0.5", "0.9", "0.99"})
+  private double reuseRatio;
+
+  @Param({"128"})
+  private int hotStrings;
+
+  @Param({"256"})
+  private int cacheCapacity;
+
+  /**
+   * @see MaxCodePoint#decode
+   */
+  @Param({"0x80", "0x800"})
+  private String maxCodePoint;
+
+  @Param({"16", "64"})
+  private int charCount;
+
+  private String[] sequence;
+
+  private int strIx;
+
+  private Utf8Cache cache;
+
+  private ForwardEncoder forwardEncoder;
+
+  private ReverseEncoder reverseEncoder;
+
+  @Setup
+  public void setUp() {
+    final MaxCodePoint codePoint = MaxCodePoint.valueOf(maxCodePoint);
+    final String[] hot = Utf8Utils.randomStrings(hotStrings, charCount, codePoint);
+    final String[] cold = Utf8Utils.randomStrings(SEQUENCE_LENGTH, charCount, codePoint);
+    final Random random = new Random(99);
+    sequence = new String[SEQUENCE_LENGTH];
+    for (int i = 0; i < sequence.length; ++i) {
+      sequence[i] = random.nextDouble() < reuseRatio ? hot[random.nextInt(hot.length)] : cold[i];
+    }
+    strIx = 0;
+
+    cache = cached ? new Utf8Cache(cacheCapacity) : null;
+    byte[] buffer = new byte[1024];
+    forwardEncoder = new ForwardEncoder(buffer, 0, buffer.length);
+    forwardEncoder.setUtf8Cache(cache);
+    reverseEncoder = new ReverseEncoder(buffer, 0, buffer.length);
+    reverseEncoder.setUtf8Cache(cache);
+  }
+
+  /**
+   * Writes one string field. The forward direction includes the size pass's string length
+   * computation, which the cache also serves.
+   */
+  @Benchmark
+  public int encodeStringField() throws IOException {
+    final String value = sequence[strIx++];
+    if (strIx >= sequence.length) {
+      strIx = 0;
+    }
+    switch (direction) {
+      case FORWARD:
+        final int size = Utils.computeStringSize(STRING_FIELD_NUMBER, value, cache);
+        forwardEncoder.reset();
+        forwardEncoder.writeString(STRING_FIELD_NUMBER, value);
+        return size + forwardEncoder.getTotalBytesWritten();
+      case REVERSE:
+        reverseEncoder.reset();
+        reverseEncoder.writeString(STRING_FIELD_NUMBER, value);
+        return reverseEncoder.getTotalBytesWritten();
+      default:
+        throw new AssertionError();
+    }
+  }
+}
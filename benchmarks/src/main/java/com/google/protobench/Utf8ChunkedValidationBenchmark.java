@@ -0,0 +1,95 @@
+package com.google.protobench;
+
+import com.google.protobench.Utf8Utils.MaxCodePoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares validating a UTF-8 payload that arrives as a sequence of frames in place, with
+ * {@link Utf8Validator}, against first copying the frames into one array and validating that.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class Utf8ChunkedValidationBenchmark {
+  public enum Mode {
+    CHUNKED,
+    COPY_THEN_VALIDATE
+  }
+
+  public enum BufferType {
+    HEAP,
+    DIRECT
+  }
+
+  @Param
+  private Mode mode;
+
+  @Param
+  private BufferType bufferType;
+
+  @Param({"4096", "16384", "65536"})
+  private int chunkSize;
+
+  /**
+   * @see MaxCodePoint#decode
+   */
+  @Param({"0x80", "0x800", "0x10000"})
+  private String maxCodePoint;
+
+  /**
+   * Characters in the payload. The default gives a payload of at least 256 KiB, so that even
+   * the largest chunks split it into several frames.
+   */
+  @Param({"262144"})
+  private int charCount;
+
+  private ByteBuffer[] frames;
+
+  private byte[] reassembled;
+
+  private final Utf8Validator validator = new Utf8Validator();
+
+  @Setup
+  public void setUp() {
+    byte[] payload = Utf8Utils.randomStrings(1, charCount, MaxCodePoint.valueOf(maxCodePoint))[0]
+            .getBytes(Utf8.UTF_8);
+    frames = new ByteBuffer[(payload.length + chunkSize - 1) / chunkSize];
+    for (int i = 0; i < frames.length; ++i) {
+      final int offset = i * chunkSize;
+      final int length = Math.min(chunkSize, payload.length - offset);
+      frames[i] = bufferType == BufferType.DIRECT
+              ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+      frames[i].put(payload, offset, length);
+      frames[i].flip();
+    }
+    reassembled = new byte[payload.length];
+  }
+
+  @Benchmark
+  public boolean validate() {
+    switch (mode) {
+      case CHUNKED:
+        for (ByteBuffer frame : frames) {
+          validator.update(frame);
+        }
+        return validator.finish();
+      case COPY_THEN_VALIDATE:
+        int position = 0;
+        for (ByteBuffer frame : frames) {
+          final int length = frame.remaining();
+          frame.duplicate().get(reassembled, position, length);
+          position += length;
+        }
+        return Utf8.isValidUtf8(reassembled, 0, position);
+      default:
+        throw new AssertionError();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.google.protobench;
+
+import com.google.protobench.Utf8Utils.MaxCodePoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+@State(Scope.Benchmark)
+@Fork(1)
+public class Utf8DecodingBenchmark {
+  private static final Utf8.Processor safeProcessor = new Utf8.SafeProcessor();
+  private static final Utf8.Processor unsafeProcessor = new Utf8.UnsafeProcessor();
+
+  public enum BufferType {
+    ARRAY,
+    ARRAY_UNSAFE,
+    NIO_HEAP,
+    NIO_DIRECT,
+    NIO_DIRECT_UNSAFE
+  }
+
+  @Param
+  private BufferType bufferType;
+
+  /**
+   * The default values of maxCodePoint below provide pretty good performance models of different
+   * kinds of common human text.
+   *
+   * @see MaxCodePoint#decode
+   */
+  @Param({"0x80", "0x90", "0x800", "0x10000", "0x10ffff"})
+  private String maxCodePoint;
+
+  @Param({"100"})
+  private int stringCount;
+
+  @Param({"16384"})
+  private int charCount;
+
+  private Decoder decoder;
+
+  private int strIx;
+
+  private interface Decoder {
+    String decode(int strIx) throws IOException;
+  }
+
+  private static final class ArrayDecoder implements Decoder {
+    private final Utf8.Processor processor;
+    private final byte[][] inputs;
+
+    ArrayDecoder(Utf8.Processor processor, byte[][] inputs) {
+      this.processor = processor;
+      this.inputs = inputs;
+    }
+
+    @Override
+    public String decode(int strIx) throws IOException {
+      final byte[] input = inputs[strIx];
+      return processor.decodeUtf8(input, 0, input.length);
+    }
+  }
+
+  private static final class NioDecoder implements Decoder {
+    private final Utf8.Processor processor;
+    private final ByteBuffer[] inputs;
+
+    NioDecoder(Utf8.Processor processor, ByteBuffer[] inputs) {
+      this.processor = processor;
+      this.inputs = inputs;
+    }
+
+    @Override
+    public String decode(int strIx) throws IOException {
+      final ByteBuffer input = inputs[strIx];
+      return processor.decodeUtf8(input, 0, input.limit());
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    String[] strings =
+            Utf8Utils.randomStrings(stringCount, charCount, MaxCodePoint.valueOf(maxCodePoint));
+    byte[][] inputs = new byte[strings.length][];
+    for (int i = 0; i < strings.length; ++i) {
+      inputs[i] = strings[i].getBytes(Utf8.UTF_8);
+    }
+    strIx = 0;
+
+    switch (bufferType) {
+      case ARRAY:
+        decoder = new ArrayDecoder(safeProcessor, inputs);
+        break;
+      case ARRAY_UNSAFE:
+        decoder = new ArrayDecoder(unsafeProcessor, inputs);
+        break;
+      case NIO_HEAP:
+        decoder = new NioDecoder(safeProcessor, toBuffers(inputs, false));
+        break;
+      case NIO_DIRECT:
+        decoder = new NioDecoder(safeProcessor, toBuffers(inputs, true));
+        break;
+      case NIO_DIRECT_UNSAFE:
+        decoder = new NioDecoder(unsafeProcessor, toBuffers(inputs, true));
+        break;
+    }
+  }
+
+  @Benchmark
+  public String decode() throws IOException {
+    String value = decoder.decode(strIx++);
+    if (strIx >= stringCount) {
+      strIx = 0;
+    }
+    return value;
+  }
+
+  private static ByteBuffer[] toBuffers(byte[][] inputs, boolean direct) {
+    ByteBuffer[] buffers = new ByteBuffer[inputs.length];
+    for (int i = 0; i < inputs.length; ++i) {
+      buffers[i] = direct ? ByteBuffer.allocateDirect(inputs[i].length)
+              : ByteBuffer.allocate(inputs[i].length);
+      buffers[i].put(inputs[i]);
+      buffers[i].flip();
+    }
+    return buffers;
+  }
+}
@@ -0,0 +1,82 @@
+package com.google.protobench;
+
+import java.util.Arrays;
+
+/**
+ * An immutable string held as its UTF-8 encoding, so that encoders can write it with a plain copy
+ * and size it from the stored length. The {@link String} form is decoded on first use and cached.
+ */
+final class Utf8String {
+  private final byte[] bytes;
+
+  /**
+   * Lazily decoded from {@link #bytes}. Racy like {@code String.hash}: threads that see
+   * {@code null} just decode an equal string.
+   */
+  private String string;
+
+  private Utf8String(byte[] bytes, String string) {
+    this.bytes = bytes;
+    this.string = string;
+  }
+
+  /**
+   * Encodes the given string.
+   *
+   * @throws IllegalArgumentException if the string has unpaired surrogates, which UTF-8 cannot
+   *     encode
+   */
+  static Utf8String copyFrom(String value) {
+    // Unlike String.getBytes, which would replace unpaired surrogates and so no longer match the
+    // cached string, this throws on them.
+    final byte[] bytes = new byte[Utf8.encodedLength(value)];
+    Utf8.encode(value, bytes, 0, bytes.length);
+    return new Utf8String(bytes, value);
+  }
+
+  /**
+   * Copies {@code length} bytes of UTF-8, starting at {@code offset}.
+   *
+   * @throws IllegalArgumentException if the bytes are not well-formed UTF-8
+   */
+  static Utf8String copyFrom(byte[] bytes, int offset, int length) {
+    if (!Utf8.isValidUtf8(bytes, offset, offset + length)) {
+      throw new IllegalArgumentException("Invalid UTF-8");
+    }
+    return new Utf8String(Arrays.copyOfRange(bytes, offset, offset + length), null);
+  }
+
+  /**
+   * Returns the length of the UTF-8 encoding in bytes.
+   */
+  int size() {
+    return bytes.length;
+  }
+
+  /**
+   * Returns the UTF-8 encoding. The array is shared and must not be modified.
+   */
+  byte[] bytes() {
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    String result = string;
+    if (result == null) {
+      result = new String(bytes, Utf8.UTF_8);
+      string = result;
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Utf8String && Arrays.equals(bytes, ((Utf8String) other).bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(bytes);
+  }
+}
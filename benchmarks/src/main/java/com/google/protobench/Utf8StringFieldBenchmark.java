@@ -0,0 +1,89 @@
+package com.google.protobench;
+
+import com.google.protobench.Utf8Utils.MaxCodePoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * End-to-end cost of writing a string field with {@link ForwardEncoder}: the size pass work (if
+ * any) plus the tag, length prefix and UTF-8 bytes.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class Utf8StringFieldBenchmark {
+  private static final int STRING_FIELD_NUMBER = 14;
+
+  /**
+   * How the string field is written.
+   */
+  public enum StringFieldMode {
+    /** The size pass computes the UTF-8 length, then the string is written with its length. */
+    TWO_PASS,
+    /** Encode once after a worst-case length prefix, then shift the bytes back. */
+    SHIFTED,
+    /** Encode once after a worst-case length prefix, then pad the length to fill it. */
+    PADDED
+  }
+
+  @Param
+  private StringFieldMode stringFieldMode;
+
+  /**
+   * @see MaxCodePoint#decode
+   */
+  @Param({"0x80", "0x90", "0x800", "0x10000", "0x10ffff"})
+  private String maxCodePoint;
+
+  @Param({"100"})
+  private int stringCount;
+
+  @Param({"16384"})
+  private int charCount;
+
+  private String[] strings;
+
+  private ForwardEncoder encoder;
+
+  private int strIx;
+
+  @Setup
+  public void setUp() {
+    strings = Utf8Utils.randomStrings(stringCount, charCount, MaxCodePoint.valueOf(maxCodePoint));
+    strIx = 0;
+    encoder = new ForwardEncoder(new byte[1024 * 1024], 0, 1024 * 1024);
+  }
+
+  @Benchmark
+  public int encodeStringField() throws IOException {
+    final String value = strings[strIx++];
+    if (strIx >= strings.length) {
+      strIx = 0;
+    }
+    encoder.reset();
+    int size = 0;
+    switch (stringFieldMode) {
+      case TWO_PASS:
+        size = Utils.computeStringSize(STRING_FIELD_NUMBER, value);
+        encoder.writeString(STRING_FIELD_NUMBER, value);
+        break;
+      case SHIFTED:
+        encoder.writeTag(STRING_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        encoder.writeStringNoTagShifted(value);
+        break;
+      case PADDED:
+        encoder.writeTag(STRING_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        encoder.writeStringNoTagPadded(value);
+        break;
+      default:
+        throw new AssertionError();
+    }
+    return size + encoder.getTotalBytesWritten();
+  }
+}
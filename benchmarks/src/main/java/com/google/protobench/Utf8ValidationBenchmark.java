@@ -0,0 +1,208 @@
+package com.google.protobench;
+
+import com.google.protobench.Utf8Utils.MaxCodePoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+@State(Scope.Benchmark)
+@Fork(1)
+public class Utf8ValidationBenchmark {
+  private static final Utf8.Processor safeProcessor = new Utf8.SafeProcessor();
+  private static final Utf8.Processor unsafeProcessor = new Utf8.UnsafeProcessor();
+
+  public enum BufferType {
+    ARRAY,
+    ARRAY_UNSAFE,
+    NIO_HEAP,
+    NIO_DIRECT,
+    NIO_DIRECT_UNSAFE,
+    /**
+     * Baseline: a JDK {@link CharsetDecoder} that reports malformed input, over a heap buffer.
+     * This decodes as well as validates, which is the cost of validating without {@link Utf8}.
+     */
+    JDK
+  }
+
+  @Param
+  private BufferType bufferType;
+
+  /**
+   * The default values of maxCodePoint below provide pretty good performance models of different
+   * kinds of common human text.
+   *
+   * @see MaxCodePoint#decode
+   */
+  @Param({"0x80", "0x90", "0x800", "0x10000", "0x10ffff"})
+  private String maxCodePoint;
+
+  /**
+   * The number of bytes passed to each partial validation call, so that characters straddle
+   * chunks. Zero validates each string in a single call.
+   */
+  @Param({"0", "64", "1024"})
+  private int chunkSize;
+
+  @Param({"100"})
+  private int stringCount;
+
+  @Param({"16384"})
+  private int charCount;
+
+  private Validator validator;
+
+  private int strIx;
+
+  private interface Validator {
+    boolean isValid(int strIx);
+  }
+
+  private final class ArrayValidator implements Validator {
+    private final Utf8.Processor processor;
+    private final byte[][] inputs;
+
+    ArrayValidator(Utf8.Processor processor, byte[][] inputs) {
+      this.processor = processor;
+      this.inputs = inputs;
+    }
+
+    @Override
+    public boolean isValid(int strIx) {
+      final byte[] input = inputs[strIx];
+      if (chunkSize == 0) {
+        return processor.isValidUtf8(input, 0, input.length);
+      }
+      int state = Utf8.COMPLETE;
+      for (int index = 0; index < input.length && state != Utf8.MALFORMED; index += chunkSize) {
+        state = processor.partialIsValidUtf8(
+                state, input, index, Math.min(index + chunkSize, input.length));
+      }
+      return state == Utf8.COMPLETE;
+    }
+  }
+
+  private final class NioValidator implements Validator {
+    private final Utf8.Processor processor;
+    private final ByteBuffer[] inputs;
+
+    NioValidator(Utf8.Processor processor, ByteBuffer[] inputs) {
+      this.processor = processor;
+      this.inputs = inputs;
+    }
+
+    @Override
+    public boolean isValid(int strIx) {
+      final ByteBuffer input = inputs[strIx];
+      final int limit = input.limit();
+      if (chunkSize == 0) {
+        return processor.isValidUtf8(input, 0, limit);
+      }
+      int state = Utf8.COMPLETE;
+      for (int index = 0; index < limit && state != Utf8.MALFORMED; index += chunkSize) {
+        state = processor.partialIsValidUtf8(
+                state, input, index, Math.min(index + chunkSize, limit));
+      }
+      return state == Utf8.COMPLETE;
+    }
+  }
+
+  private final class JdkValidator implements Validator {
+    private final CharsetDecoder decoder = Utf8.UTF_8.newDecoder();
+    private final ByteBuffer[] inputs;
+    private final CharBuffer output;
+
+    JdkValidator(ByteBuffer[] inputs) {
+      this.inputs = inputs;
+      int maxLength = 0;
+      for (ByteBuffer input : inputs) {
+        maxLength = Math.max(maxLength, input.capacity());
+      }
+      // A UTF-8 input never decodes to more chars than it has bytes.
+      output = CharBuffer.allocate(maxLength);
+    }
+
+    @Override
+    public boolean isValid(int strIx) {
+      final ByteBuffer input = inputs[strIx];
+      final int capacity = input.capacity();
+      final int chunk = chunkSize == 0 ? capacity : chunkSize;
+      decoder.reset();
+      output.clear();
+      input.clear();
+      // Incomplete characters are left in the input, and are retried once the limit moves past
+      // the rest of their bytes.
+      for (int limit = Math.min(chunk, capacity); ; limit = Math.min(limit + chunk, capacity)) {
+        input.limit(limit);
+        final CoderResult result = decoder.decode(input, output, limit == capacity);
+        if (result.isError()) {
+          return false;
+        }
+        if (limit == capacity) {
+          break;
+        }
+      }
+      return !decoder.flush(output).isError();
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    String[] strings =
+            Utf8Utils.randomStrings(stringCount, charCount, MaxCodePoint.valueOf(maxCodePoint));
+    byte[][] inputs = new byte[strings.length][];
+    for (int i = 0; i < strings.length; ++i) {
+      inputs[i] = strings[i].getBytes(Utf8.UTF_8);
+    }
+    strIx = 0;
+
+    switch (bufferType) {
+      case ARRAY:
+        validator = new ArrayValidator(safeProcessor, inputs);
+        break;
+      case ARRAY_UNSAFE:
+        validator = new ArrayValidator(unsafeProcessor, inputs);
+        break;
+      case NIO_HEAP:
+        validator = new NioValidator(safeProcessor, toBuffers(inputs, false));
+        break;
+      case NIO_DIRECT:
+        validator = new NioValidator(safeProcessor, toBuffers(inputs, true));
+        break;
+      case NIO_DIRECT_UNSAFE:
+        validator = new NioValidator(unsafeProcessor, toBuffers(inputs, true));
+        break;
+      case JDK:
+        validator = new JdkValidator(toBuffers(inputs, false));
+        break;
+    }
+  }
+
+  @Benchmark
+  public boolean isValid() {
+    boolean valid = validator.isValid(strIx++);
+    if (strIx >= stringCount) {
+      strIx = 0;
+    }
+    return valid;
+  }
+
+  private static ByteBuffer[] toBuffers(byte[][] inputs, boolean direct) {
+    ByteBuffer[] buffers = new ByteBuffer[inputs.length];
+    for (int i = 0; i < inputs.length; ++i) {
+      buffers[i] = direct ? ByteBuffer.allocateDirect(inputs[i].length)
+              : ByteBuffer.allocate(inputs[i].length);
+      buffers[i].put(inputs[i]);
+      buffers[i].flip();
+    }
+    return buffers;
+  }
+}
@@ -0,0 +1,76 @@
+package com.google.protobench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Validates a UTF-8 byte sequence that arrives in chunks, such as a string payload split across
+ * network frames, without reassembling it into a single array. Each chunk is checked in place with
+ * {@link Utf8.Processor#partialIsValidUtf8}, and the state of a character that straddles two
+ * chunks is carried over to the next call.
+ *
+ * <p>A validator handles one payload at a time: feed it every chunk of the payload in order, then
+ * call {@link #finish()}. Instances are not thread-safe.
+ */
+final class Utf8Validator {
+  private final Utf8.Processor processor;
+  private int state = Utf8.COMPLETE;
+
+  /**
+   * Creates a validator that uses the platform-optimized {@link Utf8.Processor}.
+   */
+  Utf8Validator() {
+    this(Utf8.processor);
+  }
+
+  Utf8Validator(Utf8.Processor processor) {
+    if (processor == null) {
+      throw new NullPointerException("processor");
+    }
+    this.processor = processor;
+  }
+
+  /**
+   * Validates the remaining bytes of the given heap or direct buffer as the next chunk of the
+   * payload. The buffer's position is not changed.
+   *
+   * @return {@code false} if the payload is already known to be malformed
+   */
+  boolean update(ByteBuffer chunk) {
+    if (state != Utf8.MALFORMED) {
+      state = processor.partialIsValidUtf8(state, chunk, chunk.position(), chunk.limit());
+    }
+    return state != Utf8.MALFORMED;
+  }
+
+  /**
+   * Validates {@code length} bytes of the given array, starting at {@code offset}, as the next
+   * chunk of the payload.
+   *
+   * @return {@code false} if the payload is already known to be malformed
+   */
+  boolean update(byte[] bytes, int offset, int length) {
+    if (state != Utf8.MALFORMED) {
+      state = processor.partialIsValidUtf8(state, bytes, offset, offset + length);
+    }
+    return state != Utf8.MALFORMED;
+  }
+
+  /**
+   * Ends the current payload and resets this validator for the next one.
+   *
+   * @return {@code true} if the chunks seen since the last reset form well-formed UTF-8, which
+   * also requires that the last chunk did not end in the middle of a character
+   */
+  boolean finish() {
+    final boolean valid = state == Utf8.COMPLETE;
+    state = Utf8.COMPLETE;
+    return valid;
+  }
+
+  /**
+   * Discards the current payload without checking it.
+   */
+  void reset() {
+    state = Utf8.COMPLETE;
+  }
+}
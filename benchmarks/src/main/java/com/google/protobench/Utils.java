@@ -35,6 +35,43 @@ public final class Utils {
     return computeTagSize(fieldNumber) + computeUInt64SizeNoTag(value);
   }
 
+  static int computeInt32Size(final int fieldNumber, final int value) {
+    return computeTagSize(fieldNumber) + computeInt32SizeNoTag(value);
+  }
+
+  static int computeSInt32Size(final int fieldNumber, final int value) {
+    return computeTagSize(fieldNumber) + computeSInt32SizeNoTag(value);
+  }
+
+  static int computeSInt64Size(final int fieldNumber, final long value) {
+    return computeTagSize(fieldNumber) + computeSInt64SizeNoTag(value);
+  }
+
+  static int computeFixed32Size(final int fieldNumber) {
+    return computeTagSize(fieldNumber) + WireFormat.FIXED_32_SIZE;
+  }
+
+  static int computeFixed64Size(final int fieldNumber) {
+    return computeTagSize(fieldNumber) + WireFormat.FIXED_64_SIZE;
+  }
+
+  static int computeEnumSize(final int fieldNumber, final int value) {
+    return computeInt32Size(fieldNumber, value);
+  }
+
+  /** Negative int32 and enum values are sign-extended, so they always take ten bytes. */
+  static int computeInt32SizeNoTag(final int value) {
+    return value >= 0 ? computeUInt32SizeNoTag(value) : WireFormat.MAX_VARINT_SIZE;
+  }
+
+  static int computeSInt32SizeNoTag(final int value) {
+    return computeUInt32SizeNoTag(WireFormat.encodeZigZag32(value));
+  }
+
+  static int computeSInt64SizeNoTag(final long value) {
+    return computeUInt64SizeNoTag(WireFormat.encodeZigZag64(value));
+  }
+
   static int computeFloatSize(final int fieldNumber, final float value) {
     return computeTagSize(fieldNumber) + computeFloatSizeNoTag(value);
   }
@@ -67,6 +104,14 @@ public final class Utils {
     return computeTagSize(fieldNumber) + computeStringSizeNoTag(value);
   }
 
+  static int computeUtf8StringSize(final int fieldNumber, final Utf8String value) {
+    return computeTagSize(fieldNumber) + computeUtf8StringSizeNoTag(value);
+  }
+
+  static int computeUtf8StringSizeNoTag(final Utf8String value) {
+    return computeLengthDelimitedFieldSize(value.size());
+  }
+
   static int computeByteArraySize(final int fieldNumber, final byte[] value) {
     return computeTagSize(fieldNumber) + computeByteArraySizeNoTag(value);
   }
@@ -79,6 +124,76 @@ public final class Utils {
     return computeTagSize(fieldNumber) + 1;
   }
 
+  /**
+   * Computes the size of a packed repeated field holding {@code dataSize} bytes of values. Empty
+   * packed fields are not written at all.
+   */
+  static int computePackedFieldSize(final int fieldNumber, final int dataSize) {
+    if (dataSize == 0) {
+      return 0;
+    }
+    return computeTagSize(fieldNumber) + computeLengthDelimitedFieldSize(dataSize);
+  }
+
+  static int computeUInt32ArraySizeNoTag(final int[] values) {
+    int dataSize = 0;
+    for (int i = 0; i < values.length; i++) {
+      dataSize += computeUInt32SizeNoTag(values[i]);
+    }
+    return dataSize;
+  }
+
+  static int computeUInt64ArraySizeNoTag(final long[] values) {
+    int dataSize = 0;
+    for (int i = 0; i < values.length; i++) {
+      dataSize += computeUInt64SizeNoTag(values[i]);
+    }
+    return dataSize;
+  }
+
+  static int computeInt32ArraySizeNoTag(final int[] values) {
+    int dataSize = 0;
+    for (int i = 0; i < values.length; i++) {
+      dataSize += computeInt32SizeNoTag(values[i]);
+    }
+    return dataSize;
+  }
+
+  static int computeSInt32ArraySizeNoTag(final int[] values) {
+    int dataSize = 0;
+    for (int i = 0; i < values.length; i++) {
+      dataSize += computeSInt32SizeNoTag(values[i]);
+    }
+    return dataSize;
+  }
+
+  static int computeSInt64ArraySizeNoTag(final long[] values) {
+    int dataSize = 0;
+    for (int i = 0; i < values.length; i++) {
+      dataSize += computeSInt64SizeNoTag(values[i]);
+    }
+    return dataSize;
+  }
+
+  static int computeStringSize(
+          final int fieldNumber, final String value, final Utf8Cache utf8Cache) {
+    return computeTagSize(fieldNumber) + computeStringSizeNoTag(value, utf8Cache);
+  }
+
+  /**
+   * Same as {@link #computeStringSizeNoTag(String)}, but takes the length from {@code utf8Cache}
+   * when the string is cached there. The cache may be {@code null}.
+   */
+  static int computeStringSizeNoTag(final String value, final Utf8Cache utf8Cache) {
+    if (utf8Cache != null) {
+      final byte[] encoded = utf8Cache.get(value);
+      if (encoded != null) {
+        return computeLengthDelimitedFieldSize(encoded.length);
+      }
+    }
+    return computeStringSizeNoTag(value);
+  }
+
   static int computeStringSizeNoTag(final String value) {
     int length;
     try {
@@ -137,6 +252,49 @@ public final class Utils {
     return n;
   }
 
+  /**
+   * Continuation bits for the first {@code min(size, 8)} bytes of a varint of the given size, as a
+   * little-endian word. The last byte of a varint has no continuation bit.
+   */
+  private static final long[] VARINT_CONTINUATION_BITS = new long[WireFormat.MAX_VARINT_SIZE + 1];
+  static {
+    for (int size = 2; size <= WireFormat.MAX_VARINT_SIZE; ++size) {
+      VARINT_CONTINUATION_BITS[size] = 0x8080808080808080L >>> (8 * (9 - Math.min(size, 9)));
+    }
+  }
+
+  /**
+   * Returns the varint encoding of {@code value} as a little-endian word holding {@code size}
+   * bytes, where {@code size} is {@link #computeUInt32SizeNoTag(int)}. The remaining bytes are
+   * zero.
+   */
+  static long varint32Word(final int value, final int size) {
+    final long x = value & 0xFFFFFFFFL;
+    return (x & 0x7FL)
+        | ((x & (0x7FL << 7)) << 1)
+        | ((x & (0x7FL << 14)) << 2)
+        | ((x & (0x7FL << 21)) << 3)
+        | ((x & (0x0FL << 28)) << 4)
+        | VARINT_CONTINUATION_BITS[size];
+  }
+
+  /**
+   * Returns the first {@code min(size, 8)} bytes of the varint encoding of {@code value} as a
+   * little-endian word, where {@code size} is {@link #computeUInt64SizeNoTag(long)}. For sizes
+   * above 8 the caller writes the remaining bits, {@code value >>> 56}, itself.
+   */
+  static long varint64Word(final long value, final int size) {
+    return (value & 0x7FL)
+        | ((value & (0x7FL << 7)) << 1)
+        | ((value & (0x7FL << 14)) << 2)
+        | ((value & (0x7FL << 21)) << 3)
+        | ((value & (0x7FL << 28)) << 4)
+        | ((value & (0x7FL << 35)) << 5)
+        | ((value & (0x7FL << 42)) << 6)
+        | ((value & (0x7FL << 49)) << 7)
+        | VARINT_CONTINUATION_BITS[size];
+  }
+
   private static final byte[] LEADING_ZEROS_TO_BYTES_32 = new byte[33];
   private static final byte[] LEADING_ZEROS_TO_BYTES_64 = new byte[65];
   static {
@@ -4,8 +4,11 @@ import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
+import java.io.IOException;
+
 @State(Scope.Benchmark)
 @Fork(1)
 public class VarintCalcSizeBenchmark {
@@ -13,15 +16,72 @@ public class VarintCalcSizeBenchmark {
   @Param
   private VarintSizeCalculator calc;
 
-  @Param
-  private VarintInput input;
+  /**
+   * Values of a single serialized size. Kept out of the benchmark class's own state so that
+   * {@link #calcSizeProfiled} does not also run once per input.
+   */
+  @State(Scope.Benchmark)
+  public static class FixedInput {
+    @Param
+    private VarintInput input;
+  }
+
+  /**
+   * Values whose serialized sizes follow a {@link VarintProfile}, drawn up front.
+   */
+  @State(Scope.Benchmark)
+  public static class ProfiledInput {
+    private static final int NUM_VALUES = 1024;
+
+    /**
+     * {@value VarintProfile#DEFAULT_NAME}, or the path of a histogram file.
+     *
+     * @see VarintProfile
+     */
+    @Param({VarintProfile.DEFAULT_NAME})
+    private String varintProfile;
+
+    @Param
+    private VarintInput.FieldWidth width;
+
+    private int[] intValues;
+    private long[] longValues;
+    private int nextIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+      final VarintProfile profile = VarintProfile.load(varintProfile);
+      if (width == VarintInput.FieldWidth.FW_32) {
+        intValues = new int[NUM_VALUES];
+        for (int ix = 0; ix < NUM_VALUES; ++ix) {
+          intValues[ix] = profile.nextRandomIntValue();
+        }
+      } else {
+        longValues = new long[NUM_VALUES];
+        for (int ix = 0; ix < NUM_VALUES; ++ix) {
+          longValues[ix] = profile.nextRandomLongValue();
+        }
+      }
+    }
+  }
 
   @Benchmark
-  public byte calcSize() {
+  public byte calcSize(FixedInput state) {
+    final VarintInput input = state.input;
     if (input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
       return calc.calcUInt32Size(input.nextIntValue());
     } else {
       return calc.calcUInt64Size(input.nextLongValue());
     }
   }
+
+  @Benchmark
+  public byte calcSizeProfiled(ProfiledInput state) {
+    final int ix = state.nextIndex = (state.nextIndex + 1) & (ProfiledInput.NUM_VALUES - 1);
+    if (state.width == VarintInput.FieldWidth.FW_32) {
+      return calc.calcUInt32Size(state.intValues[ix]);
+    } else {
+      return calc.calcUInt64Size(state.longValues[ix]);
+    }
+  }
 }
@@ -0,0 +1,77 @@
+package com.google.protobench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The decoding counterpart of {@link VarintEncodingBenchmark}: reads one varint of the given
+ * {@link VarintInput} width per operation, from a {@code byte[]} or from direct memory.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class VarintDecodingBenchmark {
+  public enum Memory {
+    ARRAY,
+    DIRECT
+  }
+
+  private static final int NUM_VALUES = 1024;
+
+  @Param
+  private VarintReader reader;
+
+  @Param
+  private VarintInput input;
+
+  @Param
+  private Memory memory;
+
+  private VarintReader.Cursor cursor;
+  private int dataLength;
+
+  @Setup
+  public void setUp() throws Exception {
+    byte[] data = new byte[(NUM_VALUES + 1) * WireFormat.MAX_VARINT_SIZE];
+    ForwardEncoder encoder = new ForwardEncoder(data, 0, data.length);
+    for (int ix = 0; ix < NUM_VALUES; ++ix) {
+      if (input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
+        encoder.writeUInt32NoTag(input.nextIntValue());
+      } else {
+        encoder.writeUInt64NoTag(input.nextLongValue());
+      }
+    }
+    dataLength = encoder.getTotalBytesWritten();
+
+    // Pad the values so that the last one can take the fast paths as well.
+    int length = dataLength + WireFormat.MAX_VARINT_SIZE;
+    switch (memory) {
+      case ARRAY:
+        cursor = new VarintReader.Cursor(data, 0, length);
+        break;
+      case DIRECT:
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(data, 0, length);
+        buffer.flip();
+        cursor = new VarintReader.Cursor(buffer);
+        break;
+    }
+  }
+
+  @Benchmark
+  public long decode() throws Exception {
+    if (cursor.getTotalBytesRead() == dataLength) {
+      cursor.reset();
+    }
+    if (input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
+      return reader.readUInt32(cursor);
+    } else {
+      return reader.readUInt64(cursor);
+    }
+  }
+}
@@ -4,6 +4,7 @@ import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
 import java.io.IOException;
@@ -44,6 +45,36 @@ public class VarintEncodingBenchmark {
       void reset() {
         e.reset();
       }
+    }),
+    FORWARD_WORD(new DirectionEncoder() {
+      private final ForwardEncoder e = new ForwardEncoder(new byte[100], 0, 100);
+      @Override
+      void writeUInt32(int value) throws IOException {
+        e.writeUInt32NoTagWord(value);
+      }
+      @Override
+      void writeUInt64(long value) throws IOException {
+        e.writeUInt64NoTagWord(value);
+      }
+      @Override
+      void reset() {
+        e.reset();
+      }
+    }),
+    REVERSE_WORD(new DirectionEncoder() {
+      private final ReverseEncoder e = new ReverseEncoder(new byte[100], 0, 100);
+      @Override
+      void writeUInt32(int value) throws IOException {
+        e.writeUInt32NoTagWord(value);
+      }
+      @Override
+      void writeUInt64(long value) throws IOException {
+        e.writeUInt64NoTagWord(value);
+      }
+      @Override
+      void reset() {
+        e.reset();
+      }
     });
 
     Algorithm(DirectionEncoder encoder) {
@@ -59,14 +90,22 @@ public class VarintEncodingBenchmark {
     }
   }
 
-  @Param
-  private Algorithm algorithm;
-
   @Param
   private VarintInput input;
 
+  /**
+   * The single-value write algorithm. Kept out of the benchmark class's own state so that the
+   * bulk array benchmarks, which have one path per direction, do not also run once per algorithm.
+   */
+  @State(Scope.Benchmark)
+  public static class AlgorithmState {
+    @Param
+    private Algorithm algorithm;
+  }
+
   @Benchmark
-  public void encode() throws Exception {
+  public void encode(AlgorithmState state) throws Exception {
+    final Algorithm algorithm = state.algorithm;
     if (input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
       algorithm.encoder.writeUInt32(input.nextIntValue());
     } else {
@@ -74,4 +113,115 @@ public class VarintEncodingBenchmark {
     }
     algorithm.encoder.reset();
   }
+
+  /**
+   * State for the bulk benchmarks: an array of {@code numValues} values drawn from {@code input},
+   * and an encoder with room for all of them.
+   */
+  @State(Scope.Benchmark)
+  public static class BulkState {
+    @Param({"1024", "65536", "1048576"})
+    public int numValues;
+
+    private int[] intValues;
+    private long[] longValues;
+    private ForwardEncoder forward;
+    private ReverseEncoder reverse;
+
+    @Setup
+    public void setUp(VarintEncodingBenchmark benchmark) {
+      if (benchmark.input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
+        intValues = new int[numValues];
+        for (int ix = 0; ix < numValues; ++ix) {
+          intValues[ix] = benchmark.input.nextIntValue();
+        }
+      } else {
+        longValues = new long[numValues];
+        for (int ix = 0; ix < numValues; ++ix) {
+          longValues[ix] = benchmark.input.nextLongValue();
+        }
+      }
+      byte[] buffer = new byte[numValues * WireFormat.MAX_VARINT_SIZE];
+      forward = new ForwardEncoder(buffer, 0, buffer.length);
+      reverse = new ReverseEncoder(buffer, 0, buffer.length);
+    }
+  }
+
+  /**
+   * Encodes the values with the forward bulk array writers, which always use word stores.
+   */
+  @Benchmark
+  public void encodeArrayForward(BulkState state) throws Exception {
+    if (state.intValues != null) {
+      state.forward.writeUInt32Array(state.intValues, 0, state.numValues);
+    } else {
+      state.forward.writeUInt64Array(state.longValues, 0, state.numValues);
+    }
+    state.forward.reset();
+  }
+
+  /**
+   * Encodes the values with the reverse bulk array writers, which always use word stores.
+   */
+  @Benchmark
+  public void encodeArrayReverse(BulkState state) throws Exception {
+    if (state.intValues != null) {
+      state.reverse.writeUInt32Array(state.intValues, 0, state.numValues);
+    } else {
+      state.reverse.writeUInt64Array(state.longValues, 0, state.numValues);
+    }
+    state.reverse.reset();
+  }
+
+  /**
+   * The baseline for {@link #encodeArrayForward} and {@link #encodeArrayReverse}: the same values,
+   * written one call at a time.
+   */
+  @Benchmark
+  public void encodeArrayLoop(BulkState state, AlgorithmState algorithmState) throws Exception {
+    final Algorithm algorithm = algorithmState.algorithm;
+    final int[] intValues = state.intValues;
+    final long[] longValues = state.longValues;
+    final int numValues = state.numValues;
+    switch (algorithm) {
+      case FORWARD:
+      case REVERSE:
+        Encoder encoder = algorithm == Algorithm.FORWARD ? state.forward : state.reverse;
+        if (intValues != null) {
+          for (int ix = 0; ix < numValues; ++ix) {
+            encoder.writeUInt32NoTag(intValues[ix]);
+          }
+        } else {
+          for (int ix = 0; ix < numValues; ++ix) {
+            encoder.writeUInt64NoTag(longValues[ix]);
+          }
+        }
+        encoder.reset();
+        break;
+      case FORWARD_WORD:
+        if (intValues != null) {
+          for (int ix = 0; ix < numValues; ++ix) {
+            state.forward.writeUInt32NoTagWord(intValues[ix]);
+          }
+        } else {
+          for (int ix = 0; ix < numValues; ++ix) {
+            state.forward.writeUInt64NoTagWord(longValues[ix]);
+          }
+        }
+        state.forward.reset();
+        break;
+      case REVERSE_WORD:
+        if (intValues != null) {
+          for (int ix = numValues - 1; ix >= 0; --ix) {
+            state.reverse.writeUInt32NoTagWord(intValues[ix]);
+          }
+        } else {
+          for (int ix = numValues - 1; ix >= 0; --ix) {
+            state.reverse.writeUInt64NoTagWord(longValues[ix]);
+          }
+        }
+        state.reverse.reset();
+        break;
+    }
+  }
 }
@@ -1,7 +1,5 @@
 package com.google.protobench;
 
-import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
-
 public enum VarintInput {
   I32_1((byte) 1, new int[]{0, 50, 100, 127}),
   I32_2((byte) 2, new int[]{128, 500, 10000, 16383}),
@@ -37,6 +35,11 @@ public enum VarintInput {
   private final byte serializedSize;
   private final int[] intValues;
   private final long[] longValues;
+
+  /**
+   * Shared by every user of the constant, so concurrent callers contend on it. Multi-threaded
+   * benchmarks should give each thread its own {@link Generator} instead.
+   */
   private int nextIndex;
 
   FieldWidth fieldWidth() {
@@ -55,13 +58,60 @@ public enum VarintInput {
     return longValues[(nextIndex = (nextIndex + 1) & 3)];
   }
 
+  /**
+   * Cycles through the values of one input, like {@link #nextIntValue()} and {@link
+   * #nextLongValue()} but with an index of its own, so that threads that each own a generator do
+   * not share a hot field.
+   */
+  static final class Generator {
+    private final VarintInput input;
+    private int nextIndex;
+
+    Generator(VarintInput input) {
+      this.input = input;
+    }
+
+    VarintInput input() {
+      return input;
+    }
+
+    int nextIntValue() {
+      return input.intValues[(nextIndex = (nextIndex + 1) & 3)];
+    }
+
+    long nextLongValue() {
+      return input.longValues[(nextIndex = (nextIndex + 1) & 3)];
+    }
+  }
+
   public enum FieldWidth {
     FW_32,
     FW_64
   }
 
+  /**
+   * Returns a value drawn from {@link VarintProfile#DEFAULT}.
+   *
+   * @see VarintProfile#nextRandomIntValue()
+   */
   static int nextRandomIntValue() {
-    switch(varint32Distribution.sample()) {
+    return VarintProfile.DEFAULT.nextRandomIntValue();
+  }
+
+  /**
+   * Returns a value drawn from {@link VarintProfile#DEFAULT}.
+   *
+   * @see VarintProfile#nextRandomLongValue()
+   */
+  static long nextRandomLongValue() {
+    return VarintProfile.DEFAULT.nextRandomLongValue();
+  }
+
+  /**
+   * Returns the next 32-bit value that serializes to {@code serializedSize} bytes.
+   */
+  static int nextIntValueOfSize(int serializedSize) {
+    switch(serializedSize) {
       case 1:
         return I32_1.nextIntValue();
       case 2:
@@ -75,8 +125,11 @@ public enum VarintInput {
     }
   }
 
-  static long nextRandomLongValue() {
-    switch(varint64Distribution.sample()) {
+  /**
+   * Returns the next 64-bit value that serializes to {@code serializedSize} bytes.
+   */
+  static long nextLongValueOfSize(int serializedSize) {
+    switch(serializedSize) {
       case 1:
         return I64_1.nextLongValue();
       case 2:
@@ -107,14 +160,4 @@ public enum VarintInput {
   static VarintInput[] get64BitValues() {
     return new VarintInput[] {I64_1, I64_2, I64_3, I64_4, I64_5, I64_6, I64_7, I64_8, I64_9, I64_10};
   }
-
-  // TODO(nmittler): Consider using more realistic distributions based on data analysis.
-  private static final EnumeratedIntegerDistribution varint32Distribution = new EnumeratedIntegerDistribution(
-          Utils.RANDOM,
-          new int[]{1, 2, 3, 4, 5},
-          new double[]{0.3, 0.2, 0.2, 0.1, 0.2});
-  private static final EnumeratedIntegerDistribution varint64Distribution = new EnumeratedIntegerDistribution(
-          Utils.RANDOM,
-          new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10},
-          new double[]{0.2, 0.1, 0.1, 0.5, 0.5, 0.5, 0.5, 0.1, 0.1, 0.2});
 }
@@ -0,0 +1,202 @@
+package com.google.protobench;
+
+import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Distributions of varint serialized sizes, from which {@link #nextRandomIntValue()} and {@link
+ * #nextRandomLongValue()} draw benchmark inputs. Besides the built-in {@link #DEFAULT} guesses,
+ * profiles can be loaded from histograms captured from real field values.
+ *
+ * <p>A histogram file is UTF-8 text with one record per line. Blank lines and lines starting with
+ * {@code #} are ignored. Each record is one of:
+ *
+ * <pre>
+ * uint32.size &lt;bytes&gt; &lt;weight&gt;   a bucket of 32-bit values that encode to 1-5 bytes
+ * uint64.size &lt;bytes&gt; &lt;weight&gt;   a bucket of 64-bit values that encode to 1-10 bytes
+ * uint32 &lt;value&gt; [&lt;count&gt;]        a sampled 32-bit value, seen once or count times
+ * uint64 &lt;value&gt; [&lt;count&gt;]        a sampled 64-bit value, seen once or count times
+ * </pre>
+ *
+ * <p>Values are unsigned, in decimal or with a {@code 0x} prefix in hex. Sampled values only count
+ * towards the bucket for their serialized size: the generated values are still the representative
+ * ones of each {@link VarintInput} bucket. Weights need not sum to one; repeated records for a
+ * bucket add up. A width with no records keeps the default distribution.
+ */
+final class VarintProfile {
+  private static final int MAX_VARINT32_SIZE = 5;
+
+  /** The name that {@link #load} resolves to {@link #DEFAULT} rather than to a file. */
+  static final String DEFAULT_NAME = "default";
+
+  static final VarintProfile DEFAULT = new VarintProfile(
+          new double[]{0.3, 0.2, 0.2, 0.1, 0.2},
+          new double[]{0.2, 0.1, 0.1, 0.05, 0.05, 0.05, 0.05, 0.1, 0.1, 0.2});
+
+  private final double[] varint32Weights;
+  private final double[] varint64Weights;
+  private final EnumeratedIntegerDistribution varint32Distribution;
+  private final EnumeratedIntegerDistribution varint64Distribution;
+
+  /**
+   * @param varint32Weights the weights of 32-bit serialized sizes 1 to 5
+   * @param varint64Weights the weights of 64-bit serialized sizes 1 to 10
+   */
+  VarintProfile(double[] varint32Weights, double[] varint64Weights) {
+    this.varint32Weights = varint32Weights.clone();
+    this.varint64Weights = varint64Weights.clone();
+    varint32Distribution = newDistribution(this.varint32Weights, MAX_VARINT32_SIZE);
+    varint64Distribution = newDistribution(this.varint64Weights, WireFormat.MAX_VARINT_SIZE);
+  }
+
+  /**
+   * Returns a 32-bit value whose serialized size is drawn from this profile.
+   */
+  int nextRandomIntValue() {
+    return VarintInput.nextIntValueOfSize(varint32Distribution.sample());
+  }
+
+  /**
+   * Returns a 64-bit value whose serialized size is drawn from this profile.
+   */
+  long nextRandomLongValue() {
+    return VarintInput.nextLongValueOfSize(varint64Distribution.sample());
+  }
+
+  /**
+   * Returns the probability of a 32-bit value serializing to {@code size} bytes.
+   */
+  double varint32Probability(int size) {
+    return varint32Distribution.probability(size);
+  }
+
+  /**
+   * Returns the probability of a 64-bit value serializing to {@code size} bytes.
+   */
+  double varint64Probability(int size) {
+    return varint64Distribution.probability(size);
+  }
+
+  /**
+   * Returns {@link #DEFAULT} for {@link #DEFAULT_NAME}, or else the profile in the histogram file
+   * at the given path.
+   */
+  static VarintProfile load(String nameOrPath) throws IOException {
+    if (DEFAULT_NAME.equals(nameOrPath)) {
+      return DEFAULT;
+    }
+    Reader reader =
+            new InputStreamReader(new FileInputStream(nameOrPath), Charset.forName("UTF-8"));
+    try {
+      return parse(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads a histogram in the format described above.
+   *
+   * @throws IOException if reading fails or a record is malformed
+   */
+  static VarintProfile parse(Reader input) throws IOException {
+    final double[] varint32Weights = new double[MAX_VARINT32_SIZE];
+    final double[] varint64Weights = new double[WireFormat.MAX_VARINT_SIZE];
+    final BufferedReader reader = new BufferedReader(input);
+    int lineNumber = 0;
+    for (String line; (line = reader.readLine()) != null; ) {
+      ++lineNumber;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final String[] fields = line.split("\\s+");
+      try {
+        if (fields[0].equals("uint32.size") && fields.length == 3) {
+          addWeight(varint32Weights, Integer.parseInt(fields[1]), parseWeight(fields[2]));
+        } else if (fields[0].equals("uint64.size") && fields.length == 3) {
+          addWeight(varint64Weights, Integer.parseInt(fields[1]), parseWeight(fields[2]));
+        } else if (fields[0].equals("uint32") && (fields.length == 2 || fields.length == 3)) {
+          final BigInteger value = parseUnsigned(fields[1], 32);
+          addWeight(varint32Weights,
+                  VarintSizeCalculator.DEFAULT.calcUInt32Size(value.intValue()),
+                  fields.length == 3 ? parseWeight(fields[2]) : 1);
+        } else if (fields[0].equals("uint64") && (fields.length == 2 || fields.length == 3)) {
+          final BigInteger value = parseUnsigned(fields[1], 64);
+          addWeight(varint64Weights,
+                  VarintSizeCalculator.DEFAULT.calcUInt64Size(value.longValue()),
+                  fields.length == 3 ? parseWeight(fields[2]) : 1);
+        } else {
+          throw new IllegalArgumentException("Unrecognized record");
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IOException(
+                String.format("Invalid histogram record on line %d: %s", lineNumber, line), e);
+      }
+    }
+    return new VarintProfile(
+            isEmpty(varint32Weights) ? DEFAULT.varint32Weights : varint32Weights,
+            isEmpty(varint64Weights) ? DEFAULT.varint64Weights : varint64Weights);
+  }
+
+  @Override
+  public String toString() {
+    return "VarintProfile{varint32=" + Arrays.toString(varint32Weights)
+            + ", varint64=" + Arrays.toString(varint64Weights) + "}";
+  }
+
+  private static EnumeratedIntegerDistribution newDistribution(double[] weights, int maxSize) {
+    if (weights.length != maxSize) {
+      throw new IllegalArgumentException(
+              String.format("Expected %d weights, got %d", maxSize, weights.length));
+    }
+    final int[] sizes = new int[maxSize];
+    for (int i = 0; i < maxSize; ++i) {
+      sizes[i] = i + 1;
+    }
+    // The distribution normalizes the weights.
+    return new EnumeratedIntegerDistribution(Utils.RANDOM, sizes, weights);
+  }
+
+  private static void addWeight(double[] weights, int size, double weight) {
+    if (size < 1 || size > weights.length) {
+      throw new IllegalArgumentException("Serialized size out of range: " + size);
+    }
+    weights[size - 1] += weight;
+  }
+
+  private static double parseWeight(String field) {
+    final double weight = Double.parseDouble(field);
+    if (!(weight >= 0) || Double.isInfinite(weight)) {
+      throw new IllegalArgumentException("Invalid weight: " + field);
+    }
+    return weight;
+  }
+
+  private static BigInteger parseUnsigned(String field, int bits) {
+    final BigInteger value = field.startsWith("0x") || field.startsWith("0X")
+            ? new BigInteger(field.substring(2), 16)
+            : new BigInteger(field);
+    if (value.signum() < 0 || value.bitLength() > bits) {
+      throw new IllegalArgumentException("Value out of range for uint" + bits + ": " + field);
+    }
+    return value;
+  }
+
+  private static boolean isEmpty(double[] weights) {
+    for (double weight : weights) {
+      if (weight != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,258 @@
+package com.google.protobench;
+
+import static com.google.protobench.UnsafeUtil.ARRAY_BASE_OFFSET;
+import static com.google.protobench.UnsafeUtil.HAS_UNALIGNED_ACCESS;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_ARRAY_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.HAS_UNSAFE_BYTEBUFFER_OPERATIONS;
+import static com.google.protobench.UnsafeUtil.UNSAFE;
+
+import com.google.protobench.Decoder.InvalidWireFormatException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Strategies for reading varints. All of them read through a {@link Cursor}, which addresses
+ * either a {@code byte[]} or native memory, so the same code is measured for both.
+ */
+public enum VarintReader {
+  /** Reads one byte per iteration, checking bounds each time. */
+  LOOP(new Strategy() {
+    @Override
+    int readUInt32(Cursor cursor) throws IOException {
+      return (int) readUInt64Checked(cursor);
+    }
+
+    @Override
+    long readUInt64(Cursor cursor) throws IOException {
+      return readUInt64Checked(cursor);
+    }
+  }),
+  /** The unrolled reader used by {@link ForwardDecoder}, with one branch per byte. */
+  UNROLLED(new Strategy() {
+    @Override
+    int readUInt32(Cursor cursor) throws IOException {
+      if (cursor.limit - cursor.position < WireFormat.MAX_VARINT_SIZE) {
+        return (int) readUInt64Checked(cursor);
+      }
+      final Object base = cursor.base;
+      long pos = cursor.position;
+      int x;
+      if ((x = UNSAFE.getByte(base, pos++)) >= 0) {
+        cursor.position = pos;
+        return x;
+      } else if ((x ^= (UNSAFE.getByte(base, pos++) << 7)) < 0) {
+        x ^= (~0 << 7);
+      } else if ((x ^= (UNSAFE.getByte(base, pos++) << 14)) >= 0) {
+        x ^= (~0 << 7) ^ (~0 << 14);
+      } else if ((x ^= (UNSAFE.getByte(base, pos++) << 21)) < 0) {
+        x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21);
+      } else {
+        int y = UNSAFE.getByte(base, pos++);
+        x ^= y << 28;
+        x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21) ^ (~0 << 28);
+        // Discard the upper bytes of a sign-extended (10 byte) int32.
+        if (y < 0
+                && UNSAFE.getByte(base, pos++) < 0
+                && UNSAFE.getByte(base, pos++) < 0
+                && UNSAFE.getByte(base, pos++) < 0
+                && UNSAFE.getByte(base, pos++) < 0
+                && UNSAFE.getByte(base, pos++) < 0) {
+          throw InvalidWireFormatException.malformedVarint();
+        }
+      }
+      cursor.position = pos;
+      return x;
+    }
+
+    @Override
+    long readUInt64(Cursor cursor) throws IOException {
+      if (cursor.limit - cursor.position < WireFormat.MAX_VARINT_SIZE) {
+        return readUInt64Checked(cursor);
+      }
+      final Object base = cursor.base;
+      long pos = cursor.position;
+      long x;
+      int y;
+      if ((y = UNSAFE.getByte(base, pos++)) >= 0) {
+        cursor.position = pos;
+        return y;
+      } else if ((y ^= (UNSAFE.getByte(base, pos++) << 7)) < 0) {
+        x = y ^ (~0 << 7);
+      } else if ((y ^= (UNSAFE.getByte(base, pos++) << 14)) >= 0) {
+        x = y ^ ((~0 << 7) ^ (~0 << 14));
+      } else if ((y ^= (UNSAFE.getByte(base, pos++) << 21)) < 0) {
+        x = y ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+      } else if ((x = y ^ ((long) UNSAFE.getByte(base, pos++) << 28)) >= 0L) {
+        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28);
+      } else if ((x ^= ((long) UNSAFE.getByte(base, pos++) << 35)) < 0L) {
+        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35);
+      } else if ((x ^= ((long) UNSAFE.getByte(base, pos++) << 42)) >= 0L) {
+        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42);
+      } else if ((x ^= ((long) UNSAFE.getByte(base, pos++) << 49)) < 0L) {
+        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+                ^ (~0L << 49);
+      } else {
+        x ^= ((long) UNSAFE.getByte(base, pos++) << 56);
+        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+                ^ (~0L << 49) ^ (~0L << 56);
+        if (x < 0L && UNSAFE.getByte(base, pos++) < 0L) {
+          throw InvalidWireFormatException.malformedVarint();
+        }
+      }
+      cursor.position = pos;
+      return x;
+    }
+  }),
+  /**
+   * Loads eight bytes with one {@code getLong} and finds the last byte of the varint from the
+   * lowest clear continuation bit. Varints longer than eight bytes read the rest byte by byte.
+   */
+  WORD(new Strategy() {
+    @Override
+    int readUInt32(Cursor cursor) throws IOException {
+      return (int) readUInt64(cursor);
+    }
+
+    @Override
+    long readUInt64(Cursor cursor) throws IOException {
+      if (!WORD_READS || cursor.limit - cursor.position < WireFormat.MAX_VARINT_SIZE) {
+        return UNROLLED.readUInt64(cursor);
+      }
+      final Object base = cursor.base;
+      final long pos = cursor.position;
+      long word = UNSAFE.getLong(base, pos);
+      if (BIG_ENDIAN) {
+        word = Long.reverseBytes(word);
+      }
+      final long lastBytes = ~word & 0x8080808080808080L;
+      if (lastBytes != 0) {
+        // The number of bits up to and including the last byte's continuation bit.
+        final int bits = Long.numberOfTrailingZeros(lastBytes) + 1;
+        cursor.position = pos + (bits >>> 3);
+        return compact(word & (-1L >>> (64 - bits)));
+      }
+      // The ninth byte holds bits 56-62, and the tenth (if any) bit 63.
+      long x = compact(word);
+      final byte b8 = UNSAFE.getByte(base, pos + 8);
+      x |= (long) (b8 & 0x7F) << 56;
+      if (b8 >= 0) {
+        cursor.position = pos + 9;
+        return x;
+      }
+      final byte b9 = UNSAFE.getByte(base, pos + 9);
+      if (b9 < 0) {
+        throw InvalidWireFormatException.malformedVarint();
+      }
+      cursor.position = pos + 10;
+      return x | ((long) b9 << 63);
+    }
+
+    /** Drops the continuation bits from up to eight little-endian varint bytes. */
+    private long compact(long word) {
+      return (word & 0x7FL)
+          | ((word >>> 1) & (0x7FL << 7))
+          | ((word >>> 2) & (0x7FL << 14))
+          | ((word >>> 3) & (0x7FL << 21))
+          | ((word >>> 4) & (0x7FL << 28))
+          | ((word >>> 5) & (0x7FL << 35))
+          | ((word >>> 6) & (0x7FL << 42))
+          | ((word >>> 7) & (0x7FL << 49));
+    }
+  });
+
+  /** Whether an unaligned {@code getLong} is safe. */
+  private static final boolean WORD_READS = HAS_UNALIGNED_ACCESS;
+  private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+  private final Strategy strategy;
+
+  VarintReader(Strategy strategy) {
+    this.strategy = strategy;
+  }
+
+  int readUInt32(Cursor cursor) throws IOException {
+    return strategy.readUInt32(cursor);
+  }
+
+  long readUInt64(Cursor cursor) throws IOException {
+    return strategy.readUInt64(cursor);
+  }
+
+  private static long readUInt64Checked(Cursor cursor) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (cursor.position == cursor.limit) {
+        throw InvalidWireFormatException.truncatedMessage();
+      }
+      final byte b = UNSAFE.getByte(cursor.base, cursor.position++);
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw InvalidWireFormatException.malformedVarint();
+  }
+
+  /**
+   * A read position in either a {@code byte[]} or native memory. An array is addressed by the
+   * array itself and an offset from its base; native memory by a {@code null} base and an
+   * absolute address.
+   */
+  static final class Cursor {
+    /**
+     * Keeps the memory of the wrapped buffer (if any) reachable for as long as this cursor is.
+     */
+    private final ByteBuffer buffer;
+    private final Object base;
+    private final long start;
+    private final long limit;
+    private long position;
+
+    Cursor(byte[] array, int offset, int length) {
+      if (!HAS_UNSAFE_ARRAY_OPERATIONS) {
+        throw new UnsupportedOperationException("Unsafe array access is not available");
+      }
+      if ((offset | length | (array.length - (offset + length))) < 0) {
+        throw new IllegalArgumentException(String.format(
+                "Array range is invalid. Buffer.length=%d, offset=%d, length=%d",
+                array.length, offset, length));
+      }
+      buffer = null;
+      base = array;
+      start = ARRAY_BASE_OFFSET + offset;
+      limit = start + length;
+      position = start;
+    }
+
+    Cursor(ByteBuffer buffer) {
+      if (!HAS_UNSAFE_BYTEBUFFER_OPERATIONS) {
+        throw new UnsupportedOperationException("Unsafe direct memory access is not available");
+      }
+      if (!buffer.isDirect()) {
+        throw new IllegalArgumentException("buffer must be direct");
+      }
+      this.buffer = buffer;
+      base = null;
+      start = UnsafeUtil.addressOffset(buffer) + buffer.position();
+      limit = start + buffer.remaining();
+      position = start;
+    }
+
+    /** Moves the cursor back to the start of its range. */
+    void reset() {
+      position = start;
+    }
+
+    int getTotalBytesRead() {
+      return (int) (position - start);
+    }
+  }
+
+  private static abstract class Strategy {
+    abstract int readUInt32(Cursor cursor) throws IOException;
+
+    abstract long readUInt64(Cursor cursor) throws IOException;
+  }
+}
@@ -22,6 +22,7 @@ public final class WireFormat {
   public static final int FIXED_32_SIZE = 4;
   public static final int FIXED_64_SIZE = 8;
   public static final int MAX_VARINT_SIZE = 10;
+  public static final int MAX_VARINT32_SIZE = 5;
 
   public static final int WIRETYPE_VARINT           = 0;
   public static final int WIRETYPE_FIXED64          = 1;
@@ -48,6 +49,55 @@ public final class WireFormat {
     return (fieldNumber << TAG_TYPE_BITS) | wireType;
   }
 
+  /**
+   * Returns the varint encoding of a tag as little-endian bytes packed into an int, ready to be
+   * written with a single store. Only tags of up to four bytes (field numbers below 2^25) fit.
+   */
+  static int encodeTag(final int fieldNumber, final int wireType) {
+    int tag = makeTag(fieldNumber, wireType);
+    if ((tag >>> 28) != 0) {
+      throw new IllegalArgumentException("Tag does not fit in four bytes: " + tag);
+    }
+    int encoded = 0;
+    int shift = 0;
+    while ((tag & ~0x7F) != 0) {
+      encoded |= ((tag & 0x7F) | 0x80) << shift;
+      tag >>>= 7;
+      shift += 8;
+    }
+    return encoded | (tag << shift);
+  }
+
+  /** Returns the number of bytes in a tag encoded by {@link #encodeTag}. */
+  static int encodedTagSize(final int encodedTag) {
+    return (32 - Integer.numberOfLeadingZeros(encodedTag) + 7) >>> 3;
+  }
+
+  /**
+   * Encodes a signed 32-bit value with ZigZag encoding, so that values of small magnitude have
+   * small varint encodings regardless of their sign.
+   */
+  static int encodeZigZag32(final int n) {
+    // Note: the right-shift must be arithmetic.
+    return (n << 1) ^ (n >> 31);
+  }
+
+  /** As {@link #encodeZigZag32}, for signed 64-bit values. */
+  static long encodeZigZag64(final long n) {
+    // Note: the right-shift must be arithmetic.
+    return (n << 1) ^ (n >> 63);
+  }
+
+  /** Decodes a value written with {@link #encodeZigZag32}. */
+  static int decodeZigZag32(final int n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  /** Decodes a value written with {@link #encodeZigZag64}. */
+  static long decodeZigZag64(final long n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
   public enum JavaType {
     INT(0),
     LONG(0L),
@@ -0,0 +1,282 @@
+package com.google.protobench;
+
+import static com.google.protobench.Utils.RANDOM;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Writes one repeated field of {@code numValues} elements of a single wire type, either packed or
+ * as one tagged field per element, so that the per-value cost of each encoding can be compared in
+ * isolation. Float and double values are written exactly as fixed32 and fixed64 once their bits
+ * are taken, so they are not measured separately; see {@link FixedWidthEncodingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class WireTypeEncodingBenchmark {
+  public enum WireType {
+    UINT32(WireFormat.WIRETYPE_VARINT),
+    UINT64(WireFormat.WIRETYPE_VARINT),
+    SINT32(WireFormat.WIRETYPE_VARINT),
+    SINT64(WireFormat.WIRETYPE_VARINT),
+    FIXED32(WireFormat.WIRETYPE_FIXED32),
+    FIXED64(WireFormat.WIRETYPE_FIXED64),
+    BOOL(WireFormat.WIRETYPE_VARINT),
+    /** Includes the negative enum number, which is sign-extended to ten bytes. */
+    ENUM(WireFormat.WIRETYPE_VARINT);
+
+    final int wireType;
+
+    WireType(int wireType) {
+      this.wireType = wireType;
+    }
+  }
+
+  private static final int FIELD_NUMBER = 1;
+
+  @Param
+  public EncodingAlgorithmBenchmark.Direction direction;
+
+  @Param
+  public WireType wireType;
+
+  @Param({"false", "true"})
+  public boolean packed;
+
+  @Param({"256"})
+  public int numValues;
+
+  private int[] ints;
+  private long[] longs;
+  private boolean[] booleans;
+  private int tag;
+  private ForwardEncoder forward;
+  private ReverseEncoder reverse;
+
+  @Setup
+  public void setUp() {
+    ints = new int[numValues];
+    longs = new long[numValues];
+    booleans = new boolean[numValues];
+    for (int ix = 0; ix < numValues; ++ix) {
+      switch (wireType) {
+        case UINT32:
+          ints[ix] = VarintInput.nextRandomIntValue();
+          break;
+        case UINT64:
+          longs[ix] = VarintInput.nextRandomLongValue();
+          break;
+        case SINT32:
+          ints[ix] = TestMessage.nextRandomSInt32();
+          break;
+        case SINT64:
+          longs[ix] = TestMessage.nextRandomSInt64();
+          break;
+        case FIXED32:
+          ints[ix] = RANDOM.nextInt();
+          break;
+        case FIXED64:
+          longs[ix] = RANDOM.nextLong();
+          break;
+        case BOOL:
+          booleans[ix] = RANDOM.nextBoolean();
+          break;
+        case ENUM:
+          ints[ix] = TestMessage.nextRandomEnum();
+          break;
+      }
+    }
+    tag = WireFormat.encodeTag(FIELD_NUMBER, wireType.wireType);
+
+    // Room for the largest varints, each with a one-byte tag, plus the packed field header.
+    byte[] output = new byte[numValues * (WireFormat.MAX_VARINT_SIZE + 1) + 16];
+    forward = new ForwardEncoder(output, 0, output.length);
+    reverse = new ReverseEncoder(output, 0, output.length);
+  }
+
+  @Benchmark
+  public void encode() throws Exception {
+    switch (direction) {
+      case FORWARD:
+        encodeForward(forward);
+        forward.reset();
+        break;
+      case REVERSE:
+        encodeReverse(reverse);
+        reverse.reset();
+        break;
+    }
+  }
+
+  private void encodeForward(ForwardEncoder out) throws IOException {
+    switch (wireType) {
+      case UINT32:
+        if (packed) {
+          out.writePackedUInt32(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = 0; ix < ints.length; ++ix) {
+            out.writeEncodedTag(tag);
+            out.writeUInt32NoTag(ints[ix]);
+          }
+        }
+        break;
+      case UINT64:
+        if (packed) {
+          out.writePackedUInt64(FIELD_NUMBER, longs);
+        } else {
+          for (int ix = 0; ix < longs.length; ++ix) {
+            out.writeEncodedTag(tag);
+            out.writeUInt64NoTag(longs[ix]);
+          }
+        }
+        break;
+      case SINT32:
+        if (packed) {
+          out.writePackedSInt32(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = 0; ix < ints.length; ++ix) {
+            out.writeEncodedTag(tag);
+            out.writeSInt32NoTag(ints[ix]);
+          }
+        }
+        break;
+      case SINT64:
+        if (packed) {
+          out.writePackedSInt64(FIELD_NUMBER, longs);
+        } else {
+          for (int ix = 0; ix < longs.length; ++ix) {
+            out.writeEncodedTag(tag);
+            out.writeSInt64NoTag(longs[ix]);
+          }
+        }
+        break;
+      case FIXED32:
+        if (packed) {
+          out.writePackedFixed32(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = 0; ix < ints.length; ++ix) {
+            out.writeTaggedFixed32(tag, ints[ix]);
+          }
+        }
+        break;
+      case FIXED64:
+        if (packed) {
+          out.writePackedFixed64(FIELD_NUMBER, longs);
+        } else {
+          for (int ix = 0; ix < longs.length; ++ix) {
+            out.writeEncodedTag(tag);
+            out.writeFixed64NoTag(longs[ix]);
+          }
+        }
+        break;
+      case BOOL:
+        if (packed) {
+          out.writePackedBool(FIELD_NUMBER, booleans);
+        } else {
+          for (int ix = 0; ix < booleans.length; ++ix) {
+            out.writeTaggedBool(tag, booleans[ix]);
+          }
+        }
+        break;
+      case ENUM:
+        if (packed) {
+          out.writePackedEnum(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = 0; ix < ints.length; ++ix) {
+            out.writeEncodedTag(tag);
+            out.writeInt32NoTag(ints[ix]);
+          }
+        }
+        break;
+    }
+  }
+
+  private void encodeReverse(ReverseEncoder out) throws IOException {
+    switch (wireType) {
+      case UINT32:
+        if (packed) {
+          out.writePackedUInt32(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = ints.length - 1; ix >= 0; --ix) {
+            out.writeUInt32NoTag(ints[ix]);
+            out.writeEncodedTag(tag);
+          }
+        }
+        break;
+      case UINT64:
+        if (packed) {
+          out.writePackedUInt64(FIELD_NUMBER, longs);
+        } else {
+          for (int ix = longs.length - 1; ix >= 0; --ix) {
+            out.writeUInt64NoTag(longs[ix]);
+            out.writeEncodedTag(tag);
+          }
+        }
+        break;
+      case SINT32:
+        if (packed) {
+          out.writePackedSInt32(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = ints.length - 1; ix >= 0; --ix) {
+            out.writeSInt32NoTag(ints[ix]);
+            out.writeEncodedTag(tag);
+          }
+        }
+        break;
+      case SINT64:
+        if (packed) {
+          out.writePackedSInt64(FIELD_NUMBER, longs);
+        } else {
+          for (int ix = longs.length - 1; ix >= 0; --ix) {
+            out.writeSInt64NoTag(longs[ix]);
+            out.writeEncodedTag(tag);
+          }
+        }
+        break;
+      case FIXED32:
+        if (packed) {
+          out.writePackedFixed32(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = ints.length - 1; ix >= 0; --ix) {
+            out.writeTaggedFixed32(tag, ints[ix]);
+          }
+        }
+        break;
+      case FIXED64:
+        if (packed) {
+          out.writePackedFixed64(FIELD_NUMBER, longs);
+        } else {
+          for (int ix = longs.length - 1; ix >= 0; --ix) {
+            out.writeFixed64NoTag(longs[ix]);
+            out.writeEncodedTag(tag);
+          }
+        }
+        break;
+      case BOOL:
+        if (packed) {
+          out.writePackedBool(FIELD_NUMBER, booleans);
+        } else {
+          for (int ix = booleans.length - 1; ix >= 0; --ix) {
+            out.writeTaggedBool(tag, booleans[ix]);
+          }
+        }
+        break;
+      case ENUM:
+        if (packed) {
+          out.writePackedEnum(FIELD_NUMBER, ints);
+        } else {
+          for (int ix = ints.length - 1; ix >= 0; --ix) {
+            out.writeInt32NoTag(ints[ix]);
+            out.writeEncodedTag(tag);
+          }
+        }
+        break;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.google.protobench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobench.Encoder.OutOfSpaceException;
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class BufferPoolTest {
+  @Test
+  public void buffersShouldBeSizeClassedAndReused() {
+    BufferPool<byte[]> pool = BufferPool.newHeapPool(64 * 1024, 4, 4);
+    assertEquals(1024, pool.acquire(1).length);
+    assertEquals(4096, pool.acquire(4000).length);
+    assertEquals(4096, pool.acquire(4096).length);
+    assertEquals(64 * 1024 + 1, pool.acquire(64 * 1024 + 1).length);
+
+    byte[] buffer = pool.acquire(3000);
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire(2049));
+    assertNotSame(buffer, pool.acquire(2049));
+
+    BufferPool<ByteBuffer> directPool = BufferPool.newDirectPool(64 * 1024, 4, 4);
+    ByteBuffer direct = directPool.acquire(100);
+    assertTrue(direct.isDirect());
+    direct.position(10);
+    directPool.release(direct);
+    ByteBuffer reused = directPool.acquire(100);
+    assertSame(direct, reused);
+    assertEquals(0, reused.position());
+    assertEquals(1024, reused.remaining());
+  }
+
+  @Test
+  public void overflowShouldBeSharedAcrossThreads() throws Exception {
+    final BufferPool<byte[]> pool = BufferPool.newHeapPool(1024, 4, 16);
+    final List<byte[]> released = new ArrayList<byte[]>();
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 8; ++i) {
+          byte[] buffer = pool.acquire(1024);
+          released.add(buffer);
+          pool.release(buffer);
+        }
+        // Fill the magazine so that it spills to the shared stack.
+        for (int i = 0; i < 8; ++i) {
+          byte[] buffer = new byte[1024];
+          released.add(buffer);
+          pool.release(buffer);
+        }
+      }
+    };
+    releaser.start();
+    releaser.join();
+
+    byte[] buffer = pool.acquire(1024);
+    boolean found = false;
+    for (byte[] candidate : released) {
+      found |= candidate == buffer;
+    }
+    assertTrue(found);
+  }
+
+  @Test
+  public void pooledBuffersShouldFitEncodedMessages() throws Exception {
+    SerializedSizeManager sizeManager = new SerializedSizeManager(Utils.calcNodesInTree(4, 2));
+    TestMessage message = TestMessage.newRandomInstance(0, 50, 20, 2, 4, false, sizeManager);
+    BufferPool<byte[]> pool = BufferPool.newHeapPool(1024 * 1024, 4, 4);
+
+    byte[] forwardBuffer = pool.acquireForward(message);
+    ForwardEncoder forward = new ForwardEncoder(forwardBuffer, 0, forwardBuffer.length);
+    forward.encodeMessageNoTag(message);
+    int size = forward.getTotalBytesWritten();
+    assertTrue(forwardBuffer.length < 2 * size);
+    pool.release(forwardBuffer);
+
+    int attempts = 0;
+    byte[] reverseBuffer = pool.acquireReverse();
+    while (true) {
+      ++attempts;
+      ReverseEncoder reverse = new ReverseEncoder(reverseBuffer, 0, reverseBuffer.length);
+      try {
+        reverse.encodeMessageNoTag(message);
+      } catch (OutOfSpaceException e) {
+        reverseBuffer = pool.acquireLarger(reverseBuffer);
+        continue;
+      }
+      assertEquals(size, reverse.getTotalBytesWritten());
+      pool.releaseReverse(reverseBuffer, reverse.getTotalBytesWritten());
+      break;
+    }
+    assertTrue(attempts > 1);
+
+    // The estimate now covers the message, so the next reverse buffer fits it first time.
+    reverseBuffer = pool.acquireReverse();
+    ReverseEncoder reverse = new ReverseEncoder(reverseBuffer, 0, reverseBuffer.length);
+    reverse.encodeMessageNoTag(message);
+    assertEquals(size, reverse.getTotalBytesWritten());
+  }
+}
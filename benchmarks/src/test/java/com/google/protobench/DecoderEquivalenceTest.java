@@ -0,0 +1,175 @@
+package com.google.protobench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class DecoderEquivalenceTest {
+  private static final int STRING_LENGTH = 5;
+  private static final int NUM_REPEATED_FIELDS = 5;
+  private static final int TREE_HEIGHT = 2;
+  private static final int BRANCHING_FACTOR = 2;
+
+  @Test
+  public void decodedMessageShouldReencodeIdentically() throws IOException {
+    int numMessages = Utils.calcNodesInTree(BRANCHING_FACTOR, TREE_HEIGHT);
+    TestMessage message = TestMessage.newRandomInstance(0, STRING_LENGTH, NUM_REPEATED_FIELDS,
+            TREE_HEIGHT, BRANCHING_FACTOR, new SerializedSizeManager(numMessages));
+    byte[] expected = writeMessageForward(message);
+
+    SerializedSizeManager sizeManager = new SerializedSizeManager(numMessages);
+    ForwardDecoder decoder = new ForwardDecoder(expected, 0, expected.length, sizeManager);
+    TestMessage decoded = decoder.decodeMessageNoTag();
+
+    assertEquals(expected.length, decoder.getTotalBytesRead());
+    assertArrayEquals(expected, writeMessageForward(decoded));
+  }
+
+  @Test
+  public void decodedPackedMessageShouldReencodeIdentically() throws IOException {
+    int numMessages = Utils.calcNodesInTree(BRANCHING_FACTOR, TREE_HEIGHT);
+    TestMessage message = TestMessage.newRandomInstance(0, STRING_LENGTH, NUM_REPEATED_FIELDS,
+            TREE_HEIGHT, BRANCHING_FACTOR, true, new SerializedSizeManager(numMessages));
+    byte[] expected = writeMessageForward(message);
+
+    SerializedSizeManager sizeManager = new SerializedSizeManager(numMessages);
+    ForwardDecoder decoder = new ForwardDecoder(expected, 0, expected.length, sizeManager);
+    TestMessage decoded = decoder.decodeMessageNoTag();
+
+    assertTrue(decoded.packed);
+    assertEquals(expected.length, decoder.getTotalBytesRead());
+    assertArrayEquals(expected, writeMessageForward(decoded));
+  }
+
+  @Test
+  public void readUInt32ShouldBeEquivalent() throws Exception {
+    for (VarintInput input : VarintInput.get32BitValues()) {
+      for (int i = 0; i < 4; ++i) {
+        int value = input.nextIntValue();
+        byte[] bytes = new byte[100];
+        ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+        encoder.writeUInt32NoTag(value);
+
+        // Decode both with room for the fast path and with the input trimmed to the varint.
+        ForwardDecoder decoder = new ForwardDecoder(bytes, 0, bytes.length, newSizeManager());
+        assertEquals(value, decoder.readUInt32NoTag());
+        assertEquals(input.getSerializedSize(), decoder.getTotalBytesRead());
+        decoder = new ForwardDecoder(bytes, 0, encoder.getTotalBytesWritten(), newSizeManager());
+        assertEquals(value, decoder.readUInt32NoTag());
+      }
+    }
+  }
+
+  @Test
+  public void readUInt64ShouldBeEquivalent() throws Exception {
+    for (VarintInput input : VarintInput.get64BitValues()) {
+      for (int i = 0; i < 4; ++i) {
+        long value = input.nextLongValue();
+        byte[] bytes = new byte[100];
+        ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+        encoder.writeUInt64NoTag(value);
+
+        ForwardDecoder decoder = new ForwardDecoder(bytes, 0, bytes.length, newSizeManager());
+        assertEquals(value, decoder.readUInt64NoTag());
+        assertEquals(input.getSerializedSize(), decoder.getTotalBytesRead());
+        decoder = new ForwardDecoder(bytes, 0, encoder.getTotalBytesWritten(), newSizeManager());
+        assertEquals(value, decoder.readUInt64NoTag());
+      }
+    }
+  }
+
+  @Test
+  public void varintReadersShouldBeEquivalent() throws Exception {
+    for (VarintReader reader : VarintReader.values()) {
+      for (VarintInput input : VarintInput.values()) {
+        for (int i = 0; i < 4; ++i) {
+          byte[] bytes = new byte[100];
+          ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+          long value;
+          if (input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
+            value = input.nextIntValue();
+            encoder.writeUInt32NoTag((int) value);
+          } else {
+            value = input.nextLongValue();
+            encoder.writeUInt64NoTag(value);
+          }
+          int length = encoder.getTotalBytesWritten();
+          String message = reader + ", value=" + value;
+
+          // Read both with room for the fast paths and with the input trimmed to the varint.
+          for (VarintReader.Cursor cursor : new VarintReader.Cursor[] {
+                  new VarintReader.Cursor(bytes, 0, bytes.length),
+                  new VarintReader.Cursor(bytes, 0, length),
+                  newDirectCursor(bytes, bytes.length),
+                  newDirectCursor(bytes, length)}) {
+            if (input.fieldWidth() == VarintInput.FieldWidth.FW_32) {
+              assertEquals(message, (int) value, reader.readUInt32(cursor));
+            } else {
+              assertEquals(message, value, reader.readUInt64(cursor));
+            }
+            assertEquals(message, length, cursor.getTotalBytesRead());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void truncatedVarintShouldFail() throws IOException {
+    byte[] bytes = new byte[100];
+    ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+    encoder.writeUInt64NoTag(-1L);
+    for (VarintReader reader : VarintReader.values()) {
+      try {
+        reader.readUInt64(new VarintReader.Cursor(bytes, 0, encoder.getTotalBytesWritten() - 1));
+        fail("Expected InvalidWireFormatException");
+      } catch (Decoder.InvalidWireFormatException expected) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void truncatedMessageShouldFail() throws IOException {
+    TestMessage message = TestMessage.newRandomInstance(0, STRING_LENGTH, NUM_REPEATED_FIELDS,
+            0, BRANCHING_FACTOR, newSizeManager());
+    byte[] bytes = writeMessageForward(message);
+    ForwardDecoder decoder = new ForwardDecoder(bytes, 0, bytes.length - 1, newSizeManager());
+    try {
+      decoder.decodeMessageNoTag();
+      fail("Expected InvalidWireFormatException");
+    } catch (Decoder.InvalidWireFormatException expected) {
+      // Expected.
+    }
+  }
+
+  private static VarintReader.Cursor newDirectCursor(byte[] bytes, int length) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+    buffer.put(bytes, 0, length);
+    buffer.flip();
+    return new VarintReader.Cursor(buffer);
+  }
+
+  private static SerializedSizeManager newSizeManager() {
+    return new SerializedSizeManager(1);
+  }
+
+  private static byte[] writeMessageForward(TestMessage message) throws IOException {
+    byte[] bytes = new byte[1024 * 1024];
+    ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+    encoder.encodeMessageNoTag(message);
+    return Arrays.copyOfRange(bytes, 0, encoder.getTotalBytesWritten());
+  }
+}
@@ -2,16 +2,30 @@ package com.google.protobench;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import benchmark.protobuf.UnittestProto;
 import com.google.protobench.TestMessage.SerializedSizeManager;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
 
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 @RunWith(JUnit4.class)
 public class EncoderEquivalenceTest {
@@ -19,15 +33,168 @@ public class EncoderEquivalenceTest {
   private static final int NUM_REPEATED_FIELDS = 5;
   private static final int TREE_HEIGHT = 2;
   private static final int BRANCHING_FACTOR = 2;
+  private static final int NUM_MESSAGES = Utils.calcNodesInTree(BRANCHING_FACTOR, TREE_HEIGHT);
 
   @Test
   public void messagesShouldBeEquivalent() throws IOException {
-    int numMessages = Utils.calcNodesInTree(BRANCHING_FACTOR, TREE_HEIGHT);
-    SerializedSizeManager sizeManager = new SerializedSizeManager(numMessages);
-    TestMessage message = TestMessage.newRandomInstance(0, STRING_LENGTH, NUM_REPEATED_FIELDS,
-            TREE_HEIGHT, BRANCHING_FACTOR, sizeManager);
+    verifyMessageEquivalence(newMessage(false, false, newSizeManager()), REVERSE);
+  }
+
+  @Test
+  public void cachedStringsShouldBeEquivalent() throws IOException {
+    final SerializedSizeManager sizeManager = newSizeManager();
+    TestMessage message = newMessage(false, false, sizeManager);
+
+    // The small capacity forces evictions; the large one holds every string in the tree.
+    for (int capacity : new int[] {2, 1024}) {
+      final Utf8Cache cache = new Utf8Cache(capacity);
+      MessageWriter forward = new MessageWriter("forward, capacity=" + capacity) {
+        @Override
+        byte[] write(TestMessage message) throws IOException {
+          sizeManager.setUtf8Cache(cache);
+          sizeManager.clearAll();
+          byte[] bytes = new byte[1024 * 1024];
+          ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+          encoder.setUtf8Cache(cache);
+          encoder.encodeMessageNoTag(message);
+          sizeManager.setUtf8Cache(null);
+          return Arrays.copyOf(bytes, encoder.getTotalBytesWritten());
+        }
+      };
+      MessageWriter reverse = new MessageWriter("reverse, capacity=" + capacity) {
+        @Override
+        byte[] write(TestMessage message) throws IOException {
+          sizeManager.setUtf8Cache(cache);
+          sizeManager.clearAll();
+          byte[] bytes = new byte[1024 * 1024];
+          ReverseEncoder encoder = new ReverseEncoder(bytes, 0, bytes.length);
+          encoder.setUtf8Cache(cache);
+          encoder.encodeMessageNoTag(message);
+          sizeManager.setUtf8Cache(null);
+          return Arrays.copyOfRange(
+                  bytes, bytes.length - encoder.getTotalBytesWritten(), bytes.length);
+        }
+      };
+      // The first pass fills the cache and later passes hit it.
+      for (int pass = 0; pass < 3; ++pass) {
+        sizeManager.clearAll();
+        verifyMessageEquivalence(message, forward, reverse);
+      }
+      assertEquals(Math.min(capacity, NUM_MESSAGES * (1 + NUM_REPEATED_FIELDS)), cache.size());
+    }
+  }
+
+  @Test
+  public void preEncodedStringsShouldBeEquivalent() throws IOException {
+    TestMessage message = newMessage(false, true, newSizeManager());
+    assertEquals(message.optionalString, message.optionalUtf8String.toString());
+
+    // The direct encoders always transcode the String fields.
+    byte[] expected = verifyMessageEquivalence(message, DIRECT_FORWARD, REVERSE);
+    assertEquals(Utils.computeMessageSizeNoTag(message), expected.length);
+  }
+
+  @Test
+  public void packedMessagesShouldBeEquivalent() throws IOException {
+    SerializedSizeManager sizeManager = newSizeManager();
+    TestMessage message = newMessage(true, false, sizeManager);
+
+    byte[] expected = verifyMessageEquivalence(message, REVERSE, DIRECT_FORWARD, DIRECT_REVERSE,
+            chunked(16), streamed(16));
+    assertEquals(Utils.computeMessageSizeNoTag(message), expected.length);
+
+    // Packing must only ever shrink the encoding.
+    setPacked(message, false);
+    sizeManager.clearAll();
+    assertTrue(writeMessageForward(message).length > expected.length);
+  }
+
+  @Test
+  public void concurrentMessagesShouldBeEquivalent() throws Exception {
+    final SerializedSizeManager sizeManager = newSizeManager();
+    final TestMessage message = newMessage(false, false, sizeManager);
+    byte[] expected = writeMessageForward(message);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < 64; ++i) {
+        results.add(executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws Exception {
+            // Keep invalidating so that threads race to recompute the sizes.
+            sizeManager.clearAll();
+            return writeMessageForward(message);
+          }
+        }));
+      }
+      for (Future<byte[]> result : results) {
+        assertArrayEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void directMessagesShouldBeEquivalent() throws IOException {
+    verifyMessageEquivalence(newMessage(false, false, newSizeManager()),
+            DIRECT_FORWARD, DIRECT_REVERSE);
+  }
 
-    assertArrayEquals(writeMessageForward(message), writeMessageReverse(message));
+  @Test
+  public void chunkedMessagesShouldBeEquivalent() throws IOException {
+    verifyMessageEquivalence(newMessageWithLargeValues(),
+            chunked(10), chunked(16), chunked(100), chunked(1024 * 1024));
+  }
+
+  @Test
+  public void parallelMessagesShouldBeEquivalent() throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<MessageWriter> writers = new ArrayList<MessageWriter>();
+      for (int threshold : new int[] {1, 2, 3, NUM_MESSAGES - 1, NUM_MESSAGES}) {
+        final ParallelReverseEncoder encoder = new ParallelReverseEncoder(pool, threshold, 16);
+        writers.add(new MessageWriter("array, threshold=" + threshold) {
+          @Override
+          byte[] write(TestMessage message) throws IOException {
+            return encoder.encodeMessageNoTagToArray(message);
+          }
+        });
+        writers.add(new MessageWriter("segments, threshold=" + threshold) {
+          @Override
+          byte[] write(TestMessage message) throws IOException {
+            List<ByteBuffer> segments = encoder.encodeMessageNoTag(message);
+            return concat(segments.toArray(new ByteBuffer[segments.size()]));
+          }
+        });
+      }
+      verifyMessageEquivalence(newMessage(false, false, newSizeManager()),
+              writers.toArray(new MessageWriter[writers.size()]));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void streamedMessagesShouldBeEquivalent() throws IOException {
+    List<MessageWriter> writers = new ArrayList<MessageWriter>();
+    for (final int bufferSize : new int[] {10, 16, 100, 1024 * 1024}) {
+      writers.add(streamed(bufferSize));
+      writers.add(new MessageWriter("channel, bufferSize=" + bufferSize) {
+        @Override
+        byte[] write(TestMessage message) throws IOException {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          StreamingForwardEncoder encoder =
+                  new StreamingForwardEncoder(Channels.newChannel(out), bufferSize);
+          encoder.encodeMessageNoTag(message);
+          encoder.flush();
+          return out.toByteArray();
+        }
+      });
+    }
+    verifyMessageEquivalence(newMessageWithLargeValues(),
+            writers.toArray(new MessageWriter[writers.size()]));
   }
 
   @Test
@@ -50,14 +217,203 @@ public class EncoderEquivalenceTest {
     }
   }
 
-  private byte[] writeMessageForward(TestMessage message) throws IOException {
+  @Test
+  public void tableDrivenMessagesShouldBeEquivalent() throws IOException {
+    verifyMessageEquivalence(newMessage(false, false, newSizeManager()),
+            tableDriven(TestMessage.getSchema(false)));
+    verifyMessageEquivalence(newMessage(true, false, newSizeManager()),
+            tableDriven(TestMessage.getSchema(true)));
+  }
+
+  @Test
+  public void messageSchemaShouldRejectMismatchedClass() {
+    MessageSchema other = MessageSchema.newBuilder(Utf8String.class).build();
+    try {
+      MessageSchema.newBuilder(TestMessage.class).addMessage(18, true, "children", other);
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    MessageSchema children = MessageSchema.newBuilder(TestMessage.class).build();
+    assertEquals(TestMessage.class, MessageSchema.newBuilder(TestMessage.class)
+            .addMessage(18, true, "children", children).build().messageClass);
+  }
+
+  @Test
+  public void generatedEncodersShouldMatchProtobuf() throws IOException {
+    byte[] forwardBytes = new byte[1024 * 1024];
+    byte[] reverseBytes = new byte[1024 * 1024];
+    ForwardEncoder forward = new ForwardEncoder(forwardBytes, 0, forwardBytes.length);
+    ReverseEncoder reverse = new ReverseEncoder(reverseBytes, 0, reverseBytes.length);
+
+    UnittestProto.TestAllTypes allTypes =
+            GeneratedEncodingBenchmark.newRandomAllTypes(STRING_LENGTH, NUM_REPEATED_FIELDS);
+    UnittestProtoEncoders.encodeMessageNoTag(forward, allTypes);
+    UnittestProtoEncoders.encodeMessageNoTag(reverse, allTypes);
+    verifyGeneratedEncoding(allTypes, UnittestProtoEncoders.getSerializedSize(allTypes),
+            forwardBytes, forward, reverseBytes, reverse);
+
+    UnittestProto.TestPackedTypes packedTypes =
+            GeneratedEncodingBenchmark.newRandomPackedTypes(NUM_REPEATED_FIELDS);
+    UnittestProtoEncoders.encodeMessageNoTag(forward, packedTypes);
+    UnittestProtoEncoders.encodeMessageNoTag(reverse, packedTypes);
+    verifyGeneratedEncoding(packedTypes, UnittestProtoEncoders.getSerializedSize(packedTypes),
+            forwardBytes, forward, reverseBytes, reverse);
+
+    UnittestProto.NestedTestAllTypes nested =
+            newMessage(false, false, newSizeManager()).toProtobuf();
+    UnittestProtoEncoders.encodeMessageNoTag(forward, nested);
+    UnittestProtoEncoders.encodeMessageNoTag(reverse, nested);
+    verifyGeneratedEncoding(nested, UnittestProtoEncoders.getSerializedSize(nested),
+            forwardBytes, forward, reverseBytes, reverse);
+
+    // Tags too large to be pre-encoded into an int.
+    UnittestProto.TestReallyLargeTagNumber largeTag =
+            UnittestProto.TestReallyLargeTagNumber.newBuilder().setA(1).setBb(-1).build();
+    UnittestProtoEncoders.encodeMessageNoTag(forward, largeTag);
+    UnittestProtoEncoders.encodeMessageNoTag(reverse, largeTag);
+    verifyGeneratedEncoding(largeTag, UnittestProtoEncoders.getSerializedSize(largeTag),
+            forwardBytes, forward, reverseBytes, reverse);
+  }
+
+  private static void verifyGeneratedEncoding(MessageLite message, int generatedSize,
+          byte[] forwardBytes, ForwardEncoder forward, byte[] reverseBytes, ReverseEncoder reverse)
+          throws IOException {
+    byte[] expected = new byte[CodedOutputStream.computeMessageSizeNoTag(message)];
+    CodedOutputStream output = CodedOutputStream.newInstance(expected);
+    output.writeMessageNoTag(message);
+    output.checkNoSpaceLeft();
+
+    assertEquals(message.getSerializedSize(), generatedSize);
+    assertArrayEquals(expected, Arrays.copyOf(forwardBytes, forward.getTotalBytesWritten()));
+    assertArrayEquals(expected, Arrays.copyOfRange(reverseBytes,
+            reverseBytes.length - reverse.getTotalBytesWritten(), reverseBytes.length));
+    forward.reset();
+    reverse.reset();
+  }
+
+  /**
+   * One of the encoders under test: encodes a whole message and returns the encoded bytes.
+   */
+  private abstract static class MessageWriter {
+    private final String name;
+
+    MessageWriter(String name) {
+      this.name = name;
+    }
+
+    abstract byte[] write(TestMessage message) throws IOException;
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static final MessageWriter REVERSE = new MessageWriter("reverse") {
+    @Override
+    byte[] write(TestMessage message) throws IOException {
+      return writeMessageReverse(message);
+    }
+  };
+
+  private static final MessageWriter DIRECT_FORWARD = new MessageWriter("direct forward") {
+    @Override
+    byte[] write(TestMessage message) throws IOException {
+      return writeMessageDirectForward(message);
+    }
+  };
+
+  private static final MessageWriter DIRECT_REVERSE = new MessageWriter("direct reverse") {
+    @Override
+    byte[] write(TestMessage message) throws IOException {
+      return writeMessageDirectReverse(message);
+    }
+  };
+
+  private static MessageWriter chunked(final int chunkSize) {
+    return new MessageWriter("chunkSize=" + chunkSize) {
+      @Override
+      byte[] write(TestMessage message) throws IOException {
+        ChunkedReverseEncoder encoder = new ChunkedReverseEncoder(chunkSize);
+        // Encode twice to check that the encoder can be reused after a reset.
+        encoder.encodeMessageNoTag(message);
+        encoder.reset();
+        encoder.encodeMessageNoTag(message);
+        byte[] bytes = concat(encoder.toByteBuffers());
+        assertEquals(toString(), bytes.length, encoder.getTotalBytesWritten());
+        return bytes;
+      }
+    };
+  }
+
+  private static MessageWriter streamed(final int bufferSize) {
+    return new MessageWriter("bufferSize=" + bufferSize) {
+      @Override
+      byte[] write(TestMessage message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingForwardEncoder encoder = new StreamingForwardEncoder(out, bufferSize);
+        encoder.encodeMessageNoTag(message);
+        encoder.flush();
+        assertEquals(toString(), out.size(), encoder.getTotalBytesWritten());
+        return out.toByteArray();
+      }
+    };
+  }
+
+  private static MessageWriter tableDriven(final MessageSchema schema) {
+    return new MessageWriter("table-driven") {
+      @Override
+      byte[] write(TestMessage message) throws IOException {
+        byte[] bytes = new byte[1024 * 1024];
+        ReverseEncoder encoder = new ReverseEncoder(bytes, 0, bytes.length);
+        new TableDrivenEncoder(encoder).encodeMessageNoTag(message, schema);
+        return Arrays.copyOfRange(bytes, bytes.length - encoder.getTotalBytesWritten(),
+                bytes.length);
+      }
+    };
+  }
+
+  private static SerializedSizeManager newSizeManager() {
+    return new SerializedSizeManager(NUM_MESSAGES);
+  }
+
+  private static TestMessage newMessage(boolean packed, boolean preEncodedStrings,
+          SerializedSizeManager sizeManager) {
+    return TestMessage.newRandomInstance(0, STRING_LENGTH, NUM_REPEATED_FIELDS, TREE_HEIGHT,
+            BRANCHING_FACTOR, packed, preEncodedStrings, sizeManager);
+  }
+
+  /**
+   * Returns a message with some values larger than the smallest chunks and buffers under test.
+   */
+  private static TestMessage newMessageWithLargeValues() {
+    TestMessage message = newMessage(false, false, newSizeManager());
+    message.optionalString = Utils.randomString(40);
+    message.optionalBytes = Utils.randomString(40).getBytes();
+    return message;
+  }
+
+  /**
+   * Checks that each writer encodes the message the same as {@link ForwardEncoder}, and returns
+   * that encoding.
+   */
+  private static byte[] verifyMessageEquivalence(TestMessage message, MessageWriter... writers)
+          throws IOException {
+    byte[] expected = writeMessageForward(message);
+    for (MessageWriter writer : writers) {
+      assertArrayEquals(writer.toString(), expected, writer.write(message));
+    }
+    return expected;
+  }
+
+  private static byte[] writeMessageForward(TestMessage message) throws IOException {
     byte[] bytes = new byte[1024 * 1024];
     ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
     encoder.encodeMessageNoTag(message);
     return Arrays.copyOfRange(bytes, 0, encoder.getTotalBytesWritten());
   }
 
-  private byte[] writeMessageReverse(TestMessage message) throws IOException {
+  private static byte[] writeMessageReverse(TestMessage message) throws IOException {
     byte[] bytes = new byte[1024 * 1024];
     ReverseEncoder encoder = new ReverseEncoder(bytes, 0, bytes.length);
     encoder.encodeMessageNoTag(message);
@@ -66,6 +422,333 @@ public class EncoderEquivalenceTest {
     return Arrays.copyOfRange(bytes, startIx, bytes.length);
   }
 
+  private static byte[] writeMessageDirectForward(TestMessage message) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+    DirectForwardEncoder encoder = new DirectForwardEncoder(buffer);
+    encoder.encodeMessageNoTag(message);
+
+    byte[] bytes = new byte[encoder.getTotalBytesWritten()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static byte[] writeMessageDirectReverse(TestMessage message) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+    DirectReverseEncoder encoder = new DirectReverseEncoder(buffer);
+    encoder.encodeMessageNoTag(message);
+
+    byte[] bytes = new byte[encoder.getTotalBytesWritten()];
+    buffer.position(buffer.capacity() - bytes.length);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void signedAndFixedFieldsShouldMatchProtobuf() throws Exception {
+    int[] ints = {0, 1, -1, 63, -64, 64, -65, 0xCAFEBABE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    long[] longs = {0, 1, -1, 1L << 40, -(1L << 40), Long.MAX_VALUE, Long.MIN_VALUE};
+    int[] enums = {1, 2, 3, -1};
+
+    ByteArrayOutputStream expectedStream = new ByteArrayOutputStream();
+    CodedOutputStream output = CodedOutputStream.newInstance(expectedStream);
+    int sint32DataSize = 0;
+    for (int value : ints) {
+      output.writeSInt32(5, value);
+      output.writeFixed32(7, value);
+      output.writeSFixed32(9, value);
+      sint32DataSize += CodedOutputStream.computeSInt32SizeNoTag(value);
+      assertEquals(CodedOutputStream.computeSInt32SizeNoTag(value),
+              Utils.computeSInt32SizeNoTag(value));
+      assertEquals(CodedOutputStream.computeInt32SizeNoTag(value),
+              Utils.computeInt32SizeNoTag(value));
+    }
+    int sint64DataSize = 0;
+    for (long value : longs) {
+      output.writeSInt64(6, value);
+      output.writeFixed64(8, value);
+      output.writeSFixed64(10, value);
+      sint64DataSize += CodedOutputStream.computeSInt64SizeNoTag(value);
+      assertEquals(CodedOutputStream.computeSInt64SizeNoTag(value),
+              Utils.computeSInt64SizeNoTag(value));
+    }
+    int enumDataSize = 0;
+    for (int value : enums) {
+      output.writeEnum(21, value);
+      enumDataSize += CodedOutputStream.computeEnumSizeNoTag(value);
+    }
+    output.writeTag(35, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt32NoTag(sint32DataSize);
+    for (int value : ints) {
+      output.writeSInt32NoTag(value);
+    }
+    output.writeTag(36, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt32NoTag(sint64DataSize);
+    for (long value : longs) {
+      output.writeSInt64NoTag(value);
+    }
+    output.writeTag(37, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt32NoTag(WireFormat.FIXED_32_SIZE * ints.length);
+    for (int value : ints) {
+      output.writeFixed32NoTag(value);
+    }
+    output.writeTag(38, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt32NoTag(WireFormat.FIXED_64_SIZE * longs.length);
+    for (long value : longs) {
+      output.writeFixed64NoTag(value);
+    }
+    output.writeTag(51, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt32NoTag(enumDataSize);
+    for (int value : enums) {
+      output.writeEnumNoTag(value);
+    }
+    output.flush();
+    byte[] expected = expectedStream.toByteArray();
+
+    // An exactly-sized buffer takes the per-value paths, a roomy one the word stores and bulk
+    // copies.
+    for (int length : new int[] {expected.length, expected.length * 2}) {
+      byte[] bytes = new byte[length];
+      ForwardEncoder forward = new ForwardEncoder(bytes, 0, length);
+      for (int value : ints) {
+        forward.writeSInt32(5, value);
+        forward.writeFixed32(7, value);
+        forward.writeFixed32(9, value);
+      }
+      for (long value : longs) {
+        forward.writeSInt64(6, value);
+        forward.writeFixed64(8, value);
+        forward.writeFixed64(10, value);
+      }
+      for (int value : enums) {
+        forward.writeEnum(21, value);
+      }
+      forward.writePackedSInt32(35, ints);
+      forward.writePackedSInt64(36, longs);
+      forward.writePackedFixed32(37, ints);
+      forward.writePackedFixed64(38, longs);
+      forward.writePackedEnum(51, enums);
+      assertEquals(expected.length, forward.getTotalBytesWritten());
+      assertArrayEquals(expected, Arrays.copyOf(bytes, expected.length));
+
+      bytes = new byte[length];
+      ReverseEncoder reverse = new ReverseEncoder(bytes, 0, length);
+      reverse.writePackedEnum(51, enums);
+      reverse.writePackedFixed64(38, longs);
+      reverse.writePackedFixed32(37, ints);
+      reverse.writePackedSInt64(36, longs);
+      reverse.writePackedSInt32(35, ints);
+      for (int ix = enums.length - 1; ix >= 0; --ix) {
+        reverse.writeEnum(21, enums[ix]);
+      }
+      for (int ix = longs.length - 1; ix >= 0; --ix) {
+        reverse.writeFixed64(10, longs[ix]);
+        reverse.writeFixed64(8, longs[ix]);
+        reverse.writeSInt64(6, longs[ix]);
+      }
+      for (int ix = ints.length - 1; ix >= 0; --ix) {
+        reverse.writeFixed32(9, ints[ix]);
+        reverse.writeFixed32(7, ints[ix]);
+        reverse.writeSInt32(5, ints[ix]);
+      }
+      assertEquals(expected.length, reverse.getTotalBytesWritten());
+      assertArrayEquals(expected, Arrays.copyOfRange(bytes, length - expected.length, length));
+    }
+  }
+
+  @Test
+  public void singlePassStringWritesShouldBeEquivalent() throws IOException {
+    // 42 and 43 chars straddle the point where the worst-case length needs a 2 byte prefix.
+    int[] charCounts = {0, 1, 42, 43, 127, 128, 5000};
+    String[] maxCodePoints = {"0x80", "0x800", "0x10000", "0x10ffff"};
+    byte[] expected = new byte[64 * 1024];
+    byte[] actual = new byte[64 * 1024];
+    for (String maxCodePoint : maxCodePoints) {
+      for (int charCount : charCounts) {
+        String value = Utf8Utils.randomStrings(
+                1, charCount, Utf8Utils.MaxCodePoint.valueOf(maxCodePoint))[0];
+        String message = "maxCodePoint=" + maxCodePoint + ", charCount=" + charCount;
+
+        ForwardEncoder expectedEncoder = new ForwardEncoder(expected, 0, expected.length);
+        expectedEncoder.writeStringNoTag(value);
+        int expectedLength = expectedEncoder.getTotalBytesWritten();
+
+        ForwardEncoder shifted = new ForwardEncoder(actual, 0, actual.length);
+        shifted.writeStringNoTagShifted(value);
+        assertArrayEquals(message, Arrays.copyOf(expected, expectedLength),
+                Arrays.copyOf(actual, shifted.getTotalBytesWritten()));
+
+        ForwardEncoder padded = new ForwardEncoder(actual, 0, actual.length);
+        padded.writeStringNoTagPadded(value);
+        assertEquals(message,
+                Utils.computeUInt32SizeNoTag(value.length() * Utf8.MAX_BYTES_PER_CHAR)
+                        + Utf8.encodedLength(value),
+                padded.getTotalBytesWritten());
+        ForwardDecoder decoder = new ForwardDecoder(
+                actual, 0, padded.getTotalBytesWritten(), new SerializedSizeManager(1));
+        assertEquals(message, value, decoder.readStringNoTag());
+        assertEquals(message, padded.getTotalBytesWritten(), decoder.getTotalBytesRead());
+      }
+    }
+  }
+
+  @Test
+  public void singlePassStringWritesShouldHonorLimit() throws IOException {
+    // The limit falls inside the array, so writing past it would not fail on its own.
+    byte[] buffer = new byte[16];
+    ForwardEncoder shifted = new ForwardEncoder(buffer, 0, 8);
+    ForwardEncoder padded = new ForwardEncoder(buffer, 0, 8);
+    for (int i = 0; i < 8; ++i) {
+      shifted.writeUInt32NoTag(0);
+      padded.writeUInt32NoTag(0);
+    }
+    try {
+      shifted.writeStringNoTagShifted("");
+      Assert.fail();
+    } catch (Encoder.OutOfSpaceException expected) {
+    }
+    try {
+      padded.writeStringNoTagPadded("");
+      Assert.fail();
+    } catch (Encoder.OutOfSpaceException expected) {
+    }
+    assertEquals(8, shifted.getTotalBytesWritten());
+    assertEquals(8, padded.getTotalBytesWritten());
+    assertEquals(0, buffer[8]);
+  }
+
+  @Test
+  public void fixedWidthValuesShouldBeLittleEndian() throws Exception {
+    byte[] expected32 = {(byte) 0xBE, (byte) 0xBA, (byte) 0xFE, (byte) 0xCA};
+    byte[] expected64 = {0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01};
+    for (int slack : new int[] {0, 8}) {
+      byte[] bytes = new byte[expected32.length + slack];
+      new ForwardEncoder(bytes, 0, bytes.length).writeFixed32NoTag(0xCAFEBABE);
+      assertArrayEquals(expected32, Arrays.copyOf(bytes, expected32.length));
+      new ReverseEncoder(bytes, 0, bytes.length).writeFixed32NoTag(0xCAFEBABE);
+      assertArrayEquals(expected32, Arrays.copyOfRange(bytes, slack, bytes.length));
+
+      bytes = new byte[expected64.length + slack];
+      new ForwardEncoder(bytes, 0, bytes.length).writeFixed64NoTag(0x0102030405060708L);
+      assertArrayEquals(expected64, Arrays.copyOf(bytes, expected64.length));
+      new ReverseEncoder(bytes, 0, bytes.length).writeFixed64NoTag(0x0102030405060708L);
+      assertArrayEquals(expected64, Arrays.copyOfRange(bytes, slack, bytes.length));
+    }
+  }
+
+  @Test
+  public void encodedTagsShouldBeEquivalent() throws Exception {
+    for (int fieldNumber : new int[] {1, 15, 16, 2047, 2048, (1 << 25) - 1}) {
+      int encodedTag = WireFormat.encodeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+      int tagSize = WireFormat.encodedTagSize(encodedTag);
+      String message = "fieldNumber=" + fieldNumber;
+
+      byte[] expectedTag = new byte[tagSize];
+      ForwardEncoder encoder = new ForwardEncoder(expectedTag, 0, tagSize);
+      encoder.writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+      assertEquals(message, tagSize, encoder.getTotalBytesWritten());
+      byte[] expectedFixed32 = new byte[tagSize + WireFormat.FIXED_32_SIZE];
+      encoder = new ForwardEncoder(expectedFixed32, 0, expectedFixed32.length);
+      encoder.writeFixed32(fieldNumber, 0xCAFEBABE);
+      byte[] expectedBool = new byte[tagSize + 1];
+      encoder = new ForwardEncoder(expectedBool, 0, expectedBool.length);
+      encoder.writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+      encoder.write((byte) 1);
+
+      // Exactly-sized buffers take the byte-at-a-time paths, roomy ones the single stores.
+      for (int slack : new int[] {0, 8}) {
+        byte[] bytes = new byte[tagSize + slack];
+        new ForwardEncoder(bytes, 0, bytes.length).writeEncodedTag(encodedTag);
+        assertArrayEquals(message, expectedTag, Arrays.copyOf(bytes, tagSize));
+        new ReverseEncoder(bytes, 0, bytes.length).writeEncodedTag(encodedTag);
+        assertArrayEquals(message, expectedTag, Arrays.copyOfRange(bytes, slack, bytes.length));
+
+        bytes = new byte[expectedFixed32.length + slack];
+        new ForwardEncoder(bytes, 0, bytes.length).writeTaggedFixed32(encodedTag, 0xCAFEBABE);
+        assertArrayEquals(message, expectedFixed32,
+                Arrays.copyOf(bytes, expectedFixed32.length));
+        new ReverseEncoder(bytes, 0, bytes.length).writeTaggedFixed32(encodedTag, 0xCAFEBABE);
+        assertArrayEquals(message, expectedFixed32,
+                Arrays.copyOfRange(bytes, slack, bytes.length));
+
+        bytes = new byte[expectedBool.length + slack];
+        new ForwardEncoder(bytes, 0, bytes.length).writeTaggedBool(encodedTag, true);
+        assertArrayEquals(message, expectedBool, Arrays.copyOf(bytes, expectedBool.length));
+        new ReverseEncoder(bytes, 0, bytes.length).writeTaggedBool(encodedTag, true);
+        assertArrayEquals(message, expectedBool, Arrays.copyOfRange(bytes, slack, bytes.length));
+      }
+    }
+  }
+
+  @Test
+  public void writeUInt32ArrayShouldBeEquivalent() throws Exception {
+    List<Integer> values = new ArrayList<Integer>();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (VarintInput input : VarintInput.get32BitValues()) {
+      for (int ix = 0; ix < 4; ++ix) {
+        int value = input.nextIntValue();
+        values.add(value);
+        expected.write(writeUInt32Forward(value));
+      }
+    }
+    // Pad the range on both sides to check that only the requested values are written.
+    int[] array = new int[values.size() + 2];
+    for (int ix = 0; ix < values.size(); ++ix) {
+      array[ix + 1] = values.get(ix);
+    }
+    byte[] expectedBytes = expected.toByteArray();
+
+    // A roomy buffer takes the word-store path, an exact one the per-value path.
+    for (int length : new int[] {expectedBytes.length, expectedBytes.length * 2}) {
+      byte[] bytes = new byte[length];
+      ForwardEncoder forward = new ForwardEncoder(bytes, 0, length);
+      forward.writeUInt32Array(array, 1, values.size());
+      assertEquals(expectedBytes.length, forward.getTotalBytesWritten());
+      assertArrayEquals(expectedBytes, Arrays.copyOf(bytes, expectedBytes.length));
+
+      bytes = new byte[length];
+      ReverseEncoder reverse = new ReverseEncoder(bytes, 0, length);
+      reverse.writeUInt32Array(array, 1, values.size());
+      assertEquals(expectedBytes.length, reverse.getTotalBytesWritten());
+      assertArrayEquals(expectedBytes,
+              Arrays.copyOfRange(bytes, length - expectedBytes.length, length));
+    }
+  }
+
+  @Test
+  public void writeUInt64ArrayShouldBeEquivalent() throws Exception {
+    List<Long> values = new ArrayList<Long>();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (VarintInput input : VarintInput.get64BitValues()) {
+      for (int ix = 0; ix < 4; ++ix) {
+        long value = input.nextLongValue();
+        values.add(value);
+        expected.write(writeUInt64Forward(value));
+      }
+    }
+    // Pad the range on both sides to check that only the requested values are written.
+    long[] array = new long[values.size() + 2];
+    for (int ix = 0; ix < values.size(); ++ix) {
+      array[ix + 1] = values.get(ix);
+    }
+    byte[] expectedBytes = expected.toByteArray();
+
+    // A roomy buffer takes the word-store path, an exact one the per-value path.
+    for (int length : new int[] {expectedBytes.length, expectedBytes.length * 2}) {
+      byte[] bytes = new byte[length];
+      ForwardEncoder forward = new ForwardEncoder(bytes, 0, length);
+      forward.writeUInt64Array(array, 1, values.size());
+      assertEquals(expectedBytes.length, forward.getTotalBytesWritten());
+      assertArrayEquals(expectedBytes, Arrays.copyOf(bytes, expectedBytes.length));
+
+      bytes = new byte[length];
+      ReverseEncoder reverse = new ReverseEncoder(bytes, 0, length);
+      reverse.writeUInt64Array(array, 1, values.size());
+      assertEquals(expectedBytes.length, reverse.getTotalBytesWritten());
+      assertArrayEquals(expectedBytes,
+              Arrays.copyOfRange(bytes, length - expectedBytes.length, length));
+    }
+  }
+
   private void verifyUInt32Equivalence(byte numBytes, int value) throws Exception {
     byte[] forwardBytes = writeUInt32Forward(value);
     byte[] reverseBytes = writeUInt32Reverse(value);
@@ -73,6 +756,13 @@ public class EncoderEquivalenceTest {
     assertEquals(message, numBytes, forwardBytes.length);
     assertEquals(message, numBytes, reverseBytes.length);
     assertArrayEquals(message, forwardBytes, reverseBytes);
+    assertArrayEquals(message, forwardBytes, writeUInt32DirectForward(value));
+    assertArrayEquals(message, forwardBytes, writeUInt32DirectReverse(value));
+    // A buffer of exactly numBytes is too small for a word store.
+    for (int length : new int[] {numBytes, 100}) {
+      assertArrayEquals(message, forwardBytes, writeUInt32ForwardWord(value, length));
+      assertArrayEquals(message, forwardBytes, writeUInt32ReverseWord(value, length));
+    }
   }
 
   private void verifyUInt64Equivalence(int numBytes, long value) throws Exception {
@@ -82,6 +772,13 @@ public class EncoderEquivalenceTest {
     assertEquals(message, numBytes, forwardBytes.length);
     assertEquals(message, numBytes, reverseBytes.length);
     assertArrayEquals(message, forwardBytes, reverseBytes);
+    assertArrayEquals(message, forwardBytes, writeUInt64DirectForward(value));
+    assertArrayEquals(message, forwardBytes, writeUInt64DirectReverse(value));
+    // A buffer of exactly numBytes is too small for a word store.
+    for (int length : new int[] {numBytes, 100}) {
+      assertArrayEquals(message, forwardBytes, writeUInt64ForwardWord(value, length));
+      assertArrayEquals(message, forwardBytes, writeUInt64ReverseWord(value, length));
+    }
   }
 
   private byte[] writeUInt32Forward(int value) throws Exception {
@@ -100,6 +797,38 @@ public class EncoderEquivalenceTest {
     return Arrays.copyOfRange(bytes, 0, endIx);
   }
 
+  private byte[] writeUInt32ForwardWord(int value, int length) throws Exception {
+    byte[] bytes = new byte[length];
+    ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+    encoder.writeUInt32NoTagWord(value);
+    int endIx = encoder.getTotalBytesWritten();
+    return Arrays.copyOfRange(bytes, 0, endIx);
+  }
+
+  private byte[] writeUInt64ForwardWord(long value, int length) throws Exception {
+    byte[] bytes = new byte[length];
+    ForwardEncoder encoder = new ForwardEncoder(bytes, 0, bytes.length);
+    encoder.writeUInt64NoTagWord(value);
+    int endIx = encoder.getTotalBytesWritten();
+    return Arrays.copyOfRange(bytes, 0, endIx);
+  }
+
+  private byte[] writeUInt32ReverseWord(int value, int length) throws Exception {
+    byte[] bytes = new byte[length];
+    ReverseEncoder encoder = new ReverseEncoder(bytes, 0, bytes.length);
+    encoder.writeUInt32NoTagWord(value);
+    int startIx = bytes.length - encoder.getTotalBytesWritten();
+    return Arrays.copyOfRange(bytes, startIx, bytes.length);
+  }
+
+  private byte[] writeUInt64ReverseWord(long value, int length) throws Exception {
+    byte[] bytes = new byte[length];
+    ReverseEncoder encoder = new ReverseEncoder(bytes, 0, bytes.length);
+    encoder.writeUInt64NoTagWord(value);
+    int startIx = bytes.length - encoder.getTotalBytesWritten();
+    return Arrays.copyOfRange(bytes, startIx, bytes.length);
+  }
+
   private byte[] writeUInt32Reverse(int value) throws Exception {
     byte[] bytes = new byte[100];
     ReverseEncoder encoder = new ReverseEncoder(bytes, 0, bytes.length);
@@ -115,4 +844,60 @@ public class EncoderEquivalenceTest {
     int startIx = bytes.length - encoder.getTotalBytesWritten();
     return Arrays.copyOfRange(bytes, startIx, bytes.length);
   }
+
+  private byte[] writeUInt32DirectForward(int value) throws Exception {
+    // Use a buffer smaller than MAX_VARINT_SIZE past the value to also cover the checked path.
+    ByteBuffer buffer = ByteBuffer.allocateDirect(Utils.computeUInt32SizeNoTag(value));
+    DirectForwardEncoder encoder = new DirectForwardEncoder(buffer);
+    encoder.writeUInt32NoTag(value);
+    byte[] bytes = new byte[encoder.getTotalBytesWritten()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private byte[] writeUInt64DirectForward(long value) throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+    DirectForwardEncoder encoder = new DirectForwardEncoder(buffer);
+    encoder.writeUInt64NoTag(value);
+    byte[] bytes = new byte[encoder.getTotalBytesWritten()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private byte[] writeUInt32DirectReverse(int value) throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+    DirectReverseEncoder encoder = new DirectReverseEncoder(buffer);
+    encoder.writeUInt32NoTag(value);
+    byte[] bytes = new byte[encoder.getTotalBytesWritten()];
+    buffer.position(buffer.capacity() - bytes.length);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private byte[] writeUInt64DirectReverse(long value) throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+    DirectReverseEncoder encoder = new DirectReverseEncoder(buffer);
+    encoder.writeUInt64NoTag(value);
+    byte[] bytes = new byte[encoder.getTotalBytesWritten()];
+    buffer.position(buffer.capacity() - bytes.length);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static byte[] concat(ByteBuffer[] buffers) {
+    ByteBuffer out = ByteBuffer.allocate(1024 * 1024);
+    for (ByteBuffer buffer : buffers) {
+      out.put(buffer);
+    }
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  private static void setPacked(TestMessage message, boolean packed) {
+    message.packed = packed;
+    if (message.children != null) {
+      for (TestMessage child : message.children) {
+        setPacked(child, packed);
+      }
+    }
+  }
 }
@@ -0,0 +1,55 @@
+package com.google.protobench;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.protobench.TestMessage.SerializedSizeManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.ForkJoinPool;
+
+@RunWith(JUnit4.class)
+public class SerializedSizeEquivalenceTest {
+  private static final int STRING_LENGTH = 5;
+  private static final int NUM_REPEATED_FIELDS = 5;
+
+  @Test
+  public void parallelSizeShouldBeEquivalent() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      verifyParallelSize(pool, 3, 4);
+      verifyParallelSize(pool, 1, 50);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void sizesComputedBeforeClearAllShouldBeStale() {
+    SerializedSizeManager sizeManager = new SerializedSizeManager(1);
+    int epoch = sizeManager.currentEpoch();
+    sizeManager.clearAll();
+    sizeManager.setSerializedSize(0, epoch, 42);
+    assertEquals(-1, sizeManager.getSerializedSize(0));
+
+    sizeManager.setSerializedSize(0, sizeManager.currentEpoch(), 42);
+    assertEquals(42, sizeManager.getSerializedSize(0));
+  }
+
+  private void verifyParallelSize(ForkJoinPool pool, int treeHeight, int branchingFactor) {
+    int numMessages = Utils.calcNodesInTree(branchingFactor, treeHeight);
+    SerializedSizeManager sizeManager = new SerializedSizeManager(numMessages);
+    TestMessage message = TestMessage.newRandomInstance(0, STRING_LENGTH, NUM_REPEATED_FIELDS,
+            treeHeight, branchingFactor, sizeManager);
+    assertEquals(numMessages, message.subtreeSize);
+    int expected = message.getSerializedSize();
+
+    for (int threshold : new int[] {1, 2, 5, numMessages - 1, numMessages}) {
+      sizeManager.clearAll();
+      ParallelSizeCalculator calculator = new ParallelSizeCalculator(pool, threshold);
+      assertEquals("threshold=" + threshold, expected, calculator.getSerializedSize(message));
+    }
+  }
+}
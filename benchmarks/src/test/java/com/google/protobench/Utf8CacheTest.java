@@ -0,0 +1,64 @@
+package com.google.protobench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class Utf8CacheTest {
+  @Test
+  public void lookupsShouldBeByIdentity() {
+    Utf8Cache cache = new Utf8Cache(4);
+    String value = "h\u00e9llo";
+    byte[] encoded = value.getBytes(Utf8.UTF_8);
+    cache.put(value, encoded, 0, encoded.length);
+
+    assertArrayEquals(encoded, cache.get(value));
+    assertNull(cache.get(new String(value)));
+  }
+
+  @Test
+  public void evictionShouldKeepEntriesConsistent() {
+    final int capacity = 16;
+    String[] strings = new String[100];
+    for (int i = 0; i < strings.length; ++i) {
+      strings[i] = Utils.randomString(1 + i % 10);
+    }
+    Utf8Cache cache = new Utf8Cache(capacity);
+    Random random = new Random(7);
+    for (int i = 0; i < 100000; ++i) {
+      // Skew the accesses so that some strings stay hot.
+      String value = strings[random.nextInt(1 + random.nextInt(strings.length))];
+      byte[] expected = value.getBytes(Utf8.UTF_8);
+      byte[] cached = cache.get(value);
+      if (cached == null) {
+        cache.put(value, expected, 0, expected.length);
+        cached = cache.get(value);
+      }
+      assertArrayEquals(expected, cached);
+      assertTrue(cache.size() <= capacity);
+    }
+    assertEquals(capacity, cache.size());
+  }
+
+  @Test
+  public void recentlyUsedEntriesShouldSurviveEviction() {
+    Utf8Cache cache = new Utf8Cache(4);
+    String hot = "hot";
+    cache.put(hot, new byte[] {'h', 'o', 't'}, 0, 3);
+    for (int i = 0; i < 100; ++i) {
+      // Touch the hot entry between insertions, so the clock hand always finds it referenced.
+      cache.get(hot);
+      String cold = "cold" + i;
+      cache.put(cold, new byte[] {'c'}, 0, 1);
+    }
+    assertArrayEquals(new byte[] {'h', 'o', 't'}, cache.get(hot));
+  }
+}
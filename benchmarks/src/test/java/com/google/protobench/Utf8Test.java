@@ -5,10 +5,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.protobench.Decoder.InvalidWireFormatException;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
@@ -48,6 +51,56 @@ public class Utf8Test {
     assertEncoding_insufficientSpace(randomString(0x10ffff));
   }
 
+  @Test
+  public void testDecode() throws IOException {
+    assertDecoding(randomString(0x80));
+    assertDecoding(randomString(0x90));
+    assertDecoding(randomString(0x800));
+    assertDecoding(randomString(0x10000));
+    assertDecoding(randomString(0x10ffff));
+    assertDecoding("");
+    assertDecoding("abcdefghijklmnopqrstuvwxyz\u00e9abcdefghijklmnop\ud83d\ude00z");
+  }
+
+  @Test
+  public void testDecode_truncated() {
+    assertIsValid(new byte[]{(byte) 0xC3}, false);
+    assertIsValid(new byte[]{(byte) 0xE0, (byte) 0xB9}, false);
+    assertIsValid(new byte[]{(byte) 0xF0, (byte) 0xB2, (byte) 0x83}, false);
+  }
+
+  @Test
+  public void testIncrementalValidation() {
+    for (int maxCodePoint : new int[]{0x80, 0x800, 0x10000, 0x10ffff}) {
+      byte[] data = randomString(maxCodePoint).getBytes(Utf8.UTF_8);
+      for (int chunkSize : new int[]{1, 3, 7, 64, data.length}) {
+        String message = "maxCodePoint=" + maxCodePoint + ", chunkSize=" + chunkSize;
+        assertTrue(message, validateInChunks(data, data.length, chunkSize, false));
+        assertTrue(message, validateInChunks(data, data.length, chunkSize, true));
+
+        if (maxCodePoint > 0x80) {
+          // Stopping just after the lead byte of the last multi-byte character leaves the payload
+          // incomplete.
+          int truncated = data.length;
+          while (data[--truncated] >= 0 || data[truncated] < (byte) 0xC0) {
+          }
+          truncated++;
+          assertEquals(message, false, validateInChunks(data, truncated, chunkSize, false));
+          assertEquals(message, false, validateInChunks(data, truncated, chunkSize, true));
+        }
+      }
+    }
+
+    // Malformed input stays malformed, and the validator is reusable afterwards.
+    Utf8Validator validator = new Utf8Validator(unsafeProcessor);
+    assertEquals(false, validator.update(new byte[]{(byte) 0xC0, (byte) 0x81}, 0, 2));
+    assertEquals(false, validator.update(new byte[]{'a'}, 0, 1));
+    assertEquals(false, validator.finish());
+    assertTrue(validator.update(ByteBuffer.wrap(new byte[]{'a', (byte) 0xE0})));
+    assertTrue(validator.update(ByteBuffer.wrap(new byte[]{(byte) 0xB9, (byte) 0x96})));
+    assertTrue(validator.finish());
+  }
+
   @Test
   public void testValid() {
     assertIsValid(new byte[]{(byte) 0xE0, (byte) 0xB9, (byte) 0x96}, true);
@@ -77,6 +130,21 @@ public class Utf8Test {
     assertIsValid(new byte[]{(byte) 0xF4, (byte) 0x90, (byte) 0x81, (byte) 0x81}, false);
   }
 
+  @Test
+  public void testUtf8StringUnpairedSurrogate() {
+    for (String value : new String[] {"a\ud83d", "\ude00b", "\ude00\ud83d"}) {
+      try {
+        Utf8String.copyFrom(value);
+        fail("Expected IllegalArgumentException for " + Arrays.toString(value.toCharArray()));
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    String value = "a\ud83d\ude00b";
+    Utf8String utf8 = Utf8String.copyFrom(value);
+    assertEquals(value, utf8.toString());
+    assertArrayEquals(value.getBytes(Utf8.UTF_8), utf8.bytes());
+  }
+
   private static String randomString(int maxCodePoint) {
     final long seed = 99;
     final Random rnd = new Random(seed);
@@ -92,6 +160,8 @@ public class Utf8Test {
   }
 
   private static void assertIsValid(byte[] data, boolean valid) {
+    assertDecodeIsValid(data, valid);
+
     assertEquals("isValidUtf8[ARRAY]", valid, safeProcessor.isValidUtf8(data, 0, data.length));
     assertEquals(
             "isValidUtf8[ARRAY_UNSAFE]", valid, unsafeProcessor.isValidUtf8(data, 0, data.length));
@@ -110,6 +180,89 @@ public class Utf8Test {
             unsafeProcessor.isValidUtf8(buffer, buffer.position(), buffer.remaining()));
   }
 
+  private static boolean validateInChunks(
+          byte[] data, int length, int chunkSize, boolean direct) {
+    Utf8Validator validator = new Utf8Validator();
+    for (int offset = 0; offset < length; offset += chunkSize) {
+      int size = Math.min(chunkSize, length - offset);
+      ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+      chunk.put(data, offset, size);
+      chunk.flip();
+      validator.update(chunk);
+    }
+    return validator.finish();
+  }
+
+  private static void assertDecodeIsValid(byte[] data, boolean valid) {
+    String expected = valid ? new String(data, Utf8.UTF_8) : null;
+    for (Decoding decoding : Decoding.values()) {
+      try {
+        assertEquals("decodeUtf8[" + decoding + "]", expected, decoding.decode(data));
+      } catch (InvalidWireFormatException e) {
+        assertTrue("decodeUtf8[" + decoding + "] threw on valid input", !valid);
+      }
+    }
+  }
+
+  private static void assertDecoding(String message) throws IOException {
+    byte[] encoded = message.getBytes(Utf8.UTF_8);
+    for (Decoding decoding : Decoding.values()) {
+      assertEquals("decodeUtf8[" + decoding + "]", message, decoding.decode(encoded));
+    }
+
+    // Decode from the middle of a larger array, so the input is not word aligned.
+    byte[] padded = new byte[encoded.length + 6];
+    System.arraycopy(encoded, 0, padded, 3, encoded.length);
+    assertEquals("decodeUtf8[ARRAY]", message,
+            safeProcessor.decodeUtf8(padded, 3, encoded.length));
+    assertEquals("decodeUtf8[ARRAY_UNSAFE]", message,
+            unsafeProcessor.decodeUtf8(padded, 3, encoded.length));
+    ByteBuffer slice = ByteBuffer.wrap(padded, 1, padded.length - 1).slice();
+    assertEquals("decodeUtf8[NIO_HEAP]", message, Utf8.decodeUtf8(slice, 2, encoded.length));
+  }
+
+  private enum Decoding {
+    ARRAY {
+      @Override
+      String decode(byte[] data) throws InvalidWireFormatException {
+        return safeProcessor.decodeUtf8(data, 0, data.length);
+      }
+    },
+    ARRAY_UNSAFE {
+      @Override
+      String decode(byte[] data) throws InvalidWireFormatException {
+        return unsafeProcessor.decodeUtf8(data, 0, data.length);
+      }
+    },
+    NIO_HEAP {
+      @Override
+      String decode(byte[] data) throws InvalidWireFormatException {
+        return safeProcessor.decodeUtf8(ByteBuffer.wrap(data), 0, data.length);
+      }
+    },
+    NIO_DEFAULT {
+      @Override
+      String decode(byte[] data) throws InvalidWireFormatException {
+        return safeProcessor.decodeUtf8(direct(data), 0, data.length);
+      }
+    },
+    NIO_UNSAFE {
+      @Override
+      String decode(byte[] data) throws InvalidWireFormatException {
+        return unsafeProcessor.decodeUtf8(direct(data), 0, data.length);
+      }
+    };
+
+    abstract String decode(byte[] data) throws InvalidWireFormatException;
+
+    private static ByteBuffer direct(byte[] data) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data);
+      buffer.flip();
+      return buffer;
+    }
+  }
+
   private static void assertEncoding(String message) {
     byte[] expected = message.getBytes(Utf8.UTF_8);
     byte[] output = encodeToByteArray(message, expected.length, safeProcessor);
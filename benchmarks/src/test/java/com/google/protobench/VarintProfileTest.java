@@ -0,0 +1,97 @@
+package com.google.protobench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+@RunWith(JUnit4.class)
+public class VarintProfileTest {
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void defaultWeightsShouldSumToOne() throws Exception {
+    assertSame(VarintProfile.DEFAULT, VarintProfile.load(VarintProfile.DEFAULT_NAME));
+    double sum32 = 0;
+    for (int size = 1; size <= 5; ++size) {
+      sum32 += VarintProfile.DEFAULT.varint32Probability(size);
+    }
+    double sum64 = 0;
+    for (int size = 1; size <= 10; ++size) {
+      sum64 += VarintProfile.DEFAULT.varint64Probability(size);
+    }
+    assertEquals(1, sum32, DELTA);
+    assertEquals(1, sum64, DELTA);
+    assertEquals(0.05, VarintProfile.DEFAULT.varint64Probability(4), DELTA);
+  }
+
+  @Test
+  public void histogramsShouldCombineBucketsAndSamples() throws Exception {
+    VarintProfile profile = VarintProfile.parse(new StringReader(
+        "# Captured field values\n"
+            + "\n"
+            + "uint32.size 1 2\n"
+            + "uint32 127\n"
+            + "uint32 128 3\n"
+            + "uint32 0xFFFFFFFF 2\n"
+            + "uint32.size 1 0.5\n"));
+    assertEquals(3.5 / 8.5, profile.varint32Probability(1), DELTA);
+    assertEquals(3 / 8.5, profile.varint32Probability(2), DELTA);
+    assertEquals(0, profile.varint32Probability(3), DELTA);
+    assertEquals(2 / 8.5, profile.varint32Probability(5), DELTA);
+
+    // No 64-bit records, so that width keeps the default distribution.
+    for (int size = 1; size <= 10; ++size) {
+      assertEquals(VarintProfile.DEFAULT.varint64Probability(size),
+          profile.varint64Probability(size), DELTA);
+    }
+
+    profile = VarintProfile.parse(new StringReader(
+        "uint64 18446744073709551615\nuint64 0x3FFF 3\n"));
+    assertEquals(0.25, profile.varint64Probability(10), DELTA);
+    assertEquals(0.75, profile.varint64Probability(2), DELTA);
+  }
+
+  @Test
+  public void messagesShouldDrawFromTheGivenProfile() throws Exception {
+    VarintProfile profile = VarintProfile.parse(new StringReader(
+        "uint32.size 5 1\nuint64.size 10 1\n"));
+    TestMessage message = TestMessage.newRandomInstance(0, 1, 10, 1, 2, false, false, profile,
+        new TestMessage.SerializedSizeManager(Utils.calcNodesInTree(2, 1)));
+    for (TestMessage m : new TestMessage[] {message, message.children[0], message.children[1]}) {
+      for (int value : m.repeatedInt) {
+        assertEquals(5, VarintSizeCalculator.DEFAULT.calcUInt32Size(value));
+      }
+      for (long value : m.repeatedLong) {
+        assertEquals(10, VarintSizeCalculator.DEFAULT.calcUInt64Size(value));
+      }
+    }
+  }
+
+  @Test
+  public void malformedRecordsShouldBeRejected() {
+    String[] invalid = {
+        "uint32.size 6 1",
+        "uint64.size 0 1",
+        "uint32 0x100000000",
+        "uint64 -1",
+        "uint32.size 1 -2",
+        "uint32.size 1",
+        "uint32",
+        "sint32 5",
+    };
+    for (String record : invalid) {
+      try {
+        VarintProfile.parse(new StringReader(record));
+        fail("Expected rejection of: " + record);
+      } catch (IOException expected) {
+      }
+    }
+  }
+}
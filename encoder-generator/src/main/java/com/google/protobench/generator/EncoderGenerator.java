@@ -0,0 +1,698 @@
+package com.google.protobench.generator;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates straight-line encoders for protobuf-java messages, in the style of the hand-written
+ * {@code ForwardEncoder.encodeMessageNoTag} and {@code ReverseEncoder.encodeMessageNoTag}. The
+ * input is a descriptor set written by {@code protoc --descriptor_set_out}. Each {@code .proto}
+ * file produces one {@code <OuterClassName>Encoders} class holding, for every message, a size
+ * calculation and a forward and a reverse encoder. Tags are pre-encoded and the sizes of tags
+ * and fixed-width values are folded into constants at generation time. The forward encoders take
+ * their length prefixes from the messages' own memoized {@code getSerializedSize()}; the
+ * generated size calculations are an unmemoized cross-check.
+ *
+ * <p>Only proto2 files are supported. Extensions and unknown fields are not written.
+ *
+ * <p>Usage: {@code EncoderGenerator <descriptor set> <output directory> <java package>}
+ */
+public final class EncoderGenerator {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_FIXED32 = 5;
+
+  private static final String[] WIRETYPE_NAMES = {
+          "WIRETYPE_VARINT", "WIRETYPE_FIXED64", "WIRETYPE_LENGTH_DELIMITED",
+          "WIRETYPE_START_GROUP", "WIRETYPE_END_GROUP", "WIRETYPE_FIXED32"};
+
+  private static final Comparator<FieldDescriptorProto> BY_NUMBER =
+          new Comparator<FieldDescriptorProto>() {
+            @Override
+            public int compare(FieldDescriptorProto a, FieldDescriptorProto b) {
+              return a.getNumber() < b.getNumber() ? -1 : (a.getNumber() == b.getNumber() ? 0 : 1);
+            }
+          };
+
+  private final String javaPackage;
+  /** Maps fully-qualified message names, such as {@code .pkg.Outer.Inner}, to Java class names. */
+  private final Map<String, String> javaTypes = new HashMap<String, String>();
+  /**
+   * Maps fully-qualified message names to the simple name of the generated class holding their
+   * encoders, which depends on the file that defines them.
+   */
+  private final Map<String, String> encoderClasses = new HashMap<String, String>();
+  private final Set<String> mapEntries = new HashSet<String>();
+
+  EncoderGenerator(List<FileDescriptorProto> files, String javaPackage) {
+    this.javaPackage = javaPackage;
+    for (FileDescriptorProto file : files) {
+      String protoPrefix = file.getPackage().isEmpty() ? "." : "." + file.getPackage() + ".";
+      String javaPrefix = getJavaPackage(file).isEmpty() ? "" : getJavaPackage(file) + ".";
+      if (!file.getOptions().getJavaMultipleFiles()) {
+        javaPrefix += getOuterClassName(file) + ".";
+      }
+      for (DescriptorProto message : file.getMessageTypeList()) {
+        registerTypes(protoPrefix, javaPrefix, getClassName(file), message);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println(
+              "Usage: EncoderGenerator <descriptor set> <output directory> <java package>");
+      System.exit(1);
+    }
+    FileDescriptorSet descriptorSet;
+    InputStream in = new FileInputStream(args[0]);
+    try {
+      descriptorSet = FileDescriptorSet.parseFrom(in);
+    } finally {
+      in.close();
+    }
+
+    EncoderGenerator generator = new EncoderGenerator(descriptorSet.getFileList(), args[2]);
+    File outputDir = new File(args[1], args[2].replace('.', File.separatorChar));
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Unable to create " + outputDir);
+    }
+    for (FileDescriptorProto file : descriptorSet.getFileList()) {
+      if (file.getMessageTypeCount() == 0) {
+        continue;
+      }
+      Writer out = new OutputStreamWriter(
+              new FileOutputStream(new File(outputDir, getClassName(file) + ".java")), UTF_8);
+      try {
+        out.write(generator.generate(file));
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /** Returns the name of the class generated for {@code file}. */
+  static String getClassName(FileDescriptorProto file) {
+    return getOuterClassName(file) + "Encoders";
+  }
+
+  /** Returns the source of the class generated for {@code file}. */
+  String generate(FileDescriptorProto file) {
+    if (file.hasSyntax() && !"proto2".equals(file.getSyntax())) {
+      throw new IllegalArgumentException(
+              file.getName() + ": only proto2 is supported, was " + file.getSyntax());
+    }
+    String className = getClassName(file);
+    Printer p = new Printer();
+    p.line("// Generated by %s from %s. Do not edit.", EncoderGenerator.class.getName(),
+            file.getName());
+    p.line("package %s;", javaPackage);
+    p.line();
+    p.line("import java.io.IOException;");
+    p.line();
+    p.line("/**");
+    p.line(" * Straight-line encoders and size calculations for the messages in {@code %s}.",
+            file.getName());
+    p.line(" * Extensions and unknown fields are not written.");
+    p.line(" */");
+    // Deprecated fields are still written.
+    p.line("@SuppressWarnings(\"deprecation\")");
+    p.line("final class %s {", className);
+    p.indent();
+    p.line("private %s() {}", className);
+
+    String protoPrefix = file.getPackage().isEmpty() ? "." : "." + file.getPackage() + ".";
+    for (DescriptorProto message : file.getMessageTypeList()) {
+      generateMessage(p, protoPrefix, message);
+    }
+
+    p.outdent();
+    p.line("}");
+    return p.toString();
+  }
+
+  private void registerTypes(String protoPrefix, String javaPrefix, String encoderClass,
+                             DescriptorProto message) {
+    String protoName = protoPrefix + message.getName();
+    String javaName = javaPrefix + message.getName();
+    javaTypes.put(protoName, javaName);
+    encoderClasses.put(protoName, encoderClass);
+    if (message.getOptions().getMapEntry()) {
+      mapEntries.add(protoName);
+    }
+    for (DescriptorProto nested : message.getNestedTypeList()) {
+      registerTypes(protoName + ".", javaName + ".", encoderClass, nested);
+    }
+  }
+
+  private void generateMessage(Printer p, String protoPrefix, DescriptorProto message) {
+    String protoName = protoPrefix + message.getName();
+    for (DescriptorProto nested : message.getNestedTypeList()) {
+      generateMessage(p, protoName + ".", nested);
+    }
+    if (mapEntries.contains(protoName)) {
+      return;
+    }
+
+    String javaType = javaTypes.get(protoName);
+    List<FieldDescriptorProto> fields =
+            new ArrayList<FieldDescriptorProto>(message.getFieldList());
+    Collections.sort(fields, BY_NUMBER);
+    for (FieldDescriptorProto field : fields) {
+      checkSupported(protoName, field);
+    }
+
+    p.line();
+    p.line("static int getSerializedSize(%s message) {", javaType);
+    p.indent();
+    p.line("int size = 0;");
+    for (FieldDescriptorProto field : fields) {
+      generateFieldSize(p, field);
+    }
+    p.line("return size;");
+    p.outdent();
+    p.line("}");
+
+    p.line();
+    p.line("static void encodeMessageNoTag(ForwardEncoder out, %s message)", javaType);
+    p.line("        throws IOException {");
+    p.indent();
+    // The message memoizes its size, so this sizes each subtree once, not once per level.
+    p.line("out.writeUInt32NoTag(message.getSerializedSize());");
+    for (FieldDescriptorProto field : fields) {
+      generateForwardField(p, field);
+    }
+    p.outdent();
+    p.line("}");
+
+    p.line();
+    p.line("static void encodeMessageNoTag(ReverseEncoder out, %s message)", javaType);
+    p.line("        throws IOException {");
+    p.indent();
+    p.line("final int prevTotal = out.getTotalBytesWritten();");
+    for (int ix = fields.size() - 1; ix >= 0; --ix) {
+      generateReverseField(p, fields.get(ix));
+    }
+    p.line("out.writeUInt32NoTag(out.getTotalBytesWritten() - prevTotal);");
+    p.outdent();
+    p.line("}");
+  }
+
+  private void checkSupported(String protoName, FieldDescriptorProto field) {
+    if (field.getType() == FieldDescriptorProto.Type.TYPE_GROUP) {
+      throw new IllegalArgumentException(
+              protoName + "." + field.getName() + ": groups are not supported");
+    }
+    if (field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE
+            && mapEntries.contains(field.getTypeName())) {
+      throw new IllegalArgumentException(
+              protoName + "." + field.getName() + ": map fields are not supported");
+    }
+  }
+
+  private void generateFieldSize(Printer p, FieldDescriptorProto field) {
+    final String name = getAccessorName(field);
+    final int tagSize = varint32Size(makeTag(field.getNumber(), getTagWireType(field)));
+    final int fixedSize = getFixedSize(field);
+    p.line("// %s", describe(field));
+    if (isPacked(field)) {
+      p.line("if (message.get%sCount() > 0) {", name);
+      p.indent();
+      if (fixedSize > 0) {
+        p.line("final int dataSize = message.get%sCount() * %d;", name, fixedSize);
+      } else {
+        p.line("int dataSize = 0;");
+        openForwardLoop(p, field);
+        p.line("dataSize += %s;", getValueSize(field));
+        closeBlock(p);
+      }
+      p.line("size += %d + Utils.computeLengthDelimitedFieldSize(dataSize);", tagSize);
+      closeBlock(p);
+    } else if (isRepeated(field)) {
+      if (fixedSize > 0) {
+        p.line("size += message.get%sCount() * %d;", name, tagSize + fixedSize);
+      } else {
+        p.line("size += message.get%sCount() * %d;", name, tagSize);
+        openForwardLoop(p, field);
+        p.line("size += %s;", getValueSize(field));
+        closeBlock(p);
+      }
+    } else {
+      p.line("if (message.has%s()) {", name);
+      p.indent();
+      if (fixedSize > 0) {
+        p.line("size += %d;", tagSize + fixedSize);
+      } else {
+        declareValue(p, field, "");
+        p.line("size += %d + %s;", tagSize, getValueSize(field));
+      }
+      closeBlock(p);
+    }
+  }
+
+  private void generateForwardField(Printer p, FieldDescriptorProto field) {
+    final String name = getAccessorName(field);
+    p.line("// %s", describe(field));
+    if (isPacked(field)) {
+      p.line("if (message.get%sCount() > 0) {", name);
+      p.indent();
+      final int fixedSize = getFixedSize(field);
+      if (fixedSize > 0) {
+        p.line("final int dataSize = message.get%sCount() * %d;", name, fixedSize);
+      } else {
+        p.line("int dataSize = 0;");
+        openForwardLoop(p, field);
+        p.line("dataSize += %s;", getValueSize(field));
+        closeBlock(p);
+      }
+      p.line("%s;", getTagWrite(field));
+      p.line("out.writeUInt32NoTag(dataSize);");
+      openForwardLoop(p, field);
+      p.line("%s;", getValueWrite(field));
+      closeBlock(p);
+      closeBlock(p);
+    } else {
+      if (isRepeated(field)) {
+        openForwardLoop(p, field);
+      } else {
+        p.line("if (message.has%s()) {", name);
+        p.indent();
+        declareValue(p, field, "");
+      }
+      String taggedWrite = getTaggedValueWrite(field);
+      if (taggedWrite != null) {
+        p.line("%s;", taggedWrite);
+      } else {
+        p.line("%s;", getTagWrite(field));
+        p.line("%s;", getValueWrite(field));
+      }
+      closeBlock(p);
+    }
+  }
+
+  private void generateReverseField(Printer p, FieldDescriptorProto field) {
+    final String name = getAccessorName(field);
+    p.line("// %s", describe(field));
+    if (isPacked(field)) {
+      p.line("if (message.get%sCount() > 0) {", name);
+      p.indent();
+      p.line("final int dataStart = out.getTotalBytesWritten();");
+      openReverseLoop(p, field);
+      p.line("%s;", getValueWrite(field));
+      closeBlock(p);
+      p.line("out.writeUInt32NoTag(out.getTotalBytesWritten() - dataStart);");
+      p.line("%s;", getTagWrite(field));
+      closeBlock(p);
+    } else {
+      if (isRepeated(field)) {
+        openReverseLoop(p, field);
+      } else {
+        p.line("if (message.has%s()) {", name);
+        p.indent();
+        declareValue(p, field, "");
+      }
+      String taggedWrite = getTaggedValueWrite(field);
+      if (taggedWrite != null) {
+        p.line("%s;", taggedWrite);
+      } else {
+        p.line("%s;", getValueWrite(field));
+        p.line("%s;", getTagWrite(field));
+      }
+      closeBlock(p);
+    }
+  }
+
+  private void openForwardLoop(Printer p, FieldDescriptorProto field) {
+    p.line("for (int ix = 0, count = message.get%sCount(); ix < count; ++ix) {",
+            getAccessorName(field));
+    p.indent();
+    declareValue(p, field, "ix");
+  }
+
+  private void openReverseLoop(Printer p, FieldDescriptorProto field) {
+    p.line("for (int ix = message.get%sCount() - 1; ix >= 0; --ix) {", getAccessorName(field));
+    p.indent();
+    declareValue(p, field, "ix");
+  }
+
+  private static void closeBlock(Printer p) {
+    p.outdent();
+    p.line("}");
+  }
+
+  /** Declares {@code value}, read with the getter of {@code field} given {@code index}. */
+  private void declareValue(Printer p, FieldDescriptorProto field, String index) {
+    String getter = "message.get" + getAccessorName(field) + "(" + index + ")";
+    if (field.getType() == FieldDescriptorProto.Type.TYPE_ENUM) {
+      getter += ".getNumber()";
+    }
+    p.line("final %s value = %s;", getValueType(field), getter);
+  }
+
+  private String getValueType(FieldDescriptorProto field) {
+    switch (field.getType()) {
+      case TYPE_INT32:
+      case TYPE_UINT32:
+      case TYPE_SINT32:
+      case TYPE_FIXED32:
+      case TYPE_SFIXED32:
+      case TYPE_ENUM:
+        return "int";
+      case TYPE_INT64:
+      case TYPE_UINT64:
+      case TYPE_SINT64:
+      case TYPE_FIXED64:
+      case TYPE_SFIXED64:
+        return "long";
+      case TYPE_FLOAT:
+        return "float";
+      case TYPE_DOUBLE:
+        return "double";
+      case TYPE_BOOL:
+        return "boolean";
+      case TYPE_STRING:
+        return "String";
+      case TYPE_BYTES:
+        return "com.google.protobuf.ByteString";
+      case TYPE_MESSAGE:
+        return getJavaType(field.getTypeName());
+      default:
+        throw new IllegalArgumentException("Unsupported type: " + field.getType());
+    }
+  }
+
+  /** Returns the size of {@code value} without its tag, for fields that are not fixed-width. */
+  private String getValueSize(FieldDescriptorProto field) {
+    switch (field.getType()) {
+      case TYPE_INT32:
+      case TYPE_ENUM:
+        // Negative values are sign-extended to ten bytes.
+      case TYPE_INT64:
+      case TYPE_UINT64:
+        return "Utils.computeUInt64SizeNoTag(value)";
+      case TYPE_UINT32:
+        return "Utils.computeUInt32SizeNoTag(value)";
+      case TYPE_SINT32:
+        return "Utils.computeUInt32SizeNoTag((value << 1) ^ (value >> 31))";
+      case TYPE_SINT64:
+        return "Utils.computeUInt64SizeNoTag((value << 1) ^ (value >> 63))";
+      case TYPE_STRING:
+        return "Utils.computeStringSizeNoTag(value)";
+      case TYPE_BYTES:
+        return "Utils.computeLengthDelimitedFieldSize(value.size())";
+      case TYPE_MESSAGE:
+        return String.format("Utils.computeLengthDelimitedFieldSize(%s.getSerializedSize(value))",
+                getEncoderClass(field.getTypeName()));
+      default:
+        throw new IllegalArgumentException("Not a variable-width type: " + field.getType());
+    }
+  }
+
+  /** Returns the statement that writes {@code value} without its tag. */
+  private String getValueWrite(FieldDescriptorProto field) {
+    switch (field.getType()) {
+      case TYPE_INT32:
+      case TYPE_ENUM:
+        return "out.writeInt32NoTag(value)";
+      case TYPE_INT64:
+      case TYPE_UINT64:
+        return "out.writeUInt64NoTag(value)";
+      case TYPE_UINT32:
+        return "out.writeUInt32NoTag(value)";
+      case TYPE_SINT32:
+        return "out.writeUInt32NoTag((value << 1) ^ (value >> 31))";
+      case TYPE_SINT64:
+        return "out.writeUInt64NoTag((value << 1) ^ (value >> 63))";
+      case TYPE_FIXED32:
+      case TYPE_SFIXED32:
+        return "out.writeFixed32NoTag(value)";
+      case TYPE_FLOAT:
+        return "out.writeFixed32NoTag(Float.floatToRawIntBits(value))";
+      case TYPE_FIXED64:
+      case TYPE_SFIXED64:
+        return "out.writeFixed64NoTag(value)";
+      case TYPE_DOUBLE:
+        return "out.writeFixed64NoTag(Double.doubleToRawLongBits(value))";
+      case TYPE_BOOL:
+        return "out.write((byte) (value ? 1 : 0))";
+      case TYPE_STRING:
+        return "out.writeStringNoTag(value)";
+      case TYPE_BYTES:
+        return "out.writeByteStringNoTag(value)";
+      case TYPE_MESSAGE:
+        return String.format("%s.encodeMessageNoTag(out, value)",
+                getEncoderClass(field.getTypeName()));
+      default:
+        throw new IllegalArgumentException("Unsupported type: " + field.getType());
+    }
+  }
+
+  /**
+   * Returns a statement writing both the tag and {@code value} with one of the fused writers, or
+   * {@code null} if there is none for this field.
+   */
+  private static String getTaggedValueWrite(FieldDescriptorProto field) {
+    final int tag = makeTag(field.getNumber(), getTagWireType(field));
+    if (!fitsEncodedTag(tag)) {
+      return null;
+    }
+    switch (field.getType()) {
+      case TYPE_FIXED32:
+      case TYPE_SFIXED32:
+        return String.format("out.writeTaggedFixed32(0x%X, value)", encodeTag(tag));
+      case TYPE_FLOAT:
+        return String.format("out.writeTaggedFixed32(0x%X, Float.floatToRawIntBits(value))",
+                encodeTag(tag));
+      case TYPE_BOOL:
+        return String.format("out.writeTaggedBool(0x%X, value)", encodeTag(tag));
+      default:
+        return null;
+    }
+  }
+
+  private static String getTagWrite(FieldDescriptorProto field) {
+    final int wireType = getTagWireType(field);
+    final int tag = makeTag(field.getNumber(), wireType);
+    if (fitsEncodedTag(tag)) {
+      return String.format("out.writeEncodedTag(0x%X)", encodeTag(tag));
+    }
+    return String.format("out.writeTag(%d, WireFormat.%s)", field.getNumber(),
+            WIRETYPE_NAMES[wireType]);
+  }
+
+  private static int getTagWireType(FieldDescriptorProto field) {
+    if (isPacked(field)) {
+      return WIRETYPE_LENGTH_DELIMITED;
+    }
+    switch (field.getType()) {
+      case TYPE_FIXED32:
+      case TYPE_SFIXED32:
+      case TYPE_FLOAT:
+        return WIRETYPE_FIXED32;
+      case TYPE_FIXED64:
+      case TYPE_SFIXED64:
+      case TYPE_DOUBLE:
+        return WIRETYPE_FIXED64;
+      case TYPE_STRING:
+      case TYPE_BYTES:
+      case TYPE_MESSAGE:
+        return WIRETYPE_LENGTH_DELIMITED;
+      default:
+        return WIRETYPE_VARINT;
+    }
+  }
+
+  /** Returns the encoded size of a fixed-width value, or -1 if the size varies. */
+  private static int getFixedSize(FieldDescriptorProto field) {
+    switch (field.getType()) {
+      case TYPE_FIXED32:
+      case TYPE_SFIXED32:
+      case TYPE_FLOAT:
+        return 4;
+      case TYPE_FIXED64:
+      case TYPE_SFIXED64:
+      case TYPE_DOUBLE:
+        return 8;
+      case TYPE_BOOL:
+        return 1;
+      default:
+        return -1;
+    }
+  }
+
+  private static boolean isRepeated(FieldDescriptorProto field) {
+    return field.getLabel() == FieldDescriptorProto.Label.LABEL_REPEATED;
+  }
+
+  private static boolean isPacked(FieldDescriptorProto field) {
+    return isRepeated(field) && field.getOptions().getPacked();
+  }
+
+  private static String describe(FieldDescriptorProto field) {
+    String label = field.getLabel().name().substring("LABEL_".length()).toLowerCase();
+    String type = field.hasTypeName()
+            ? field.getTypeName()
+            : field.getType().name().substring("TYPE_".length()).toLowerCase();
+    return String.format("%s %s %s = %d%s", label, type, field.getName(), field.getNumber(),
+            isPacked(field) ? " [packed = true]" : "");
+  }
+
+  private String getJavaType(String protoName) {
+    String javaType = javaTypes.get(protoName);
+    if (javaType == null) {
+      throw new IllegalArgumentException("Unknown message type " + protoName);
+    }
+    return javaType;
+  }
+
+  /** Returns the generated class holding the encoders for the given message type. */
+  private String getEncoderClass(String protoName) {
+    String encoderClass = encoderClasses.get(protoName);
+    if (encoderClass == null) {
+      throw new IllegalArgumentException("Unknown message type " + protoName);
+    }
+    return encoderClass;
+  }
+
+  private static String getAccessorName(FieldDescriptorProto field) {
+    return underscoresToCamelCase(field.getName(), true);
+  }
+
+  private static String getJavaPackage(FileDescriptorProto file) {
+    return file.getOptions().hasJavaPackage()
+            ? file.getOptions().getJavaPackage()
+            : file.getPackage();
+  }
+
+  /** Mirrors the outer class name chosen by protoc's Java generator. */
+  static String getOuterClassName(FileDescriptorProto file) {
+    if (file.getOptions().hasJavaOuterClassname()) {
+      return file.getOptions().getJavaOuterClassname();
+    }
+    String baseName = file.getName();
+    baseName = baseName.substring(baseName.lastIndexOf('/') + 1);
+    if (baseName.endsWith(".proto")) {
+      baseName = baseName.substring(0, baseName.length() - ".proto".length());
+    }
+    String name = underscoresToCamelCase(baseName, true);
+    for (DescriptorProto message : file.getMessageTypeList()) {
+      if (message.getName().equals(name)) {
+        return name + "OuterClass";
+      }
+    }
+    for (EnumDescriptorProto enumType : file.getEnumTypeList()) {
+      if (enumType.getName().equals(name)) {
+        return name + "OuterClass";
+      }
+    }
+    for (ServiceDescriptorProto service : file.getServiceList()) {
+      if (service.getName().equals(name)) {
+        return name + "OuterClass";
+      }
+    }
+    return name;
+  }
+
+  /** Mirrors the way protoc's Java generator derives accessor and class names. */
+  static String underscoresToCamelCase(String name, boolean capitalizeFirst) {
+    StringBuilder result = new StringBuilder(name.length());
+    boolean capitalizeNext = capitalizeFirst;
+    for (int ix = 0; ix < name.length(); ++ix) {
+      char c = name.charAt(ix);
+      if ('a' <= c && c <= 'z') {
+        result.append(capitalizeNext ? Character.toUpperCase(c) : c);
+        capitalizeNext = false;
+      } else if ('A' <= c && c <= 'Z') {
+        result.append(ix == 0 && !capitalizeFirst ? Character.toLowerCase(c) : c);
+        capitalizeNext = false;
+      } else if ('0' <= c && c <= '9') {
+        result.append(c);
+        capitalizeNext = true;
+      } else {
+        capitalizeNext = true;
+      }
+    }
+    return result.toString();
+  }
+
+  private static int makeTag(int fieldNumber, int wireType) {
+    return (fieldNumber << 3) | wireType;
+  }
+
+  /** Whether a tag can be pre-encoded into the four bytes of an {@code int}. */
+  private static boolean fitsEncodedTag(int tag) {
+    return (tag >>> 28) == 0;
+  }
+
+  /** Matches {@code WireFormat.encodeTag} in the benchmarks. */
+  private static int encodeTag(int tag) {
+    int encoded = 0;
+    int shift = 0;
+    while ((tag & ~0x7F) != 0) {
+      encoded |= ((tag & 0x7F) | 0x80) << shift;
+      tag >>>= 7;
+      shift += 8;
+    }
+    return encoded | (tag << shift);
+  }
+
+  private static int varint32Size(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      ++size;
+    }
+    return size;
+  }
+
+  /** Accumulates indented lines of source. */
+  private static final class Printer {
+    private final StringBuilder source = new StringBuilder();
+    private String indent = "";
+
+    void indent() {
+      indent += "  ";
+    }
+
+    void outdent() {
+      indent = indent.substring(2);
+    }
+
+    void line() {
+      source.append('\n');
+    }
+
+    void line(String format, Object... args) {
+      source.append(indent).append(String.format(format, args)).append('\n');
+    }
+
+    @Override
+    public String toString() {
+      return source.toString();
+    }
+  }
+}